@@ -0,0 +1,100 @@
+package ru.netology.cloudservice.benchmark;
+
+import io.zonky.test.db.postgres.embedded.EmbeddedPostgres;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.util.FileSystemUtils;
+import ru.netology.cloudservice.CloudServiceApplication;
+import ru.netology.cloudservice.entity.User;
+import ru.netology.cloudservice.repository.UserRepository;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The application context shared by all benchmarks of one fork. It runs against an
+ * embedded PostgreSQL unless {@code -Dbenchmark.datasource.url} (with
+ * {@code .username} and {@code .password}) points to an existing database.
+ */
+@State(Scope.Benchmark)
+public class ApplicationState {
+
+    private EmbeddedPostgres postgres;
+    private Path storage;
+    private ConfigurableApplicationContext context;
+    private User user;
+
+    @Setup
+    public void start() throws IOException {
+        start(WebApplicationType.NONE);
+    }
+
+    /**
+     * Starts the application; {@code args} are added to (and override) the benchmark defaults.
+     */
+    public void start(WebApplicationType webApplicationType, String... args) throws IOException {
+        String url = System.getProperty("benchmark.datasource.url");
+        String username = System.getProperty("benchmark.datasource.username", "postgres");
+        String password = System.getProperty("benchmark.datasource.password", "postgres");
+        if (url == null) {
+            postgres = EmbeddedPostgres.builder().start();
+            url = postgres.getJdbcUrl("postgres", "postgres");
+        }
+        storage = Files.createTempDirectory("cloud-benchmark");
+
+        // Command line arguments take precedence over the bundled application.yml.
+        List<String> arguments = new ArrayList<>(List.of("--spring.datasource.url=" + url,
+                        "--spring.datasource.username=" + username,
+                        "--spring.datasource.password=" + password,
+                        "--spring.jpa.show-sql=false",
+                        "--spring.main.banner-mode=off",
+                        "--logging.level.root=WARN",
+                        "--logging.level.ru.netology.cloudservice=WARN",
+                        "--logging.level.org.springframework.web=WARN",
+                        "--file.storage-path=" + storage,
+                        "--file.max-file-size=1GB",
+                        "--file.backend.type=" + System.getProperty("benchmark.storage.backend", "LOCAL")));
+        arguments.addAll(List.of(args));
+        context = new SpringApplicationBuilder(CloudServiceApplication.class)
+                .web(webApplicationType)
+                .run(arguments.toArray(new String[0]));
+
+        UserRepository users = bean(UserRepository.class);
+        user = users.findByEmail("benchmark@netology.ru").orElseGet(() -> {
+            User created = new User();
+            created.setLogin("benchmark");
+            created.setEmail("benchmark@netology.ru");
+            created.setPassword("benchmark");
+            return users.save(created);
+        });
+    }
+
+    @TearDown
+    public void stop() throws IOException {
+        context.close();
+        FileSystemUtils.deleteRecursively(storage);
+        if (postgres != null) {
+            postgres.close();
+        }
+    }
+
+    public <T> T bean(Class<T> type) {
+        return context.getBean(type);
+    }
+
+    public User getUser() {
+        return user;
+    }
+
+    public int getPort() {
+        return context.getEnvironment().getRequiredProperty("local.server.port", Integer.class);
+    }
+}
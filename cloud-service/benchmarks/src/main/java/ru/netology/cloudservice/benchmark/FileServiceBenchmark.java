@@ -0,0 +1,102 @@
+package ru.netology.cloudservice.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import ru.netology.cloudservice.entity.User;
+import ru.netology.cloudservice.service.FileContent;
+import ru.netology.cloudservice.service.FileService;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Upload and download throughput of {@link FileService} by file size. Every upload
+ * has distinct content, so it measures hashing and storing rather than deduplication.
+ * {@code random} content is stored as is, {@code text} (CSV lines) is compressed with zstd.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FileServiceBenchmark {
+
+    private static final String DOWNLOAD_NAME = "download.bin";
+
+    @Param({"4096", "1048576", "16777216"})
+    private int size;
+
+    @Param({"random", "text"})
+    private String kind;
+
+    private FileService fileService;
+    private User user;
+    private byte[] content;
+    private long counter;
+    private final List<String> uploaded = new ArrayList<>();
+
+    @Setup
+    public void setUp(ApplicationState application) throws IOException {
+        fileService = application.bean(FileService.class);
+        user = application.getUser();
+        content = kind.equals("text") ? csv(size) : randomBytes(size);
+        String downloadName = downloadName();
+        if (fileService.listFiles(user, 1000).stream().noneMatch(f -> f.getFilename().equals(downloadName))) {
+            fileService.upload(downloadName, content, user);
+        }
+    }
+
+    @TearDown(Level.Iteration)
+    public void deleteUploads() throws IOException {
+        for (String filename : uploaded) {
+            fileService.delete(filename, user);
+        }
+        uploaded.clear();
+    }
+
+    @Benchmark
+    public void upload() throws IOException {
+        long id = counter++;
+        // distinct prefix per upload; kept printable so text stays text
+        byte[] prefix = String.format("%019d", id).getBytes(StandardCharsets.US_ASCII);
+        System.arraycopy(prefix, 0, content, 0, Math.min(prefix.length, content.length));
+        String filename = "upload-" + id + ".bin";
+        fileService.upload(filename, new ByteArrayInputStream(content), user);
+        uploaded.add(filename);
+    }
+
+    @Benchmark
+    public long download() throws IOException {
+        FileContent file = fileService.download(downloadName(), user);
+        try (InputStream in = file.open(0, file.getSize())) {
+            return in.transferTo(OutputStream.nullOutputStream());
+        }
+    }
+
+    private String downloadName() {
+        return DOWNLOAD_NAME + "-" + kind + "-" + size;
+    }
+
+    private static byte[] randomBytes(int size) {
+        byte[] bytes = new byte[size];
+        new Random(size).nextBytes(bytes);
+        return bytes;
+    }
+
+    private static byte[] csv(int size) {
+        Random random = new Random(size);
+        StringBuilder text = new StringBuilder(size + 64);
+        for (int row = 0; text.length() < size; row++) {
+            text.append(row).append(",user").append(random.nextInt(1000)).append("@example.com,")
+                    .append(random.nextInt(100_000)).append(".").append(random.nextInt(100)).append(",RUB\n");
+        }
+        return text.substring(0, size).getBytes(StandardCharsets.US_ASCII);
+    }
+}
@@ -0,0 +1,73 @@
+package ru.netology.cloudservice.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.netology.cloudservice.entity.User;
+import ru.netology.cloudservice.service.FileService;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Uploads per second of tiny files from many concurrent clients, that is file rows
+ * inserted per second, with high-ingest mode off ({@code ingest=false}: one transaction
+ * per upload) and on ({@code ingest=true}: rows saved in batches by the IngestBuffer).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(64)
+@Fork(1)
+public class IngestBenchmark {
+
+    @Param({"false", "true"})
+    private boolean ingest;
+
+    @Param({"256"})
+    private int size;
+
+    private ApplicationState application;
+    private FileService fileService;
+    private User user;
+    private final AtomicLong counter = new AtomicLong();
+
+    @Setup
+    public void setUp() throws IOException {
+        application = new ApplicationState();
+        // Processing would compete with the inserts for connections; it is measured elsewhere.
+        application.start(WebApplicationType.NONE, "--file.ingest.enabled=" + ingest,
+                "--file.processing.enabled=false", "--file.quota.default-limit=1TB");
+        fileService = application.bean(FileService.class);
+        user = application.getUser();
+    }
+
+    @TearDown(Level.Iteration)
+    public void deleteUploads() {
+        JdbcTemplate jdbc = application.bean(JdbcTemplate.class);
+        new TransactionTemplate(application.bean(PlatformTransactionManager.class)).executeWithoutResult(tx -> {
+            jdbc.update("delete from files where user_id = ?", user.getId());
+            jdbc.update("update users set bytes_used = 0, file_count = 0 where id = ?", user.getId());
+        });
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        application.stop();
+    }
+
+    @Benchmark
+    public void upload() throws IOException {
+        long id = counter.incrementAndGet();
+        byte[] content = new byte[size];
+        byte[] prefix = String.format("sensor reading %019d\n", id).getBytes(StandardCharsets.US_ASCII);
+        System.arraycopy(prefix, 0, content, 0, Math.min(prefix.length, size));
+        fileService.upload("reading-" + id + ".txt", content, user);
+    }
+}
@@ -0,0 +1,57 @@
+package ru.netology.cloudservice.benchmark;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.test.util.ReflectionTestUtils;
+import ru.netology.cloudservice.util.JwtTokenUtil;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token issuing and verification. {@code parseNewToken} verifies the signature on
+ * every call, {@code parseCachedToken} hits the verified-token cache.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JwtBenchmark {
+
+    private static final String SECRET = "3q2+7wA/KbR9Xz8v1QnJkLpM0OxY4W5Z6cFtGhIuVdSeNwB7C8a";
+
+    private JwtTokenUtil jwtTokenUtil;
+    private String cachedToken;
+    private String newToken;
+    private long counter;
+
+    @Setup
+    public void setUp() {
+        jwtTokenUtil = new JwtTokenUtil(new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(jwtTokenUtil, "secret", SECRET);
+        ReflectionTestUtils.setField(jwtTokenUtil, "expiration", TimeUnit.DAYS.toMillis(1));
+        cachedToken = jwtTokenUtil.generateToken("benchmark@netology.ru");
+        jwtTokenUtil.getEmailFromToken(cachedToken);
+    }
+
+    @Setup(Level.Invocation)
+    public void nextToken() {
+        newToken = jwtTokenUtil.generateToken("user" + counter++ + "@netology.ru");
+    }
+
+    @Benchmark
+    public String generate() {
+        return jwtTokenUtil.generateToken("benchmark@netology.ru");
+    }
+
+    @Benchmark
+    public String parseNewToken() {
+        return jwtTokenUtil.getEmailFromToken(newToken);
+    }
+
+    @Benchmark
+    public String parseCachedToken() {
+        return jwtTokenUtil.getEmailFromToken(cachedToken);
+    }
+}
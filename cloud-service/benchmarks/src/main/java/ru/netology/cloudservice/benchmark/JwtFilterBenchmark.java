@@ -0,0 +1,48 @@
+package ru.netology.cloudservice.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.security.core.context.SecurityContextHolder;
+import ru.netology.cloudservice.security.JwtFilter;
+import ru.netology.cloudservice.util.JwtTokenUtil;
+
+import javax.servlet.ServletException;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One authenticated request through {@link JwtFilter} with the application's token
+ * and user caches, as it runs for every API call.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JwtFilterBenchmark {
+
+    private JwtFilter jwtFilter;
+    private String token;
+
+    @Setup
+    public void setUp(ApplicationState application) {
+        jwtFilter = application.bean(JwtFilter.class);
+        token = application.bean(JwtTokenUtil.class).generateToken(application.getUser().getEmail());
+    }
+
+    @Benchmark
+    public int authenticatedRequest() throws ServletException, IOException {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/cloud/list");
+        request.addHeader("auth-token", "Bearer " + token);
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        try {
+            jwtFilter.doFilter(request, response, new MockFilterChain());
+        } finally {
+            SecurityContextHolder.clearContext();
+        }
+        return response.getStatus();
+    }
+}
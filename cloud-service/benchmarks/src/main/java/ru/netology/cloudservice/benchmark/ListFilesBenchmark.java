@@ -0,0 +1,74 @@
+package ru.netology.cloudservice.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.netology.cloudservice.dto.FilePage;
+import ru.netology.cloudservice.dto.FileSortField;
+import ru.netology.cloudservice.entity.User;
+import ru.netology.cloudservice.service.FileService;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency of listing one page of files for a user that owns {@code rows} files.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ListFilesBenchmark {
+
+    private static final int PAGE_SIZE = 50;
+
+    @Param({"1000", "100000"})
+    private int rows;
+
+    private FileService fileService;
+    private User user;
+    private String middleCursor;
+
+    @Setup
+    public void setUp(ApplicationState application) {
+        fileService = application.bean(FileService.class);
+        user = application.getUser();
+
+        JdbcTemplate jdbc = application.bean(JdbcTemplate.class);
+        new TransactionTemplate(application.bean(PlatformTransactionManager.class)).executeWithoutResult(tx -> {
+            jdbc.update("delete from files where user_id = ? and filename like 'list-%'", user.getId());
+            jdbc.update("insert into files (filename, filepath, size, uploaded_at, user_id) "
+                    + "select 'list-' || lpad(n::text, 7, '0'), 'unused', n * 31 % 100000, "
+                    + "now() - n * interval '1 second', ? from generate_series(1, ?) n", user.getId(), rows);
+        });
+        jdbc.execute("analyze files");
+
+        String cursor = null;
+        for (int i = 0; i < rows / PAGE_SIZE / 2; i++) {
+            cursor = fileService.listFiles(user, PAGE_SIZE, cursor, FileSortField.NAME, false, null).getNextCursor();
+        }
+        middleCursor = cursor;
+    }
+
+    @Benchmark
+    public FilePage firstPageByName() {
+        return fileService.listFiles(user, PAGE_SIZE, null, FileSortField.NAME, false, null);
+    }
+
+    @Benchmark
+    public FilePage middlePageByName() {
+        return fileService.listFiles(user, PAGE_SIZE, middleCursor, FileSortField.NAME, false, null);
+    }
+
+    @Benchmark
+    public FilePage firstPageBySizeDescending() {
+        return fileService.listFiles(user, PAGE_SIZE, null, FileSortField.SIZE, true, null);
+    }
+
+    @Benchmark
+    public FilePage prefixPage() {
+        return fileService.listFiles(user, PAGE_SIZE, null, FileSortField.NAME, false, "list-00001");
+    }
+}
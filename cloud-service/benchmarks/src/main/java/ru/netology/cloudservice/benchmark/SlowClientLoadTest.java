@@ -0,0 +1,236 @@
+package ru.netology.cloudservice.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.springframework.boot.WebApplicationType;
+import ru.netology.cloudservice.util.JwtTokenUtil;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Compares request handling on platform and virtual threads under slow clients.
+ * {@code clients} connections trickle uploads at {@code chunk} bytes per {@code delay}
+ * while {@code probes} fast clients list files; the interesting numbers are the
+ * probes' throughput and p99, which collapse once slow clients hold every worker thread.
+ * <p>
+ * Arguments are {@code key=value} pairs, see {@link #DEFAULTS}. Virtual mode is skipped
+ * on runtimes older than Java 21. Results are written to {@code target/loadtest-<mode>.json}.
+ */
+public class SlowClientLoadTest {
+
+    private static final Map<String, String> DEFAULTS = Map.of(
+            "modes", "platform,virtual",
+            "clients", "1000",
+            "probes", "8",
+            "warmup", "PT5S",
+            "duration", "PT30S",
+            "size", "16384",
+            "chunk", "1024",
+            "delay", "PT0.2S",
+            "output", "target");
+
+    private final Map<String, String> options;
+    private final AtomicLong uploads = new AtomicLong();
+    private final AtomicLong uploadErrors = new AtomicLong();
+    private final AtomicLong probeErrors = new AtomicLong();
+    private final List<Long> probeLatencies = Collections.synchronizedList(new ArrayList<>());
+    private final List<Long> uploadLatencies = Collections.synchronizedList(new ArrayList<>());
+    private volatile boolean measuring;
+    private volatile boolean running;
+
+    public SlowClientLoadTest(Map<String, String> options) {
+        this.options = options;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>(DEFAULTS);
+        for (String arg : args) {
+            String[] pair = arg.split("=", 2);
+            if (pair.length != 2 || !DEFAULTS.containsKey(pair[0])) {
+                throw new IllegalArgumentException("Unknown argument " + arg + ", expected one of " + DEFAULTS.keySet());
+            }
+            options.put(pair[0], pair[1]);
+        }
+        for (String mode : options.get("modes").split(",")) {
+            if (mode.equals("virtual") && Runtime.version().feature() < 21) {
+                System.out.println("Skipping virtual mode: requires Java 21, running on " + Runtime.version());
+                continue;
+            }
+            new SlowClientLoadTest(options).run(mode);
+        }
+    }
+
+    private void run(String mode) throws Exception {
+        int clients = Integer.parseInt(options.get("clients"));
+        int probes = Integer.parseInt(options.get("probes"));
+        Duration warmup = Duration.parse(options.get("warmup"));
+        Duration duration = Duration.parse(options.get("duration"));
+
+        ApplicationState application = new ApplicationState();
+        // All clients share one user, so the per-user limits would turn the slow clients away with 429.
+        application.start(WebApplicationType.SERVLET, "--server.port=0", "--threads.mode=" + mode,
+                "--rate-limit.enabled=false");
+        try {
+            int port = application.getPort();
+            String token = application.bean(JwtTokenUtil.class).generateToken(application.getUser().getEmail());
+
+            running = true;
+            List<Thread> threads = new ArrayList<>();
+            for (int i = 0; i < clients; i++) {
+                int client = i;
+                threads.add(start("slow-client-" + i, () -> slowUploads(port, token, client)));
+            }
+            Thread.sleep(warmup.toMillis());
+
+            HttpClient httpClient = HttpClient.newBuilder()
+                    .version(HttpClient.Version.HTTP_1_1)
+                    .connectTimeout(Duration.ofSeconds(30))
+                    .build();
+            for (int i = 0; i < probes; i++) {
+                threads.add(start("probe-" + i, () -> probe(httpClient, port, token)));
+            }
+            long uploadsBefore = uploads.get();
+            measuring = true;
+            Thread.sleep(duration.toMillis());
+            measuring = false;
+            long uploadsDone = uploads.get() - uploadsBefore;
+            running = false;
+            for (Thread thread : threads) {
+                thread.join(Duration.ofSeconds(60).toMillis());
+            }
+
+            report(mode, clients, duration, uploadsDone);
+        } finally {
+            application.stop();
+        }
+    }
+
+    private void slowUploads(int port, String token, int client) {
+        int size = Integer.parseInt(options.get("size"));
+        byte[] chunk = new byte[Integer.parseInt(options.get("chunk"))];
+        long delay = Duration.parse(options.get("delay")).toMillis();
+        for (int n = 0; running; n++) {
+            long start = System.nanoTime();
+            try (Socket socket = new Socket("localhost", port)) {
+                socket.setSoTimeout(120_000);
+                OutputStream out = socket.getOutputStream();
+                out.write(("POST /cloud/auth/file?filename=slow-" + client + "-" + n + " HTTP/1.1\r\n"
+                        + "Host: localhost\r\n"
+                        + "auth-token: Bearer " + token + "\r\n"
+                        + "Content-Type: application/octet-stream\r\n"
+                        + "Content-Length: " + size + "\r\n"
+                        + "Connection: close\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+                for (int sent = 0; sent < size; sent += chunk.length) {
+                    Arrays.fill(chunk, (byte) (client + n + sent));
+                    out.write(chunk, 0, Math.min(chunk.length, size - sent));
+                    out.flush();
+                    Thread.sleep(delay);
+                }
+                String status = new BufferedReader(new InputStreamReader(socket.getInputStream(),
+                        StandardCharsets.US_ASCII)).readLine();
+                if (status != null && status.startsWith("HTTP/1.1 200")) {
+                    uploads.incrementAndGet();
+                    if (measuring) {
+                        uploadLatencies.add(System.nanoTime() - start);
+                    }
+                } else {
+                    uploadErrors.incrementAndGet();
+                }
+            } catch (IOException e) {
+                uploadErrors.incrementAndGet();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private void probe(HttpClient httpClient, int port, String token) {
+        HttpRequest request = HttpRequest.newBuilder(URI.create("http://localhost:" + port + "/cloud/auth/list?limit=10"))
+                .header("auth-token", "Bearer " + token)
+                .timeout(Duration.ofSeconds(120))
+                .build();
+        while (measuring) {
+            long start = System.nanoTime();
+            try {
+                HttpResponse<Void> response = httpClient.send(request, HttpResponse.BodyHandlers.discarding());
+                if (response.statusCode() == 200 && measuring) {
+                    probeLatencies.add(System.nanoTime() - start);
+                } else if (response.statusCode() != 200) {
+                    probeErrors.incrementAndGet();
+                }
+            } catch (IOException e) {
+                probeErrors.incrementAndGet();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private void report(String mode, int clients, Duration duration, long uploadsDone) throws IOException {
+        double seconds = duration.toMillis() / 1000.0;
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("mode", mode);
+        result.put("java", Runtime.version().toString());
+        result.put("slowClients", clients);
+        result.put("durationSeconds", seconds);
+        result.put("probeRequests", probeLatencies.size());
+        result.put("probeThroughputPerSecond", probeLatencies.size() / seconds);
+        result.put("probeLatencyMillis", percentiles(probeLatencies));
+        result.put("probeErrors", probeErrors.get());
+        result.put("slowUploads", uploadsDone);
+        result.put("slowUploadThroughputPerSecond", uploadsDone / seconds);
+        result.put("slowUploadLatencyMillis", percentiles(uploadLatencies));
+        result.put("slowUploadErrors", uploadErrors.get());
+
+        ObjectMapper mapper = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+        Path output = Paths.get(options.get("output")).resolve("loadtest-" + mode + ".json");
+        Files.createDirectories(output.getParent());
+        mapper.writeValue(output.toFile(), result);
+        System.out.println(mapper.writeValueAsString(result));
+    }
+
+    private Map<String, Double> percentiles(List<Long> latencies) {
+        long[] sorted;
+        synchronized (latencies) {
+            sorted = latencies.stream().mapToLong(Long::longValue).sorted().toArray();
+        }
+        Map<String, Double> result = new LinkedHashMap<>();
+        if (sorted.length == 0) {
+            return result;
+        }
+        result.put("p50", sorted[sorted.length / 2] / 1e6);
+        result.put("p99", sorted[Math.min(sorted.length - 1, sorted.length * 99 / 100)] / 1e6);
+        result.put("max", sorted[sorted.length - 1] / 1e6);
+        return result;
+    }
+
+    private static Thread start(String name, Runnable task) {
+        Thread thread = new Thread(task, name);
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+}
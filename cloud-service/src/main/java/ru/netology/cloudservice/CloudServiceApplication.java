@@ -1,8 +1,12 @@
 package ru.netology.cloudservice;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.cache.annotation.EnableCaching;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 @SpringBootApplication
+@EnableScheduling
+@EnableCaching
 public class CloudServiceApplication {
 	public static void main(String[] args) {
 		SpringApplication.run(CloudServiceApplication.class, args);
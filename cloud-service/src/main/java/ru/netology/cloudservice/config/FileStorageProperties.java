@@ -0,0 +1,132 @@
+package ru.netology.cloudservice.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import java.net.URI;
+import java.time.Duration;
+
+@Component
+@ConfigurationProperties(prefix = "file")
+@Data
+public class FileStorageProperties {
+    private String storagePath;
+    private DataSize maxFileSize = DataSize.ofMegabytes(10);
+    private DataSize maxRequestSize = DataSize.ofMegabytes(100);
+    private DataSize bufferSize = DataSize.ofKilobytes(64);
+    private int bufferPoolSize = 64;
+    private String blobDirectory = "blobs";
+    private boolean fsync = true;
+    private Duration tempMaxAge = Duration.ofHours(1);
+    private final Upload upload = new Upload();
+    private final Compression compression = new Compression();
+    private final Processing processing = new Processing();
+    private final Quota quota = new Quota();
+    private final Cache cache = new Cache();
+    private final Changes changes = new Changes();
+    private final Ingest ingest = new Ingest();
+    private final Reconcile reconcile = new Reconcile();
+    private final Migration migration = new Migration();
+    private final Backend backend = new Backend();
+
+    @Data
+    public static class Upload {
+        private DataSize maxSize = DataSize.ofGigabytes(10);
+        private DataSize chunkSize = DataSize.ofMegabytes(8);
+        private DataSize maxChunkSize = DataSize.ofMegabytes(64);
+        private Duration sessionTtl = Duration.ofHours(24);
+        private String stagingDirectory = ".uploads";
+    }
+
+    @Data
+    public static class Compression {
+        private boolean enabled = true;
+        private int level = 3;
+        private DataSize minSize = DataSize.ofKilobytes(1);
+        private DataSize sampleSize = DataSize.ofKilobytes(64);
+        private double maxRatio = 0.9;
+    }
+
+    @Data
+    public static class Processing {
+        private boolean enabled = true;
+        private int workers = 2;
+        private int queueCapacity = 1000;
+        private int maxAttempts = 3;
+        private Duration retryDelay = Duration.ofMinutes(1);
+        private int batchSize = 100;
+        private DataSize maxImageSize = DataSize.ofMegabytes(50);
+        private long maxImagePixels = 25_000_000L;
+        private int thumbnailSize = 256;
+        private int previewSize = 1280;
+    }
+
+    @Data
+    public static class Quota {
+        private boolean enabled = true;
+        private DataSize defaultLimit = DataSize.ofGigabytes(10);
+        private int reconcileBatchSize = 500;
+    }
+
+    @Data
+    public static class Cache {
+        private boolean enabled = true;
+        private DataSize maxSize = DataSize.ofMegabytes(256);
+        private DataSize maxEntrySize = DataSize.ofMegabytes(1);
+    }
+
+    @Data
+    public static class Changes {
+        private Duration retention = Duration.ofDays(30);
+        private Duration maxWait = Duration.ofSeconds(60);
+        private int notifyWorkers = 2;
+    }
+
+    @Data
+    public static class Ingest {
+        private boolean enabled = false;
+        private int batchSize = 100;
+        private Duration maxDelay = Duration.ofMillis(10);
+        private int queueCapacity = 1000;
+        /** How long an upload waits for the transaction that saves its row */
+        private Duration saveTimeout = Duration.ofSeconds(30);
+    }
+
+    @Data
+    public static class Reconcile {
+        private boolean enabled = true;
+        private boolean repair = true;
+        private int directoriesPerRun = 16;
+        private Duration gracePeriod = Duration.ofHours(1);
+    }
+
+    @Data
+    public static class Migration {
+        private boolean enabled = true;
+        private int batchSize = 100;
+    }
+
+    @Data
+    public static class Backend {
+        private BackendType type = BackendType.LOCAL;
+        private final S3 s3 = new S3();
+    }
+
+    public enum BackendType {
+        LOCAL, MAPPED, MEMORY, S3
+    }
+
+    @Data
+    public static class S3 {
+        private URI endpoint;
+        private String region = "us-east-1";
+        private String bucket;
+        private String accessKey;
+        private String secretKey;
+        private DataSize partSize = DataSize.ofMegabytes(16);
+        private Duration connectTimeout = Duration.ofSeconds(10);
+        private String spoolDirectory = ".spool";
+    }
+}
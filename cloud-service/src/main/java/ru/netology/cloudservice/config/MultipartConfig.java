@@ -2,16 +2,15 @@ package ru.netology.cloudservice.config;
 import org.springframework.boot.web.servlet.MultipartConfigFactory;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
-import org.springframework.util.unit.DataSize;
 import javax.servlet.MultipartConfigElement;
 
 @Configuration
 public class MultipartConfig {
     @Bean
-    public MultipartConfigElement multipartConfigElement() {
+    public MultipartConfigElement multipartConfigElement(FileStorageProperties properties) {
         MultipartConfigFactory factory = new MultipartConfigFactory();
-        factory.setMaxFileSize(DataSize.ofMegabytes(10));
-        factory.setMaxRequestSize(DataSize.ofMegabytes(100));
+        factory.setMaxFileSize(properties.getMaxFileSize());
+        factory.setMaxRequestSize(properties.getMaxRequestSize());
         return factory.createMultipartConfig();
     }
-}
\ No newline at end of file
+}
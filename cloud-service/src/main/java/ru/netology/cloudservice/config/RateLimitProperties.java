@@ -0,0 +1,38 @@
+package ru.netology.cloudservice.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+@Component
+@ConfigurationProperties(prefix = "rate-limit")
+@Data
+public class RateLimitProperties {
+    private boolean enabled = true;
+    /** Limits of a client that sent nothing for this long and has nothing in progress are dropped */
+    private Duration idleTimeout = Duration.ofMinutes(10);
+    private Duration cleanupInterval = Duration.ofMinutes(1);
+    /** Above this many clients, idle ones are dropped right away */
+    private long maxClients = 100_000;
+    /** Checked in order, the first rule matching a request applies */
+    private List<Rule> rules = new ArrayList<>();
+
+    @Data
+    public static class Rule {
+        private String name;
+        /** Ant patterns within the application, the same for the MVC and the {@code /rx} API */
+        private List<String> paths = new ArrayList<>();
+        /** Any method when empty */
+        private List<String> methods = new ArrayList<>();
+        /** Requests per second, 0 for no rate limit */
+        private double rate;
+        /** Requests let through at once before the rate applies */
+        private int burst = 1;
+        /** Requests of one client in progress at the same time, 0 for no limit */
+        private int maxConcurrent;
+    }
+}
@@ -0,0 +1,68 @@
+package ru.netology.cloudservice.config;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.boot.web.servlet.ServletRegistrationBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.codec.json.Jackson2JsonDecoder;
+import org.springframework.http.codec.json.Jackson2JsonEncoder;
+import org.springframework.http.server.reactive.HttpHandler;
+import org.springframework.http.server.reactive.ServletHttpHandlerAdapter;
+import org.springframework.web.reactive.function.server.HandlerStrategies;
+import org.springframework.web.reactive.function.server.RouterFunction;
+import org.springframework.web.reactive.function.server.RouterFunctions;
+import org.springframework.web.reactive.function.server.ServerResponse;
+import reactor.core.publisher.Mono;
+import ru.netology.cloudservice.controller.ReactiveFileHandler;
+import ru.netology.cloudservice.security.ReactiveJwtFilter;
+import ru.netology.cloudservice.security.ReactiveRateLimitFilter;
+
+/**
+ * Mounts the reactive file API at {@code /rx} next to the MVC one. It runs on Tomcat
+ * through non-blocking Servlet I/O, so Spring Security still applies CORS to it while
+ * {@link ReactiveJwtFilter} takes care of authentication and {@link ReactiveRateLimitFilter}
+ * of rate limits.
+ */
+@Configuration
+public class ReactiveConfig {
+
+    public static final String SERVLET_PATH = "/rx";
+
+    @Bean
+    public RouterFunction<ServerResponse> reactiveFileRoutes(ReactiveFileHandler handler) {
+        return RouterFunctions.route()
+                .GET("/auth/list", handler::list)
+                .GET("/auth/file", handler::download)
+                .POST("/auth/file", handler::upload)
+                .DELETE("/auth/file", handler::delete)
+                .PUT("/auth/file", handler::rename)
+                // deferred so that parameter checks thrown while building the response are mapped too
+                .filter((request, next) -> Mono.defer(() -> next.handle(request))
+                        .onErrorResume(error -> handler.handleError(error, request)))
+                .build();
+    }
+
+    @Bean
+    public ServletRegistrationBean<ServletHttpHandlerAdapter> reactiveServlet(
+            RouterFunction<ServerResponse> reactiveFileRoutes,
+            ReactiveJwtFilter reactiveJwtFilter,
+            ReactiveRateLimitFilter reactiveRateLimitFilter,
+            ObjectMapper objectMapper) {
+        HandlerStrategies strategies = HandlerStrategies.builder()
+                .codecs(codecs -> {
+                    codecs.defaultCodecs().jackson2JsonEncoder(new Jackson2JsonEncoder(objectMapper));
+                    codecs.defaultCodecs().jackson2JsonDecoder(new Jackson2JsonDecoder(objectMapper));
+                })
+                .webFilter(reactiveJwtFilter)
+                .webFilter(reactiveRateLimitFilter)
+                .build();
+        HttpHandler httpHandler = RouterFunctions.toHttpHandler(reactiveFileRoutes, strategies);
+
+        ServletRegistrationBean<ServletHttpHandlerAdapter> registration =
+                new ServletRegistrationBean<>(new ServletHttpHandlerAdapter(httpHandler), SERVLET_PATH + "/*");
+        registration.setName("reactiveFileServlet");
+        registration.setAsyncSupported(true);
+        registration.setLoadOnStartup(1);
+        return registration;
+    }
+}
@@ -1,5 +1,6 @@
 package ru.netology.cloudservice.config;
 
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.security.config.annotation.web.builders.HttpSecurity;
@@ -13,17 +14,28 @@ import org.springframework.security.web.util.matcher.AntPathRequestMatcher;
 import org.springframework.web.cors.CorsConfiguration;
 import org.springframework.web.cors.CorsConfigurationSource;
 import ru.netology.cloudservice.security.JwtFilter;
+import ru.netology.cloudservice.security.RateLimitFilter;
+
+import javax.servlet.http.HttpServletRequest;
 
 @Configuration
 @EnableWebSecurity
 public class SecurityConfig {
 
     private final JwtFilter jwtFilter;
+    private final RateLimitFilter rateLimitFilter;
     private final CorsProperties corsProperties;
+    private final int serverPort;
+    private final int managementPort;
 
-    public SecurityConfig(JwtFilter jwtFilter, CorsProperties corsProperties) {
+    public SecurityConfig(JwtFilter jwtFilter, RateLimitFilter rateLimitFilter, CorsProperties corsProperties,
+                          @Value("${server.port:8080}") int serverPort,
+                          @Value("${management.server.port:-1}") int managementPort) {
         this.jwtFilter = jwtFilter;
+        this.rateLimitFilter = rateLimitFilter;
         this.corsProperties = corsProperties;
+        this.serverPort = serverPort;
+        this.managementPort = managementPort;
     }
 
     @Bean
@@ -36,18 +48,30 @@ public class SecurityConfig {
                         .requestMatchers(new AntPathRequestMatcher("/auth/login")).permitAll()
                         .requestMatchers(new AntPathRequestMatcher("/auth/register")).permitAll()
                         .requestMatchers(new AntPathRequestMatcher("/cloud/file/**")).permitAll()
-                        .requestMatchers(new AntPathRequestMatcher("/auth/file/**")).permitAll()
                         .requestMatchers(new AntPathRequestMatcher("/img/**")).permitAll()
                         .requestMatchers(new AntPathRequestMatcher("/css/**")).permitAll()
                         .requestMatchers(new AntPathRequestMatcher("/js/**")).permitAll()
                         .requestMatchers(new AntPathRequestMatcher("/favicon.ico")).permitAll()
+                        .requestMatchers(new AntPathRequestMatcher("/actuator/health/**")).permitAll()
+                        .requestMatchers(this::isManagementRequest).permitAll()
+                        .requestMatchers(new AntPathRequestMatcher("/rx/**")).permitAll()
                         .anyRequest().authenticated()
                 )
-                .addFilterBefore(jwtFilter, UsernamePasswordAuthenticationFilter.class);
+                .addFilterBefore(jwtFilter, UsernamePasswordAuthenticationFilter.class)
+                .addFilterAfter(rateLimitFilter, JwtFilter.class);
 
         return http.build();
     }
 
+    /**
+     * Actuator endpoints, metrics included, are served on {@code management.server.port},
+     * which is not published outside; requests there need no token. On the application
+     * port only health is open.
+     */
+    private boolean isManagementRequest(HttpServletRequest request) {
+        return managementPort > 0 && managementPort != serverPort && request.getLocalPort() == managementPort;
+    }
+
     @Bean
     public CorsConfigurationSource corsConfigurationSource() {
         return request -> {
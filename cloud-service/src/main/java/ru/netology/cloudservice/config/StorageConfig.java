@@ -0,0 +1,52 @@
+package ru.netology.cloudservice.config;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import ru.netology.cloudservice.storage.CachingStorageBackend;
+import ru.netology.cloudservice.storage.InMemoryStorageBackend;
+import ru.netology.cloudservice.storage.LocalFileSystemStorageBackend;
+import ru.netology.cloudservice.storage.MappedFileStorageBackend;
+import ru.netology.cloudservice.storage.S3StorageBackend;
+import ru.netology.cloudservice.storage.StorageBackend;
+import ru.netology.cloudservice.util.FileTransferUtil;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+@Configuration
+public class StorageConfig {
+
+    @Bean
+    public StorageBackend storageBackend(FileStorageProperties properties, FileTransferUtil fileTransferUtil,
+                                         MeterRegistry meterRegistry) throws IOException {
+        StorageBackend backend = createBackend(properties, fileTransferUtil);
+        FileStorageProperties.Cache cache = properties.getCache();
+        if (!cache.isEnabled()) {
+            return backend;
+        }
+        return new CachingStorageBackend(backend, cache.getMaxSize().toBytes(), cache.getMaxEntrySize().toBytes())
+                .bindTo(meterRegistry);
+    }
+
+    private StorageBackend createBackend(FileStorageProperties properties, FileTransferUtil fileTransferUtil)
+            throws IOException {
+        Path storagePath = Paths.get(properties.getStoragePath());
+        Path blobLocation = storagePath.resolve(properties.getBlobDirectory());
+        FileStorageProperties.S3 s3 = properties.getBackend().getS3();
+
+        switch (properties.getBackend().getType()) {
+            case MAPPED:
+                return new MappedFileStorageBackend(blobLocation, fileTransferUtil, properties.isFsync());
+            case MEMORY:
+                return new InMemoryStorageBackend();
+            case S3:
+                return new S3StorageBackend(s3.getEndpoint(), s3.getRegion(), s3.getBucket(),
+                        s3.getAccessKey(), s3.getSecretKey(), s3.getPartSize().toBytes(), s3.getConnectTimeout(),
+                        storagePath.resolve(s3.getSpoolDirectory()), fileTransferUtil);
+            default:
+                return new LocalFileSystemStorageBackend(blobLocation, fileTransferUtil, properties.isFsync());
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package ru.netology.cloudservice.config;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.web.embedded.tomcat.TomcatProtocolHandlerCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * {@code threads.mode: virtual} runs every request on its own virtual thread instead
+ * of Tomcat's bounded worker pool, so clients that upload or download slowly no longer
+ * exhaust the pool. Requires a Java 21+ runtime; the code is still compiled for 17,
+ * so the executor is looked up reflectively.
+ * <p>
+ * {@code SlowClientLoadTest} in the benchmarks module compares both modes; the measured
+ * numbers are in the README. Once the CPU or the connection pool is saturated, virtual
+ * threads no longer help.
+ */
+@Configuration
+@ConditionalOnProperty(name = "threads.mode", havingValue = "virtual")
+@Slf4j
+public class ThreadingConfig {
+
+    @Bean(destroyMethod = "shutdown")
+    public ExecutorService requestExecutor() {
+        try {
+            ExecutorService executor = (ExecutorService) Executors.class
+                    .getMethod("newVirtualThreadPerTaskExecutor")
+                    .invoke(null);
+            log.info("Handling requests on virtual threads");
+            return executor;
+        } catch (NoSuchMethodException e) {
+            throw new IllegalStateException("threads.mode=virtual requires Java 21 or newer, running on "
+                    + Runtime.version(), e);
+        } catch (IllegalAccessException | InvocationTargetException e) {
+            throw new IllegalStateException("Failed to create virtual thread executor", e);
+        }
+    }
+
+    @Bean
+    public TomcatProtocolHandlerCustomizer<?> virtualThreadProtocolHandlerCustomizer(ExecutorService requestExecutor) {
+        return protocolHandler -> protocolHandler.setExecutor(requestExecutor);
+    }
+}
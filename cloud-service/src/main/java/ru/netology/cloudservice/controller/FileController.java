@@ -2,16 +2,36 @@ package ru.netology.cloudservice.controller;
 
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.core.io.Resource;
-import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.security.core.annotation.AuthenticationPrincipal;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.context.request.async.DeferredResult;
 import org.springframework.web.multipart.MultipartFile;
+import ru.netology.cloudservice.config.FileStorageProperties;
+import ru.netology.cloudservice.dto.BatchRenameRequest;
+import ru.netology.cloudservice.dto.ChangePage;
+import ru.netology.cloudservice.dto.FileBatchRequest;
+import ru.netology.cloudservice.dto.FilePage;
 import ru.netology.cloudservice.dto.FileResponse;
+import ru.netology.cloudservice.dto.FileSortField;
 import ru.netology.cloudservice.dto.RenameFileRequest;
+import ru.netology.cloudservice.dto.StorageUsage;
+import ru.netology.cloudservice.entity.User;
+import ru.netology.cloudservice.exception.FileProcessingException;
 import ru.netology.cloudservice.exception.StorageException;
+import ru.netology.cloudservice.service.ChangeNotifier;
+import ru.netology.cloudservice.service.DownloadService;
+import ru.netology.cloudservice.service.FileContent;
 import ru.netology.cloudservice.service.FileService;
+import ru.netology.cloudservice.service.ImageRendition;
+import ru.netology.cloudservice.service.QuotaService;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
+import java.io.InputStream;
+import java.time.Duration;
 import java.util.List;
 
 @RestController
@@ -21,64 +41,146 @@ import java.util.List;
 public class FileController {
 
     private final FileService fileService;
+    private final DownloadService downloadService;
+    private final QuotaService quotaService;
+    private final ChangeNotifier changeNotifier;
+    private final FileStorageProperties properties;
+
+    static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+    static final String ARCHIVE_NAME = "files.zip";
 
     @GetMapping("/list")
     public ResponseEntity<List<FileResponse>> listFiles(
             @RequestParam(defaultValue = "3") int limit,
-            @RequestHeader("auth-token") String token) {
+            @RequestParam(required = false) String cursor,
+            @RequestParam(defaultValue = "name") String sort,
+            @RequestParam(defaultValue = "asc") String order,
+            @RequestParam(required = false) String prefix,
+            @AuthenticationPrincipal User user,
+            WebRequest webRequest) {
         try {
-            List<FileResponse> files = fileService.listFiles(token, limit);
-            return ResponseEntity.ok(files);
+            String etag = "\"" + fileService.listingVersion(user) + "\"";
+            if (webRequest.checkNotModified(etag)) {
+                return null;
+            }
+            FilePage page = fileService.listFiles(user, limit, cursor, FileSortField.parse(sort),
+                    "desc".equalsIgnoreCase(order), prefix);
+            ResponseEntity.BodyBuilder response = ResponseEntity.ok()
+                    .cacheControl(DownloadService.REVALIDATE)
+                    .eTag(etag);
+            if (page.getNextCursor() != null) {
+                response.header(NEXT_CURSOR_HEADER, page.getNextCursor());
+            }
+            return response.body(page.getFiles());
         } catch (StorageException e) {
             log.error("Error fetching file list", e);
             throw e;
         }
     }
 
+    /**
+     * Changes of the user's files after the cursor {@code since}. With {@code wait} (seconds)
+     * the request is held until the first change or the timeout, without holding a thread.
+     */
+    @GetMapping("/changes")
+    public DeferredResult<ChangePage> changes(
+            @RequestParam(defaultValue = "0") long since,
+            @RequestParam(defaultValue = "1000") int limit,
+            @RequestParam(defaultValue = "0") long wait,
+            @AuthenticationPrincipal User user) {
+        if (wait < 0) {
+            throw new FileProcessingException("Wait must not be negative");
+        }
+        Duration maxWait = properties.getChanges().getMaxWait();
+        Duration timeout = wait > maxWait.getSeconds() ? maxWait : Duration.ofSeconds(wait);
+        return changeNotifier.poll(user, since, limit, timeout);
+    }
+
+    @GetMapping("/usage")
+    public StorageUsage usage(@AuthenticationPrincipal User user) {
+        return quotaService.usage(user);
+    }
+
     @PostMapping(value = "/file", consumes = "multipart/form-data")
     public ResponseEntity<Void> uploadFile(
             @RequestParam("filename") String filename,
-            @RequestHeader("auth-token") String token,
+            @AuthenticationPrincipal User user,
             @RequestParam("file") MultipartFile file) {
-        long maxSizeInBytes = 10 * 1024 * 1024;
+        long maxSizeInBytes = properties.getMaxFileSize().toBytes();
 
         if (file.getSize() > maxSizeInBytes) {
             log.warn("File size exceeds maximum allowed limit: {}", filename);
-            throw new StorageException("File size exceeds maximum allowed limit of 10MB");
+            throw new StorageException("File size exceeds maximum allowed limit of " + properties.getMaxFileSize());
         }
+        quotaService.check(user, file.getSize());
 
-        try {
-            fileService.upload(filename, file.getBytes(), token);
+        try (InputStream inputStream = file.getInputStream()) {
+            fileService.upload(filename, inputStream, user);
             return ResponseEntity.ok().build();
         } catch (IOException e) {
             log.error("Failed to read file content", e);
             throw new StorageException("File upload failed", e);
-        } catch (Exception e) {
-            log.error("Unexpected error during file upload", e);
-            throw new StorageException("Internal server error", (IOException) e);
         }
     }
 
-    @GetMapping("/file")
-    public ResponseEntity<Resource> download(@RequestParam("filename") String filename,
-                                             @RequestHeader("auth-token") String token) {
+    @PostMapping(value = "/file", consumes = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+    public ResponseEntity<Void> uploadFileStream(
+            @RequestParam("filename") String filename,
+            @AuthenticationPrincipal User user,
+            HttpServletRequest request) {
+        long maxSizeInBytes = properties.getMaxFileSize().toBytes();
+
+        if (request.getContentLengthLong() > maxSizeInBytes) {
+            log.warn("File size exceeds maximum allowed limit: {}", filename);
+            throw new StorageException("File size exceeds maximum allowed limit of " + properties.getMaxFileSize());
+        }
+        if (request.getContentLengthLong() > 0) {
+            quotaService.check(user, request.getContentLengthLong());
+        }
+
         try {
-            Resource resource = fileService.download(filename, token);
+            fileService.upload(filename, request.getInputStream(), user);
+            return ResponseEntity.ok().build();
+        } catch (IOException e) {
+            log.error("Failed to read request body", e);
+            throw new StorageException("File upload failed", e);
+        }
+    }
 
-            return ResponseEntity.ok()
-                    .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + filename + "\"")
-                    .body(resource);
-        } catch (Exception e) {
+    @GetMapping("/file")
+    public void download(@RequestParam("filename") String filename,
+                         @AuthenticationPrincipal User user,
+                         HttpServletRequest request,
+                         HttpServletResponse response) {
+        try {
+            FileContent content = fileService.download(filename, user);
+            downloadService.serve(content, request, response);
+        } catch (IOException e) {
             log.error("Error downloading file: {}", filename, e);
-            throw new StorageException("File not found or unreadable: " + filename, (IOException) e);
+            throw new StorageException("File not found or unreadable: " + filename, e);
+        }
+    }
+
+    @GetMapping("/file/preview")
+    public void preview(@RequestParam("filename") String filename,
+                        @RequestParam(defaultValue = "thumbnail") String rendition,
+                        @AuthenticationPrincipal User user,
+                        HttpServletRequest request,
+                        HttpServletResponse response) {
+        try {
+            FileContent content = fileService.preview(filename, ImageRendition.parse(rendition), user);
+            downloadService.serve(content, request, response);
+        } catch (IOException e) {
+            log.error("Error sending preview of file: {}", filename, e);
+            throw new StorageException("Preview not found or unreadable: " + filename, e);
         }
     }
 
     @DeleteMapping("/file")
     public ResponseEntity<Void> deleteFile(@RequestParam("filename") String filename,
-                                           @RequestHeader("auth-token") String token) {
+                                           @AuthenticationPrincipal User user) {
         try {
-            fileService.delete(filename, token);
+            fileService.delete(filename, user);
             return ResponseEntity.ok().build();
         } catch (Exception e) {
             log.error("Error deleting file: {}", filename, e);
@@ -86,11 +188,48 @@ public class FileController {
         }
     }
 
+    @PostMapping("/files/delete")
+    public ResponseEntity<Void> deleteFiles(@RequestBody FileBatchRequest request,
+                                            @AuthenticationPrincipal User user) {
+        try {
+            fileService.deleteAll(request.getFilenames(), user);
+            return ResponseEntity.ok().build();
+        } catch (IOException e) {
+            log.error("Error deleting files: {}", request.getFilenames(), e);
+            throw new StorageException("File deletion failed", e);
+        }
+    }
+
+    @PostMapping("/files/rename")
+    public ResponseEntity<Void> renameFiles(@RequestBody BatchRenameRequest request,
+                                            @AuthenticationPrincipal User user) {
+        try {
+            fileService.renameAll(request.getRenames(), user);
+            return ResponseEntity.ok().build();
+        } catch (IOException e) {
+            log.error("Error renaming files: {}", request.getRenames(), e);
+            throw new StorageException("File rename failed", e);
+        }
+    }
+
+    @PostMapping("/files/download")
+    public void downloadFiles(@RequestBody FileBatchRequest request,
+                              @AuthenticationPrincipal User user,
+                              HttpServletResponse response) {
+        try {
+            List<FileContent> contents = fileService.downloadAll(request.getFilenames(), user);
+            downloadService.serveArchive(contents, ARCHIVE_NAME, response);
+        } catch (IOException e) {
+            log.error("Error sending archive of files: {}", request.getFilenames(), e);
+            throw new StorageException("Archive download failed", e);
+        }
+    }
+
     @PutMapping("/file")
     public ResponseEntity<Void> renameFile(
             @RequestParam("filename") String oldFilename,
             @RequestBody RenameFileRequest request,
-            @RequestHeader("auth-token") String token) {
+            @AuthenticationPrincipal User user) {
         String newFilename = request.getFilename();
 
         if (newFilename == null || newFilename.isBlank()) {
@@ -99,7 +238,7 @@ public class FileController {
         }
 
         try {
-            fileService.rename(oldFilename, newFilename, token);
+            fileService.rename(oldFilename, newFilename, user);
             return ResponseEntity.ok().build();
         } catch (Exception e) {
             log.error("Error renaming file from {} to {}", oldFilename, newFilename, e);
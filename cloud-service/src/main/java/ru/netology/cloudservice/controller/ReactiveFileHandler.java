@@ -0,0 +1,349 @@
+package ru.netology.cloudservice.controller;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.MediaTypeFactory;
+import org.springframework.http.codec.multipart.FilePart;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.security.authentication.BadCredentialsException;
+import org.springframework.security.core.context.ReactiveSecurityContextHolder;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+import org.springframework.web.reactive.function.BodyExtractors;
+import org.springframework.web.reactive.function.BodyInserters;
+import org.springframework.web.reactive.function.server.ServerRequest;
+import org.springframework.web.reactive.function.server.ServerResponse;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+import ru.netology.cloudservice.config.FileStorageProperties;
+import ru.netology.cloudservice.dto.ErrorResponse;
+import ru.netology.cloudservice.dto.FileSortField;
+import ru.netology.cloudservice.dto.RenameFileRequest;
+import ru.netology.cloudservice.entity.User;
+import ru.netology.cloudservice.exception.*;
+import ru.netology.cloudservice.metrics.FileMetrics;
+import ru.netology.cloudservice.service.DownloadService;
+import ru.netology.cloudservice.service.FileContent;
+import ru.netology.cloudservice.service.FileService;
+import ru.netology.cloudservice.storage.BlobCodec;
+
+import javax.annotation.PostConstruct;
+import javax.persistence.EntityNotFoundException;
+import javax.validation.ConstraintViolationException;
+import java.io.IOException;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Non-blocking variant of the {@code /auth/file} and {@code /auth/list} endpoints,
+ * served under {@code /rx}. Request and response bodies are streamed as
+ * {@link DataBuffer}s through {@link AsynchronousFileChannel} with backpressure, so an
+ * open transfer does not hold a thread; metadata calls to {@link FileService} are
+ * bridged onto the bounded elastic scheduler.
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class ReactiveFileHandler {
+
+    private final FileService fileService;
+    private final FileStorageProperties properties;
+    private final FileMetrics fileMetrics;
+    private final DataBufferFactory bufferFactory = new DefaultDataBufferFactory();
+
+    private Path stagingLocation;
+
+    @PostConstruct
+    public void init() throws IOException {
+        this.stagingLocation = Paths.get(properties.getStoragePath())
+                .resolve(properties.getUpload().getStagingDirectory())
+                .toAbsolutePath().normalize();
+        Files.createDirectories(stagingLocation);
+    }
+
+    public Mono<ServerResponse> list(ServerRequest request) {
+        int limit = Integer.parseInt(request.queryParam("limit").orElse("3"));
+        FileSortField sort = FileSortField.parse(request.queryParam("sort").orElse("name"));
+        boolean descending = "desc".equalsIgnoreCase(request.queryParam("order").orElse("asc"));
+        String cursor = request.queryParam("cursor").orElse(null);
+        String prefix = request.queryParam("prefix").orElse(null);
+
+        return currentUser()
+                .flatMap(user -> blocking(() -> "\"" + fileService.listingVersion(user) + "\"")
+                        .flatMap(etag -> request.checkNotModified(etag)
+                                .switchIfEmpty(blocking(() -> fileService.listFiles(user, limit, cursor, sort,
+                                                descending, prefix))
+                                        .flatMap(page -> ServerResponse.ok()
+                                                .headers(headers -> {
+                                                    if (page.getNextCursor() != null) {
+                                                        headers.set(FileController.NEXT_CURSOR_HEADER,
+                                                                page.getNextCursor());
+                                                    }
+                                                })
+                                                .cacheControl(DownloadService.REVALIDATE)
+                                                .eTag(etag)
+                                                .contentType(MediaType.APPLICATION_JSON)
+                                                .bodyValue(page.getFiles())))));
+    }
+
+    public Mono<ServerResponse> upload(ServerRequest request) {
+        long maxBytes = properties.getMaxFileSize().toBytes();
+        if (request.headers().contentLength().orElse(0) > maxBytes) {
+            return Mono.error(new StorageException("File size exceeds maximum allowed limit of "
+                    + properties.getMaxFileSize()));
+        }
+        String filename = requiredFilename(request);
+        Optional<MediaType> contentType = request.headers().contentType();
+        if (contentType.isPresent() && MediaType.MULTIPART_FORM_DATA.isCompatibleWith(contentType.get())) {
+            return request.body(BodyExtractors.toParts())
+                    .filter(part -> part instanceof FilePart && "file".equals(part.name()))
+                    .cast(FilePart.class)
+                    .next()
+                    .switchIfEmpty(Mono.error(new FileProcessingException("Multipart request has no file part")))
+                    .flatMap(part -> store(filename, part.content(), maxBytes));
+        }
+        return store(filename, request.body(BodyExtractors.toDataBuffers()), maxBytes);
+    }
+
+    public Mono<ServerResponse> download(ServerRequest request) {
+        String filename = requiredFilename(request);
+        return currentUser()
+                .flatMap(user -> blocking(() -> fileService.download(filename, user)))
+                .flatMap(file -> serve(file, request));
+    }
+
+    public Mono<ServerResponse> delete(ServerRequest request) {
+        String filename = requiredFilename(request);
+        return currentUser()
+                .flatMap(user -> blocking(() -> {
+                    fileService.delete(filename, user);
+                    return filename;
+                }))
+                .flatMap(deleted -> ServerResponse.ok().build());
+    }
+
+    public Mono<ServerResponse> rename(ServerRequest request) {
+        String oldFilename = requiredFilename(request);
+        return request.bodyToMono(RenameFileRequest.class)
+                .map(RenameFileRequest::getFilename)
+                .filter(StringUtils::hasText)
+                .switchIfEmpty(Mono.error(new StorageException("New filename is empty or invalid")))
+                .zipWith(currentUser())
+                .flatMap(rename -> blocking(() -> {
+                    fileService.rename(oldFilename, rename.getT1(), rename.getT2());
+                    return rename.getT1();
+                }))
+                .flatMap(renamed -> ServerResponse.ok().build());
+    }
+
+    /**
+     * Same status mapping as {@link GlobalExceptionHandler}.
+     */
+    public Mono<ServerResponse> handleError(Throwable error, ServerRequest request) {
+        HttpStatus status;
+        String message = error.getMessage();
+        if (error instanceof InvalidTokenException || error instanceof BadCredentialsException) {
+            status = HttpStatus.UNAUTHORIZED;
+        } else if (error instanceof UserAlreadyExistsException || error instanceof FileProcessingException
+                || error instanceof ConstraintViolationException || error instanceof NumberFormatException) {
+            status = HttpStatus.BAD_REQUEST;
+        } else if (error instanceof EntityNotFoundException || error instanceof UserNotFoundException) {
+            status = HttpStatus.NOT_FOUND;
+        } else if (error instanceof QuotaExceededException) {
+            status = HttpStatus.PAYLOAD_TOO_LARGE;
+        } else if (error instanceof CorsException) {
+            status = HttpStatus.FORBIDDEN;
+        } else {
+            log.error("Reactive request {} {} failed", request.method(), request.path(), error);
+            status = HttpStatus.INTERNAL_SERVER_ERROR;
+            message = "Internal server error";
+        }
+        return ServerResponse.status(status)
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue(new ErrorResponse(message, status.value()));
+    }
+
+    /**
+     * Writes the body to a staging file and hands it to {@link FileService#importFile},
+     * which hashes it into the blob store. The staging file is removed afterwards.
+     */
+    private Mono<ServerResponse> store(String filename, Flux<DataBuffer> content, long maxBytes) {
+        Path staged = stagingLocation.resolve(UUID.randomUUID() + ".rx");
+        AtomicLong received = new AtomicLong();
+        Flux<DataBuffer> limited = content.doOnNext(buffer -> {
+            if (received.addAndGet(buffer.readableByteCount()) > maxBytes) {
+                DataBufferUtils.release(buffer);
+                throw new StorageException("File size exceeds maximum allowed limit of " + maxBytes + " bytes");
+            }
+        });
+
+        return currentUser()
+                .flatMap(user -> DataBufferUtils.write(limited, staged, StandardOpenOption.CREATE_NEW)
+                        .then(blocking(() -> {
+                            fileService.importFile(user, filename, staged);
+                            return received.get();
+                        })))
+                .doOnNext(fileMetrics::recordBytesIn)
+                .doFinally(signal -> deleteStaged(staged))
+                .flatMap(size -> ServerResponse.ok().build());
+    }
+
+    private Mono<ServerResponse> serve(FileContent file, ServerRequest request) {
+        BlobCodec codec = file.getCodec();
+        boolean sendEncoded = codec != BlobCodec.NONE && request.headers().header(HttpHeaders.RANGE).isEmpty()
+                && codec.isAcceptedBy(String.join(",", request.headers().header(HttpHeaders.ACCEPT_ENCODING)));
+        FileContent selected = sendEncoded ? file.encodedRepresentation() : file;
+        return request.checkNotModified(selected.getLastModified(), selected.getEtag())
+                .flatMap(notModified -> cacheHeaders(ServerResponse.from(notModified), codec).build())
+                .switchIfEmpty(Mono.defer(() -> serve(selected, codec, sendEncoded, request)));
+    }
+
+    private Mono<ServerResponse> serve(FileContent file, BlobCodec codec, boolean sendEncoded,
+                                       ServerRequest request) {
+        long length = file.getSize();
+        ServerResponse.BodyBuilder response = ServerResponse.ok();
+        long start = 0;
+        long count = length;
+
+        HttpRange range = singleRange(request, file.getEtag());
+        if (range != null) {
+            try {
+                start = range.getRangeStart(length);
+                long end = range.getRangeEnd(length);
+                if (start >= length || start > end) {
+                    throw new IllegalArgumentException("Range starts after the end of the file");
+                }
+                count = end - start + 1;
+                response = ServerResponse.status(HttpStatus.PARTIAL_CONTENT)
+                        .header(HttpHeaders.CONTENT_RANGE, "bytes " + start + "-" + end + "/" + length);
+            } catch (IllegalArgumentException e) {
+                return ServerResponse.status(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE)
+                        .header(HttpHeaders.CONTENT_RANGE, "bytes */" + length)
+                        .build();
+            }
+        }
+
+        fileMetrics.recordBytesOut(count);
+        response.header(HttpHeaders.ACCEPT_RANGES, "bytes")
+                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + file.getFilename() + "\"")
+                .eTag(file.getEtag())
+                .contentType(MediaTypeFactory.getMediaType(file.getFilename())
+                        .orElse(MediaType.APPLICATION_OCTET_STREAM))
+                .contentLength(count);
+        if (file.getLastModified() != null) {
+            response.lastModified(file.getLastModified());
+        }
+        cacheHeaders(response, codec);
+        if (sendEncoded) {
+            response.header(HttpHeaders.CONTENT_ENCODING, codec.getContentEncoding());
+        }
+        return response.body(BodyInserters.fromDataBuffers(read(file, start, count)));
+    }
+
+    private static <B extends ServerResponse.HeadersBuilder<B>> B cacheHeaders(B response, BlobCodec codec) {
+        response.cacheControl(DownloadService.REVALIDATE);
+        if (codec != BlobCodec.NONE) {
+            response.header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+        }
+        return response;
+    }
+
+    private Flux<DataBuffer> read(FileContent file, long position, long count) {
+        int bufferSize = (int) properties.getBufferSize().toBytes();
+        Optional<Path> path = file.getCodec() == BlobCodec.NONE
+                ? file.getBackend().localPath(file.getKey())
+                : Optional.empty();
+        Flux<DataBuffer> content;
+        if (path.isPresent()) {
+            content = DataBufferUtils.readAsynchronousFileChannel(
+                    () -> AsynchronousFileChannel.open(path.get(), StandardOpenOption.READ),
+                    position, bufferFactory, bufferSize);
+        } else {
+            content = DataBufferUtils.readInputStream(() -> file.open(position, count), bufferFactory, bufferSize)
+                    .subscribeOn(Schedulers.boundedElastic());
+        }
+        return DataBufferUtils.takeUntilByteCount(content, count);
+    }
+
+    /**
+     * Returns the requested range when there is exactly one and {@code If-Range}, if
+     * present, matches; otherwise the whole file is sent.
+     */
+    private HttpRange singleRange(ServerRequest request, String etag) {
+        List<HttpRange> ranges;
+        try {
+            ranges = request.headers().asHttpHeaders().getRange();
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        String ifRange = request.headers().firstHeader(HttpHeaders.IF_RANGE);
+        if (ranges.size() != 1 || (ifRange != null && !ifRange.equals(etag))) {
+            return null;
+        }
+        return ranges.get(0);
+    }
+
+    private String requiredFilename(ServerRequest request) {
+        return request.queryParam("filename")
+                .orElseThrow(() -> new FileProcessingException("Parameter filename is required"));
+    }
+
+    private Mono<User> currentUser() {
+        return ReactiveSecurityContextHolder.getContext()
+                .map(context -> (User) context.getAuthentication().getPrincipal())
+                .switchIfEmpty(Mono.error(new InvalidTokenException("Authentication required", null)));
+    }
+
+    private <T> Mono<T> blocking(Callable<T> call) {
+        return Mono.fromCallable(call).subscribeOn(Schedulers.boundedElastic());
+    }
+
+    /**
+     * Removes staging files of uploads interrupted by a crash; see {@code BlobStore#purgeTemporaryObjects}.
+     */
+    @Scheduled(fixedDelayString = "${file.temp-cleanup-interval:PT1H}")
+    public void purgeStaged() {
+        FileTime threshold = FileTime.from(Instant.now().minus(properties.getTempMaxAge()));
+        try (Stream<Path> files = Files.list(stagingLocation)) {
+            files.filter(path -> path.getFileName().toString().endsWith(".rx"))
+                    .filter(path -> {
+                        try {
+                            return Files.getLastModifiedTime(path).compareTo(threshold) < 0;
+                        } catch (IOException e) {
+                            return false;
+                        }
+                    })
+                    .forEach(this::deleteStaged);
+        } catch (IOException e) {
+            log.warn("Failed to list staging directory {}", stagingLocation, e);
+        }
+    }
+
+    private void deleteStaged(Path staged) {
+        try {
+            Files.deleteIfExists(staged);
+        } catch (IOException e) {
+            log.warn("Failed to remove staging file {}", staged, e);
+        }
+    }
+}
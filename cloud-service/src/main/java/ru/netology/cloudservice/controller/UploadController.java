@@ -0,0 +1,84 @@
+package ru.netology.cloudservice.controller;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.core.annotation.AuthenticationPrincipal;
+import org.springframework.web.bind.annotation.*;
+import ru.netology.cloudservice.dto.StartUploadRequest;
+import ru.netology.cloudservice.dto.UploadSessionResponse;
+import ru.netology.cloudservice.entity.User;
+import ru.netology.cloudservice.exception.StorageException;
+import ru.netology.cloudservice.service.ChunkedUploadService;
+import javax.servlet.http.HttpServletRequest;
+import javax.validation.Valid;
+import java.io.IOException;
+
+@RestController
+@RequestMapping("/auth/upload")
+@RequiredArgsConstructor
+@Slf4j
+public class UploadController {
+
+    private final ChunkedUploadService chunkedUploadService;
+
+    @PostMapping
+    public ResponseEntity<UploadSessionResponse> startUpload(
+            @Valid @RequestBody StartUploadRequest request,
+            @AuthenticationPrincipal User user) {
+        try {
+            return ResponseEntity.ok(chunkedUploadService.start(request, user));
+        } catch (IOException e) {
+            log.error("Failed to start chunked upload for {}", request.getFilename(), e);
+            throw new StorageException("Failed to start upload", e);
+        }
+    }
+
+    @PutMapping(value = "/{uploadId}/chunks/{index}", consumes = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+    public ResponseEntity<UploadSessionResponse> uploadChunk(
+            @PathVariable String uploadId,
+            @PathVariable int index,
+            @AuthenticationPrincipal User user,
+            HttpServletRequest request) {
+        try {
+            return ResponseEntity.ok(chunkedUploadService.writeChunk(uploadId, index, request.getInputStream(), user));
+        } catch (IOException e) {
+            log.error("Failed to write chunk {} of upload {}", index, uploadId, e);
+            throw new StorageException("Chunk upload failed", e);
+        }
+    }
+
+    @GetMapping("/{uploadId}")
+    public ResponseEntity<UploadSessionResponse> getUploadStatus(
+            @PathVariable String uploadId,
+            @AuthenticationPrincipal User user) {
+        return ResponseEntity.ok(chunkedUploadService.status(uploadId, user));
+    }
+
+    @PostMapping("/{uploadId}/commit")
+    public ResponseEntity<Void> commitUpload(
+            @PathVariable String uploadId,
+            @AuthenticationPrincipal User user) {
+        try {
+            chunkedUploadService.commit(uploadId, user);
+            return ResponseEntity.ok().build();
+        } catch (IOException e) {
+            log.error("Failed to commit upload {}", uploadId, e);
+            throw new StorageException("Upload commit failed", e);
+        }
+    }
+
+    @DeleteMapping("/{uploadId}")
+    public ResponseEntity<Void> abortUpload(
+            @PathVariable String uploadId,
+            @AuthenticationPrincipal User user) {
+        try {
+            chunkedUploadService.abort(uploadId, user);
+            return ResponseEntity.ok().build();
+        } catch (IOException e) {
+            log.error("Failed to abort upload {}", uploadId, e);
+            throw new StorageException("Upload abort failed", e);
+        }
+    }
+}
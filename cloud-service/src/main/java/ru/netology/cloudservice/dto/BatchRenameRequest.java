@@ -0,0 +1,16 @@
+package ru.netology.cloudservice.dto;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.Map;
+
+/**
+ * Old filename to new filename, e.g. {@code {"renames": {"a.txt": "b.txt"}}}.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class BatchRenameRequest {
+    private Map<String, String> renames;
+}
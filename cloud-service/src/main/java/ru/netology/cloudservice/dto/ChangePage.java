@@ -0,0 +1,18 @@
+package ru.netology.cloudservice.dto;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import java.util.List;
+
+/**
+ * Changes after the requested cursor. The client passes {@code cursor} as {@code since}
+ * on the next call. {@code reset} means the journal no longer reaches back to the
+ * requested cursor: the client has to list its files again and continue from {@code cursor}.
+ */
+@Data
+@AllArgsConstructor
+public class ChangePage {
+    private List<FileChangeResponse> changes;
+    private long cursor;
+    private boolean hasMore;
+    private boolean reset;
+}
@@ -0,0 +1,13 @@
+package ru.netology.cloudservice.dto;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+/**
+ * Number of files whose content has the given hash.
+ */
+@Data
+@AllArgsConstructor
+public class ContentReferences {
+    private String hash;
+    private long count;
+}
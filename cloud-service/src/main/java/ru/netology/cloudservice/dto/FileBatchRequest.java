@@ -0,0 +1,13 @@
+package ru.netology.cloudservice.dto;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class FileBatchRequest {
+    private List<String> filenames;
+}
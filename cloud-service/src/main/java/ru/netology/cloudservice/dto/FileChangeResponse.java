@@ -0,0 +1,24 @@
+package ru.netology.cloudservice.dto;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import ru.netology.cloudservice.entity.ChangeType;
+import java.time.Instant;
+
+/**
+ * Entry of the change feed. {@code previousFilename} is set for renames only; size,
+ * hash and MIME type describe the file after the change and are absent for deletes.
+ */
+@Data
+@AllArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class FileChangeResponse {
+    private long seq;
+    private ChangeType type;
+    private String filename;
+    private String previousFilename;
+    private Long size;
+    private String checksum;
+    private String mimeType;
+    private Instant time;
+}
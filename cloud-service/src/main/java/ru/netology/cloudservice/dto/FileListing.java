@@ -0,0 +1,20 @@
+package ru.netology.cloudservice.dto;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import java.time.Instant;
+
+/**
+ * Row of a file listing page: the listed fields plus the keys needed to build the next cursor.
+ */
+@Data
+@AllArgsConstructor
+public class FileListing {
+    private Long id;
+    private String filename;
+    private Long size;
+    private Instant uploadedAt;
+    private String mimeType;
+    private String checksum;
+    private Integer imageWidth;
+    private Integer imageHeight;
+}
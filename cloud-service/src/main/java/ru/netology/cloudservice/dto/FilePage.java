@@ -0,0 +1,11 @@
+package ru.netology.cloudservice.dto;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import java.util.List;
+
+@Data
+@AllArgsConstructor
+public class FilePage {
+    private List<FileResponse> files;
+    private String nextCursor;
+}
@@ -1,10 +1,24 @@
 package ru.netology.cloudservice.dto;
+import com.fasterxml.jackson.annotation.JsonInclude;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 
+/**
+ * Entry of a file listing. The fields after {@code size} are filled in by the processing
+ * pipeline after upload and are left out of the JSON until then.
+ */
 @Data
 @AllArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
 public class FileResponse {
     private String filename;
     private long size;
-}
\ No newline at end of file
+    private String mimeType;
+    private String checksum;
+    private Integer width;
+    private Integer height;
+
+    public FileResponse(String filename, long size) {
+        this(filename, size, null, null, null, null);
+    }
+}
@@ -0,0 +1,29 @@
+package ru.netology.cloudservice.dto;
+
+import ru.netology.cloudservice.exception.FileProcessingException;
+
+import java.util.Locale;
+
+public enum FileSortField {
+    NAME("filename"),
+    SIZE("size"),
+    UPLOADED("uploadedAt");
+
+    private final String property;
+
+    FileSortField(String property) {
+        this.property = property;
+    }
+
+    public String getProperty() {
+        return property;
+    }
+
+    public static FileSortField parse(String value) {
+        try {
+            return valueOf(value.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new FileProcessingException("Unsupported sort field: " + value);
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package ru.netology.cloudservice.dto;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import javax.validation.constraints.NotBlank;
+import javax.validation.constraints.PositiveOrZero;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class StartUploadRequest {
+    @NotBlank(message = "Filename is required")
+    private String filename;
+    @PositiveOrZero(message = "Size must not be negative")
+    private long size;
+    private Long chunkSize;
+}
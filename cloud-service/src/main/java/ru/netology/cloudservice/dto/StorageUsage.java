@@ -0,0 +1,18 @@
+package ru.netology.cloudservice.dto;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+/**
+ * Storage used by one user. {@code quotaBytes} is {@code null} when quotas are not enforced.
+ */
+@Data
+@AllArgsConstructor
+public class StorageUsage {
+    private long bytesUsed;
+    private long fileCount;
+    private Long quotaBytes;
+
+    public StorageUsage(long bytesUsed, long fileCount) {
+        this(bytesUsed, fileCount, null);
+    }
+}
@@ -0,0 +1,15 @@
+package ru.netology.cloudservice.dto;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import java.util.List;
+
+@Data
+@AllArgsConstructor
+public class UploadSessionResponse {
+    private String uploadId;
+    private String filename;
+    private long size;
+    private long chunkSize;
+    private int totalChunks;
+    private List<Integer> receivedChunks;
+}
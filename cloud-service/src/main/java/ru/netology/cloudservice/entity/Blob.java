@@ -0,0 +1,25 @@
+package ru.netology.cloudservice.entity;
+import lombok.Data;
+import ru.netology.cloudservice.storage.BlobCodec;
+import javax.persistence.*;
+import java.time.Instant;
+
+@Entity
+@Data
+@Table(name = "blobs")
+public class Blob {
+    @Id
+    @Column(length = 64)
+    private String hash;
+    @Column(nullable = false)
+    private Long size;
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false, length = 16)
+    private BlobCodec codec;
+    @Column(nullable = false)
+    private Long storedSize;
+    @Column(nullable = false)
+    private Long refCount;
+    @Column(nullable = false)
+    private Instant createdAt;
+}
@@ -0,0 +1,12 @@
+package ru.netology.cloudservice.entity;
+
+/**
+ * Kind of a {@link FileChange}.
+ */
+public enum ChangeType {
+    CREATED,
+    RENAMED,
+    DELETED,
+    /** Metadata filled in after upload, such as the MIME type. */
+    UPDATED
+}
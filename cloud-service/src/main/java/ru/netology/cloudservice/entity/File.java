@@ -1,19 +1,56 @@
 package ru.netology.cloudservice.entity;
 import lombok.Data;
+import ru.netology.cloudservice.storage.BlobCodec;
 import javax.persistence.*;
+import java.time.Instant;
 
 @Entity
 @Data
-@Table(name = "files")
+@Table(name = "files", uniqueConstraints = {
+        @UniqueConstraint(name = File.USER_FILENAME_CONSTRAINT, columnNames = {"user_id", "filename"})
+}, indexes = {
+        @Index(name = "idx_files_user_size", columnList = "user_id, size, id"),
+        @Index(name = "idx_files_user_uploaded", columnList = "user_id, uploaded_at, id"),
+        @Index(name = "idx_files_content_hash", columnList = "contentHash")
+})
 public class File {
+    public static final String USER_FILENAME_CONSTRAINT = "uk_files_user_filename";
+
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "files_id_seq")
+    @SequenceGenerator(name = "files_id_seq", sequenceName = "files_id_seq", allocationSize = 50)
     private Long id;
     @Column(nullable = false)
     private String filename;
     @Column(nullable = false)
     private String filepath;
     private Long size;
-    @ManyToOne
+    @Column(length = 64)
+    private String contentHash;
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false, length = 16)
+    private BlobCodec codec = BlobCodec.NONE;
+    @Column(name = "uploaded_at", nullable = false)
+    private Instant uploadedAt;
+    @Column(length = 127)
+    private String mimeType;
+    @Column(length = 64)
+    private String checksum;
+    private Integer imageWidth;
+    private Integer imageHeight;
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false, length = 16)
+    private ProcessingStatus processingStatus = ProcessingStatus.PENDING;
+    @Column(nullable = false)
+    private int processingAttempts;
+    private Instant processedAt;
+    @ManyToOne(fetch = FetchType.LAZY)
     private User user;
-}
\ No newline at end of file
+
+    @PrePersist
+    void prePersist() {
+        if (uploadedAt == null) {
+            uploadedAt = Instant.now();
+        }
+    }
+}
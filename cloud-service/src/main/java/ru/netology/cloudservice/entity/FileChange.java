@@ -0,0 +1,35 @@
+package ru.netology.cloudservice.entity;
+import lombok.Data;
+import javax.persistence.*;
+import java.time.Instant;
+
+/**
+ * Entry of the per-user change journal. {@code seq} increases by one with every change
+ * of the user's files and is the cursor sync clients resume from.
+ */
+@Entity
+@Data
+@Table(name = "file_changes")
+public class FileChange {
+    @Id
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "file_changes_id_seq")
+    @SequenceGenerator(name = "file_changes_id_seq", sequenceName = "file_changes_id_seq", allocationSize = 50)
+    private Long id;
+    @ManyToOne(fetch = FetchType.LAZY, optional = false)
+    private User user;
+    @Column(nullable = false)
+    private Long seq;
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false, length = 16)
+    private ChangeType type;
+    @Column(nullable = false)
+    private String filename;
+    private String previousFilename;
+    private Long size;
+    @Column(length = 64)
+    private String contentHash;
+    @Column(length = 127)
+    private String mimeType;
+    @Column(nullable = false)
+    private Instant createdAt;
+}
@@ -0,0 +1,12 @@
+package ru.netology.cloudservice.entity;
+
+/**
+ * State of the post-upload processing of a file, see {@code FileProcessingService}.
+ */
+public enum ProcessingStatus {
+    PENDING,
+    DONE,
+    FAILED,
+    /** The stored bytes no longer match the content hash recorded at upload. */
+    CORRUPT
+}
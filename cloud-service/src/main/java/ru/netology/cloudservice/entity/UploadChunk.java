@@ -0,0 +1,18 @@
+package ru.netology.cloudservice.entity;
+import lombok.Data;
+import javax.persistence.*;
+
+@Entity
+@Data
+@Table(name = "upload_chunks",
+        uniqueConstraints = @UniqueConstraint(columnNames = {"session_id", "chunk_index"}))
+public class UploadChunk {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+    @ManyToOne(optional = false)
+    @JoinColumn(name = "session_id")
+    private UploadSession session;
+    @Column(name = "chunk_index", nullable = false)
+    private Integer chunkIndex;
+}
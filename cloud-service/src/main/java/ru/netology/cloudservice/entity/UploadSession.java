@@ -0,0 +1,26 @@
+package ru.netology.cloudservice.entity;
+import lombok.Data;
+import javax.persistence.*;
+import java.time.Instant;
+
+@Entity
+@Data
+@Table(name = "upload_sessions")
+public class UploadSession {
+    @Id
+    private String id;
+    @Column(nullable = false)
+    private String filename;
+    @Column(nullable = false)
+    private Long totalSize;
+    @Column(nullable = false)
+    private Long chunkSize;
+    @Column(nullable = false)
+    private Integer totalChunks;
+    @Column(nullable = false)
+    private String stagingPath;
+    @Column(nullable = false)
+    private Instant createdAt;
+    @ManyToOne(optional = false)
+    private User user;
+}
@@ -2,6 +2,7 @@ package ru.netology.cloudservice.entity;
 import lombok.Data;
 import org.springframework.security.core.GrantedAuthority;
 import org.springframework.security.core.userdetails.UserDetails;
+import ru.netology.cloudservice.service.UserCacheEvictionListener;
 import javax.persistence.*;
 import javax.validation.constraints.Email;
 import javax.validation.constraints.NotBlank;
@@ -11,6 +12,7 @@ import java.util.Collections;
 @Entity
 @Data
 @Table(name = "users")
+@EntityListeners(UserCacheEvictionListener.class)
 public class User implements UserDetails {
     @Id
     @GeneratedValue(strategy = GenerationType.IDENTITY)
@@ -25,6 +27,17 @@ public class User implements UserDetails {
     @Email
     @NotBlank
     private String email;
+    // Changed only by the bulk updates in UserRepository, so that saving a stale copy,
+    // such as the cached principal, cannot overwrite the counters.
+    @Column(nullable = false, updatable = false)
+    private long bytesUsed;
+    @Column(nullable = false, updatable = false)
+    private long fileCount;
+    /** Sequence number of the latest {@link FileChange}; also the ETag of the file listing. */
+    @Column(nullable = false, updatable = false)
+    private long filesVersion;
+    /** Overrides {@code file.quota.default-limit} for this user. */
+    private Long quotaBytes;
     @Override
     public Collection<? extends GrantedAuthority> getAuthorities() {
         return Collections.emptyList();
@@ -25,6 +25,7 @@ public class GlobalExceptionHandler extends ResponseEntityExceptionHandler {
 
     @ExceptionHandler({
             UserAlreadyExistsException.class,
+            FileProcessingException.class,
             ConstraintViolationException.class
     })
     public ResponseEntity<ErrorResponse> handleBadRequestExceptions(RuntimeException ex) {
@@ -41,6 +42,14 @@ public class GlobalExceptionHandler extends ResponseEntityExceptionHandler {
                 .body(new ErrorResponse(ex.getMessage(), HttpStatus.NOT_FOUND.value()));
     }
 
+    @ExceptionHandler({
+            QuotaExceededException.class
+    })
+    public ResponseEntity<ErrorResponse> handleQuotaExceeded(QuotaExceededException ex) {
+        return ResponseEntity.status(HttpStatus.PAYLOAD_TOO_LARGE)
+                .body(new ErrorResponse(ex.getMessage(), HttpStatus.PAYLOAD_TOO_LARGE.value()));
+    }
+
     @ExceptionHandler({
             CorsException.class
     })
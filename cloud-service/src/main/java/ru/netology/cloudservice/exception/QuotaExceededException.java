@@ -0,0 +1,7 @@
+package ru.netology.cloudservice.exception;
+
+public class QuotaExceededException extends RuntimeException {
+    public QuotaExceededException(long bytesUsed, long bytes, long quota) {
+        super("Storage quota exceeded: " + bytesUsed + " of " + quota + " bytes used, " + bytes + " more requested");
+    }
+}
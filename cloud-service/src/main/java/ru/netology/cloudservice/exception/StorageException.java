@@ -7,6 +7,7 @@ public class StorageException extends RuntimeException {
         super(message);
     }
 
-    public StorageException(String fileUploadFailed, IOException e) {
+    public StorageException(String message, IOException cause) {
+        super(message, cause);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,57 @@
+package ru.netology.cloudservice.metrics;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.stereotype.Component;
+
+/**
+ * Meters for file traffic. Operation latency is recorded by {@code @Timed} on
+ * {@code FileService} under {@link #OPERATION_TIMER}; this class covers what an
+ * annotation cannot: bytes moved and the stages of an upload.
+ */
+@Component
+public class FileMetrics {
+
+    public static final String OPERATION_TIMER = "file.operation";
+
+    private final MeterRegistry meterRegistry;
+    private final Counter bytesIn;
+    private final Counter bytesOut;
+
+    public FileMetrics(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+        this.bytesIn = Counter.builder("file.bytes.in")
+                .description("Bytes received in uploads")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        this.bytesOut = Counter.builder("file.bytes.out")
+                .description("Bytes sent in downloads")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+    }
+
+    public void recordBytesIn(long bytes) {
+        bytesIn.increment(bytes);
+    }
+
+    public void recordBytesOut(long bytes) {
+        bytesOut.increment(bytes);
+    }
+
+    public Timer.Sample startStage() {
+        return Timer.start(meterRegistry);
+    }
+
+    /**
+     * Records one stage of an upload, e.g. {@code store} (streaming and hashing the
+     * content) or {@code metadata} (writing the file row).
+     */
+    public void stopStage(Timer.Sample sample, String stage) {
+        sample.stop(Timer.builder("file.upload.stage")
+                .description("Time spent in each stage of an upload")
+                .tag("stage", stage)
+                .publishPercentileHistogram()
+                .register(meterRegistry));
+    }
+}
@@ -0,0 +1,71 @@
+package ru.netology.cloudservice.metrics;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import ru.netology.cloudservice.repository.BlobRepository;
+import ru.netology.cloudservice.repository.UserRepository;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Periodically refreshed storage gauges: logical bytes of all users, the number of users
+ * per usage bucket and physical bytes held by the blob store. No series names a user;
+ * the usage of one user is only shown to that user, by {@code GET /auth/usage}.
+ */
+@Component
+@Slf4j
+public class StorageUsageMetrics {
+
+    private static final long MB = 1024 * 1024;
+    /** Exclusive upper bounds of the usage buckets but the last, which has none */
+    private static final long[] BUCKET_BOUNDS = {MB, 100 * MB, 1024 * MB, 10 * 1024 * MB, Long.MAX_VALUE};
+    private static final String[] BUCKET_NAMES = {"under-1MB", "1MB-100MB", "100MB-1GB", "1GB-10GB", "over-10GB"};
+
+    private final UserRepository userRepository;
+    private final BlobRepository blobRepository;
+    private final AtomicLong storedBytes = new AtomicLong();
+    private final List<AtomicLong> usersPerBucket = new ArrayList<>();
+    private final AtomicLong blobBytes = new AtomicLong();
+
+    public StorageUsageMetrics(UserRepository userRepository, BlobRepository blobRepository,
+                               MeterRegistry meterRegistry) {
+        this.userRepository = userRepository;
+        this.blobRepository = blobRepository;
+        Gauge.builder("file.stored.bytes", storedBytes, AtomicLong::get)
+                .description("Bytes of files of all users, before deduplication")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        for (String bucket : BUCKET_NAMES) {
+            AtomicLong users = new AtomicLong();
+            usersPerBucket.add(users);
+            Gauge.builder("file.stored.users", users, AtomicLong::get)
+                    .description("Users by the bytes their files take")
+                    .tag("size", bucket)
+                    .register(meterRegistry);
+        }
+        Gauge.builder("blob.stored.bytes", blobBytes, AtomicLong::get)
+                .description("Bytes held by the blob store after deduplication and compression")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+    }
+
+    @Scheduled(fixedDelayString = "${file.metrics.refresh-interval:PT1M}")
+    public void refresh() {
+        try {
+            storedBytes.set(userRepository.sumBytesUsed());
+            long lower = 0;
+            for (int i = 0; i < BUCKET_BOUNDS.length; i++) {
+                usersPerBucket.get(i).set(userRepository.countByBytesUsedInRange(lower, BUCKET_BOUNDS[i]));
+                lower = BUCKET_BOUNDS[i];
+            }
+            blobBytes.set(blobRepository.sumStoredSize());
+        } catch (RuntimeException e) {
+            log.warn("Failed to refresh storage usage metrics", e);
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package ru.netology.cloudservice.repository;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import ru.netology.cloudservice.entity.Blob;
+import ru.netology.cloudservice.storage.BlobCodec;
+import javax.persistence.LockModeType;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+public interface BlobRepository extends JpaRepository<Blob, String> {
+    @Modifying
+    @Query(value = "insert into blobs (hash, size, codec, stored_size, ref_count, created_at) "
+            + "values (:hash, :size, :codec, :storedSize, 0, :createdAt) "
+            + "on conflict (hash) do nothing", nativeQuery = true)
+    int insertIfAbsent(@Param("hash") String hash, @Param("size") long size, @Param("codec") String codec,
+                       @Param("storedSize") long storedSize, @Param("createdAt") Instant createdAt);
+
+    @Modifying
+    @Query("update Blob b set b.codec = :codec, b.storedSize = :storedSize where b.hash = :hash")
+    int updateEncoding(@Param("hash") String hash, @Param("codec") BlobCodec codec,
+                       @Param("storedSize") long storedSize);
+
+    @Modifying
+    @Query("update Blob b set b.refCount = b.refCount + 1 where b.hash = :hash")
+    int incrementRefCount(@Param("hash") String hash);
+
+    @Modifying
+    @Query("update Blob b set b.refCount = b.refCount - :count where b.hash in :hashes")
+    int decrementRefCounts(@Param("hashes") Collection<String> hashes, @Param("count") long count);
+
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("select b from Blob b where b.hash = :hash")
+    Optional<Blob> findByHashForUpdate(@Param("hash") String hash);
+
+    @Modifying
+    @Query("update Blob b set b.refCount = :refCount where b.hash = :hash")
+    int updateRefCount(@Param("hash") String hash, @Param("refCount") long refCount);
+
+    List<Blob> findByHashBetween(String from, String to);
+
+    @Query("select coalesce(sum(b.storedSize), 0) from Blob b")
+    long sumStoredSize();
+
+    @Query("select b.hash from Blob b where b.refCount <= 0 order by b.hash")
+    List<String> findUnreferencedHashes(Pageable pageable);
+}
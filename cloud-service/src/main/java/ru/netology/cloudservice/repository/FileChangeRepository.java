@@ -0,0 +1,19 @@
+package ru.netology.cloudservice.repository;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import ru.netology.cloudservice.entity.FileChange;
+import java.time.Instant;
+import java.util.List;
+
+public interface FileChangeRepository extends JpaRepository<FileChange, Long> {
+
+    @Query("select c from FileChange c where c.user.id = :userId and c.seq > :since order by c.seq")
+    List<FileChange> findAfter(@Param("userId") Long userId, @Param("since") long since, Pageable pageable);
+
+    @Modifying
+    @Query("delete from FileChange c where c.createdAt < :before")
+    int deleteCreatedBefore(@Param("before") Instant before);
+}
@@ -1,14 +1,70 @@
 package ru.netology.cloudservice.repository;
-import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import ru.netology.cloudservice.dto.ContentReferences;
+import ru.netology.cloudservice.dto.StorageUsage;
 import ru.netology.cloudservice.entity.File;
+import ru.netology.cloudservice.entity.ProcessingStatus;
 import ru.netology.cloudservice.entity.User;
+import javax.persistence.LockModeType;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
 
-public interface FileRepository extends JpaRepository<File, Long> {
-    Page<File> findByUser(User user, Pageable pageable);
+public interface FileRepository extends JpaRepository<File, Long>, FileRepositoryCustom {
     Optional<File> findByUserAndFilename(User user, String filename);
     boolean existsByUserAndFilename(User user, String newFilename);
+    List<File> findByUserAndFilenameIn(User user, Collection<String> filenames);
 
+    @Query("select new ru.netology.cloudservice.dto.StorageUsage(coalesce(sum(f.size), 0), count(f)) "
+            + "from File f where f.user.id = :userId")
+    StorageUsage sumUsage(@Param("userId") Long userId);
+
+    /**
+     * Files waiting for processing that were never attempted or last attempted before {@code attemptedBefore}.
+     */
+    @Query("select f.id from File f where f.processingStatus = ru.netology.cloudservice.entity.ProcessingStatus.PENDING "
+            + "and (f.processedAt is null or f.processedAt < :attemptedBefore) order by f.id")
+    List<Long> findPendingProcessing(@Param("attemptedBefore") Instant attemptedBefore, Pageable pageable);
+
+    @Modifying
+    @Query("update File f set f.mimeType = :mimeType, f.checksum = :checksum, f.imageWidth = :width, "
+            + "f.imageHeight = :height, f.processingStatus = :status, "
+            + "f.processingAttempts = f.processingAttempts + 1, f.processedAt = :processedAt where f.id = :id")
+    int recordProcessing(@Param("id") Long id, @Param("mimeType") String mimeType,
+                         @Param("checksum") String checksum, @Param("width") Integer width,
+                         @Param("height") Integer height, @Param("status") ProcessingStatus status,
+                         @Param("processedAt") Instant processedAt);
+
+    /**
+     * Number of files per content hash, for hashes between {@code from} and {@code to} inclusive.
+     */
+    @Query("select new ru.netology.cloudservice.dto.ContentReferences(f.contentHash, count(f)) from File f "
+            + "where f.contentHash between :from and :to group by f.contentHash")
+    List<ContentReferences> countReferences(@Param("from") String from, @Param("to") String to);
+
+    long countByContentHash(String contentHash);
+
+    /**
+     * Files uploaded before the blob store existed, kept flat under the storage root.
+     */
+    @Query("select f.id from File f where f.contentHash is null and f.id > :afterId order by f.id")
+    List<Long> findLegacyIdsAfter(@Param("afterId") Long afterId, Pageable pageable);
+
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("select f from File f where f.id = :id")
+    Optional<File> findByIdForUpdate(@Param("id") Long id);
+
+    Optional<File> findFirstByContentHash(String contentHash);
+
+    @Modifying
+    @Query("update File f set f.processingStatus = ru.netology.cloudservice.entity.ProcessingStatus.CORRUPT "
+            + "where f.contentHash = :hash "
+            + "and f.processingStatus <> ru.netology.cloudservice.entity.ProcessingStatus.CORRUPT")
+    int markCorrupt(@Param("hash") String hash);
 }
\ No newline at end of file
@@ -0,0 +1,24 @@
+package ru.netology.cloudservice.repository;
+import ru.netology.cloudservice.dto.FileListing;
+import ru.netology.cloudservice.dto.FileSortField;
+import ru.netology.cloudservice.entity.User;
+import java.util.List;
+import java.util.Map;
+
+public interface FileRepositoryCustom {
+
+    /**
+     * Keyset page of a user's files ordered by {@code sort} and then by id.
+     * Rows up to and including ({@code afterValue}, {@code afterId}) are skipped
+     * when {@code afterId} is not {@code null}.
+     */
+    List<FileListing> findPage(User user, String prefix, FileSortField sort, boolean descending,
+                               Object afterValue, Long afterId, int limit);
+
+    /**
+     * Renames the user's files from each key of {@code renames} to its value with one update statement.
+     *
+     * @return number of rows updated
+     */
+    int renameAll(User user, Map<String, String> renames);
+}
@@ -0,0 +1,72 @@
+package ru.netology.cloudservice.repository;
+import ru.netology.cloudservice.dto.FileListing;
+import ru.netology.cloudservice.dto.FileSortField;
+import ru.netology.cloudservice.entity.User;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.persistence.Query;
+import javax.persistence.TypedQuery;
+import java.util.List;
+import java.util.Map;
+
+public class FileRepositoryImpl implements FileRepositoryCustom {
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    @Override
+    public List<FileListing> findPage(User user, String prefix, FileSortField sort, boolean descending,
+                                      Object afterValue, Long afterId, int limit) {
+        String column = "f." + sort.getProperty();
+        String comparison = descending ? "<" : ">";
+        String direction = descending ? " desc" : " asc";
+
+        StringBuilder jpql = new StringBuilder("select new ru.netology.cloudservice.dto.FileListing("
+                + "f.id, f.filename, f.size, f.uploadedAt, f.mimeType, f.checksum, f.imageWidth, f.imageHeight) "
+                + "from File f where f.user = :user");
+        if (prefix != null) {
+            jpql.append(" and f.filename like :prefix escape '!'");
+        }
+        if (afterId != null) {
+            // The redundant inclusive bound lets the planner start an index range scan at the cursor.
+            jpql.append(" and ").append(column).append(' ').append(comparison).append("= :afterValue");
+            jpql.append(" and (").append(column).append(' ').append(comparison).append(" :afterValue or (")
+                    .append(column).append(" = :afterValue and f.id ").append(comparison).append(" :afterId))");
+        }
+        jpql.append(" order by ").append(column).append(direction).append(", f.id").append(direction);
+
+        TypedQuery<FileListing> query = entityManager.createQuery(jpql.toString(), FileListing.class)
+                .setParameter("user", user)
+                .setMaxResults(limit);
+        if (prefix != null) {
+            query.setParameter("prefix", escapeLike(prefix) + "%");
+        }
+        if (afterId != null) {
+            query.setParameter("afterValue", afterValue).setParameter("afterId", afterId);
+        }
+        return query.getResultList();
+    }
+
+    @Override
+    public int renameAll(User user, Map<String, String> renames) {
+        StringBuilder jpql = new StringBuilder("update File f set f.filename = case f.filename");
+        for (int i = 0; i < renames.size(); i++) {
+            jpql.append(" when :old").append(i).append(" then :new").append(i);
+        }
+        jpql.append(" else f.filename end where f.user = :user and f.filename in :filenames");
+
+        Query query = entityManager.createQuery(jpql.toString())
+                .setParameter("user", user)
+                .setParameter("filenames", renames.keySet());
+        int i = 0;
+        for (Map.Entry<String, String> rename : renames.entrySet()) {
+            query.setParameter("old" + i, rename.getKey()).setParameter("new" + i, rename.getValue());
+            i++;
+        }
+        return query.executeUpdate();
+    }
+
+    private String escapeLike(String value) {
+        return value.replace("!", "!!").replace("%", "!%").replace("_", "!_");
+    }
+}
@@ -0,0 +1,21 @@
+package ru.netology.cloudservice.repository;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import ru.netology.cloudservice.entity.UploadChunk;
+import ru.netology.cloudservice.entity.UploadSession;
+import java.util.List;
+
+public interface UploadChunkRepository extends JpaRepository<UploadChunk, Long> {
+    @Query("select c.chunkIndex from UploadChunk c where c.session = :session order by c.chunkIndex")
+    List<Integer> findChunkIndexes(@Param("session") UploadSession session);
+
+    boolean existsBySessionAndChunkIndex(UploadSession session, Integer chunkIndex);
+
+    long countBySession(UploadSession session);
+
+    @Modifying
+    @Query("delete from UploadChunk c where c.session = :session")
+    void deleteBySession(@Param("session") UploadSession session);
+}
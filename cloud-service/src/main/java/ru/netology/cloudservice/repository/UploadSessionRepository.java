@@ -0,0 +1,12 @@
+package ru.netology.cloudservice.repository;
+import org.springframework.data.jpa.repository.JpaRepository;
+import ru.netology.cloudservice.entity.UploadSession;
+import ru.netology.cloudservice.entity.User;
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+
+public interface UploadSessionRepository extends JpaRepository<UploadSession, String> {
+    Optional<UploadSession> findByIdAndUser(String id, User user);
+    List<UploadSession> findByCreatedAtBefore(Instant threshold);
+}
@@ -1,9 +1,70 @@
 package ru.netology.cloudservice.repository;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import ru.netology.cloudservice.dto.StorageUsage;
 import ru.netology.cloudservice.entity.User;
+import java.util.List;
 import java.util.Optional;
 
 public interface UserRepository extends JpaRepository<User, Long> {
     Optional<User> findByEmail(String email);
     boolean existsByEmail(String email);
-}
\ No newline at end of file
+
+    /**
+     * Adds to the usage counters only if the result stays within the user's quota,
+     * so checking and reserving is one atomic statement.
+     *
+     * @return 1 if the usage was added, 0 if it would exceed the quota
+     */
+    @Modifying
+    @Query("update User u set u.bytesUsed = u.bytesUsed + :bytes, u.fileCount = u.fileCount + :files "
+            + "where u.id = :id and u.bytesUsed + :bytes <= coalesce(u.quotaBytes, :defaultQuota)")
+    int reserveUsage(@Param("id") Long id, @Param("bytes") long bytes, @Param("files") long files,
+                     @Param("defaultQuota") long defaultQuota);
+
+    @Modifying
+    @Query("update User u set u.bytesUsed = u.bytesUsed + :bytes, u.fileCount = u.fileCount + :files "
+            + "where u.id = :id")
+    int adjustUsage(@Param("id") Long id, @Param("bytes") long bytes, @Param("files") long files);
+
+    @Modifying
+    @Query("update User u set u.bytesUsed = :bytes, u.fileCount = :files where u.id = :id")
+    int setUsage(@Param("id") Long id, @Param("bytes") long bytes, @Param("files") long files);
+
+    @Query("select new ru.netology.cloudservice.dto.StorageUsage(u.bytesUsed, u.fileCount, u.quotaBytes) "
+            + "from User u where u.id = :id")
+    Optional<StorageUsage> findUsage(@Param("id") Long id);
+
+    /**
+     * Advances the user's file version by {@code count} and locks the row until the
+     * transaction ends, so that concurrent changes of one user get consecutive numbers.
+     */
+    @Modifying
+    @Query("update User u set u.filesVersion = u.filesVersion + :count where u.id = :id")
+    int incrementFilesVersion(@Param("id") Long id, @Param("count") long count);
+
+    @Query("select u.filesVersion from User u where u.id = :id")
+    Optional<Long> findFilesVersion(@Param("id") Long id);
+
+    /**
+     * Locks the user row until the end of the transaction; uploads and deletes of the
+     * user wait for the lock when they update the counters.
+     */
+    @Query(value = "select id from users where id = :id for update", nativeQuery = true)
+    Optional<Long> lockById(@Param("id") Long id);
+
+    @Query("select coalesce(sum(u.bytesUsed), 0) from User u")
+    long sumBytesUsed();
+
+    /**
+     * Counts users whose files take at least {@code from} and less than {@code to} bytes.
+     */
+    @Query("select count(u) from User u where u.bytesUsed >= :from and u.bytesUsed < :to")
+    long countByBytesUsedInRange(@Param("from") long from, @Param("to") long to);
+
+    @Query("select u.id from User u where u.id > :afterId order by u.id")
+    List<Long> findIdsAfter(@Param("afterId") Long afterId, Pageable pageable);
+}
@@ -2,6 +2,8 @@ package ru.netology.cloudservice.security;
 
 import io.jsonwebtoken.ExpiredJwtException;
 import io.jsonwebtoken.JwtException;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.security.core.userdetails.UserDetails;
@@ -9,6 +11,7 @@ import org.springframework.security.core.userdetails.UserDetailsService;
 import org.springframework.security.web.authentication.WebAuthenticationDetailsSource;
 import org.springframework.stereotype.Component;
 import org.springframework.web.filter.OncePerRequestFilter;
+import ru.netology.cloudservice.config.ReactiveConfig;
 import ru.netology.cloudservice.util.JwtTokenUtil;
 import javax.servlet.FilterChain;
 import javax.servlet.ServletException;
@@ -24,10 +27,23 @@ public class JwtFilter extends OncePerRequestFilter {
 
     private final UserDetailsService userDetailsService;
     private final JwtTokenUtil jwtTokenUtil;
+    private final Timer userLookupTimer;
 
-    public JwtFilter(UserDetailsService userDetailsService, JwtTokenUtil jwtTokenUtil) {
+    public JwtFilter(UserDetailsService userDetailsService, JwtTokenUtil jwtTokenUtil, MeterRegistry meterRegistry) {
         this.userDetailsService = userDetailsService;
         this.jwtTokenUtil = jwtTokenUtil;
+        this.userLookupTimer = Timer.builder("auth.user.lookup")
+                .description("Time to resolve the authenticated user, including the user cache")
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+    }
+
+    /**
+     * The reactive API authenticates itself with {@link ReactiveJwtFilter}.
+     */
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        return ReactiveConfig.SERVLET_PATH.equals(request.getServletPath());
     }
 
     @Override
@@ -69,7 +85,8 @@ public class JwtFilter extends OncePerRequestFilter {
         }
 
         if (username != null && SecurityContextHolder.getContext().getAuthentication() == null) {
-            UserDetails userDetails = this.userDetailsService.loadUserByUsername(username);
+            String email = username;
+            UserDetails userDetails = userLookupTimer.record(() -> userDetailsService.loadUserByUsername(email));
 
             UsernamePasswordAuthenticationToken authenticationToken =
                     new UsernamePasswordAuthenticationToken(
@@ -0,0 +1,114 @@
+package ru.netology.cloudservice.security;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.security.authentication.AnonymousAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+import ru.netology.cloudservice.config.ReactiveConfig;
+import ru.netology.cloudservice.dto.ErrorResponse;
+
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+/**
+ * Applies the {@link RequestLimiter} to the MVC endpoints. Runs right after {@link JwtFilter},
+ * so requests are limited per user and, before login, per client address, and a rejected
+ * request is answered with 429 before it takes a database connection. The permit of an
+ * asynchronous request, such as a long poll for changes, is released when it completes.
+ */
+@Component
+@RequiredArgsConstructor
+public class RateLimitFilter extends OncePerRequestFilter {
+
+    private final RequestLimiter requestLimiter;
+    private final ObjectMapper objectMapper;
+
+    /**
+     * The reactive API is limited by {@link ReactiveRateLimitFilter}.
+     */
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        return ReactiveConfig.SERVLET_PATH.equals(request.getServletPath());
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request,
+                                    HttpServletResponse response,
+                                    FilterChain filterChain)
+            throws ServletException, IOException {
+        String path = request.getPathInfo() == null
+                ? request.getServletPath()
+                : request.getServletPath() + request.getPathInfo();
+        RequestLimiter.Permit permit = requestLimiter.acquire(request.getMethod(), path, client(request));
+        if (!permit.isGranted()) {
+            reject(response, permit);
+            return;
+        }
+        boolean async = false;
+        try {
+            filterChain.doFilter(request, response);
+            if (request.isAsyncStarted()) {
+                request.getAsyncContext().addListener(new ReleasingListener(permit));
+                async = true;
+            }
+        } finally {
+            if (!async) {
+                permit.release();
+            }
+        }
+    }
+
+    private static String client(HttpServletRequest request) {
+        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+        if (authentication != null && authentication.isAuthenticated()
+                && !(authentication instanceof AnonymousAuthenticationToken)) {
+            return authentication.getName();
+        }
+        return request.getRemoteAddr();
+    }
+
+    private void reject(HttpServletResponse response, RequestLimiter.Permit permit) throws IOException {
+        response.setStatus(HttpStatus.TOO_MANY_REQUESTS.value());
+        response.setHeader(HttpHeaders.RETRY_AFTER, Long.toString(permit.getRetryAfterSeconds()));
+        response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+        objectMapper.writeValue(response.getOutputStream(),
+                new ErrorResponse(RequestLimiter.MESSAGE, HttpStatus.TOO_MANY_REQUESTS.value()));
+    }
+
+    private static class ReleasingListener implements AsyncListener {
+
+        private final RequestLimiter.Permit permit;
+
+        ReleasingListener(RequestLimiter.Permit permit) {
+            this.permit = permit;
+        }
+
+        @Override
+        public void onComplete(AsyncEvent event) {
+            permit.release();
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event) {
+        }
+
+        @Override
+        public void onError(AsyncEvent event) {
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) {
+        }
+    }
+}
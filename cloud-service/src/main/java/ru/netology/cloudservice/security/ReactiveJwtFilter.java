@@ -0,0 +1,79 @@
+package ru.netology.cloudservice.security;
+
+import io.jsonwebtoken.ExpiredJwtException;
+import io.jsonwebtoken.JwtException;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.context.ReactiveSecurityContextHolder;
+import org.springframework.security.core.userdetails.UserDetailsService;
+import org.springframework.security.core.userdetails.UsernameNotFoundException;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.WebFilter;
+import org.springframework.web.server.WebFilterChain;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+import ru.netology.cloudservice.util.JwtTokenUtil;
+
+/**
+ * {@link JwtFilter} for the reactive endpoints: same headers and token rules, but the
+ * authentication goes into the Reactor context and the user lookup runs on the bounded
+ * elastic scheduler. Every reactive endpoint requires a token.
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class ReactiveJwtFilter implements WebFilter {
+
+    private static final String BEARER_PREFIX = "Bearer ";
+
+    private final UserDetailsService userDetailsService;
+    private final JwtTokenUtil jwtTokenUtil;
+
+    @Override
+    public Mono<Void> filter(ServerWebExchange exchange, WebFilterChain chain) {
+        if (HttpMethod.OPTIONS.equals(exchange.getRequest().getMethod())) {
+            return chain.filter(exchange);
+        }
+
+        HttpHeaders headers = exchange.getRequest().getHeaders();
+        String authHeader = headers.getFirst("auth-token");
+        if (authHeader == null || !authHeader.startsWith(BEARER_PREFIX)) {
+            authHeader = headers.getFirst(HttpHeaders.AUTHORIZATION);
+        }
+        if (authHeader == null || !authHeader.startsWith(BEARER_PREFIX)) {
+            log.debug("No valid auth token found in headers");
+            return unauthorized(exchange);
+        }
+
+        String username;
+        try {
+            username = jwtTokenUtil.getEmailFromToken(authHeader.substring(BEARER_PREFIX.length()));
+        } catch (ExpiredJwtException e) {
+            log.warn("JWT token expired: {}", e.getMessage());
+            return unauthorized(exchange);
+        } catch (JwtException e) {
+            log.warn("Invalid JWT token: {}", e.getMessage());
+            return unauthorized(exchange);
+        }
+
+        return Mono.fromCallable(() -> userDetailsService.loadUserByUsername(username))
+                .subscribeOn(Schedulers.boundedElastic())
+                .map(user -> new UsernamePasswordAuthenticationToken(user, null, user.getAuthorities()))
+                .flatMap(authentication -> chain.filter(exchange)
+                        .contextWrite(ReactiveSecurityContextHolder.withAuthentication(authentication)))
+                .onErrorResume(UsernameNotFoundException.class, e -> {
+                    log.warn("Token user not found: {}", username);
+                    return unauthorized(exchange);
+                });
+    }
+
+    private Mono<Void> unauthorized(ServerWebExchange exchange) {
+        exchange.getResponse().setStatusCode(HttpStatus.UNAUTHORIZED);
+        return exchange.getResponse().setComplete();
+    }
+}
@@ -0,0 +1,70 @@
+package ru.netology.cloudservice.security;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.http.server.reactive.ServerHttpResponse;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.ReactiveSecurityContextHolder;
+import org.springframework.security.core.context.SecurityContext;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.WebFilter;
+import org.springframework.web.server.WebFilterChain;
+import reactor.core.publisher.Mono;
+import ru.netology.cloudservice.dto.ErrorResponse;
+
+import java.net.InetSocketAddress;
+
+/**
+ * {@link RateLimitFilter} for the reactive endpoints. Installed after {@link ReactiveJwtFilter},
+ * whose authentication it finds in the Reactor context; the permit is released when the
+ * response is done or the client goes away.
+ */
+@Component
+@RequiredArgsConstructor
+public class ReactiveRateLimitFilter implements WebFilter {
+
+    private final RequestLimiter requestLimiter;
+    private final ObjectMapper objectMapper;
+
+    @Override
+    public Mono<Void> filter(ServerWebExchange exchange, WebFilterChain chain) {
+        ServerHttpRequest request = exchange.getRequest();
+        return ReactiveSecurityContextHolder.getContext()
+                .map(SecurityContext::getAuthentication)
+                .map(Authentication::getName)
+                .defaultIfEmpty(address(request))
+                .flatMap(client -> {
+                    RequestLimiter.Permit permit = requestLimiter.acquire(request.getMethodValue(),
+                            request.getPath().pathWithinApplication().value(), client);
+                    if (!permit.isGranted()) {
+                        return reject(exchange.getResponse(), permit);
+                    }
+                    return chain.filter(exchange).doFinally(signal -> permit.release());
+                });
+    }
+
+    private static String address(ServerHttpRequest request) {
+        InetSocketAddress address = request.getRemoteAddress();
+        return address == null ? "unknown" : address.getHostString();
+    }
+
+    private Mono<Void> reject(ServerHttpResponse response, RequestLimiter.Permit permit) {
+        response.setStatusCode(HttpStatus.TOO_MANY_REQUESTS);
+        response.getHeaders().set(HttpHeaders.RETRY_AFTER, Long.toString(permit.getRetryAfterSeconds()));
+        response.getHeaders().setContentType(MediaType.APPLICATION_JSON);
+        byte[] body;
+        try {
+            body = objectMapper.writeValueAsBytes(
+                    new ErrorResponse(RequestLimiter.MESSAGE, HttpStatus.TOO_MANY_REQUESTS.value()));
+        } catch (JsonProcessingException e) {
+            return Mono.error(e);
+        }
+        return response.writeWith(Mono.just(response.bufferFactory().wrap(body)));
+    }
+}
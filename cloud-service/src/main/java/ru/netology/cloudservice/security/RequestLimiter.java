@@ -0,0 +1,252 @@
+package ru.netology.cloudservice.security;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.util.AntPathMatcher;
+import ru.netology.cloudservice.config.RateLimitProperties;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Admission control shared by {@link RateLimitFilter} and {@link ReactiveRateLimitFilter}.
+ * Each client, the user or the address of an anonymous request, has its own limits per rule:
+ * a token bucket kept as one timestamp (the generic cell rate algorithm) and a count of
+ * requests in progress. Both are updated with compare-and-set, so clients never wait for
+ * each other. The limits of a client are dropped once it has been idle for
+ * {@code idle-timeout}, but never while it has requests in progress: their permits still
+ * have to be returned to the same count.
+ * <p>
+ * Rejections are counted in {@code http.throttled} by rule and reason.
+ */
+@Component
+@Slf4j
+public class RequestLimiter {
+
+    public static final String MESSAGE = "Too many requests";
+
+    private final RateLimitProperties properties;
+    private final MeterRegistry meterRegistry;
+    private final LongSupplier nanoTime;
+    private final AntPathMatcher pathMatcher = new AntPathMatcher();
+    private final Map<String, ClientLimits> clients = new ConcurrentHashMap<>();
+    private final AtomicBoolean evicting = new AtomicBoolean();
+
+    @Autowired
+    public RequestLimiter(RateLimitProperties properties, MeterRegistry meterRegistry) {
+        this(properties, meterRegistry, System::nanoTime);
+    }
+
+    RequestLimiter(RateLimitProperties properties, MeterRegistry meterRegistry, LongSupplier nanoTime) {
+        this.properties = properties;
+        this.meterRegistry = meterRegistry;
+        this.nanoTime = nanoTime;
+    }
+
+    /**
+     * Admits a request of {@code client} to {@code path}, a path within the application.
+     * The returned permit has to be released once the request is done, whether it was
+     * granted or not.
+     */
+    public Permit acquire(String method, String path, String client) {
+        if (!properties.isEnabled() || "OPTIONS".equalsIgnoreCase(method)) {
+            return Permit.UNLIMITED;
+        }
+        RateLimitProperties.Rule rule = match(method, path);
+        if (rule == null) {
+            return Permit.UNLIMITED;
+        }
+        long now = nanoTime.getAsLong();
+        if (clients.size() >= properties.getMaxClients()) {
+            evictIdle(now);
+        }
+        // Touched under the map's lock, so evictIdle() cannot drop the limits before enter().
+        ClientLimits limits = clients.compute(rule.getName() + ' ' + client, (key, existing) -> {
+            ClientLimits current = existing != null ? existing : new ClientLimits(rule, now);
+            current.touch(now);
+            return current;
+        });
+        if (!limits.enter()) {
+            throttled(rule, "concurrency", client);
+            return Permit.rejected(1);
+        }
+        long wait = limits.takeToken(now);
+        if (wait > 0) {
+            limits.leave();
+            throttled(rule, "rate", client);
+            return Permit.rejected(Math.max(1, (wait + TimeUnit.SECONDS.toNanos(1) - 1) / TimeUnit.SECONDS.toNanos(1)));
+        }
+        return new Permit(0, limits);
+    }
+
+    @Scheduled(fixedDelayString = "${rate-limit.cleanup-interval:PT1M}")
+    public void evictIdle() {
+        evictIdle(nanoTime.getAsLong() - properties.getIdleTimeout().toNanos());
+    }
+
+    /**
+     * Drops the limits of clients idle since {@code before} that have nothing in progress.
+     * Removal goes through {@code computeIfPresent}, so it cannot race with a request
+     * that is taking the same limits.
+     */
+    private void evictIdle(long before) {
+        if (!evicting.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            for (String key : clients.keySet()) {
+                clients.computeIfPresent(key, (k, limits) -> limits.isIdle(before) ? null : limits);
+            }
+        } finally {
+            evicting.set(false);
+        }
+    }
+
+    int clientCount() {
+        return clients.size();
+    }
+
+    private RateLimitProperties.Rule match(String method, String path) {
+        for (RateLimitProperties.Rule rule : properties.getRules()) {
+            List<String> methods = rule.getMethods();
+            if (!methods.isEmpty() && methods.stream().noneMatch(method::equalsIgnoreCase)) {
+                continue;
+            }
+            if (rule.getPaths().stream().anyMatch(pattern -> pathMatcher.match(pattern, path))) {
+                return rule;
+            }
+        }
+        return null;
+    }
+
+    private void throttled(RateLimitProperties.Rule rule, String reason, String client) {
+        log.debug("Request of {} throttled by rule {} ({})", client, rule.getName(), reason);
+        Counter.builder("http.throttled")
+                .description("Requests rejected with 429 by the rate limiter")
+                .tag("rule", rule.getName())
+                .tag("reason", reason)
+                .register(meterRegistry)
+                .increment();
+    }
+
+    /**
+     * Outcome of {@link #acquire}. A granted permit holds a place among the requests in
+     * progress until it is released; releasing it again does nothing.
+     */
+    public static final class Permit {
+
+        static final Permit UNLIMITED = new Permit(0, null);
+
+        private final long retryAfterSeconds;
+        private final ClientLimits limits;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private Permit(long retryAfterSeconds, ClientLimits limits) {
+            this.retryAfterSeconds = retryAfterSeconds;
+            this.limits = limits;
+        }
+
+        static Permit rejected(long retryAfterSeconds) {
+            return new Permit(retryAfterSeconds, null);
+        }
+
+        public boolean isGranted() {
+            return retryAfterSeconds == 0;
+        }
+
+        /**
+         * @return seconds to wait before trying again, for the {@code Retry-After} header
+         */
+        public long getRetryAfterSeconds() {
+            return retryAfterSeconds;
+        }
+
+        public void release() {
+            if (limits != null && released.compareAndSet(false, true)) {
+                limits.leave();
+            }
+        }
+    }
+
+    static final class ClientLimits {
+
+        private final long interval;
+        private final long tolerance;
+        private final int maxConcurrent;
+        /** Time at which the bucket is full again; a request takes one interval off */
+        private final AtomicLong theoreticalArrival;
+        private final AtomicInteger active = new AtomicInteger();
+        private volatile long lastUsed;
+
+        ClientLimits(RateLimitProperties.Rule rule, long now) {
+            this.interval = rule.getRate() > 0 ? (long) (TimeUnit.SECONDS.toNanos(1) / rule.getRate()) : 0;
+            this.tolerance = interval * Math.max(1, rule.getBurst());
+            this.maxConcurrent = rule.getMaxConcurrent();
+            this.theoreticalArrival = new AtomicLong(now);
+            this.lastUsed = now;
+        }
+
+        void touch(long now) {
+            lastUsed = now;
+        }
+
+        boolean isIdle(long before) {
+            return active.get() == 0 && lastUsed - before <= 0;
+        }
+
+        /**
+         * @return 0 when a token was taken, otherwise nanoseconds until the next one
+         */
+        long takeToken(long now) {
+            if (interval == 0) {
+                return 0;
+            }
+            while (true) {
+                long arrival = theoreticalArrival.get();
+                long next = (arrival - now > 0 ? arrival : now) + interval;
+                long wait = next - now - tolerance;
+                if (wait > 0) {
+                    return wait;
+                }
+                if (theoreticalArrival.compareAndSet(arrival, next)) {
+                    return 0;
+                }
+            }
+        }
+
+        boolean enter() {
+            if (maxConcurrent <= 0) {
+                return true;
+            }
+            while (true) {
+                int current = active.get();
+                if (current >= maxConcurrent) {
+                    return false;
+                }
+                if (active.compareAndSet(current, current + 1)) {
+                    return true;
+                }
+            }
+        }
+
+        void leave() {
+            if (maxConcurrent > 0) {
+                active.decrementAndGet();
+            }
+        }
+
+        int active() {
+            return active.get();
+        }
+    }
+}
@@ -38,7 +38,9 @@ public class AuthService {
     @Transactional
     public void logout(String token) {
         try {
-            String email = jwtTokenUtil.getEmailFromToken(token.replace("Bearer ", ""));
+            String jwt = token.replace("Bearer ", "");
+            String email = jwtTokenUtil.getEmailFromToken(jwt);
+            jwtTokenUtil.revoke(jwt);
             log.info("User {} logged out", email);
         } catch (Exception e) {
             log.warn("Logout error: {}", e.getMessage());
@@ -0,0 +1,390 @@
+package ru.netology.cloudservice.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.netology.cloudservice.config.FileStorageProperties;
+import ru.netology.cloudservice.entity.Blob;
+import ru.netology.cloudservice.exception.StorageException;
+import ru.netology.cloudservice.repository.BlobRepository;
+import ru.netology.cloudservice.storage.BlobCodec;
+import ru.netology.cloudservice.storage.CountingInputStream;
+import ru.netology.cloudservice.storage.StorageBackend;
+import ru.netology.cloudservice.util.FileTransferUtil;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Content-addressed storage: every distinct content is kept once in the
+ * {@link StorageBackend} under {@code ab/cd/<sha256>} and shared by all {@code File}
+ * rows with that hash. The blob row is reference counted and the bytes are removed
+ * once no file points to them. The hash is taken over the original content, while
+ * the stored bytes may be compressed with the codec recorded on the blob.
+ */
+@Service
+@Slf4j
+public class BlobStore {
+
+    private static final String HASH_ALGORITHM = "SHA-256";
+
+    private final BlobRepository blobRepository;
+    private final StorageBackend storageBackend;
+    private final FileTransferUtil fileTransferUtil;
+    private final CodecSelector codecSelector;
+    private final FileStorageProperties properties;
+    private final TransactionTemplate transactionTemplate;
+
+    public BlobStore(BlobRepository blobRepository, StorageBackend storageBackend,
+                     FileTransferUtil fileTransferUtil, CodecSelector codecSelector,
+                     FileStorageProperties properties, PlatformTransactionManager transactionManager) {
+        this.blobRepository = blobRepository;
+        this.storageBackend = storageBackend;
+        this.fileTransferUtil = fileTransferUtil;
+        this.codecSelector = codecSelector;
+        this.properties = properties;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.transactionTemplate.setPropagationBehavior(TransactionTemplate.PROPAGATION_REQUIRES_NEW);
+    }
+
+    /**
+     * Streams {@code content} to a temporary object while hashing it, then registers
+     * one more reference to the resulting blob. The codec is chosen from the first
+     * bytes and the content is compressed on the way to storage.
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public Blob write(InputStream content, long maxBytes) throws IOException {
+        StagedBlob staged = stage(content, maxBytes);
+        boolean placed = false;
+        try {
+            if (retain(staged)) {
+                storageBackend.move(staged.getTempKey(), key(staged.getHash()));
+                placed = true;
+                collectOnRollback(staged);
+            }
+            return getBlob(staged.getHash());
+        } finally {
+            if (!placed) {
+                storageBackend.delete(staged.getTempKey());
+            }
+        }
+    }
+
+    /**
+     * Writes {@code content} to a temporary object and hashes it, without touching the
+     * database. The result is registered by {@link #register}, or removed by {@link #discard}.
+     */
+    public StagedBlob stage(InputStream content, long maxBytes) throws IOException {
+        MessageDigest digest = newDigest();
+        String tempKey = StorageBackend.TEMP_PREFIX + UUID.randomUUID();
+        boolean written = false;
+        try {
+            int sampleSize = codecSelector.getSampleSize();
+            BufferedInputStream in = new BufferedInputStream(new DigestInputStream(content, digest), sampleSize);
+            in.mark(sampleSize);
+            byte[] sample = in.readNBytes(sampleSize);
+            in.reset();
+            BlobCodec codec = codecSelector.select(sample, sample.length);
+
+            long size;
+            long storedSize;
+            if (codec == BlobCodec.NONE) {
+                size = storageBackend.write(tempKey, in, maxBytes);
+                storedSize = size;
+            } else {
+                CountingInputStream counted = new CountingInputStream(in, maxBytes);
+                storedSize = storageBackend.write(tempKey,
+                        codec.encode(counted, properties.getCompression().getLevel()), Long.MAX_VALUE);
+                size = counted.getCount();
+            }
+            written = true;
+            return new StagedBlob(tempKey, HexFormat.of().formatHex(digest.digest()), size, codec, storedSize);
+        } finally {
+            if (!written) {
+                storageBackend.delete(tempKey);
+            }
+        }
+    }
+
+    /**
+     * Registers one more reference to staged content. Unlike {@link #write}, the bytes are
+     * moved into place only when the transaction is about to commit: if it fails before,
+     * the staged object is left as it was and can be registered in another transaction.
+     * After a commit the staged object is gone.
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public Blob register(StagedBlob staged) throws IOException {
+        boolean missing = retain(staged);
+        String key = key(staged.getHash());
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            private boolean placed;
+
+            @Override
+            public void beforeCommit(boolean readOnly) {
+                try {
+                    // Another file of the same transaction may have placed the same content.
+                    if (missing && !storageBackend.exists(key)) {
+                        storageBackend.move(staged.getTempKey(), key);
+                        placed = true;
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+
+            @Override
+            public void afterCompletion(int status) {
+                if (status == STATUS_COMMITTED && !placed) {
+                    discard(staged);
+                } else if (status != STATUS_COMMITTED && placed) {
+                    collectOrphan(staged);
+                }
+            }
+        });
+        return getBlob(staged.getHash());
+    }
+
+    /**
+     * Removes a staged object that will not be registered.
+     */
+    public void discard(StagedBlob staged) {
+        try {
+            storageBackend.delete(staged.getTempKey());
+        } catch (IOException e) {
+            log.warn("Failed to delete staged object {}", staged.getTempKey(), e);
+        }
+    }
+
+    /**
+     * Registers one more reference to the content of an already written local file.
+     * The source is copied into the store and left in place, so it survives a rollback.
+     * Compressible content goes through {@link #write} instead of a plain copy.
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public Blob importFile(Path source) throws IOException {
+        if (codecSelector.select(source) != BlobCodec.NONE) {
+            try (InputStream in = Files.newInputStream(source)) {
+                return write(in, Long.MAX_VALUE);
+            }
+        }
+        MessageDigest digest = newDigest();
+        fileTransferUtil.digest(source, digest);
+        String hash = HexFormat.of().formatHex(digest.digest());
+        long size = Files.size(source);
+        StagedBlob imported = new StagedBlob(null, hash, size, BlobCodec.NONE, size);
+        if (retain(imported)) {
+            try {
+                storageBackend.copyFrom(source, key(hash));
+                collectOnRollback(imported);
+            } catch (FileAlreadyExistsException e) {
+                log.debug("Blob {} appeared concurrently", hash);
+            }
+        }
+        return getBlob(hash);
+    }
+
+    /**
+     * Drops one reference to the blob. The bytes are removed after the surrounding
+     * transaction commits if nothing else points to them.
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void release(String hash) {
+        releaseAll(List.of(hash));
+    }
+
+    /**
+     * Drops one reference per element of {@code hashes}, which may repeat when several
+     * released files share content. Hashes released the same number of times are
+     * updated with one statement.
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void releaseAll(Collection<String> hashes) {
+        Map<String, Long> counts = hashes.stream()
+                .collect(Collectors.groupingBy(Function.identity(), Collectors.counting()));
+        counts.entrySet().stream()
+                .collect(Collectors.groupingBy(Map.Entry::getValue,
+                        Collectors.mapping(Map.Entry::getKey, Collectors.toList())))
+                .forEach((count, group) -> blobRepository.decrementRefCounts(group, count));
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    counts.keySet().forEach(BlobStore.this::collect);
+                }
+            });
+        }
+    }
+
+    public boolean hasRendition(String hash, ImageRendition rendition) throws IOException {
+        return storageBackend.exists(rendition.key(key(hash)));
+    }
+
+    /**
+     * Stores an image rendition of the blob. Renditions are removed together with the blob.
+     */
+    public void writeRendition(String hash, ImageRendition rendition, byte[] content) throws IOException {
+        String renditionKey = rendition.key(key(hash));
+        String tempKey = StorageBackend.TEMP_PREFIX + UUID.randomUUID();
+        boolean placed = false;
+        try {
+            storageBackend.write(tempKey, new ByteArrayInputStream(content), content.length);
+            storageBackend.move(tempKey, renditionKey);
+            placed = true;
+        } finally {
+            if (!placed) {
+                storageBackend.delete(tempKey);
+            }
+        }
+    }
+
+    public StorageBackend getStorageBackend() {
+        return storageBackend;
+    }
+
+    public String key(String hash) {
+        return hash.substring(0, 2) + "/" + hash.substring(2, 4) + "/" + hash;
+    }
+
+    @Scheduled(fixedDelayString = "${file.blob-gc-interval:PT15M}")
+    public void collectGarbage() {
+        List<String> hashes;
+        do {
+            hashes = blobRepository.findUnreferencedHashes(PageRequest.of(0, 100));
+            hashes.forEach(this::collect);
+        } while (hashes.size() == 100);
+    }
+
+    /**
+     * Removes temporary objects of uploads that were interrupted, for example by a crash.
+     * The first run happens at startup. An object still being written keeps a fresh
+     * modification time, so only ones untouched for {@code file.temp-max-age} go.
+     */
+    @Scheduled(fixedDelayString = "${file.temp-cleanup-interval:PT1H}")
+    public void purgeTemporaryObjects() {
+        try {
+            int purged = storageBackend.purgeTemporary(Instant.now().minus(properties.getTempMaxAge()));
+            if (purged > 0) {
+                log.info("Removed {} temporary objects left by interrupted uploads", purged);
+            }
+        } catch (IOException e) {
+            log.warn("Failed to remove stale temporary objects", e);
+        }
+    }
+
+    /**
+     * Deletes the blob and its image renditions if it is still unreferenced. The row
+     * lock is held while the bytes are removed. An upload of the same content that adds
+     * its reference first keeps the blob; one whose reference comes after waits for the
+     * deletion to commit, inserts the row again and stores the bytes anew (see {@link #retain}).
+     */
+    void collect(String hash) {
+        try {
+            transactionTemplate.executeWithoutResult(status -> blobRepository.findByHashForUpdate(hash)
+                    .filter(blob -> blob.getRefCount() <= 0)
+                    .ifPresent(blob -> {
+                        try {
+                            storageBackend.delete(key(hash));
+                            for (ImageRendition rendition : ImageRendition.values()) {
+                                storageBackend.delete(rendition.key(key(hash)));
+                            }
+                        } catch (IOException e) {
+                            throw new StorageException("Failed to delete blob " + hash, e);
+                        }
+                        blobRepository.delete(blob);
+                        log.info("Deleted unreferenced blob {}", hash);
+                    }));
+        } catch (RuntimeException e) {
+            log.warn("Failed to collect blob {}", hash, e);
+        }
+    }
+
+    /**
+     * Bytes placed by a transaction that later rolls back (for example on a duplicate
+     * filename) have no committed blob row. A zero-count row is recreated so that
+     * {@link #collect(String)} removes them under the usual row lock.
+     */
+    private void collectOnRollback(StagedBlob staged) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCompletion(int status) {
+                if (status == STATUS_ROLLED_BACK) {
+                    collectOrphan(staged);
+                }
+            }
+        });
+    }
+
+    private void collectOrphan(StagedBlob staged) {
+        try {
+            transactionTemplate.executeWithoutResult(tx -> blobRepository.insertIfAbsent(staged.getHash(),
+                    staged.getSize(), staged.getCodec().name(), staged.getStoredSize(), Instant.now()));
+        } catch (RuntimeException e) {
+            log.warn("Failed to register orphaned blob {}", staged.getHash(), e);
+            return;
+        }
+        collect(staged.getHash());
+    }
+
+    /**
+     * Adds a reference to the blob row and reports whether the bytes still have to be stored.
+     * When they do, the row is made to describe the encoding of the bytes about to be placed.
+     * The increment takes the row lock; if {@link #collect(String)} deleted the row after the
+     * insert saw it, the increment finds nothing and the row is inserted again.
+     */
+    private boolean retain(StagedBlob staged) throws IOException {
+        String hash = staged.getHash();
+        boolean inserted;
+        do {
+            inserted = blobRepository.insertIfAbsent(hash, staged.getSize(), staged.getCodec().name(),
+                    staged.getStoredSize(), Instant.now()) > 0;
+        } while (blobRepository.incrementRefCount(hash) == 0);
+        if (storageBackend.exists(key(hash))) {
+            log.info("Deduplicated content {} ({} bytes)", hash, staged.getSize());
+            return false;
+        }
+        if (!inserted) {
+            blobRepository.updateEncoding(hash, staged.getCodec(), staged.getStoredSize());
+        }
+        return true;
+    }
+
+    private Blob getBlob(String hash) {
+        return blobRepository.findById(hash)
+                .orElseThrow(() -> new StorageException("Blob " + hash + " was not registered"));
+    }
+
+    private MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance(HASH_ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(HASH_ALGORITHM + " is not supported", e);
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package ru.netology.cloudservice.service;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.web.context.request.async.DeferredResult;
+import ru.netology.cloudservice.config.FileStorageProperties;
+import ru.netology.cloudservice.dto.ChangePage;
+import ru.netology.cloudservice.entity.User;
+
+import javax.annotation.PreDestroy;
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Long polling of the change feed. A request that finds no changes is parked as a
+ * {@link DeferredResult}, which holds no request thread, and is completed when a change
+ * of the same user commits or when the wait times out.
+ * <p>
+ * Waiters are kept in memory, so only changes committed by this instance wake them;
+ * with several instances a client still gets the changes when its wait ends.
+ */
+@Service
+@Slf4j
+public class ChangeNotifier {
+
+    private final FileChangeService fileChangeService;
+    private final Map<Long, Set<Waiter>> waiters = new ConcurrentHashMap<>();
+    private final AtomicInteger waiting = new AtomicInteger();
+    private final ExecutorService executor;
+
+    public ChangeNotifier(FileChangeService fileChangeService, FileStorageProperties properties,
+                          MeterRegistry meterRegistry) {
+        this.fileChangeService = fileChangeService;
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(properties.getChanges().getNotifyWorkers(), task -> {
+            Thread thread = new Thread(task, "change-feed-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        Gauge.builder("file.changes.waiting", waiting, AtomicInteger::get)
+                .description("Clients waiting for changes of their files")
+                .register(meterRegistry);
+    }
+
+    @PreDestroy
+    public void stop() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Returns the changes after {@code since}, waiting up to {@code wait} for the first
+     * one. The changes are read after the waiter is registered, so a change committed in
+     * between is either returned or wakes the waiter.
+     */
+    public DeferredResult<ChangePage> poll(User user, long since, int limit, Duration wait) {
+        if (wait.isZero()) {
+            DeferredResult<ChangePage> result = new DeferredResult<>();
+            result.setResult(fileChangeService.changes(user, since, limit));
+            return result;
+        }
+        Waiter waiter = new Waiter(user, since, limit,
+                new DeferredResult<>(wait.toMillis(), () -> new ChangePage(List.of(), since, false, false)));
+        waiter.result.onCompletion(() -> remove(waiter));
+        add(waiter);
+
+        ChangePage page;
+        try {
+            page = fileChangeService.changes(user, since, limit);
+        } catch (RuntimeException e) {
+            remove(waiter);
+            throw e;
+        }
+        if (!page.getChanges().isEmpty() || page.isReset()) {
+            waiter.result.setResult(page);
+        }
+        return waiter.result;
+    }
+
+    @TransactionalEventListener
+    public void onFilesChanged(FilesChangedEvent event) {
+        Set<Waiter> woken = waiters.remove(event.getUserId());
+        if (woken == null) {
+            return;
+        }
+        waiting.addAndGet(-woken.size());
+        for (Waiter waiter : woken) {
+            try {
+                executor.execute(() -> complete(waiter));
+            } catch (RejectedExecutionException e) {
+                log.debug("Change feed is shutting down, waiter of user {} is left to time out", event.getUserId());
+            }
+        }
+    }
+
+    private void complete(Waiter waiter) {
+        if (waiter.result.isSetOrExpired()) {
+            return;
+        }
+        try {
+            waiter.result.setResult(fileChangeService.changes(waiter.user, waiter.since, waiter.limit));
+        } catch (RuntimeException e) {
+            waiter.result.setErrorResult(e);
+        }
+    }
+
+    private void add(Waiter waiter) {
+        waiters.compute(waiter.user.getId(), (id, set) -> {
+            Set<Waiter> updated = set != null ? set : new HashSet<>();
+            if (updated.add(waiter)) {
+                waiting.incrementAndGet();
+            }
+            return updated;
+        });
+    }
+
+    private void remove(Waiter waiter) {
+        waiters.computeIfPresent(waiter.user.getId(), (id, set) -> {
+            if (set.remove(waiter)) {
+                waiting.decrementAndGet();
+            }
+            return set.isEmpty() ? null : set;
+        });
+    }
+
+    private static class Waiter {
+        private final User user;
+        private final long since;
+        private final int limit;
+        private final DeferredResult<ChangePage> result;
+
+        Waiter(User user, long since, int limit, DeferredResult<ChangePage> result) {
+            this.user = user;
+            this.since = since;
+            this.limit = limit;
+            this.result = result;
+        }
+    }
+}
@@ -0,0 +1,213 @@
+package ru.netology.cloudservice.service;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import ru.netology.cloudservice.config.FileStorageProperties;
+import ru.netology.cloudservice.dto.StartUploadRequest;
+import ru.netology.cloudservice.dto.UploadSessionResponse;
+import ru.netology.cloudservice.entity.UploadChunk;
+import ru.netology.cloudservice.entity.UploadSession;
+import ru.netology.cloudservice.entity.User;
+import ru.netology.cloudservice.exception.FileProcessingException;
+import ru.netology.cloudservice.exception.StorageException;
+import ru.netology.cloudservice.metrics.FileMetrics;
+import ru.netology.cloudservice.repository.UploadChunkRepository;
+import ru.netology.cloudservice.repository.UploadSessionRepository;
+import ru.netology.cloudservice.util.FileTransferUtil;
+
+import javax.annotation.PostConstruct;
+import javax.persistence.EntityNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.List;
+import java.util.UUID;
+
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class ChunkedUploadService {
+
+    private final UploadSessionRepository uploadSessionRepository;
+    private final UploadChunkRepository uploadChunkRepository;
+    private final FileService fileService;
+    private final QuotaService quotaService;
+    private final FileTransferUtil fileTransferUtil;
+    private final FileStorageProperties properties;
+    private final FileMetrics fileMetrics;
+
+    private Path stagingLocation;
+
+    @PostConstruct
+    public void init() throws IOException {
+        this.stagingLocation = Paths.get(properties.getStoragePath())
+                .resolve(properties.getUpload().getStagingDirectory())
+                .toAbsolutePath().normalize();
+        Files.createDirectories(stagingLocation);
+    }
+
+    @Transactional
+    public UploadSessionResponse start(StartUploadRequest request, User user) throws IOException {
+        String filename = request.getFilename();
+        long maxSize = properties.getUpload().getMaxSize().toBytes();
+
+        if (request.getSize() > maxSize) {
+            throw new FileProcessingException("File size exceeds maximum allowed limit of " + maxSize + " bytes");
+        }
+        fileService.checkFilenameAvailable(user, filename);
+        quotaService.check(user, request.getSize());
+
+        long chunkSize = resolveChunkSize(request.getChunkSize());
+        int totalChunks = (int) Math.max(1, (request.getSize() + chunkSize - 1) / chunkSize);
+
+        UploadSession session = new UploadSession();
+        session.setId(UUID.randomUUID().toString());
+        session.setFilename(filename);
+        session.setTotalSize(request.getSize());
+        session.setChunkSize(chunkSize);
+        session.setTotalChunks(totalChunks);
+        session.setUser(user);
+        session.setCreatedAt(Instant.now());
+
+        Path stagingPath = stagingLocation.resolve(session.getId() + ".part");
+        try (RandomAccessFile raf = new RandomAccessFile(stagingPath.toFile(), "rw")) {
+            raf.setLength(request.getSize());
+        }
+        session.setStagingPath(stagingPath.toString());
+        uploadSessionRepository.save(session);
+
+        log.info("Started chunked upload {} for file {} ({} bytes, {} chunks)",
+                session.getId(), filename, request.getSize(), totalChunks);
+        return toResponse(session, List.of());
+    }
+
+    public UploadSessionResponse writeChunk(String uploadId, int index, InputStream content,
+                                            User user) throws IOException {
+        UploadSession session = getSession(uploadId, user);
+        if (index < 0 || index >= session.getTotalChunks()) {
+            throw new FileProcessingException("Chunk index " + index + " is out of range");
+        }
+
+        long offset = index * session.getChunkSize();
+        long expectedSize = Math.min(session.getChunkSize(), session.getTotalSize() - offset);
+
+        long written;
+        try (FileChannel channel = FileChannel.open(Paths.get(session.getStagingPath()), StandardOpenOption.WRITE)) {
+            written = fileTransferUtil.write(content, channel, offset, expectedSize);
+        } catch (StorageException e) {
+            throw new FileProcessingException("Chunk " + index + " is larger than " + expectedSize + " bytes");
+        }
+        fileMetrics.recordBytesIn(written);
+        if (written != expectedSize) {
+            throw new FileProcessingException("Chunk " + index + " has " + written
+                    + " bytes, expected " + expectedSize);
+        }
+
+        recordChunk(session, index);
+        return toResponse(session, uploadChunkRepository.findChunkIndexes(session));
+    }
+
+    @Transactional(readOnly = true)
+    public UploadSessionResponse status(String uploadId, User user) {
+        UploadSession session = getSession(uploadId, user);
+        return toResponse(session, uploadChunkRepository.findChunkIndexes(session));
+    }
+
+    @Transactional
+    public void commit(String uploadId, User user) throws IOException {
+        UploadSession session = getSession(uploadId, user);
+        long received = uploadChunkRepository.countBySession(session);
+        if (received < session.getTotalChunks()) {
+            throw new FileProcessingException("Upload " + uploadId + " is incomplete: "
+                    + received + " of " + session.getTotalChunks() + " chunks received");
+        }
+
+        Path stagingPath = Paths.get(session.getStagingPath());
+        fileService.importFile(session.getUser(), session.getFilename(), stagingPath);
+        uploadChunkRepository.deleteBySession(session);
+        uploadSessionRepository.delete(session);
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                try {
+                    Files.deleteIfExists(stagingPath);
+                } catch (IOException e) {
+                    log.warn("Failed to remove staging file {}", stagingPath, e);
+                }
+            }
+        });
+        log.info("Committed chunked upload {} as {}", uploadId, session.getFilename());
+    }
+
+    @Transactional
+    public void abort(String uploadId, User user) throws IOException {
+        discard(getSession(uploadId, user));
+    }
+
+    @Scheduled(fixedDelayString = "${file.upload.cleanup-interval:PT1H}")
+    @Transactional
+    public void expireSessions() {
+        Instant threshold = Instant.now().minus(properties.getUpload().getSessionTtl());
+        for (UploadSession session : uploadSessionRepository.findByCreatedAtBefore(threshold)) {
+            try {
+                discard(session);
+                log.info("Expired chunked upload {}", session.getId());
+            } catch (IOException e) {
+                log.warn("Failed to remove staging file for upload {}", session.getId(), e);
+            }
+        }
+    }
+
+    private void discard(UploadSession session) throws IOException {
+        Files.deleteIfExists(Paths.get(session.getStagingPath()));
+        uploadChunkRepository.deleteBySession(session);
+        uploadSessionRepository.delete(session);
+    }
+
+    private void recordChunk(UploadSession session, int index) {
+        if (uploadChunkRepository.existsBySessionAndChunkIndex(session, index)) {
+            return;
+        }
+        UploadChunk chunk = new UploadChunk();
+        chunk.setSession(session);
+        chunk.setChunkIndex(index);
+        try {
+            uploadChunkRepository.save(chunk);
+        } catch (DataIntegrityViolationException e) {
+            log.debug("Chunk {} of upload {} was already recorded", index, session.getId());
+        }
+    }
+
+    private UploadSession getSession(String uploadId, User user) {
+        return uploadSessionRepository.findByIdAndUser(uploadId, user)
+                .orElseThrow(() -> new EntityNotFoundException("Upload session not found: " + uploadId));
+    }
+
+    private long resolveChunkSize(Long requested) {
+        long maxChunkSize = properties.getUpload().getMaxChunkSize().toBytes();
+        if (requested == null) {
+            return properties.getUpload().getChunkSize().toBytes();
+        }
+        if (requested <= 0 || requested > maxChunkSize) {
+            throw new FileProcessingException("Chunk size must be between 1 and " + maxChunkSize + " bytes");
+        }
+        return requested;
+    }
+
+    private UploadSessionResponse toResponse(UploadSession session, List<Integer> receivedChunks) {
+        return new UploadSessionResponse(session.getId(), session.getFilename(), session.getTotalSize(),
+                session.getChunkSize(), session.getTotalChunks(), receivedChunks);
+    }
+}
@@ -0,0 +1,115 @@
+package ru.netology.cloudservice.service;
+
+import lombok.RequiredArgsConstructor;
+import net.jpountz.lz4.LZ4Compressor;
+import net.jpountz.lz4.LZ4Factory;
+import org.springframework.stereotype.Component;
+import ru.netology.cloudservice.config.FileStorageProperties;
+import ru.netology.cloudservice.storage.BlobCodec;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Chooses how a new blob is stored by looking at its first bytes: text goes to zstd,
+ * which compresses it best and can be served as is to clients that accept it; other
+ * content is stored as LZ4 if a trial compression of the sample saves enough, and
+ * formats that are already compressed are left alone.
+ */
+@Component
+@RequiredArgsConstructor
+public class CodecSelector {
+
+    private static final byte[][] COMPRESSED_SIGNATURES = {
+            {0x1f, (byte) 0x8b},                                   // gzip
+            {'P', 'K', 0x03, 0x04},                                // zip, docx, xlsx, jar
+            {0x28, (byte) 0xb5, 0x2f, (byte) 0xfd},                // zstd
+            {0x04, 0x22, 0x4d, 0x18},                              // lz4 frame
+            {(byte) 0xfd, '7', 'z', 'X', 'Z', 0x00},               // xz
+            {'B', 'Z', 'h'},                                       // bzip2
+            {'7', 'z', (byte) 0xbc, (byte) 0xaf, 0x27, 0x1c},      // 7z
+            {'R', 'a', 'r', '!'},                                  // rar
+            {(byte) 0x89, 'P', 'N', 'G'},                          // png
+            {(byte) 0xff, (byte) 0xd8, (byte) 0xff},               // jpeg
+            {'G', 'I', 'F', '8'},                                  // gif
+            {'R', 'I', 'F', 'F'},                                  // webp, avi, wav
+            {'O', 'g', 'g', 'S'},                                  // ogg
+            {'I', 'D', '3'},                                       // mp3
+            {'f', 'L', 'a', 'C'},                                  // flac
+            {0x1a, 0x45, (byte) 0xdf, (byte) 0xa3},                // mkv, webm
+    };
+    private static final byte[] ISO_MEDIA_BOX = "ftyp".getBytes(StandardCharsets.US_ASCII); // mp4, mov, heic
+
+    private final FileStorageProperties properties;
+    private final LZ4Compressor trialCompressor = LZ4Factory.fastestInstance().fastCompressor();
+
+    public int getSampleSize() {
+        return (int) properties.getCompression().getSampleSize().toBytes();
+    }
+
+    /**
+     * @param sample the first {@code length} bytes of the content, all of it if shorter than the sample size
+     */
+    public BlobCodec select(byte[] sample, int length) {
+        FileStorageProperties.Compression compression = properties.getCompression();
+        if (!compression.isEnabled() || length < compression.getMinSize().toBytes()
+                || isCompressedFormat(sample, length)) {
+            return BlobCodec.NONE;
+        }
+        if (isText(sample, length)) {
+            return BlobCodec.ZSTD;
+        }
+        byte[] compressed = new byte[trialCompressor.maxCompressedLength(length)];
+        int compressedLength = trialCompressor.compress(sample, 0, length, compressed, 0);
+        return compressedLength <= length * compression.getMaxRatio() ? BlobCodec.LZ4 : BlobCodec.NONE;
+    }
+
+    public BlobCodec select(Path file) throws IOException {
+        try (InputStream in = Files.newInputStream(file)) {
+            byte[] sample = in.readNBytes(getSampleSize());
+            return select(sample, sample.length);
+        }
+    }
+
+    private boolean isCompressedFormat(byte[] sample, int length) {
+        for (byte[] signature : COMPRESSED_SIGNATURES) {
+            if (startsWith(sample, length, 0, signature)) {
+                return true;
+            }
+        }
+        return startsWith(sample, length, 4, ISO_MEDIA_BOX);
+    }
+
+    /**
+     * No NUL bytes and almost no control characters. Bytes above 0x7f are accepted,
+     * so UTF-8 and single-byte Cyrillic text both count.
+     */
+    static boolean isText(byte[] sample, int length) {
+        int control = 0;
+        for (int i = 0; i < length; i++) {
+            int b = sample[i] & 0xff;
+            if (b == 0) {
+                return false;
+            }
+            if (b < 0x20 && b != '\t' && b != '\n' && b != '\r' && b != '\f' && b != 0x1b) {
+                control++;
+            }
+        }
+        return control * 100 < length;
+    }
+
+    private boolean startsWith(byte[] sample, int length, int offset, byte[] signature) {
+        if (length < offset + signature.length) {
+            return false;
+        }
+        for (int i = 0; i < signature.length; i++) {
+            if (sample[offset + i] != signature[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,254 @@
+package ru.netology.cloudservice.service;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
+import org.springframework.http.MediaType;
+import org.springframework.http.MediaTypeFactory;
+import org.springframework.stereotype.Service;
+import org.springframework.util.MimeTypeUtils;
+import org.springframework.web.context.request.ServletWebRequest;
+import ru.netology.cloudservice.metrics.FileMetrics;
+import ru.netology.cloudservice.storage.BlobCodec;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Writes stored files to the response honouring {@code Range} and {@code If-Range}, and
+ * answers {@code If-None-Match} and {@code If-Modified-Since} with 304 Not Modified.
+ * When the backend keeps the bytes in a local file they are handed to Tomcat's
+ * sendfile or copied with {@link FileChannel#transferTo}, so they never pass through
+ * the heap; other backends are streamed with ranged reads.
+ * <p>
+ * Compressed blobs are sent as stored when the client accepts their codec and asks
+ * for the whole file; otherwise they are decoded on the fly.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class DownloadService {
+
+    /**
+     * Lets browsers keep a private copy but ask before every use, so that unchanged
+     * files and listings are answered with 304 instead of being sent again.
+     */
+    public static final CacheControl REVALIDATE = CacheControl.noCache().cachePrivate();
+
+    static final String SENDFILE_SUPPORTED_ATTR = "org.apache.tomcat.sendfile.support";
+    static final String SENDFILE_FILENAME_ATTR = "org.apache.tomcat.sendfile.filename";
+    static final String SENDFILE_START_ATTR = "org.apache.tomcat.sendfile.start";
+    static final String SENDFILE_END_ATTR = "org.apache.tomcat.sendfile.end";
+
+    private final FileMetrics fileMetrics;
+
+    public void serve(FileContent file, HttpServletRequest request, HttpServletResponse response)
+            throws IOException {
+        String contentEncoding = null;
+        if (file.getCodec() != BlobCodec.NONE) {
+            response.addHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+            String acceptEncoding = String.join(",", Collections.list(request.getHeaders(HttpHeaders.ACCEPT_ENCODING)));
+            if (request.getHeader(HttpHeaders.RANGE) == null && file.getCodec().isAcceptedBy(acceptEncoding)) {
+                contentEncoding = file.getCodec().getContentEncoding();
+                file = file.encodedRepresentation();
+            }
+        }
+
+        long length = file.getSize();
+        long lastModified = file.getLastModified() != null ? file.getLastModified().toEpochMilli() : -1;
+        String etag = file.getEtag();
+        String filename = file.getFilename();
+        MediaType contentType = MediaTypeFactory.getMediaType(filename).orElse(MediaType.APPLICATION_OCTET_STREAM);
+
+        response.setHeader(HttpHeaders.CACHE_CONTROL, REVALIDATE.getHeaderValue());
+        response.setHeader(HttpHeaders.ETAG, etag);
+        if (lastModified != -1) {
+            response.setDateHeader(HttpHeaders.LAST_MODIFIED, lastModified);
+        }
+        if (new ServletWebRequest(request, response).checkNotModified(etag, lastModified)) {
+            return;
+        }
+        if (contentEncoding != null) {
+            response.setHeader(HttpHeaders.CONTENT_ENCODING, contentEncoding);
+        }
+        response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+        response.setHeader(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + filename + "\"");
+
+        List<HttpRange> ranges = resolveRanges(request, etag, lastModified);
+        if (ranges == null) {
+            response.setContentType(contentType.toString());
+            response.setContentLengthLong(length);
+            sendRange(file, 0, length, request, response);
+            return;
+        }
+
+        if (!ranges.stream().allMatch(range -> isSatisfiable(range, length))) {
+            response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + length);
+            response.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+            return;
+        }
+
+        response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+        if (ranges.size() == 1) {
+            long start = ranges.get(0).getRangeStart(length);
+            long end = ranges.get(0).getRangeEnd(length);
+            response.setContentType(contentType.toString());
+            response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes " + start + "-" + end + "/" + length);
+            response.setContentLengthLong(end - start + 1);
+            sendRange(file, start, end + 1, request, response);
+        } else {
+            sendMultipleRanges(file, length, contentType, ranges, response);
+        }
+    }
+
+    /**
+     * Streams the files as one ZIP archive that is built while it is sent, so nothing is
+     * staged on disk and the length is not known in advance. Content the blob store kept
+     * uncompressed is mostly already compressed (images, archives, video), so it is
+     * stored in the archive without another deflate pass.
+     */
+    public void serveArchive(List<FileContent> files, String archiveName, HttpServletResponse response)
+            throws IOException {
+        response.setContentType("application/zip");
+        response.setHeader(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + archiveName + "\"");
+
+        try (ZipOutputStream zip = new ZipOutputStream(response.getOutputStream())) {
+            for (FileContent file : files) {
+                ZipEntry entry = new ZipEntry(file.getFilename());
+                if (file.getLastModified() != null) {
+                    entry.setTime(file.getLastModified().toEpochMilli());
+                }
+                zip.setLevel(file.getCodec() == BlobCodec.NONE ? Deflater.NO_COMPRESSION : Deflater.BEST_SPEED);
+                zip.putNextEntry(entry);
+                try (InputStream in = file.open(0, file.getSize())) {
+                    in.transferTo(zip);
+                }
+                zip.closeEntry();
+                fileMetrics.recordBytesOut(file.getSize());
+            }
+        }
+    }
+
+    private List<HttpRange> resolveRanges(HttpServletRequest request, String etag, long lastModified) {
+        String rangeHeader = request.getHeader(HttpHeaders.RANGE);
+        if (rangeHeader == null) {
+            return null;
+        }
+        String ifRange = request.getHeader(HttpHeaders.IF_RANGE);
+        if (ifRange != null && !ifRangeMatches(ifRange, request, etag, lastModified)) {
+            return null;
+        }
+        try {
+            List<HttpRange> ranges = HttpRange.parseRanges(rangeHeader);
+            return ranges.isEmpty() ? null : ranges;
+        } catch (IllegalArgumentException e) {
+            log.debug("Ignoring malformed Range header: {}", rangeHeader);
+            return null;
+        }
+    }
+
+    private boolean isSatisfiable(HttpRange range, long length) {
+        try {
+            long start = range.getRangeStart(length);
+            return start < length && start <= range.getRangeEnd(length);
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    private boolean ifRangeMatches(String ifRange, HttpServletRequest request, String etag, long lastModified) {
+        if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+            return ifRange.equals(etag);
+        }
+        long since = request.getDateHeader(HttpHeaders.IF_RANGE);
+        return since != -1 && lastModified != -1 && lastModified / 1000 == since / 1000;
+    }
+
+    private void sendRange(FileContent file, long start, long end, HttpServletRequest request,
+                           HttpServletResponse response) throws IOException {
+        fileMetrics.recordBytesOut(end - start);
+        Optional<Path> path = localPath(file);
+        if (path.isEmpty()) {
+            try (InputStream in = file.open(start, end - start)) {
+                in.transferTo(response.getOutputStream());
+            }
+            return;
+        }
+        if (end > start && Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORTED_ATTR))) {
+            request.setAttribute(SENDFILE_FILENAME_ATTR, path.get().toAbsolutePath().toString());
+            request.setAttribute(SENDFILE_START_ATTR, start);
+            request.setAttribute(SENDFILE_END_ATTR, end);
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(path.get(), StandardOpenOption.READ)) {
+            transfer(channel, start, end - start, Channels.newChannel(response.getOutputStream()));
+        }
+    }
+
+    private void sendMultipleRanges(FileContent file, long length, MediaType contentType, List<HttpRange> ranges,
+                                    HttpServletResponse response) throws IOException {
+        String boundary = MimeTypeUtils.generateMultipartBoundaryString();
+        response.setContentType("multipart/byteranges; boundary=" + boundary);
+
+        OutputStream out = response.getOutputStream();
+        for (HttpRange range : ranges) {
+            long start = range.getRangeStart(length);
+            long end = range.getRangeEnd(length);
+            String partHeader = "\r\n--" + boundary + "\r\n"
+                    + HttpHeaders.CONTENT_TYPE + ": " + contentType + "\r\n"
+                    + HttpHeaders.CONTENT_RANGE + ": bytes " + start + "-" + end + "/" + length + "\r\n\r\n";
+            out.write(partHeader.getBytes(StandardCharsets.US_ASCII));
+            fileMetrics.recordBytesOut(end - start + 1);
+            Optional<Path> path = localPath(file);
+            if (path.isPresent()) {
+                try (FileChannel channel = FileChannel.open(path.get(), StandardOpenOption.READ)) {
+                    transfer(channel, start, end - start + 1, Channels.newChannel(out));
+                }
+            } else {
+                try (InputStream in = file.open(start, end - start + 1)) {
+                    in.transferTo(out);
+                }
+            }
+        }
+        out.write(("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.US_ASCII));
+    }
+
+    /**
+     * The local file, if the original bytes can be copied from it directly.
+     */
+    private Optional<Path> localPath(FileContent file) {
+        if (file.getCodec() != BlobCodec.NONE) {
+            return Optional.empty();
+        }
+        return file.getBackend().localPath(file.getKey());
+    }
+
+    private void transfer(FileChannel channel, long position, long count, WritableByteChannel target)
+            throws IOException {
+        long transferred = 0;
+        while (transferred < count) {
+            long sent = channel.transferTo(position + transferred, count - transferred, target);
+            if (sent <= 0) {
+                break;
+            }
+            transferred += sent;
+        }
+    }
+}
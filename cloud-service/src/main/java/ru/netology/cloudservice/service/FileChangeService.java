@@ -0,0 +1,151 @@
+package ru.netology.cloudservice.service;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import ru.netology.cloudservice.config.FileStorageProperties;
+import ru.netology.cloudservice.dto.ChangePage;
+import ru.netology.cloudservice.dto.FileChangeResponse;
+import ru.netology.cloudservice.entity.ChangeType;
+import ru.netology.cloudservice.entity.File;
+import ru.netology.cloudservice.entity.FileChange;
+import ru.netology.cloudservice.entity.User;
+import ru.netology.cloudservice.exception.FileProcessingException;
+import ru.netology.cloudservice.exception.UserNotFoundException;
+import ru.netology.cloudservice.repository.FileChangeRepository;
+import ru.netology.cloudservice.repository.UserRepository;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+
+/**
+ * Journal of changes to each user's files. Changes are numbered from
+ * {@code users.files_version} in the transaction that makes them, while the user row
+ * is locked, so one user's sequence numbers have no gaps and commit in order: a client
+ * that has seen {@code seq} has seen everything before it.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class FileChangeService {
+
+    static final int MAX_PAGE_SIZE = 1000;
+
+    private final FileChangeRepository fileChangeRepository;
+    private final UserRepository userRepository;
+    private final FileStorageProperties properties;
+    private final ApplicationEventPublisher eventPublisher;
+
+    /**
+     * Builds a journal entry describing {@code file} as it is now; the caller sets
+     * {@link FileChange#setPreviousFilename} for renames.
+     */
+    public static FileChange change(ChangeType type, File file) {
+        FileChange change = new FileChange();
+        change.setUser(file.getUser());
+        change.setType(type);
+        change.setFilename(file.getFilename());
+        if (type != ChangeType.DELETED) {
+            change.setSize(file.getSize());
+            change.setContentHash(file.getContentHash());
+            change.setMimeType(file.getMimeType());
+        }
+        return change;
+    }
+
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void record(User user, FileChange change) {
+        record(user, List.of(change));
+    }
+
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void record(User user, List<FileChange> changes) {
+        changes.forEach(change -> change.setUser(user));
+        recordAll(changes);
+    }
+
+    /**
+     * Journals changes of any number of users, each taken from {@link FileChange#getUser()}.
+     * Sequence numbers are taken for every user before any entry is saved, so the entries
+     * go to the database as one batch of inserts.
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void recordAll(List<FileChange> changes) {
+        Map<User, List<FileChange>> byUser = changes.stream().collect(Collectors.groupingBy(FileChange::getUser,
+                () -> new TreeMap<>(Comparator.comparing(User::getId)), Collectors.toList()));
+        List<FilesChangedEvent> events = new ArrayList<>();
+        Instant now = Instant.now();
+        byUser.forEach((user, userChanges) -> {
+            userRepository.incrementFilesVersion(user.getId(), userChanges.size());
+            long seq = currentSeq(user) - userChanges.size();
+            for (FileChange change : userChanges) {
+                change.setSeq(++seq);
+                change.setCreatedAt(now);
+            }
+            events.add(new FilesChangedEvent(user.getId(), seq));
+        });
+        fileChangeRepository.saveAll(changes);
+        events.forEach(eventPublisher::publishEvent);
+    }
+
+    /**
+     * Sequence number of the user's latest change, 0 if there was none.
+     */
+    @Transactional(readOnly = true)
+    public long currentSeq(User user) {
+        return userRepository.findFilesVersion(user.getId())
+                .orElseThrow(() -> new UserNotFoundException(user.getEmail()));
+    }
+
+    @Transactional(readOnly = true)
+    public ChangePage changes(User user, long since, int limit) {
+        if (limit < 1 || limit > MAX_PAGE_SIZE) {
+            throw new FileProcessingException("Limit must be between 1 and " + MAX_PAGE_SIZE);
+        }
+        if (since < 0) {
+            throw new FileProcessingException("Cursor must not be negative");
+        }
+        long current = currentSeq(user);
+        List<FileChange> changes = fileChangeRepository.findAfter(user.getId(), since, PageRequest.of(0, limit + 1));
+        // The journal is gapless, so a missing first entry means it was pruned, or the
+        // cursor does not come from this journal at all.
+        boolean reset = since > current || (since < current
+                && (changes.isEmpty() || changes.get(0).getSeq() != since + 1));
+        if (reset) {
+            return new ChangePage(List.of(), current, false, true);
+        }
+        boolean hasMore = changes.size() > limit;
+        if (hasMore) {
+            changes = changes.subList(0, limit);
+        }
+        long cursor = changes.isEmpty() ? since : changes.get(changes.size() - 1).getSeq();
+        return new ChangePage(changes.stream().map(FileChangeService::toResponse).collect(Collectors.toList()),
+                cursor, hasMore, false);
+    }
+
+    @Scheduled(fixedDelayString = "${file.changes.cleanup-interval:PT1H}")
+    @Transactional
+    public void prune() {
+        int deleted = fileChangeRepository.deleteCreatedBefore(
+                Instant.now().minus(properties.getChanges().getRetention()));
+        if (deleted > 0) {
+            log.info("Pruned {} journaled file changes", deleted);
+        }
+    }
+
+    private static FileChangeResponse toResponse(FileChange change) {
+        return new FileChangeResponse(change.getSeq(), change.getType(), change.getFilename(),
+                change.getPreviousFilename(), change.getSize(), change.getContentHash(), change.getMimeType(),
+                change.getCreatedAt());
+    }
+}
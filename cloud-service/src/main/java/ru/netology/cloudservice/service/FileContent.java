@@ -0,0 +1,52 @@
+package ru.netology.cloudservice.service;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import ru.netology.cloudservice.storage.BlobCodec;
+import ru.netology.cloudservice.storage.StorageBackend;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Instant;
+
+/**
+ * Resolved location of a stored file, ready to be written to a response.
+ * {@code size} is the length of the original content; {@code storedSize} is what
+ * the backend holds under {@code key}, encoded with {@code codec}.
+ */
+@Data
+@AllArgsConstructor
+public class FileContent {
+    private String filename;
+    private StorageBackend backend;
+    private String key;
+    private long size;
+    private String etag;
+    private Instant lastModified;
+    private BlobCodec codec;
+    private long storedSize;
+
+    public FileContent(String filename, StorageBackend backend, String key, long size, String etag,
+                       Instant lastModified) {
+        this(filename, backend, key, size, etag, lastModified, BlobCodec.NONE, size);
+    }
+
+    /**
+     * Opens {@code length} bytes of the original content starting at {@code offset}.
+     */
+    public InputStream open(long offset, long length) throws IOException {
+        if (codec == BlobCodec.NONE) {
+            return backend.read(key, offset, length);
+        }
+        return codec.decode(backend.read(key), offset, length);
+    }
+
+    /**
+     * The stored bytes as a representation of their own, sent with
+     * {@code Content-Encoding} set to the codec. It gets a separate entity tag.
+     */
+    public FileContent encodedRepresentation() {
+        String encodedEtag = etag.substring(0, etag.length() - 1) + "-" + codec.getContentEncoding() + "\"";
+        return new FileContent(filename, backend, key, storedSize, encodedEtag, lastModified);
+    }
+}
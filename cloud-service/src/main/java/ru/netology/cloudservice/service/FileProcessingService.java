@@ -0,0 +1,320 @@
+package ru.netology.cloudservice.service;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.netology.cloudservice.config.FileStorageProperties;
+import ru.netology.cloudservice.entity.ChangeType;
+import ru.netology.cloudservice.entity.File;
+import ru.netology.cloudservice.entity.ProcessingStatus;
+import ru.netology.cloudservice.repository.FileRepository;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Post-upload processing, kept off the upload path: once the transaction that wrote a
+ * file commits, the file is queued for a small worker pool that reads the stored bytes
+ * once to detect the MIME type, recompute the SHA-256 and, for images, render a
+ * thumbnail and a preview.
+ * <p>
+ * The queue is bounded and the state lives in the {@code files} row, so nothing is
+ * lost when the queue is full, an attempt fails or the service restarts: a periodic
+ * sweep picks up files that are still {@link ProcessingStatus#PENDING}.
+ */
+@Service
+@Slf4j
+public class FileProcessingService {
+
+    private static final String HASH_ALGORITHM = "SHA-256";
+
+    private final FileRepository fileRepository;
+    private final FileChangeService fileChangeService;
+    private final FileService fileService;
+    private final BlobStore blobStore;
+    private final MimeTypeDetector mimeTypeDetector;
+    private final FileStorageProperties.Processing properties;
+    private final TransactionTemplate transactionTemplate;
+    private final MeterRegistry meterRegistry;
+    private final Set<Long> queued = ConcurrentHashMap.newKeySet();
+    private ThreadPoolExecutor executor;
+
+    public FileProcessingService(FileRepository fileRepository, FileChangeService fileChangeService,
+                                 FileService fileService, BlobStore blobStore, MimeTypeDetector mimeTypeDetector,
+                                 FileStorageProperties properties, PlatformTransactionManager transactionManager,
+                                 MeterRegistry meterRegistry) {
+        this.fileRepository = fileRepository;
+        this.fileChangeService = fileChangeService;
+        this.fileService = fileService;
+        this.blobStore = blobStore;
+        this.mimeTypeDetector = mimeTypeDetector;
+        this.properties = properties.getProcessing();
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.meterRegistry = meterRegistry;
+    }
+
+    @PostConstruct
+    public void start() {
+        if (!properties.isEnabled()) {
+            log.info("File processing is disabled");
+            return;
+        }
+        AtomicInteger threadNumber = new AtomicInteger();
+        executor = new ThreadPoolExecutor(properties.getWorkers(), properties.getWorkers(), 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(properties.getQueueCapacity()), task -> {
+                    Thread thread = new Thread(task, "file-processing-" + threadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        Gauge.builder("file.processing.queue", executor, pool -> pool.getQueue().size())
+                .description("Files waiting for a processing worker")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Files still queued or being processed stay {@code PENDING} and are picked up after restart.
+     */
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor.awaitTermination(10, TimeUnit.SECONDS);
+        }
+    }
+
+    @TransactionalEventListener
+    public void onFileStored(FileStoredEvent event) {
+        submit(event.getFileId());
+    }
+
+    @Scheduled(fixedDelayString = "${file.processing.sweep-interval:PT1M}")
+    public void sweep() {
+        if (executor == null) {
+            return;
+        }
+        int capacity = Math.min(executor.getQueue().remainingCapacity(), properties.getBatchSize());
+        if (capacity == 0) {
+            return;
+        }
+        try {
+            Instant attemptedBefore = Instant.now().minus(properties.getRetryDelay());
+            fileRepository.findPendingProcessing(attemptedBefore, PageRequest.of(0, capacity))
+                    .forEach(this::submit);
+        } catch (RuntimeException e) {
+            log.warn("Failed to look up files waiting for processing", e);
+        }
+    }
+
+    /**
+     * Queues the file unless it is queued already. A full queue is not an error: the
+     * file stays pending and the next sweep retries.
+     */
+    boolean submit(Long fileId) {
+        if (executor == null || !queued.add(fileId)) {
+            return false;
+        }
+        try {
+            executor.execute(() -> {
+                try {
+                    process(fileId);
+                } finally {
+                    queued.remove(fileId);
+                }
+            });
+            return true;
+        } catch (RejectedExecutionException e) {
+            queued.remove(fileId);
+            log.debug("Processing queue is full, file {} is left for the next sweep", fileId);
+            return false;
+        }
+    }
+
+    void process(Long fileId) {
+        File file = fileRepository.findById(fileId).orElse(null);
+        if (file == null || file.getProcessingStatus() != ProcessingStatus.PENDING) {
+            return;
+        }
+        Timer.Sample sample = Timer.start(meterRegistry);
+        String outcome;
+        try {
+            outcome = analyze(file);
+        } catch (IOException | RuntimeException e) {
+            if (executor != null && executor.isShutdown()) {
+                return;
+            }
+            boolean retry = file.getProcessingAttempts() + 1 < properties.getMaxAttempts();
+            log.warn("Processing of file {} failed (attempt {}){}", fileId, file.getProcessingAttempts() + 1,
+                    retry ? ", will retry" : "", e);
+            record(fileId, null, null, null, retry ? ProcessingStatus.PENDING : ProcessingStatus.FAILED);
+            outcome = retry ? "retry" : "failed";
+        }
+        sample.stop(Timer.builder("file.processing")
+                .description("Time to process a stored file")
+                .tag("outcome", outcome)
+                .publishPercentileHistogram()
+                .register(meterRegistry));
+    }
+
+    private String analyze(File file) throws IOException {
+        FileContent content = fileService.content(file);
+        MessageDigest digest = newDigest();
+        String mimeType;
+        BufferedImage image = null;
+        try (InputStream in = new BufferedInputStream(
+                new DigestInputStream(content.open(0, content.getSize()), digest), MimeTypeDetector.SAMPLE_SIZE)) {
+            in.mark(MimeTypeDetector.SAMPLE_SIZE);
+            byte[] sample = in.readNBytes(MimeTypeDetector.SAMPLE_SIZE);
+            in.reset();
+            mimeType = mimeTypeDetector.detect(sample, sample.length, file.getFilename());
+            if (isRenderable(file, mimeType)) {
+                image = readImage(in, file);
+            }
+            in.transferTo(OutputStream.nullOutputStream());
+        }
+        String checksum = HexFormat.of().formatHex(digest.digest());
+
+        if (file.getContentHash() != null && !file.getContentHash().equals(checksum)) {
+            log.error("Stored content of file {} does not match its hash {}: read {}",
+                    file.getId(), file.getContentHash(), checksum);
+            record(file.getId(), mimeType, checksum, null, ProcessingStatus.CORRUPT);
+            return "corrupt";
+        }
+        if (image != null) {
+            writeRendition(file.getContentHash(), ImageRendition.THUMBNAIL, image, properties.getThumbnailSize());
+            writeRendition(file.getContentHash(), ImageRendition.PREVIEW, image, properties.getPreviewSize());
+        }
+        record(file.getId(), mimeType, checksum, image, ProcessingStatus.DONE);
+        return "done";
+    }
+
+    /**
+     * Renditions are stored next to the blob, so files kept outside the blob store get none.
+     */
+    private boolean isRenderable(File file, String mimeType) {
+        return file.getContentHash() != null && mimeType.startsWith("image/")
+                && file.getSize() <= properties.getMaxImageSize().toBytes()
+                && ImageIO.getImageReadersByMIMEType(mimeType).hasNext();
+    }
+
+    /**
+     * Decodes the image, or returns {@code null} if it is damaged or larger than the
+     * pixel limit. The dimensions are checked before any pixels are decoded.
+     */
+    private BufferedImage readImage(InputStream in, File file) {
+        try (ImageInputStream imageInput = new MemoryCacheImageInputStream(in)) {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(imageInput);
+            if (!readers.hasNext()) {
+                return null;
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(imageInput, true, true);
+                long pixels = (long) reader.getWidth(0) * reader.getHeight(0);
+                if (pixels > properties.getMaxImagePixels()) {
+                    log.info("Image {} has {} pixels, no preview is rendered", file.getId(), pixels);
+                    return null;
+                }
+                return reader.read(0);
+            } finally {
+                reader.dispose();
+            }
+        } catch (IOException | RuntimeException e) {
+            log.info("Could not decode image {}: {}", file.getId(), e.toString());
+            return null;
+        }
+    }
+
+    private void writeRendition(String hash, ImageRendition rendition, BufferedImage image, int size)
+            throws IOException {
+        if (blobStore.hasRendition(hash, rendition)) {
+            return;
+        }
+        ByteArrayOutputStream jpeg = new ByteArrayOutputStream();
+        if (!ImageIO.write(scale(image, size), "jpg", jpeg)) {
+            throw new IOException("No JPEG writer available");
+        }
+        blobStore.writeRendition(hash, rendition, jpeg.toByteArray());
+    }
+
+    /**
+     * Fits the image into a {@code size} square without enlarging it. Large reductions
+     * are done in halving steps, which bilinear filtering alone would alias. Transparent
+     * areas are filled with white since JPEG has no alpha channel.
+     */
+    static BufferedImage scale(BufferedImage source, int size) {
+        double ratio = Math.min(1.0, (double) size / Math.max(source.getWidth(), source.getHeight()));
+        int targetWidth = Math.max(1, (int) Math.round(source.getWidth() * ratio));
+        int targetHeight = Math.max(1, (int) Math.round(source.getHeight() * ratio));
+        BufferedImage current = source;
+        int width = source.getWidth();
+        int height = source.getHeight();
+        do {
+            width = Math.max(targetWidth, width / 2);
+            height = Math.max(targetHeight, height / 2);
+            BufferedImage next = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+            Graphics2D graphics = next.createGraphics();
+            try {
+                graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+                graphics.drawImage(current, 0, 0, width, height, Color.WHITE, null);
+            } finally {
+                graphics.dispose();
+            }
+            current = next;
+        } while (width != targetWidth || height != targetHeight);
+        return current;
+    }
+
+    private void record(Long fileId, String mimeType, String checksum, BufferedImage image, ProcessingStatus status) {
+        Integer width = image != null ? image.getWidth() : null;
+        Integer height = image != null ? image.getHeight() : null;
+        transactionTemplate.executeWithoutResult(tx -> {
+            fileRepository.recordProcessing(fileId, mimeType, checksum, width, height, status, Instant.now());
+            // A retry changes nothing that the file listing shows.
+            if (status != ProcessingStatus.PENDING) {
+                fileRepository.findById(fileId).ifPresent(file ->
+                        fileChangeService.record(file.getUser(), FileChangeService.change(ChangeType.UPDATED, file)));
+            }
+        });
+    }
+
+    private MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance(HASH_ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(HASH_ALGORITHM + " is not supported", e);
+        }
+    }
+}
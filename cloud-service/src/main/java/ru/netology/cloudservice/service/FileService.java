@@ -1,26 +1,53 @@
 package ru.netology.cloudservice.service;
 
+import io.micrometer.core.annotation.Timed;
+import io.micrometer.core.instrument.Timer;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.beans.factory.annotation.Value;
+import org.hibernate.exception.ConstraintViolationException;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
-import org.springframework.core.io.Resource;
-import org.springframework.core.io.UrlResource;
-import org.springframework.data.domain.PageRequest;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 import org.springframework.web.multipart.MultipartFile;
+import ru.netology.cloudservice.config.FileStorageProperties;
+import ru.netology.cloudservice.dto.FileListing;
+import ru.netology.cloudservice.dto.FilePage;
 import ru.netology.cloudservice.dto.FileResponse;
+import ru.netology.cloudservice.dto.FileSortField;
+import ru.netology.cloudservice.entity.Blob;
+import ru.netology.cloudservice.entity.ChangeType;
 import ru.netology.cloudservice.entity.File;
+import ru.netology.cloudservice.entity.FileChange;
 import ru.netology.cloudservice.entity.User;
+import ru.netology.cloudservice.exception.FileProcessingException;
 import ru.netology.cloudservice.exception.StorageException;
+import ru.netology.cloudservice.metrics.FileMetrics;
 import ru.netology.cloudservice.repository.FileRepository;
-import ru.netology.cloudservice.repository.UserRepository;
-import ru.netology.cloudservice.util.JwtTokenUtil;
+import ru.netology.cloudservice.storage.BlobCodec;
+import ru.netology.cloudservice.storage.LocalFileSystemStorageBackend;
+import ru.netology.cloudservice.storage.StorageBackend;
+import ru.netology.cloudservice.storage.StoredObject;
+import ru.netology.cloudservice.util.FileTransferUtil;
 
 import javax.annotation.PostConstruct;
 import java.io.*;
 import java.nio.file.*;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 @Service
@@ -28,104 +55,278 @@ import java.util.stream.Collectors;
 @Slf4j
 public class FileService {
 
-    private final FileRepository fileRepository;
-    private final UserRepository userRepository;
-    private final JwtTokenUtil jwtTokenUtil;
+    private static final int MAX_PAGE_SIZE = 1000;
+    private static final int MAX_BATCH_SIZE = 1000;
 
-    @Value("${file.storage-path}")
-    private String storagePath;
+    private final FileRepository fileRepository;
+    private final BlobStore blobStore;
+    private final FileTransferUtil fileTransferUtil;
+    private final FileStorageProperties properties;
+    private final FileMetrics fileMetrics;
+    private final QuotaService quotaService;
+    private final FileChangeService fileChangeService;
+    private final IngestBuffer ingestBuffer;
+    private final ApplicationEventPublisher eventPublisher;
 
     private Path rootLocation;
+    private List<Path> reservedLocations;
+    private LocalFileSystemStorageBackend legacyStorage;
 
     @PostConstruct
     public void init() throws IOException {
-        this.rootLocation = Paths.get(storagePath).toAbsolutePath().normalize();
-        if (!Files.exists(rootLocation)) {
-            Files.createDirectories(rootLocation);
-        }
+        this.rootLocation = Paths.get(properties.getStoragePath()).toAbsolutePath().normalize();
+        // Files uploaded before the blob store existed are kept flat under the storage root.
+        this.legacyStorage = new LocalFileSystemStorageBackend(rootLocation, fileTransferUtil);
+        // Blobs, upload staging and the S3 spool live under the same root; no file may be named into them.
+        this.reservedLocations = List.of(properties.getBlobDirectory(),
+                        properties.getUpload().getStagingDirectory(),
+                        properties.getBackend().getS3().getSpoolDirectory()).stream()
+                .map(directory -> rootLocation.resolve(directory).normalize())
+                .collect(Collectors.toList());
     }
 
+    @Timed(value = FileMetrics.OPERATION_TIMER, extraTags = {"operation", "upload"}, histogram = true)
     @Transactional
-    public void upload(MultipartFile file, String authToken) throws IOException {
+    public void upload(MultipartFile file, User user) throws IOException {
         String filename = validateFilename(file);
-        User user = getUserFromToken(authToken);
-        Path destinationPath = prepareDestinationPath(filename);
-
-        try {
-            Files.copy(file.getInputStream(), destinationPath, StandardCopyOption.REPLACE_EXISTING);
-            saveFileMetadata(file, user, destinationPath);
-        } catch (IOException e) {
-            if (Files.exists(destinationPath)) {
-                Files.delete(destinationPath);
-            }
-
-            log.error("File upload failed for {}", filename, e);
-            throw new StorageException("Failed to store file", e);
-        } catch (Exception e) {
-            if (Files.exists(destinationPath)) {
-                Files.deleteIfExists(destinationPath);
-            }
-            log.error("Unexpected error during file upload", e);
-            throw e;
+        try (InputStream inputStream = file.getInputStream()) {
+            upload(filename, inputStream, user);
         }
     }
 
+    @Timed(value = FileMetrics.OPERATION_TIMER, extraTags = {"operation", "upload"}, histogram = true)
     @Transactional
-    public void upload(String filename, byte[] fileData, String authToken) throws IOException {
-        User user = getUserFromToken(authToken);
-        Path destinationPath = prepareDestinationPath(filename);
-
+    public void upload(String filename, byte[] fileData, User user) throws IOException {
         try (InputStream inputStream = new ByteArrayInputStream(fileData)) {
-            Files.copy(inputStream, destinationPath);
+            upload(filename, inputStream, user);
+        }
+    }
 
-            saveFileMetadata(filename, user, destinationPath);
+    @Timed(value = FileMetrics.OPERATION_TIMER, extraTags = {"operation", "upload"}, histogram = true)
+    @Transactional
+    public void upload(String filename, InputStream content, User user) throws IOException {
+        prepareDestinationPath(filename);
+        if (ingestBuffer.isEnabled()) {
+            ingest(filename, content, user);
+            return;
+        }
 
+        try {
+            Timer.Sample store = fileMetrics.startStage();
+            Blob blob = blobStore.write(content, properties.getMaxFileSize().toBytes());
+            fileMetrics.stopStage(store, "store");
+            fileMetrics.recordBytesIn(blob.getSize());
+            saveFileMetadata(filename, user, blob);
         } catch (IOException e) {
-            if (Files.exists(destinationPath)) {
-                Files.delete(destinationPath);
-            }
             log.error("File upload failed for {}", filename, e);
             throw new StorageException("File upload failed", e);
-        } catch (Exception e) {
-            if (Files.exists(destinationPath)) {
-                Files.deleteIfExists(destinationPath);
-            }
-            log.error("Unexpected error during file upload", e);
-            throw e;
         }
     }
 
+    /**
+     * High-ingest variant of {@link #upload(String, InputStream, User)}: the bytes are stored
+     * here and the row is handed to the {@link IngestBuffer}, which saves it together with
+     * the rows of other uploads. It still runs in the transaction of {@code upload}, but
+     * issues no statement in it: with auto-commit off Hibernate takes a connection only at
+     * the first statement (see application.yml), so none is held while the body streams in
+     * or while the row waits for its batch.
+     */
+    private void ingest(String filename, InputStream content, User user) throws IOException {
+        Timer.Sample store = fileMetrics.startStage();
+        StagedBlob staged;
+        try {
+            staged = blobStore.stage(content, properties.getMaxFileSize().toBytes());
+        } catch (IOException e) {
+            log.error("File upload failed for {}", filename, e);
+            throw new StorageException("File upload failed", e);
+        }
+        fileMetrics.stopStage(store, "store");
+        fileMetrics.recordBytesIn(staged.getSize());
+        Timer.Sample metadata = fileMetrics.startStage();
+        ingestBuffer.save(user, filename, staged);
+        fileMetrics.stopStage(metadata, "metadata");
+        log.info("Saved metadata for file: {}", filename);
+    }
+
+    @Timed(value = FileMetrics.OPERATION_TIMER, extraTags = {"operation", "import"}, histogram = true)
+    @Transactional
+    public void importFile(User user, String filename, Path stagedFile) throws IOException {
+        prepareDestinationPath(filename);
+        Timer.Sample store = fileMetrics.startStage();
+        Blob blob = blobStore.importFile(stagedFile);
+        fileMetrics.stopStage(store, "import");
+        saveFileMetadata(filename, user, blob);
+    }
+
+    @Timed(value = FileMetrics.OPERATION_TIMER, extraTags = {"operation", "download"}, histogram = true)
     @Transactional(readOnly = true)
-    public Resource download(String filename, String authToken) throws IOException {
-        User user = getUserFromToken(authToken);
-        File fileEntity = getFileFromStorage(filename, user);
-        Path filePath = getValidatedFilePath(fileEntity);
+    public FileContent download(String filename, User user) throws IOException {
+        return content(getFileFromStorage(filename, user));
+    }
 
-        Resource resource = new UrlResource(filePath.toUri());
+    /**
+     * Returns a downscaled copy of an image file. Renditions are made by
+     * {@link FileProcessingService} after upload, so a file that is not processed yet has none.
+     */
+    @Timed(value = FileMetrics.OPERATION_TIMER, extraTags = {"operation", "preview"}, histogram = true)
+    @Transactional(readOnly = true)
+    public FileContent preview(String filename, ImageRendition rendition, User user) throws IOException {
+        File fileEntity = getFileFromStorage(filename, user);
+        if (fileEntity.getContentHash() == null || fileEntity.getImageWidth() == null) {
+            throw new StorageException("No preview available for file: " + filename);
+        }
+        StorageBackend backend = blobStore.getStorageBackend();
+        String key = rendition.key(blobStore.key(fileEntity.getContentHash()));
+        StoredObject object = backend.stat(key)
+                .orElseThrow(() -> new StorageException("No preview available for file: " + filename));
+        String name = rendition.name().toLowerCase(Locale.ROOT);
+        return new FileContent(filename + "." + name + ".jpg", backend, key, object.getSize(),
+                "\"" + fileEntity.getContentHash() + "-" + name + "\"", object.getLastModified());
+    }
 
-        if (!resource.exists() || !resource.isReadable()) {
-            throw new StorageException("Could not read file: " + filename);
+    /**
+     * Resolves where the bytes of a file are kept, for downloads and for {@link FileProcessingService}.
+     */
+    FileContent content(File fileEntity) throws IOException {
+        String filename = fileEntity.getFilename();
+        StorageBackend backend;
+        String key;
+        if (fileEntity.getContentHash() != null) {
+            backend = blobStore.getStorageBackend();
+            key = blobStore.key(fileEntity.getContentHash());
+        } else {
+            backend = legacyStorage;
+            key = getLegacyKey(fileEntity);
         }
 
-        return resource;
+        StoredObject object = backend.stat(key)
+                .orElseThrow(() -> new StorageException("Could not read file: " + filename));
+        String etag = fileEntity.getContentHash() != null
+                ? "\"" + fileEntity.getContentHash() + "\""
+                : "\"" + Long.toHexString(object.getSize()) + "-"
+                        + Long.toHexString(object.getLastModified().toEpochMilli()) + "\"";
+        BlobCodec codec = fileEntity.getContentHash() != null ? fileEntity.getCodec() : BlobCodec.NONE;
+        long size = codec == BlobCodec.NONE ? object.getSize() : fileEntity.getSize();
+        return new FileContent(filename, backend, key, size, etag, object.getLastModified(), codec, object.getSize());
     }
 
+    @Timed(value = FileMetrics.OPERATION_TIMER, extraTags = {"operation", "delete"}, histogram = true)
     @Transactional
-    public void delete(String filename, String authToken) throws IOException {
-        User user = getUserFromToken(authToken);
+    public void delete(String filename, User user) throws IOException {
         File file = getFileFromStorage(filename, user);
-        Path filePath = getValidatedFilePath(file);
-
-        if (Files.exists(filePath)) {
-            Files.delete(filePath);
-        }
 
         fileRepository.delete(file);
+        quotaService.release(user, sizeOf(file), 1);
+        fileChangeService.record(user, FileChangeService.change(ChangeType.DELETED, file));
+        if (file.getContentHash() != null) {
+            blobStore.release(file.getContentHash());
+        } else {
+            deleteLegacyAfterCommit(List.of(getLegacyKey(file)));
+        }
         log.info("File {} deleted successfully", filename);
     }
 
+    /**
+     * Deletes several files in one transaction: one query to load them and one to delete
+     * the rows. If any name is not found nothing is deleted.
+     */
+    @Timed(value = FileMetrics.OPERATION_TIMER, extraTags = {"operation", "batch-delete"}, histogram = true)
+    @Transactional
+    public void deleteAll(List<String> filenames, User user) throws IOException {
+        List<File> files = getFilesFromStorage(filenames, user);
+
+        fileRepository.deleteAllByIdInBatch(files.stream().map(File::getId).collect(Collectors.toList()));
+        quotaService.release(user, files.stream().mapToLong(this::sizeOf).sum(), files.size());
+        fileChangeService.record(user, files.stream()
+                .map(file -> FileChangeService.change(ChangeType.DELETED, file))
+                .collect(Collectors.toList()));
+        blobStore.releaseAll(files.stream()
+                .map(File::getContentHash)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toList()));
+        deleteLegacyAfterCommit(files.stream()
+                .filter(file -> file.getContentHash() == null)
+                .map(this::getLegacyKey)
+                .collect(Collectors.toList()));
+        log.info("Deleted {} files", files.size());
+    }
+
+    /**
+     * Renames several files in one transaction with a single update statement. A name
+     * that is renamed away in the same batch cannot be reused as a new name, since the
+     * unique constraint is checked row by row.
+     */
+    @Timed(value = FileMetrics.OPERATION_TIMER, extraTags = {"operation", "batch-rename"}, histogram = true)
+    @Transactional
+    public void renameAll(Map<String, String> renames, User user) throws IOException {
+        if (renames == null) {
+            throw new FileProcessingException("No files to rename");
+        }
+        for (Map.Entry<String, String> rename : renames.entrySet()) {
+            if (rename.getKey() == null || rename.getKey().isBlank()) {
+                throw new StorageException("Invalid old filename");
+            }
+            if (rename.getValue() == null || rename.getValue().isBlank()) {
+                throw new StorageException("Invalid new filename");
+            }
+            if (renames.containsKey(rename.getValue())) {
+                throw new StorageException("File " + rename.getValue() + " is renamed in the same batch");
+            }
+            prepareDestinationPath(rename.getValue());
+        }
+        if (new HashSet<>(renames.values()).size() != renames.size()) {
+            throw new StorageException("New filenames must be unique");
+        }
+
+        List<File> files = getFilesFromStorage(renames.keySet(), user);
+        fileRepository.findByUserAndFilenameIn(user, renames.values()).stream().findFirst().ifPresent(existing -> {
+            throw new StorageException("File with name " + existing.getFilename() + " already exists for this user");
+        });
+        Map<String, String> blobRenames = new LinkedHashMap<>();
+        List<FileChange> changes = new ArrayList<>();
+        List<File> legacyFiles = new ArrayList<>();
+        for (File file : files) {
+            if (file.getContentHash() != null) {
+                blobRenames.put(file.getFilename(), renames.get(file.getFilename()));
+                changes.add(renamed(file, file.getFilename(), renames.get(file.getFilename())));
+            } else {
+                legacyFiles.add(file);
+            }
+        }
+        if (!blobRenames.isEmpty()) {
+            try {
+                fileRepository.renameAll(user, blobRenames);
+                fileChangeService.record(user, changes);
+            } catch (DataIntegrityViolationException e) {
+                if (isUserFilenameViolation(e)) {
+                    throw new StorageException("One of the new filenames already exists for this user");
+                }
+                throw e;
+            }
+        }
+        // Files stored before the blob store existed also have their bytes moved.
+        for (File file : legacyFiles) {
+            rename(file.getFilename(), renames.get(file.getFilename()), user);
+        }
+        log.info("Renamed {} files", files.size());
+    }
+
+    /**
+     * Resolves several files for one archive download, in the order they were requested.
+     */
+    @Timed(value = FileMetrics.OPERATION_TIMER, extraTags = {"operation", "batch-download"}, histogram = true)
+    @Transactional(readOnly = true)
+    public List<FileContent> downloadAll(List<String> filenames, User user) throws IOException {
+        List<FileContent> contents = new ArrayList<>();
+        for (File file : getFilesFromStorage(filenames, user)) {
+            contents.add(content(file));
+        }
+        return contents;
+    }
+
+    @Timed(value = FileMetrics.OPERATION_TIMER, extraTags = {"operation", "rename"}, histogram = true)
     @Transactional
-    public void rename(String oldFilename, String newFilename, String authToken) throws IOException {
+    public void rename(String oldFilename, String newFilename, User user) throws IOException {
         if (oldFilename == null || oldFilename.isBlank()) {
             throw new StorageException("Invalid old filename");
         }
@@ -136,39 +337,77 @@ public class FileService {
             throw new StorageException("Old and new filenames are the same");
         }
 
-        User user = getUserFromToken(authToken);
         File fileEntity = getFileFromStorage(oldFilename, user);
-        Path oldPath = getValidatedFilePath(fileEntity);
-
-        Path newPath = rootLocation.resolve(newFilename).normalize();
-
-        if (!newPath.startsWith(rootLocation)) {
-            throw new StorageException("Access denied to target path");
+        Path newPath = prepareDestinationPath(newFilename);
+        String oldKey = null;
+        if (fileEntity.getContentHash() == null) {
+            oldKey = getLegacyKey(fileEntity);
+            if (!legacyStorage.exists(oldKey)) {
+                throw new StorageException("Old file does not exist");
+            }
+            fileEntity.setFilepath(newPath.toString());
         }
 
-        if (fileRepository.existsByUserAndFilename(user, newFilename)) {
-            throw new StorageException("File with name " + newFilename + " already exists for this user");
+        fileEntity.setFilename(newFilename);
+        saveAndFlush(fileEntity);
+        fileChangeService.record(user, renamed(fileEntity, oldFilename, newFilename));
+        // The row is updated first so a name clash is detected before any bytes are moved.
+        if (oldKey != null) {
+            try {
+                legacyStorage.moveIfAbsent(oldKey, rootLocation.relativize(newPath).toString());
+            } catch (FileAlreadyExistsException e) {
+                // Flat files of all users share the root; another user's file may hold the name.
+                throw new StorageException("File " + newFilename + " cannot be stored under this name", e);
+            }
         }
+        log.info("File renamed from {} to {}", oldFilename, newFilename);
+    }
 
-        if (Files.exists(oldPath)) {
-            Files.move(oldPath, newPath, StandardCopyOption.REPLACE_EXISTING);
-        } else {
-            throw new StorageException("Old file does not exist");
-        }
+    /**
+     * Version of the user's file listing: the sequence number of the latest journaled
+     * change. Reading it costs one primary key lookup, so clients polling with
+     * {@code If-None-Match} are answered without running the listing query.
+     */
+    public long listingVersion(User user) {
+        return fileChangeService.currentSeq(user);
+    }
 
-        fileEntity.setFilename(newFilename);
-        fileEntity.setFilepath(newPath.toString());
-        fileRepository.save(fileEntity);
-        log.info("File renamed from {} to {}", oldFilename, newFilename);
+    @Transactional(readOnly = true)
+    public List<FileResponse> listFiles(User user, int limit) {
+        return listFiles(user, limit, null, FileSortField.NAME, false, null).getFiles();
     }
 
+    /**
+     * Returns one page of the user's files. {@code cursor} is the opaque value returned
+     * as {@link FilePage#getNextCursor()} for the previous page; it is {@code null} on the last page.
+     */
+    @Timed(value = FileMetrics.OPERATION_TIMER, extraTags = {"operation", "list"}, histogram = true)
     @Transactional(readOnly = true)
-    public List<FileResponse> listFiles(String authToken, int limit) {
-        User user = getUserFromToken(authToken);
-        return fileRepository.findByUser(user, PageRequest.of(0, limit))
-                .stream()
-                .map(this::convertToFileResponse)
+    public FilePage listFiles(User user, int limit, String cursor, FileSortField sort, boolean descending,
+                              String prefix) {
+        if (limit < 1 || limit > MAX_PAGE_SIZE) {
+            throw new FileProcessingException("Limit must be between 1 and " + MAX_PAGE_SIZE);
+        }
+        Object afterValue = null;
+        Long afterId = null;
+        if (cursor != null && !cursor.isEmpty()) {
+            String[] parts = decodeCursor(cursor, sort, descending);
+            afterId = Long.parseLong(parts[2]);
+            afterValue = parseSortValue(sort, parts[3]);
+        }
+
+        List<FileListing> rows = fileRepository.findPage(user, prefix == null || prefix.isEmpty() ? null : prefix,
+                sort, descending, afterValue, afterId, limit + 1);
+        String nextCursor = null;
+        if (rows.size() > limit) {
+            rows = rows.subList(0, limit);
+            nextCursor = encodeCursor(rows.get(limit - 1), sort, descending);
+        }
+        List<FileResponse> files = rows.stream()
+                .map(row -> new FileResponse(row.getFilename(), row.getSize(), row.getMimeType(),
+                        row.getChecksum(), row.getImageWidth(), row.getImageHeight()))
                 .collect(Collectors.toList());
+        return new FilePage(files, nextCursor);
     }
 
     private String validateFilename(MultipartFile file) {
@@ -181,43 +420,77 @@ public class FileService {
 
     private Path prepareDestinationPath(String filename) {
         Path destinationPath = rootLocation.resolve(filename).normalize();
-        if (!destinationPath.startsWith(rootLocation)) {
+        if (!destinationPath.startsWith(rootLocation) || destinationPath.equals(rootLocation)
+                || reservedLocations.stream().anyMatch(destinationPath::startsWith)) {
             throw new StorageException("Access denied to file path");
         }
         return destinationPath;
     }
 
-    private void saveFileMetadata(MultipartFile file, User user, Path destinationPath) {
-        File fileEntity = new File();
-        fileEntity.setFilename(file.getOriginalFilename());
-        fileEntity.setFilepath(destinationPath.toString());
-        fileEntity.setSize(file.getSize());
-        fileEntity.setUser(user);
-        fileRepository.save(fileEntity);
-        log.info("Saved metadata for file: {}", file.getOriginalFilename());
+    private void saveFileMetadata(String filename, User user, Blob blob) {
+        File fileEntity = newFile(filename, user, blob, blobStore.key(blob.getHash()));
+        Timer.Sample metadata = fileMetrics.startStage();
+        quotaService.reserve(user, blob.getSize());
+        saveAndFlush(fileEntity);
+        fileChangeService.record(user, FileChangeService.change(ChangeType.CREATED, fileEntity));
+        fileMetrics.stopStage(metadata, "metadata");
+        eventPublisher.publishEvent(new FileStoredEvent(fileEntity.getId()));
+        log.info("Saved metadata for file: {}", filename);
     }
 
-    private void saveFileMetadata(String filename, User user, Path destinationPath) throws IOException {
+    static File newFile(String filename, User user, Blob blob, String filepath) {
         File fileEntity = new File();
         fileEntity.setFilename(filename);
-        fileEntity.setFilepath(destinationPath.toString());
-        fileEntity.setSize(Files.size(destinationPath));
+        fileEntity.setFilepath(filepath);
+        fileEntity.setContentHash(blob.getHash());
+        fileEntity.setSize(blob.getSize());
+        fileEntity.setCodec(blob.getCodec());
         fileEntity.setUser(user);
-        fileRepository.save(fileEntity);
-        log.info("Saved metadata for file: {}", filename);
+        return fileEntity;
+    }
+
+    private static FileChange renamed(File file, String previousFilename, String newFilename) {
+        FileChange change = FileChangeService.change(ChangeType.RENAMED, file);
+        change.setPreviousFilename(previousFilename);
+        change.setFilename(newFilename);
+        return change;
+    }
+
+    /**
+     * Relies on the unique (user_id, filename) constraint to reject duplicate names,
+     * which also covers concurrent uploads that an existence check would miss.
+     */
+    private void saveAndFlush(File fileEntity) {
+        try {
+            fileRepository.saveAndFlush(fileEntity);
+        } catch (DataIntegrityViolationException e) {
+            if (isUserFilenameViolation(e)) {
+                throw new StorageException("File with name " + fileEntity.getFilename()
+                        + " already exists for this user");
+            }
+            throw e;
+        }
     }
 
-    private User getUserFromToken(String authToken) {
-        String email = jwtTokenUtil.getEmailFromToken(extractToken(authToken));
-        return userRepository.findByEmail(email)
-                .orElseThrow(() -> new StorageException("User not found"));
+    static boolean isUserFilenameViolation(DataIntegrityViolationException e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof ConstraintViolationException) {
+                String constraint = ((ConstraintViolationException) cause).getConstraintName();
+                return constraint != null && constraint.equalsIgnoreCase(File.USER_FILENAME_CONSTRAINT);
+            }
+        }
+        return false;
     }
 
-    private String extractToken(String authHeader) {
-        if (authHeader == null || !authHeader.startsWith("Bearer ")) {
-            throw new StorageException("Invalid authorization header");
+    /**
+     * Early check for flows that do work before the file row is written, such as
+     * reserving space for a chunked upload. The constraint remains the final guard.
+     */
+    void checkFilenameAvailable(User user, String filename) {
+        prepareDestinationPath(filename);
+        if (fileRepository.existsByUserAndFilename(user, filename)) {
+            throw new StorageException("File with name " + filename + " already exists for this user");
         }
-        return authHeader.substring(7);
     }
 
     private File getFileFromStorage(String filename, User user) {
@@ -225,15 +498,108 @@ public class FileService {
                 .orElseThrow(() -> new StorageException("File not found: " + filename));
     }
 
-    private Path getValidatedFilePath(File file) {
+    /**
+     * Loads the named files with one query, in the order of {@code filenames} without repeats.
+     */
+    private List<File> getFilesFromStorage(Collection<String> filenames, User user) {
+        if (filenames == null || filenames.isEmpty() || filenames.size() > MAX_BATCH_SIZE) {
+            throw new FileProcessingException("A batch must contain between 1 and " + MAX_BATCH_SIZE + " files");
+        }
+        Map<String, File> byName = fileRepository.findByUserAndFilenameIn(user, filenames).stream()
+                .collect(Collectors.toMap(File::getFilename, Function.identity()));
+        List<File> files = new ArrayList<>();
+        for (String filename : new LinkedHashSet<>(filenames)) {
+            File file = byName.get(filename);
+            if (file == null) {
+                throw new StorageException("File not found: " + filename);
+            }
+            files.add(file);
+        }
+        return files;
+    }
+
+    private long sizeOf(File file) {
+        return file.getSize() != null ? file.getSize() : 0;
+    }
+
+    /**
+     * Flat files are removed only once the deletion of their rows has committed; a rollback
+     * would otherwise leave rows whose content is gone.
+     */
+    private void deleteLegacyAfterCommit(List<String> keys) throws IOException {
+        if (keys.isEmpty()) {
+            return;
+        }
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            for (String key : keys) {
+                legacyStorage.delete(key);
+            }
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                for (String key : keys) {
+                    try {
+                        legacyStorage.delete(key);
+                    } catch (IOException e) {
+                        log.warn("Failed to remove flat file {} of a deleted row", key, e);
+                    }
+                }
+            }
+        });
+    }
+
+    private String getLegacyKey(File file) {
         Path filePath = Paths.get(file.getFilepath()).normalize();
         if (!filePath.startsWith(rootLocation)) {
             throw new StorageException("Access denied to file path");
         }
-        return filePath;
+        return rootLocation.relativize(filePath).toString();
     }
 
-    private FileResponse convertToFileResponse(File file) {
-        return new FileResponse(file.getFilename(), file.getSize());
+    private String encodeCursor(FileListing last, FileSortField sort, boolean descending) {
+        String value;
+        switch (sort) {
+            case SIZE:
+                value = String.valueOf(last.getSize());
+                break;
+            case UPLOADED:
+                value = String.valueOf(last.getUploadedAt());
+                break;
+            default:
+                value = last.getFilename();
+        }
+        String cursor = sort + ":" + (descending ? "desc" : "asc") + ":" + last.getId() + ":" + value;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(cursor.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private String[] decodeCursor(String cursor, FileSortField sort, boolean descending) {
+        String[] parts;
+        try {
+            parts = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8).split(":", 4);
+        } catch (IllegalArgumentException e) {
+            throw new FileProcessingException("Invalid cursor");
+        }
+        if (parts.length != 4 || !parts[2].matches("\\d{1,18}") || !parts[0].equals(sort.name())
+                || !parts[1].equals(descending ? "desc" : "asc")) {
+            throw new FileProcessingException("Cursor does not match the requested sort order");
+        }
+        return parts;
+    }
+
+    private Object parseSortValue(FileSortField sort, String value) {
+        try {
+            switch (sort) {
+                case SIZE:
+                    return Long.parseLong(value);
+                case UPLOADED:
+                    return Instant.parse(value);
+                default:
+                    return value;
+            }
+        } catch (RuntimeException e) {
+            throw new FileProcessingException("Invalid cursor");
+        }
     }
 }
\ No newline at end of file
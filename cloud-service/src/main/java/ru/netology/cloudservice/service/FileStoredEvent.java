@@ -0,0 +1,12 @@
+package ru.netology.cloudservice.service;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+/**
+ * Published when a file row is written; delivered to listeners after the transaction commits.
+ */
+@Data
+@AllArgsConstructor
+public class FileStoredEvent {
+    private Long fileId;
+}
@@ -0,0 +1,14 @@
+package ru.netology.cloudservice.service;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+/**
+ * Published when changes of a user's files are journaled; delivered to listeners after
+ * the transaction commits.
+ */
+@Data
+@AllArgsConstructor
+public class FilesChangedEvent {
+    private Long userId;
+    private long seq;
+}
@@ -0,0 +1,28 @@
+package ru.netology.cloudservice.service;
+
+import ru.netology.cloudservice.exception.FileProcessingException;
+
+import java.util.Locale;
+
+/**
+ * Downscaled JPEG copies of an image, rendered once per blob and stored next to it
+ * under {@code derived/<blob key>/}.
+ */
+public enum ImageRendition {
+    THUMBNAIL,
+    PREVIEW;
+
+    private static final String PREFIX = "derived/";
+
+    public String key(String blobKey) {
+        return PREFIX + blobKey + "/" + name().toLowerCase(Locale.ROOT) + ".jpg";
+    }
+
+    public static ImageRendition parse(String value) {
+        try {
+            return valueOf(value.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new FileProcessingException("Unsupported rendition: " + value);
+        }
+    }
+}
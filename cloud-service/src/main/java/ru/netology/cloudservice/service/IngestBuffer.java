@@ -0,0 +1,276 @@
+package ru.netology.cloudservice.service;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.netology.cloudservice.config.FileStorageProperties;
+import ru.netology.cloudservice.entity.Blob;
+import ru.netology.cloudservice.entity.ChangeType;
+import ru.netology.cloudservice.entity.File;
+import ru.netology.cloudservice.entity.User;
+import ru.netology.cloudservice.exception.StorageException;
+import ru.netology.cloudservice.repository.FileRepository;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.Collectors;
+
+/**
+ * Write-behind buffer for the rows of uploaded files in high-ingest mode. Upload threads
+ * store the bytes themselves and queue the row; a single writer saves what has queued up,
+ * until {@code batch-size} rows or {@code max-delay} after the first, in one transaction
+ * with batched inserts. An upload returns only after the transaction holding its row has
+ * committed, so an acknowledged file is as durable as one saved directly.
+ * <p>
+ * When a batch fails, for example on a duplicate name or an exceeded quota, its rows are
+ * saved again one per transaction, so only the offending uploads fail. An upload waits at
+ * most {@code save-timeout} for its row. If the writer dies of an {@link Error}, the
+ * uploads it holds fail and the buffer turns itself off, so later uploads save their rows
+ * directly.
+ */
+@Service
+@Slf4j
+public class IngestBuffer {
+
+    private static final long QUEUE_TIMEOUT_SECONDS = 10;
+    private static final String NOT_RUNNING = "High-ingest writer is not running";
+
+    private final BlobStore blobStore;
+    private final QuotaService quotaService;
+    private final FileRepository fileRepository;
+    private final FileChangeService fileChangeService;
+    private final ApplicationEventPublisher eventPublisher;
+    private final FileStorageProperties.Ingest properties;
+    private final TransactionTemplate transactionTemplate;
+    private final MeterRegistry meterRegistry;
+    private final BlockingQueue<PendingFile> queue;
+    private DistributionSummary batchSizes;
+    private volatile boolean running;
+    private Thread writer;
+
+    public IngestBuffer(BlobStore blobStore, QuotaService quotaService, FileRepository fileRepository,
+                        FileChangeService fileChangeService, ApplicationEventPublisher eventPublisher,
+                        FileStorageProperties properties, PlatformTransactionManager transactionManager,
+                        MeterRegistry meterRegistry) {
+        this.blobStore = blobStore;
+        this.quotaService = quotaService;
+        this.fileRepository = fileRepository;
+        this.fileChangeService = fileChangeService;
+        this.eventPublisher = eventPublisher;
+        this.properties = properties.getIngest();
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.meterRegistry = meterRegistry;
+        this.queue = new ArrayBlockingQueue<>(this.properties.getQueueCapacity());
+    }
+
+    @PostConstruct
+    public void start() {
+        if (!properties.isEnabled()) {
+            return;
+        }
+        Gauge.builder("file.ingest.queue", queue, BlockingQueue::size)
+                .description("Uploaded files waiting for their row to be saved")
+                .register(meterRegistry);
+        batchSizes = DistributionSummary.builder("file.ingest.batch")
+                .description("Rows saved per transaction in high-ingest mode")
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+        running = true;
+        writer = new Thread(this::run, "ingest-writer");
+        writer.setDaemon(true);
+        writer.start();
+        log.info("High-ingest mode: file rows are saved in batches of up to {}", properties.getBatchSize());
+    }
+
+    /**
+     * Lets the writer save what is queued, then fails whatever is left.
+     */
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        if (writer == null) {
+            return;
+        }
+        running = false;
+        writer.join(TimeUnit.SECONDS.toMillis(10));
+        List<PendingFile> left = new ArrayList<>();
+        queue.drainTo(left);
+        left.forEach(pending -> fail(pending, new StorageException("Server is shutting down")));
+    }
+
+    /**
+     * @return whether uploads should hand their rows to this buffer; false once it is
+     * stopped or its writer has died
+     */
+    public boolean isEnabled() {
+        return running;
+    }
+
+    /**
+     * Queues the row of a file whose content is staged and waits until it is committed.
+     * Errors are the same as for a direct upload. After a timeout the row may still be
+     * saved if the writer had already taken it.
+     */
+    public void save(User user, String filename, StagedBlob staged) {
+        PendingFile pending = new PendingFile(user, filename, staged);
+        try {
+            if (!running) {
+                blobStore.discard(staged);
+                throw new StorageException(NOT_RUNNING);
+            }
+            if (!queue.offer(pending, QUEUE_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                blobStore.discard(staged);
+                throw new StorageException("Too many uploads in progress");
+            }
+            // The writer may have stopped after the check above and will not drain the queue again.
+            if (!running && queue.remove(pending)) {
+                blobStore.discard(staged);
+                throw new StorageException(NOT_RUNNING);
+            }
+            pending.result.get(properties.getSaveTimeout().toMillis(), TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new StorageException("Interrupted while saving " + filename);
+        } catch (ExecutionException e) {
+            // Only fail() completes a result exceptionally, always with a RuntimeException.
+            throw (RuntimeException) e.getCause();
+        } catch (TimeoutException e) {
+            if (queue.remove(pending)) {
+                blobStore.discard(staged);
+            }
+            throw new StorageException("Timed out saving " + filename);
+        }
+    }
+
+    private void run() {
+        List<PendingFile> batch = new ArrayList<>(properties.getBatchSize());
+        try {
+            write(batch);
+        } catch (Error e) {
+            log.error("High-ingest writer died, file rows are saved directly from now on", e);
+            running = false;
+            StorageException failure = new StorageException(NOT_RUNNING);
+            batch.forEach(pending -> fail(pending, failure));
+            List<PendingFile> left = new ArrayList<>();
+            queue.drainTo(left);
+            left.forEach(pending -> fail(pending, failure));
+            throw e;
+        }
+    }
+
+    private void write(List<PendingFile> batch) {
+        while (running || !queue.isEmpty()) {
+            try {
+                PendingFile first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                long deadline = System.nanoTime() + properties.getMaxDelay().toNanos();
+                while (batch.size() < properties.getBatchSize()) {
+                    PendingFile next = queue.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                running = false;
+            }
+            try {
+                flush(batch);
+            } catch (RuntimeException e) {
+                log.error("Failed to save a batch of {} files", batch.size(), e);
+                batch.forEach(pending -> fail(pending, e));
+            }
+            batch.clear();
+        }
+    }
+
+    void flush(List<PendingFile> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        try {
+            transactionTemplate.executeWithoutResult(status -> saveAll(batch));
+        } catch (RuntimeException e) {
+            if (batch.size() == 1) {
+                fail(batch.get(0), e);
+                return;
+            }
+            log.debug("Batch of {} files failed, saving them one by one", batch.size(), e);
+            for (PendingFile pending : batch) {
+                flush(List.of(pending));
+            }
+            return;
+        }
+        batchSizes.record(batch.size());
+        batch.forEach(pending -> pending.result.complete(null));
+    }
+
+    /**
+     * Same steps as a direct upload, ordered so that the file rows and the journal entries
+     * are each written as one batch.
+     */
+    private void saveAll(List<PendingFile> batch) {
+        List<File> files = new ArrayList<>(batch.size());
+        for (PendingFile pending : batch) {
+            Blob blob;
+            try {
+                blob = blobStore.register(pending.staged);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            quotaService.reserve(pending.user, blob.getSize());
+            files.add(FileService.newFile(pending.filename, pending.user, blob, blobStore.key(blob.getHash())));
+        }
+        fileRepository.saveAll(files);
+        fileChangeService.recordAll(files.stream()
+                .map(file -> FileChangeService.change(ChangeType.CREATED, file))
+                .collect(Collectors.toList()));
+        // Constraint violations surface here, before the staged bytes are moved into place.
+        fileRepository.flush();
+        files.forEach(file -> eventPublisher.publishEvent(new FileStoredEvent(file.getId())));
+    }
+
+    private void fail(PendingFile pending, RuntimeException e) {
+        blobStore.discard(pending.staged);
+        RuntimeException cause = e;
+        if (e instanceof DataIntegrityViolationException
+                && FileService.isUserFilenameViolation((DataIntegrityViolationException) e)) {
+            cause = new StorageException("File with name " + pending.filename + " already exists for this user");
+        } else if (e instanceof UncheckedIOException) {
+            cause = new StorageException("File upload failed", ((UncheckedIOException) e).getCause());
+        }
+        pending.result.completeExceptionally(cause);
+    }
+
+    static class PendingFile {
+        private final User user;
+        private final String filename;
+        private final StagedBlob staged;
+        private final CompletableFuture<Void> result = new CompletableFuture<>();
+
+        PendingFile(User user, String filename, StagedBlob staged) {
+            this.user = user;
+            this.filename = filename;
+            this.staged = staged;
+        }
+    }
+}
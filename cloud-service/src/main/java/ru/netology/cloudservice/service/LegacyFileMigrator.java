@@ -0,0 +1,145 @@
+package ru.netology.cloudservice.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.netology.cloudservice.config.FileStorageProperties;
+import ru.netology.cloudservice.entity.Blob;
+import ru.netology.cloudservice.entity.File;
+import ru.netology.cloudservice.exception.StorageException;
+import ru.netology.cloudservice.repository.FileRepository;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Moves files uploaded before the blob store existed, which are kept flat under the storage
+ * root, into the blob store while the service keeps running. Each run migrates up to
+ * {@code batch-size} files, one transaction per file: the row is locked, the content is
+ * imported (a hard link when possible) and the row is pointed at the blob. The flat file is
+ * deleted once the transaction has committed. Renames and deletions of the file wait for the
+ * row lock; a reference count left wrong by one that raced the migration is corrected by
+ * the {@link StorageReconciler}.
+ */
+@Service
+@Slf4j
+public class LegacyFileMigrator {
+
+    private final FileRepository fileRepository;
+    private final BlobStore blobStore;
+    private final FileStorageProperties.Migration properties;
+    private final Path rootLocation;
+    private final TransactionTemplate transactionTemplate;
+    private final MeterRegistry meterRegistry;
+    private Long afterId = 0L;
+    private boolean finished;
+
+    public LegacyFileMigrator(FileRepository fileRepository, BlobStore blobStore, FileStorageProperties properties,
+                              PlatformTransactionManager transactionManager, MeterRegistry meterRegistry) {
+        this.fileRepository = fileRepository;
+        this.blobStore = blobStore;
+        this.properties = properties.getMigration();
+        this.rootLocation = Paths.get(properties.getStoragePath()).toAbsolutePath().normalize();
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.meterRegistry = meterRegistry;
+    }
+
+    /**
+     * Migrates the next batch. Files that fail are skipped until the next start; new uploads
+     * never use the flat layout, so once a pass is through there is nothing left to do.
+     */
+    @Scheduled(fixedDelayString = "${file.migration.interval:PT1M}")
+    public void migrateNext() {
+        if (!properties.isEnabled() || finished) {
+            return;
+        }
+        List<Long> ids = fileRepository.findLegacyIdsAfter(afterId, PageRequest.of(0, properties.getBatchSize()));
+        for (Long id : ids) {
+            try {
+                migrate(id);
+            } catch (RuntimeException e) {
+                log.warn("Failed to migrate file {} into the blob store", id, e);
+                count("failed");
+            }
+            afterId = id;
+        }
+        if (ids.size() < properties.getBatchSize()) {
+            finished = true;
+            log.info("No more files left in the flat storage layout");
+        }
+    }
+
+    /**
+     * @return whether the file was moved into the blob store
+     */
+    boolean migrate(Long id) {
+        return Boolean.TRUE.equals(transactionTemplate.execute(status -> {
+            Optional<File> locked = fileRepository.findByIdForUpdate(id);
+            if (locked.isEmpty() || locked.get().getContentHash() != null) {
+                return false;
+            }
+            File file = locked.get();
+            Path source = legacyPath(file);
+            if (!Files.isRegularFile(source)) {
+                log.warn("Content of file {} is missing at {}", id, source);
+                count("missing");
+                return false;
+            }
+            Blob blob;
+            try {
+                blob = blobStore.importFile(source);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            file.setContentHash(blob.getHash());
+            file.setFilepath(blobStore.key(blob.getHash()));
+            file.setSize(blob.getSize());
+            file.setCodec(blob.getCodec());
+            deleteAfterCommit(source);
+            count("migrated");
+            log.info("Moved file {} into the blob store as {}", id, blob.getHash());
+            return true;
+        }));
+    }
+
+    private Path legacyPath(File file) {
+        Path path = Paths.get(file.getFilepath()).normalize();
+        if (!path.startsWith(rootLocation)) {
+            throw new StorageException("Access denied to file path");
+        }
+        return path;
+    }
+
+    private void deleteAfterCommit(Path source) {
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                try {
+                    Files.deleteIfExists(source);
+                } catch (IOException e) {
+                    log.warn("Failed to remove migrated file {}", source, e);
+                }
+            }
+        });
+    }
+
+    private void count(String outcome) {
+        Counter.builder("file.migration.files")
+                .description("Files moved from the flat storage layout into the blob store")
+                .tag("outcome", outcome)
+                .register(meterRegistry)
+                .increment();
+    }
+}
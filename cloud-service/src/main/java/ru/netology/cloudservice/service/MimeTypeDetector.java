@@ -0,0 +1,135 @@
+package ru.netology.cloudservice.service;
+
+import org.springframework.http.MediaType;
+import org.springframework.http.MediaTypeFactory;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Detects the MIME type of a file from its first bytes, falling back to the file name
+ * only where the content does not tell: plain text, zip-based formats such as docx,
+ * and formats without a signature.
+ */
+@Component
+public class MimeTypeDetector {
+
+    public static final int SAMPLE_SIZE = 8192;
+    static final String OCTET_STREAM = MediaType.APPLICATION_OCTET_STREAM_VALUE;
+    static final String ZIP = "application/zip";
+
+    private static final Map<byte[], String> SIGNATURES = new LinkedHashMap<>();
+
+    static {
+        SIGNATURES.put(new byte[]{(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n'}, "image/png");
+        SIGNATURES.put(new byte[]{(byte) 0xff, (byte) 0xd8, (byte) 0xff}, "image/jpeg");
+        SIGNATURES.put(ascii("GIF87a"), "image/gif");
+        SIGNATURES.put(ascii("GIF89a"), "image/gif");
+        SIGNATURES.put(new byte[]{'I', 'I', '*', 0}, "image/tiff");
+        SIGNATURES.put(new byte[]{'M', 'M', 0, '*'}, "image/tiff");
+        SIGNATURES.put(new byte[]{0, 0, 1, 0}, "image/x-icon");
+        SIGNATURES.put(ascii("%PDF-"), "application/pdf");
+        SIGNATURES.put(new byte[]{'P', 'K', 3, 4}, ZIP);
+        SIGNATURES.put(new byte[]{0x1f, (byte) 0x8b}, "application/gzip");
+        SIGNATURES.put(new byte[]{0x28, (byte) 0xb5, 0x2f, (byte) 0xfd}, "application/zstd");
+        SIGNATURES.put(new byte[]{(byte) 0xfd, '7', 'z', 'X', 'Z', 0}, "application/x-xz");
+        SIGNATURES.put(ascii("BZh"), "application/x-bzip2");
+        SIGNATURES.put(new byte[]{'7', 'z', (byte) 0xbc, (byte) 0xaf, 0x27, 0x1c}, "application/x-7z-compressed");
+        SIGNATURES.put(ascii("Rar!"), "application/vnd.rar");
+        SIGNATURES.put(ascii("ID3"), "audio/mpeg");
+        SIGNATURES.put(ascii("OggS"), "audio/ogg");
+        SIGNATURES.put(ascii("fLaC"), "audio/flac");
+        SIGNATURES.put(new byte[]{0x1a, 0x45, (byte) 0xdf, (byte) 0xa3}, "video/x-matroska");
+        SIGNATURES.put(new byte[]{0x7f, 'E', 'L', 'F'}, "application/x-elf");
+        SIGNATURES.put(ascii("SQLite format 3\0"), "application/vnd.sqlite3");
+    }
+
+    /** Two-byte signatures that plain text can start with too; only checked for binary content. */
+    private static final Map<byte[], String> WEAK_SIGNATURES = Map.of(
+            ascii("BM"), "image/bmp",
+            ascii("MZ"), "application/vnd.microsoft.portable-executable");
+
+    private static final byte[] RIFF = ascii("RIFF");
+    private static final byte[] ISO_MEDIA_BOX = ascii("ftyp");
+
+    /**
+     * @param sample the first {@code length} bytes of the content, up to {@link #SAMPLE_SIZE}
+     */
+    public String detect(byte[] sample, int length, String filename) {
+        Optional<String> byName = MediaTypeFactory.getMediaType(filename).map(MediaType::toString);
+        String byContent = detectContainer(sample, length);
+        if (byContent == null) {
+            byContent = detectSignature(sample, length, SIGNATURES);
+        }
+        if (byContent != null) {
+            // docx, xlsx, jar, epub and the like are all zip archives inside
+            return byContent.equals(ZIP) ? byName.filter(type -> type.startsWith("application/")).orElse(ZIP)
+                    : byContent;
+        }
+        if (length > 0 && CodecSelector.isText(sample, length)) {
+            return byName.filter(MimeTypeDetector::isTextual).orElse(MediaType.TEXT_PLAIN_VALUE);
+        }
+        byContent = detectSignature(sample, length, WEAK_SIGNATURES);
+        if (byContent != null) {
+            return byContent;
+        }
+        return byName.filter(type -> !isTextual(type)).orElse(OCTET_STREAM);
+    }
+
+    private String detectSignature(byte[] sample, int length, Map<byte[], String> signatures) {
+        for (Map.Entry<byte[], String> signature : signatures.entrySet()) {
+            if (startsWith(sample, length, 0, signature.getKey())) {
+                return signature.getValue();
+            }
+        }
+        return null;
+    }
+
+    private String detectContainer(byte[] sample, int length) {
+        if (startsWith(sample, length, 0, RIFF)) {
+            if (startsWith(sample, length, 8, ascii("WEBP"))) {
+                return "image/webp";
+            }
+            if (startsWith(sample, length, 8, ascii("WAVE"))) {
+                return "audio/wav";
+            }
+            if (startsWith(sample, length, 8, ascii("AVI "))) {
+                return "video/x-msvideo";
+            }
+        }
+        if (startsWith(sample, length, 4, ISO_MEDIA_BOX)) {
+            if (startsWith(sample, length, 8, ascii("qt  "))) {
+                return "video/quicktime";
+            }
+            if (startsWith(sample, length, 8, ascii("heic")) || startsWith(sample, length, 8, ascii("mif1"))) {
+                return "image/heic";
+            }
+            return "video/mp4";
+        }
+        return null;
+    }
+
+    private static boolean isTextual(String type) {
+        return type.startsWith("text/") || type.endsWith("+xml") || type.endsWith("/xml")
+                || type.endsWith("/json") || type.endsWith("+json") || type.endsWith("/javascript");
+    }
+
+    private static boolean startsWith(byte[] sample, int length, int offset, byte[] signature) {
+        if (length < offset + signature.length) {
+            return false;
+        }
+        for (int i = 0; i < signature.length; i++) {
+            if (sample[offset + i] != signature[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static byte[] ascii(String value) {
+        return value.getBytes(StandardCharsets.US_ASCII);
+    }
+}
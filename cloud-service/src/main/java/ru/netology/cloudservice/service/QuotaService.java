@@ -0,0 +1,129 @@
+package ru.netology.cloudservice.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.netology.cloudservice.config.FileStorageProperties;
+import ru.netology.cloudservice.dto.StorageUsage;
+import ru.netology.cloudservice.entity.User;
+import ru.netology.cloudservice.exception.QuotaExceededException;
+import ru.netology.cloudservice.exception.UserNotFoundException;
+import ru.netology.cloudservice.repository.FileRepository;
+import ru.netology.cloudservice.repository.UserRepository;
+
+import java.util.List;
+
+/**
+ * Per-user storage accounting. Usage is kept as running counters on the user row and
+ * changed by single-row updates, so checking a quota never sums the user's files.
+ * Sizes are counted before deduplication and compression: what the user uploaded.
+ * A background job recomputes the counters from the files to correct any drift.
+ */
+@Service
+@Slf4j
+public class QuotaService {
+
+    private final UserRepository userRepository;
+    private final FileRepository fileRepository;
+    private final FileStorageProperties.Quota properties;
+    private final TransactionTemplate transactionTemplate;
+
+    public QuotaService(UserRepository userRepository, FileRepository fileRepository,
+                        FileStorageProperties properties, PlatformTransactionManager transactionManager) {
+        this.userRepository = userRepository;
+        this.fileRepository = fileRepository;
+        this.properties = properties.getQuota();
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    /**
+     * Adds a file of {@code bytes} to the user's usage, or throws if that would go over
+     * the quota. The user row stays locked until the transaction ends.
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void reserve(User user, long bytes) {
+        if (!properties.isEnabled()) {
+            userRepository.adjustUsage(user.getId(), bytes, 1);
+            return;
+        }
+        if (userRepository.reserveUsage(user.getId(), bytes, 1, properties.getDefaultLimit().toBytes()) == 0) {
+            StorageUsage usage = usage(user);
+            throw new QuotaExceededException(usage.getBytesUsed(), bytes, usage.getQuotaBytes());
+        }
+    }
+
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void release(User user, long bytes, long files) {
+        userRepository.adjustUsage(user.getId(), -bytes, -files);
+    }
+
+    /**
+     * Early rejection for uploads whose size is known up front, before any bytes are
+     * stored. {@link #reserve} remains the check that counts.
+     */
+    public void check(User user, long bytes) {
+        StorageUsage usage = usage(user);
+        if (usage.getQuotaBytes() != null && usage.getBytesUsed() + bytes > usage.getQuotaBytes()) {
+            throw new QuotaExceededException(usage.getBytesUsed(), bytes, usage.getQuotaBytes());
+        }
+    }
+
+    /**
+     * Reads the counters from the database; the cached principal may be out of date.
+     */
+    public StorageUsage usage(User user) {
+        StorageUsage usage = userRepository.findUsage(user.getId())
+                .orElseThrow(() -> new UserNotFoundException(user.getEmail()));
+        if (!properties.isEnabled()) {
+            usage.setQuotaBytes(null);
+        } else if (usage.getQuotaBytes() == null) {
+            usage.setQuotaBytes(properties.getDefaultLimit().toBytes());
+        }
+        return usage;
+    }
+
+    @Scheduled(fixedDelayString = "${file.quota.reconcile-interval:PT1H}")
+    public void reconcileAll() {
+        List<Long> ids;
+        Long afterId = 0L;
+        do {
+            ids = userRepository.findIdsAfter(afterId, PageRequest.of(0, properties.getReconcileBatchSize()));
+            for (Long id : ids) {
+                try {
+                    reconcile(id);
+                } catch (RuntimeException e) {
+                    log.warn("Failed to reconcile storage usage of user {}", id, e);
+                }
+            }
+            if (!ids.isEmpty()) {
+                afterId = ids.get(ids.size() - 1);
+            }
+        } while (ids.size() == properties.getReconcileBatchSize());
+    }
+
+    /**
+     * Recomputes one user's counters. The row is locked before the files are summed,
+     * so uploads committed before the lock are counted and later ones wait and then
+     * add to the corrected value.
+     */
+    void reconcile(Long userId) {
+        transactionTemplate.executeWithoutResult(status -> {
+            if (userRepository.lockById(userId).isEmpty()) {
+                return;
+            }
+            StorageUsage actual = fileRepository.sumUsage(userId);
+            StorageUsage recorded = userRepository.findUsage(userId).orElseThrow();
+            if (actual.getBytesUsed() != recorded.getBytesUsed() || actual.getFileCount() != recorded.getFileCount()) {
+                log.warn("Storage usage of user {} drifted: recorded {} bytes in {} files, actual {} bytes in {} files",
+                        userId, recorded.getBytesUsed(), recorded.getFileCount(),
+                        actual.getBytesUsed(), actual.getFileCount());
+                userRepository.setUsage(userId, actual.getBytesUsed(), actual.getFileCount());
+            }
+        });
+    }
+}
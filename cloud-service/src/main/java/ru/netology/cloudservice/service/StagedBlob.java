@@ -0,0 +1,20 @@
+package ru.netology.cloudservice.service;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import ru.netology.cloudservice.storage.BlobCodec;
+
+/**
+ * Content written by {@link BlobStore#stage} to a temporary object under {@code tempKey}
+ * and not yet registered as a blob. {@code size} is the length of the original content;
+ * {@code storedSize} is what was written, encoded with {@code codec}.
+ */
+@Data
+@AllArgsConstructor
+public class StagedBlob {
+    private String tempKey;
+    private String hash;
+    private long size;
+    private BlobCodec codec;
+    private long storedSize;
+}
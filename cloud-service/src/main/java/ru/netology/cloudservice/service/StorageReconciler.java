@@ -0,0 +1,274 @@
+package ru.netology.cloudservice.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.netology.cloudservice.config.FileStorageProperties;
+import ru.netology.cloudservice.dto.ContentReferences;
+import ru.netology.cloudservice.entity.Blob;
+import ru.netology.cloudservice.entity.File;
+import ru.netology.cloudservice.repository.BlobRepository;
+import ru.netology.cloudservice.repository.FileRepository;
+import ru.netology.cloudservice.storage.BlobCodec;
+import ru.netology.cloudservice.storage.StorageBackend;
+import ru.netology.cloudservice.storage.StoredObject;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Instant;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.function.Function;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * Finds and repairs drift between the blob directories of the storage backend and the
+ * {@code blobs} and {@code files} tables. Each kind is counted in {@code file.reconcile.drift}:
+ * <ul>
+ *     <li>{@code orphaned}: content with neither a blob row nor files is moved under {@code quarantine/};</li>
+ *     <li>{@code unregistered}: content used by files but without a blob row gets its row back;</li>
+ *     <li>{@code missing}: files whose content is gone are marked {@code CORRUPT};</li>
+ *     <li>{@code ref-count}: a reference count that differs from the number of files is corrected.</li>
+ * </ul>
+ * A run takes the next {@code directories-per-run} of the 65536 {@code ab/cd/} directories, so
+ * memory is bounded by one directory and the extra I/O by the run interval. A mismatch seen in
+ * the listing is checked again under the blob row lock before it is counted, so uploads and
+ * deletions in progress are not taken for drift. With {@code repair} off drift is only reported.
+ * <p>
+ * Files still kept flat under the storage root are not checked: {@link FileService} removes
+ * them only after the deletion of their rows has committed, and {@link LegacyFileMigrator}
+ * moves the rest into the blob store.
+ */
+@Service
+@Slf4j
+public class StorageReconciler {
+
+    static final String QUARANTINE_PREFIX = "quarantine/";
+    private static final int DIRECTORIES = 1 << 16;
+    private static final Pattern HASH = Pattern.compile("[0-9a-f]{64}");
+
+    private final BlobRepository blobRepository;
+    private final FileRepository fileRepository;
+    private final BlobStore blobStore;
+    private final StorageBackend storageBackend;
+    private final FileStorageProperties.Reconcile properties;
+    private final TransactionTemplate transactionTemplate;
+    private final MeterRegistry meterRegistry;
+    private final Counter scanned;
+    private int next;
+
+    public StorageReconciler(BlobRepository blobRepository, FileRepository fileRepository, BlobStore blobStore,
+                             FileStorageProperties properties, PlatformTransactionManager transactionManager,
+                             MeterRegistry meterRegistry) {
+        this.blobRepository = blobRepository;
+        this.fileRepository = fileRepository;
+        this.blobStore = blobStore;
+        this.storageBackend = blobStore.getStorageBackend();
+        this.properties = properties.getReconcile();
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.meterRegistry = meterRegistry;
+        this.scanned = Counter.builder("file.reconcile.objects")
+                .description("Stored objects checked by the storage reconciler")
+                .register(meterRegistry);
+    }
+
+    @Scheduled(fixedDelayString = "${file.reconcile.interval:PT10S}")
+    public void reconcileNext() {
+        if (!properties.isEnabled()) {
+            return;
+        }
+        for (int i = 0; i < properties.getDirectoriesPerRun(); i++) {
+            String shard = String.format("%04x", next);
+            try {
+                reconcile(shard);
+            } catch (IOException | RuntimeException e) {
+                log.warn("Failed to reconcile blob directory {}", shard, e);
+            }
+            next = (next + 1) % DIRECTORIES;
+            if (next == 0) {
+                log.info("Finished a pass over all blob directories");
+            }
+        }
+    }
+
+    /**
+     * Reconciles the content whose hashes start with {@code shard}, four hex digits.
+     *
+     * @return number of mismatches found
+     */
+    int reconcile(String shard) throws IOException {
+        String directory = shard.substring(0, 2) + "/" + shard.substring(2) + "/";
+        Map<String, StoredObject> objects = storageBackend.list(directory);
+        scanned.increment(objects.size());
+        String from = shard + "0".repeat(60);
+        String to = shard + "f".repeat(60);
+        Map<String, Blob> blobs = blobRepository.findByHashBetween(from, to).stream()
+                .collect(Collectors.toMap(Blob::getHash, Function.identity()));
+        Map<String, Long> references = fileRepository.countReferences(from, to).stream()
+                .collect(Collectors.toMap(ContentReferences::getHash, ContentReferences::getCount));
+
+        Set<String> names = new TreeSet<>(objects.keySet());
+        names.addAll(blobs.keySet());
+        names.addAll(references.keySet());
+        Instant settled = Instant.now().minus(properties.getGracePeriod());
+        int drift = 0;
+        for (String name : names) {
+            StoredObject object = objects.get(name);
+            Blob blob = blobs.get(name);
+            long count = references.getOrDefault(name, 0L);
+            if (blob == null && count == 0) {
+                if (!object.getLastModified().isAfter(settled) && quarantine(directory, name)) {
+                    drift++;
+                }
+                continue;
+            }
+            if (blob == null) {
+                if (register(name)) {
+                    drift++;
+                }
+                continue;
+            }
+            if (object == null && count > 0 && markMissing(name)) {
+                drift++;
+            }
+            if (blob.getRefCount() != count && fixRefCount(name)) {
+                drift++;
+            }
+        }
+        return drift;
+    }
+
+    /**
+     * Moves content nothing refers to out of the blob directories. A placeholder row holds
+     * off uploads of the same content until the bytes are gone; it is rolled back afterwards.
+     */
+    private boolean quarantine(String directory, String name) {
+        String key = directory + name;
+        return inTransaction(status -> {
+            status.setRollbackOnly();
+            if (HASH.matcher(name).matches()
+                    && blobRepository.insertIfAbsent(name, 0, BlobCodec.NONE.name(), 0, Instant.now()) == 0) {
+                return false;
+            }
+            if (!exists(key)) {
+                return false;
+            }
+            drift("orphaned", "Content {} has no blob row and no files", name);
+            if (properties.isRepair()) {
+                try {
+                    storageBackend.move(key, QUARANTINE_PREFIX + key);
+                    for (ImageRendition rendition : ImageRendition.values()) {
+                        storageBackend.delete(rendition.key(key));
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+            return true;
+        });
+    }
+
+    /**
+     * Recreates the blob row of content that files use, from the encoding recorded on a file.
+     */
+    private boolean register(String hash) {
+        return inTransaction(status -> {
+            Optional<File> file = fileRepository.findFirstByContentHash(hash);
+            Optional<StoredObject> object = stat(blobStore.key(hash));
+            if (file.isEmpty()) {
+                return false;
+            }
+            if (object.isEmpty()) {
+                return markMissing(hash, fileRepository.countByContentHash(hash));
+            }
+            if (blobRepository.insertIfAbsent(hash, file.get().getSize(), file.get().getCodec().name(),
+                    object.get().getSize(), Instant.now()) == 0) {
+                return false;
+            }
+            long references = fileRepository.countByContentHash(hash);
+            drift("unregistered", "Content {} of {} files has no blob row", hash, references);
+            if (properties.isRepair()) {
+                blobRepository.updateRefCount(hash, references);
+            } else {
+                status.setRollbackOnly();
+            }
+            return true;
+        });
+    }
+
+    private boolean markMissing(String hash) {
+        return inTransaction(status -> {
+            // Waits for a collection or an upload of this content that is in progress.
+            blobRepository.findByHashForUpdate(hash);
+            return !exists(blobStore.key(hash)) && markMissing(hash, fileRepository.countByContentHash(hash));
+        });
+    }
+
+    private boolean markMissing(String hash, long references) {
+        if (references == 0) {
+            return false;
+        }
+        if (!properties.isRepair()) {
+            drift("missing", "Content {} of {} files is missing", hash, references);
+            return true;
+        }
+        // Files marked before are not counted again on later passes.
+        if (fileRepository.markCorrupt(hash) == 0) {
+            return false;
+        }
+        drift("missing", "Content {} of {} files is missing, files marked corrupt", hash, references);
+        return true;
+    }
+
+    private boolean fixRefCount(String hash) {
+        return inTransaction(status -> {
+            Optional<Blob> blob = blobRepository.findByHashForUpdate(hash);
+            if (blob.isEmpty()) {
+                return false;
+            }
+            long references = fileRepository.countByContentHash(hash);
+            if (blob.get().getRefCount() == references) {
+                return false;
+            }
+            drift("ref-count", "Blob {} has reference count {} but {} files", hash, blob.get().getRefCount(),
+                    references);
+            if (properties.isRepair()) {
+                blobRepository.updateRefCount(hash, references);
+            }
+            return true;
+        });
+    }
+
+    private void drift(String kind, String message, Object... arguments) {
+        log.warn(message, arguments);
+        Counter.builder("file.reconcile.drift")
+                .description("Mismatches between stored content and the database found by the reconciler")
+                .tag("kind", kind)
+                .register(meterRegistry)
+                .increment();
+    }
+
+    private boolean inTransaction(TransactionCallback<Boolean> action) {
+        return Boolean.TRUE.equals(transactionTemplate.execute(action));
+    }
+
+    private boolean exists(String key) {
+        return stat(key).isPresent();
+    }
+
+    private Optional<StoredObject> stat(String key) {
+        try {
+            return storageBackend.stat(key);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
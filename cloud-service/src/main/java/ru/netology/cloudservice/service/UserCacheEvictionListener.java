@@ -0,0 +1,51 @@
+package ru.netology.cloudservice.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import ru.netology.cloudservice.entity.User;
+
+import javax.persistence.PostRemove;
+import javax.persistence.PostUpdate;
+
+/**
+ * Drops a user from the authentication cache when the row is updated or deleted.
+ * Eviction runs after commit so a concurrent request cannot re-cache the old state.
+ */
+@Component
+@Slf4j
+public class UserCacheEvictionListener {
+
+    private final CacheManager cacheManager;
+
+    public UserCacheEvictionListener(CacheManager cacheManager) {
+        this.cacheManager = cacheManager;
+    }
+
+    @PostUpdate
+    @PostRemove
+    public void evict(User user) {
+        String email = user.getEmail();
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    evict(email);
+                }
+            });
+        } else {
+            evict(email);
+        }
+    }
+
+    private void evict(String email) {
+        Cache cache = cacheManager.getCache(UserDetailsServiceImpl.USER_CACHE);
+        if (cache != null) {
+            cache.evict(email);
+            log.debug("Evicted cached user {}", email);
+        }
+    }
+}
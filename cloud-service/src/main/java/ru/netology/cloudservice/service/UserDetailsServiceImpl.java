@@ -1,5 +1,6 @@
 package ru.netology.cloudservice.service;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.cache.annotation.Cacheable;
 import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.security.core.userdetails.UserDetailsService;
 import org.springframework.security.core.userdetails.UsernameNotFoundException;
@@ -12,13 +13,19 @@ import java.util.Optional;
 @Slf4j
 public class UserDetailsServiceImpl implements UserDetailsService {
 
+    public static final String USER_CACHE = "users";
+
     private final UserRepository userRepository;
 
     public UserDetailsServiceImpl(UserRepository userRepository) {
         this.userRepository = userRepository;
     }
 
+    /**
+     * Cached per email; entries are evicted by {@link UserCacheEvictionListener} when the user row changes.
+     */
     @Override
+    @Cacheable(cacheNames = USER_CACHE)
     public UserDetails loadUserByUsername(String email) throws UsernameNotFoundException {
         log.info("Loading user by email: {}", email);
         Optional<User> user = userRepository.findByEmail(email);
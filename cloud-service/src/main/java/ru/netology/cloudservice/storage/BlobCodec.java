@@ -0,0 +1,103 @@
+package ru.netology.cloudservice.storage;
+
+import com.github.luben.zstd.ZstdInputStream;
+import com.github.luben.zstd.ZstdOutputStream;
+import net.jpountz.lz4.LZ4FrameInputStream;
+import net.jpountz.lz4.LZ4FrameOutputStream;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Locale;
+
+/**
+ * Format of the bytes kept in storage for a blob. {@link #ZSTD} is also a registered
+ * HTTP content coding, so such blobs can be sent to clients as they are stored.
+ */
+public enum BlobCodec {
+    NONE(null),
+    ZSTD("zstd"),
+    LZ4(null);
+
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    private final String contentEncoding;
+
+    BlobCodec(String contentEncoding) {
+        this.contentEncoding = contentEncoding;
+    }
+
+    /**
+     * Value for the {@code Content-Encoding} header, or {@code null} if the stored
+     * form cannot be sent to HTTP clients.
+     */
+    public String getContentEncoding() {
+        return contentEncoding;
+    }
+
+    /**
+     * Returns a stream of the encoded form of {@code source}.
+     */
+    public InputStream encode(InputStream source, int level) throws IOException {
+        switch (this) {
+            case ZSTD:
+                return new EncodingInputStream(source, out -> new ZstdOutputStream(out, level), CHUNK_SIZE);
+            case LZ4:
+                return new EncodingInputStream(source, LZ4FrameOutputStream::new, CHUNK_SIZE);
+            default:
+                return source;
+        }
+    }
+
+    public InputStream decode(InputStream stored) throws IOException {
+        switch (this) {
+            case ZSTD:
+                return new ZstdInputStream(stored);
+            case LZ4:
+                return new LZ4FrameInputStream(stored);
+            default:
+                return stored;
+        }
+    }
+
+    /**
+     * Returns {@code length} decoded bytes starting at {@code offset}. Compressed
+     * streams cannot seek, so the bytes before {@code offset} are decoded and skipped.
+     */
+    public InputStream decode(InputStream stored, long offset, long length) throws IOException {
+        InputStream decoded = decode(stored);
+        try {
+            decoded.skipNBytes(offset);
+        } catch (IOException | RuntimeException e) {
+            decoded.close();
+            throw e;
+        }
+        return new BoundedInputStream(decoded, length);
+    }
+
+    /**
+     * Whether an {@code Accept-Encoding} header value lists this codec with a non-zero quality.
+     */
+    public boolean isAcceptedBy(String acceptEncoding) {
+        if (contentEncoding == null || acceptEncoding == null) {
+            return false;
+        }
+        for (String item : acceptEncoding.split(",")) {
+            String[] params = item.trim().split(";");
+            if (!params[0].trim().equalsIgnoreCase(contentEncoding)) {
+                continue;
+            }
+            for (int i = 1; i < params.length; i++) {
+                String param = params[i].trim().toLowerCase(Locale.ROOT);
+                if (param.startsWith("q=")) {
+                    try {
+                        return Double.parseDouble(param.substring(2)) > 0;
+                    } catch (NumberFormatException e) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,237 @@
+package ru.netology.cloudservice.storage;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Read-through cache in front of another backend for objects up to {@code maxEntrySize}.
+ * Cached bytes live in direct buffers outside the heap, exactly as stored (still encoded),
+ * and are evicted by Caffeine's size-weighted W-TinyLFU policy once {@code maxSize} is
+ * reached, so a burst of one-off downloads does not push out the popular files.
+ * <p>
+ * A hit is answered without touching the delegate, including {@link #stat}. Entries are
+ * dropped after every write, move or delete of their key; keys of blobs are content
+ * hashes, so renaming a file never changes what a key holds.
+ */
+public class CachingStorageBackend implements StorageBackend {
+
+    public static final String CACHE_NAME = "blobs";
+
+    private final StorageBackend delegate;
+    private final long maxEntrySize;
+    private final Cache<String, Entry> cache;
+
+    public CachingStorageBackend(StorageBackend delegate, long maxSize, long maxEntrySize) {
+        this.delegate = delegate;
+        this.maxEntrySize = Math.min(maxEntrySize, Integer.MAX_VALUE);
+        this.cache = Caffeine.newBuilder()
+                .maximumWeight(maxSize)
+                .weigher((String key, Entry entry) -> entry.content.capacity())
+                .recordStats()
+                .build();
+    }
+
+    /**
+     * Publishes {@code cache.gets} (hit/miss), {@code cache.evictions}, {@code cache.size}
+     * and the bytes held as {@code cache.bytes}, all tagged {@code cache=blobs}.
+     */
+    public CachingStorageBackend bindTo(MeterRegistry meterRegistry) {
+        // Same tag keys as Spring's cache metrics, otherwise Prometheus drops one of the two series sets.
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, CACHE_NAME,
+                "cache.manager", "storage", "name", CACHE_NAME);
+        Gauge.builder("cache.bytes", cache, c -> c.policy().eviction()
+                        .map(eviction -> eviction.weightedSize().orElse(0))
+                        .orElse(0L))
+                .tag("cache", CACHE_NAME)
+                .tag("cache.manager", "storage")
+                .tag("name", CACHE_NAME)
+                .description("Bytes held by the cache")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        return this;
+    }
+
+    @Override
+    public long write(String key, InputStream content, long maxBytes) throws IOException {
+        try {
+            return delegate.write(key, content, maxBytes);
+        } finally {
+            cache.invalidate(key);
+        }
+    }
+
+    @Override
+    public InputStream read(String key) throws IOException {
+        Entry entry = load(key);
+        return entry != null ? new BufferInputStream(entry.content.duplicate()) : delegate.read(key);
+    }
+
+    @Override
+    public InputStream read(String key, long offset, long length) throws IOException {
+        Entry entry = load(key);
+        if (entry == null) {
+            return delegate.read(key, offset, length);
+        }
+        ByteBuffer content = entry.content.duplicate();
+        int from = (int) Math.min(offset, content.limit());
+        content.position(from).limit((int) Math.min(content.limit(), from + Math.min(length, Integer.MAX_VALUE)));
+        return new BufferInputStream(content);
+    }
+
+    @Override
+    public void move(String sourceKey, String targetKey) throws IOException {
+        try {
+            delegate.move(sourceKey, targetKey);
+        } finally {
+            cache.invalidate(sourceKey);
+            cache.invalidate(targetKey);
+        }
+    }
+
+    @Override
+    public boolean delete(String key) throws IOException {
+        try {
+            return delegate.delete(key);
+        } finally {
+            cache.invalidate(key);
+        }
+    }
+
+    @Override
+    public Optional<StoredObject> stat(String key) throws IOException {
+        Entry entry = cache.asMap().get(key);
+        return entry != null ? Optional.of(entry.object) : delegate.stat(key);
+    }
+
+    @Override
+    public void copyFrom(Path source, String key) throws IOException {
+        try {
+            delegate.copyFrom(source, key);
+        } finally {
+            cache.invalidate(key);
+        }
+    }
+
+    @Override
+    public Map<String, StoredObject> list(String prefix) throws IOException {
+        return delegate.list(prefix);
+    }
+
+    @Override
+    public int purgeTemporary(Instant before) throws IOException {
+        return delegate.purgeTemporary(before);
+    }
+
+    /**
+     * Cacheable objects are reported as having no local file, so that downloads read
+     * them through {@link #read} and fill the cache instead of using sendfile.
+     */
+    @Override
+    public Optional<Path> localPath(String key) {
+        Optional<Path> path = delegate.localPath(key);
+        if (path.isEmpty() || cache.asMap().containsKey(key)) {
+            return Optional.empty();
+        }
+        try {
+            Optional<StoredObject> object = delegate.stat(key);
+            return object.isPresent() && object.get().getSize() <= maxEntrySize ? Optional.empty() : path;
+        } catch (IOException e) {
+            return path;
+        }
+    }
+
+    /**
+     * Returns the cached entry, loading it on a miss. Concurrent misses on the same key
+     * share one read. Returns {@code null} for objects too large to cache.
+     */
+    private Entry load(String key) throws IOException {
+        try {
+            return cache.get(key, this::readEntry);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    private Entry readEntry(String key) {
+        try {
+            Optional<StoredObject> object = delegate.stat(key);
+            if (object.isEmpty() || object.get().getSize() > maxEntrySize) {
+                return null;
+            }
+            ByteBuffer content = ByteBuffer.allocateDirect((int) object.get().getSize());
+            try (ReadableByteChannel channel = Channels.newChannel(delegate.read(key))) {
+                while (content.hasRemaining()) {
+                    if (channel.read(content) < 0) {
+                        throw new EOFException("Object " + key + " is shorter than " + content.capacity() + " bytes");
+                    }
+                }
+            }
+            return new Entry(content.flip().asReadOnlyBuffer(), object.get());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static class Entry {
+        private final ByteBuffer content;
+        private final StoredObject object;
+
+        Entry(ByteBuffer content, StoredObject object) {
+            this.content = content;
+            this.object = object;
+        }
+    }
+
+    private static class BufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        BufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int n = Math.min(len, buffer.remaining());
+            buffer.get(b, off, n);
+            return n;
+        }
+
+        @Override
+        public long skip(long n) {
+            int skipped = (int) Math.max(0, Math.min(n, buffer.remaining()));
+            buffer.position(buffer.position() + skipped);
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package ru.netology.cloudservice.storage;
+
+import ru.netology.cloudservice.exception.StorageException;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Counts the bytes read from the wrapped stream and fails once more than
+ * {@code maxBytes} have been read. Used where the limit applies to the original
+ * content rather than to what ends up in storage.
+ */
+public class CountingInputStream extends FilterInputStream {
+
+    private final long maxBytes;
+    private long count;
+
+    public CountingInputStream(InputStream in, long maxBytes) {
+        super(in);
+        this.maxBytes = maxBytes;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    @Override
+    public int read() throws IOException {
+        int b = super.read();
+        if (b != -1) {
+            add(1);
+        }
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        int n = super.read(b, off, len);
+        if (n > 0) {
+            add(n);
+        }
+        return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long skipped = super.skip(n);
+        add(skipped);
+        return skipped;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    private void add(long n) {
+        count += n;
+        if (count > maxBytes) {
+            throw new StorageException("File size exceeds maximum allowed limit of " + maxBytes + " bytes");
+        }
+    }
+}
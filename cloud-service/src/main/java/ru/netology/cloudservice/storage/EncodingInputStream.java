@@ -0,0 +1,84 @@
+package ru.netology.cloudservice.storage;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Exposes the output of an encoding {@link OutputStream} as an {@link InputStream},
+ * so compressed content can be handed to {@link StorageBackend#write} while the
+ * source is still being read. Only one chunk of encoded output is buffered at a time.
+ */
+class EncodingInputStream extends InputStream {
+
+    interface Encoder {
+        OutputStream wrap(OutputStream out) throws IOException;
+    }
+
+    private final InputStream source;
+    private final Sink sink = new Sink();
+    private final OutputStream encoder;
+    private final byte[] chunk;
+    private int position;
+    private boolean finished;
+
+    EncodingInputStream(InputStream source, Encoder encoder, int chunkSize) throws IOException {
+        this.source = source;
+        this.encoder = encoder.wrap(sink);
+        this.chunk = new byte[chunkSize];
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] single = new byte[1];
+        return read(single, 0, 1) == -1 ? -1 : single[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        while (position >= sink.size()) {
+            if (finished) {
+                return -1;
+            }
+            fill();
+        }
+        int n = Math.min(len, sink.size() - position);
+        System.arraycopy(sink.buffer(), position, b, off, n);
+        position += n;
+        return n;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            source.close();
+        } finally {
+            if (!finished) {
+                finished = true;
+                encoder.close();
+            }
+        }
+    }
+
+    private void fill() throws IOException {
+        sink.reset();
+        position = 0;
+        int n = source.read(chunk);
+        if (n == -1) {
+            finished = true;
+            encoder.close();
+        } else {
+            encoder.write(chunk, 0, n);
+        }
+    }
+
+    private static class Sink extends ByteArrayOutputStream {
+        byte[] buffer() {
+            return buf;
+        }
+    }
+}
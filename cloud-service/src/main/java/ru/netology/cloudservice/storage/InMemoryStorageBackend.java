@@ -0,0 +1,117 @@
+package ru.netology.cloudservice.storage;
+
+import ru.netology.cloudservice.exception.StorageException;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.NoSuchFileException;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Keeps objects on the heap. Intended for tests and benchmarks only.
+ */
+public class InMemoryStorageBackend implements StorageBackend {
+
+    private final ConcurrentMap<String, Entry> objects = new ConcurrentHashMap<>();
+
+    @Override
+    public long write(String key, InputStream content, long maxBytes) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        long total = 0;
+        int read;
+        while ((read = content.read(buffer)) != -1) {
+            total += read;
+            if (total > maxBytes) {
+                throw new StorageException("File size exceeds maximum allowed limit of " + maxBytes + " bytes");
+            }
+            out.write(buffer, 0, read);
+        }
+        if (objects.putIfAbsent(key, new Entry(out.toByteArray(), Instant.now())) != null) {
+            throw new FileAlreadyExistsException(key);
+        }
+        return total;
+    }
+
+    @Override
+    public InputStream read(String key) throws IOException {
+        byte[] data = get(key).data;
+        return new ByteArrayInputStream(data);
+    }
+
+    @Override
+    public InputStream read(String key, long offset, long length) throws IOException {
+        byte[] data = get(key).data;
+        int from = (int) Math.min(offset, data.length);
+        return new ByteArrayInputStream(data, from, (int) Math.min(length, data.length - from));
+    }
+
+    @Override
+    public void move(String sourceKey, String targetKey) throws IOException {
+        Entry entry = objects.remove(sourceKey);
+        if (entry == null) {
+            throw new NoSuchFileException(sourceKey);
+        }
+        objects.put(targetKey, entry);
+    }
+
+    @Override
+    public boolean delete(String key) {
+        return objects.remove(key) != null;
+    }
+
+    @Override
+    public Optional<StoredObject> stat(String key) {
+        return Optional.ofNullable(objects.get(key))
+                .map(entry -> new StoredObject(entry.data.length, entry.lastModified));
+    }
+
+    @Override
+    public Map<String, StoredObject> list(String prefix) {
+        Map<String, StoredObject> listed = new HashMap<>();
+        objects.forEach((key, entry) -> {
+            if (key.startsWith(prefix) && key.indexOf('/', prefix.length()) < 0) {
+                listed.put(key.substring(prefix.length()), new StoredObject(entry.data.length, entry.lastModified));
+            }
+        });
+        return listed;
+    }
+
+    @Override
+    public int purgeTemporary(Instant before) {
+        int purged = 0;
+        for (Map.Entry<String, Entry> object : objects.entrySet()) {
+            if (object.getKey().startsWith(TEMP_PREFIX) && object.getValue().lastModified.isBefore(before)
+                    && objects.remove(object.getKey(), object.getValue())) {
+                purged++;
+            }
+        }
+        return purged;
+    }
+
+    private Entry get(String key) throws NoSuchFileException {
+        Entry entry = objects.get(key);
+        if (entry == null) {
+            throw new NoSuchFileException(key);
+        }
+        return entry;
+    }
+
+    private static class Entry {
+        private final byte[] data;
+        private final Instant lastModified;
+
+        private Entry(byte[] data, Instant lastModified) {
+            this.data = data;
+            this.lastModified = lastModified;
+        }
+    }
+}
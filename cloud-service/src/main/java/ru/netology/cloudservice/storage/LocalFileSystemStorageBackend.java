@@ -0,0 +1,231 @@
+package ru.netology.cloudservice.storage;
+
+import ru.netology.cloudservice.exception.StorageException;
+import ru.netology.cloudservice.util.FileTransferUtil;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+/**
+ * Keeps objects as files under {@code root}. Content reaches its final key only by an
+ * atomic rename (or a hard link) within the same file system, so a crash leaves either
+ * the complete object or nothing under that key, plus possibly a file under
+ * {@link #TEMP_PREFIX}. With {@code fsync} on, the file and the directory entries are
+ * flushed to disk before a write or move returns, so an object survives a power loss
+ * once the transaction that references it has committed.
+ */
+public class LocalFileSystemStorageBackend implements StorageBackend {
+
+    protected final Path root;
+    private final FileTransferUtil fileTransferUtil;
+    private final boolean fsync;
+
+    public LocalFileSystemStorageBackend(Path root, FileTransferUtil fileTransferUtil) throws IOException {
+        this(root, fileTransferUtil, false);
+    }
+
+    public LocalFileSystemStorageBackend(Path root, FileTransferUtil fileTransferUtil, boolean fsync)
+            throws IOException {
+        this.root = root.toAbsolutePath().normalize();
+        this.fileTransferUtil = fileTransferUtil;
+        this.fsync = fsync;
+        Files.createDirectories(this.root);
+    }
+
+    @Override
+    public long write(String key, InputStream content, long maxBytes) throws IOException {
+        Path path = resolve(key);
+        createParent(path);
+        try (FileChannel out = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            long written = fileTransferUtil.write(content, out, 0, maxBytes);
+            if (fsync) {
+                out.force(true);
+            }
+            return written;
+        } catch (FileAlreadyExistsException e) {
+            throw e;
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(path);
+            throw e;
+        }
+    }
+
+    @Override
+    public InputStream read(String key) throws IOException {
+        return Files.newInputStream(resolve(key));
+    }
+
+    @Override
+    public InputStream read(String key, long offset, long length) throws IOException {
+        FileChannel channel = FileChannel.open(resolve(key), StandardOpenOption.READ);
+        channel.position(offset);
+        return new BoundedInputStream(Channels.newInputStream(channel), length);
+    }
+
+    @Override
+    public void move(String sourceKey, String targetKey) throws IOException {
+        Path target = resolve(targetKey);
+        createParent(target);
+        Files.move(resolve(sourceKey), target, StandardCopyOption.ATOMIC_MOVE);
+        syncDirectory(target.getParent());
+    }
+
+    /**
+     * Like {@link #move}, but fails with {@link FileAlreadyExistsException} instead of
+     * replacing an object stored under {@code targetKey}. The hard link is what claims the
+     * target, so two renames to the same key cannot both succeed.
+     */
+    public void moveIfAbsent(String sourceKey, String targetKey) throws IOException {
+        Path source = resolve(sourceKey);
+        Path target = resolve(targetKey);
+        createParent(target);
+        try {
+            Files.createLink(target, source);
+        } catch (UnsupportedOperationException e) {
+            // No hard links: a plain move checks the target first, which is the best left.
+            Files.move(source, target);
+            syncDirectory(target.getParent());
+            return;
+        }
+        syncDirectory(target.getParent());
+        Files.delete(source);
+        syncDirectory(source.getParent());
+    }
+
+    @Override
+    public boolean delete(String key) throws IOException {
+        return Files.deleteIfExists(resolve(key));
+    }
+
+    @Override
+    public Optional<StoredObject> stat(String key) throws IOException {
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(resolve(key), BasicFileAttributes.class);
+            return Optional.of(new StoredObject(attributes.size(), attributes.lastModifiedTime().toInstant()));
+        } catch (NoSuchFileException e) {
+            return Optional.empty();
+        }
+    }
+
+    @Override
+    public void copyFrom(Path source, String key) throws IOException {
+        Path target = resolve(key);
+        createParent(target);
+        try {
+            Files.createLink(target, source);
+            syncDirectory(target.getParent());
+            return;
+        } catch (FileAlreadyExistsException e) {
+            throw e;
+        } catch (UnsupportedOperationException | IOException e) {
+            // Different file system or no hard links: copy next to the target and rename.
+        }
+        if (Files.exists(target)) {
+            throw new FileAlreadyExistsException(key);
+        }
+        String tempKey = TEMP_PREFIX + UUID.randomUUID();
+        try (InputStream in = Files.newInputStream(source)) {
+            write(tempKey, in, Long.MAX_VALUE);
+            move(tempKey, key);
+        } finally {
+            Files.deleteIfExists(resolve(tempKey));
+        }
+    }
+
+    @Override
+    public Map<String, StoredObject> list(String prefix) throws IOException {
+        Map<String, StoredObject> objects = new HashMap<>();
+        try (Stream<Path> files = Files.list(resolve(prefix))) {
+            for (Iterator<Path> it = files.iterator(); it.hasNext(); ) {
+                Path file = it.next();
+                try {
+                    BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+                    if (attributes.isRegularFile()) {
+                        objects.put(file.getFileName().toString(),
+                                new StoredObject(attributes.size(), attributes.lastModifiedTime().toInstant()));
+                    }
+                } catch (NoSuchFileException e) {
+                    // Removed while listing.
+                }
+            }
+        } catch (NoSuchFileException e) {
+            // Nothing was ever stored under this prefix.
+        }
+        return objects;
+    }
+
+    @Override
+    public int purgeTemporary(Instant before) throws IOException {
+        Path temp = resolve(TEMP_PREFIX);
+        if (!Files.isDirectory(temp)) {
+            return 0;
+        }
+        int purged = 0;
+        try (Stream<Path> files = Files.list(temp)) {
+            for (Iterator<Path> it = files.iterator(); it.hasNext(); ) {
+                Path file = it.next();
+                try {
+                    if (Files.getLastModifiedTime(file).toInstant().isBefore(before) && Files.deleteIfExists(file)) {
+                        purged++;
+                    }
+                } catch (NoSuchFileException e) {
+                    // Moved into place or removed while listing.
+                }
+            }
+        }
+        return purged;
+    }
+
+    @Override
+    public Optional<Path> localPath(String key) {
+        return Optional.of(resolve(key));
+    }
+
+    /**
+     * Creates the missing parent directories of {@code path}. New directory entries are
+     * flushed too, otherwise a file renamed into a fresh directory could vanish with it.
+     */
+    private void createParent(Path path) throws IOException {
+        Path parent = path.getParent();
+        if (Files.isDirectory(parent)) {
+            return;
+        }
+        Files.createDirectories(parent);
+        for (Path dir = parent; !dir.equals(root); dir = dir.getParent()) {
+            syncDirectory(dir.getParent());
+        }
+    }
+
+    private void syncDirectory(Path dir) throws IOException {
+        if (!fsync) {
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(dir, StandardOpenOption.READ)) {
+            channel.force(true);
+        }
+    }
+
+    protected Path resolve(String key) {
+        Path path = root.resolve(key).normalize();
+        if (!path.startsWith(root) || path.equals(root)) {
+            throw new StorageException("Access denied to storage key: " + key);
+        }
+        return path;
+    }
+}
@@ -0,0 +1,96 @@
+package ru.netology.cloudservice.storage;
+
+import ru.netology.cloudservice.util.FileTransferUtil;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Local storage that reads objects through memory-mapped regions instead of
+ * read system calls. Downloads are streamed from the mapping rather than handed
+ * to sendfile, so the two read paths can be compared on the same data.
+ */
+public class MappedFileStorageBackend extends LocalFileSystemStorageBackend {
+
+    public MappedFileStorageBackend(Path root, FileTransferUtil fileTransferUtil) throws IOException {
+        super(root, fileTransferUtil);
+    }
+
+    public MappedFileStorageBackend(Path root, FileTransferUtil fileTransferUtil, boolean fsync) throws IOException {
+        super(root, fileTransferUtil, fsync);
+    }
+
+    @Override
+    public InputStream read(String key) throws IOException {
+        try (FileChannel channel = FileChannel.open(resolve(key), StandardOpenOption.READ)) {
+            return map(channel, 0, channel.size());
+        }
+    }
+
+    @Override
+    public InputStream read(String key, long offset, long length) throws IOException {
+        try (FileChannel channel = FileChannel.open(resolve(key), StandardOpenOption.READ)) {
+            long from = Math.min(offset, channel.size());
+            return map(channel, from, Math.min(length, channel.size() - from));
+        }
+    }
+
+    @Override
+    public Optional<Path> localPath(String key) {
+        return Optional.empty();
+    }
+
+    private InputStream map(FileChannel channel, long position, long length) throws IOException {
+        // A single mapping is limited to Integer.MAX_VALUE bytes, so large objects are mapped in windows.
+        // Mappings stay valid after the channel is closed.
+        List<MappedByteBuffer> windows = new ArrayList<>();
+        for (long offset = position; offset < position + length; offset += Integer.MAX_VALUE) {
+            long size = Math.min(Integer.MAX_VALUE, position + length - offset);
+            windows.add(channel.map(FileChannel.MapMode.READ_ONLY, offset, size));
+        }
+        return new InputStream() {
+            private int current;
+
+            @Override
+            public int read() {
+                ByteBuffer buffer = window();
+                return buffer == null ? -1 : buffer.get() & 0xff;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) {
+                if (len == 0) {
+                    return 0;
+                }
+                ByteBuffer buffer = window();
+                if (buffer == null) {
+                    return -1;
+                }
+                int n = Math.min(len, buffer.remaining());
+                buffer.get(b, off, n);
+                return n;
+            }
+
+            @Override
+            public int available() {
+                ByteBuffer buffer = window();
+                return buffer == null ? 0 : buffer.remaining();
+            }
+
+            private ByteBuffer window() {
+                while (current < windows.size() && !windows.get(current).hasRemaining()) {
+                    current++;
+                }
+                return current < windows.size() ? windows.get(current) : null;
+            }
+        };
+    }
+}
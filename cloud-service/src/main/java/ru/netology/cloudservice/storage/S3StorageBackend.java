@@ -0,0 +1,340 @@
+package ru.netology.cloudservice.storage;
+
+import lombok.extern.slf4j.Slf4j;
+import ru.netology.cloudservice.util.FileTransferUtil;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Stores objects in an S3-compatible bucket (AWS S3, MinIO, Ceph RGW) using
+ * path-style addressing and SigV4 request signing.
+ * <p>
+ * S3 needs the content length up front, so incoming streams are spooled to a
+ * local file first. Objects larger than the part size are sent as multipart uploads.
+ */
+@Slf4j
+public class S3StorageBackend implements StorageBackend {
+
+    private static final String UNSIGNED_PAYLOAD = "UNSIGNED-PAYLOAD";
+    private static final Pattern UPLOAD_ID = Pattern.compile("<UploadId>([^<]+)</UploadId>");
+    private static final Pattern CONTENTS = Pattern.compile("<Contents>(.*?)</Contents>", Pattern.DOTALL);
+    private static final Pattern KEY = Pattern.compile("<Key>([^<]*)</Key>");
+    private static final Pattern SIZE = Pattern.compile("<Size>(\\d+)</Size>");
+    private static final Pattern LAST_MODIFIED = Pattern.compile("<LastModified>([^<]+)</LastModified>");
+    private static final Pattern NEXT_TOKEN =
+            Pattern.compile("<NextContinuationToken>([^<]+)</NextContinuationToken>");
+
+    private final HttpClient client;
+    private final URI endpoint;
+    private final String bucket;
+    private final long partSize;
+    private final Path spoolDirectory;
+    private final FileTransferUtil fileTransferUtil;
+    private final SigV4Signer signer;
+
+    public S3StorageBackend(URI endpoint, String region, String bucket, String accessKey, String secretKey,
+                            long partSize, Duration connectTimeout, Path spoolDirectory,
+                            FileTransferUtil fileTransferUtil) throws IOException {
+        this.client = HttpClient.newBuilder().connectTimeout(connectTimeout).build();
+        this.endpoint = endpoint;
+        this.bucket = bucket;
+        this.partSize = partSize;
+        this.spoolDirectory = spoolDirectory;
+        this.fileTransferUtil = fileTransferUtil;
+        this.signer = new SigV4Signer(accessKey, secretKey, region, "s3");
+        Files.createDirectories(spoolDirectory);
+    }
+
+    @Override
+    public long write(String key, InputStream content, long maxBytes) throws IOException {
+        Path spool = spoolDirectory.resolve(UUID.randomUUID().toString());
+        try {
+            long size = fileTransferUtil.copy(content, spool, maxBytes);
+            upload(spool, size, key);
+            return size;
+        } finally {
+            Files.deleteIfExists(spool);
+        }
+    }
+
+    @Override
+    public void copyFrom(Path source, String key) throws IOException {
+        upload(source, Files.size(source), key);
+    }
+
+    @Override
+    public InputStream read(String key) throws IOException {
+        return get(key, Map.of());
+    }
+
+    @Override
+    public InputStream read(String key, long offset, long length) throws IOException {
+        if (length <= 0) {
+            return InputStream.nullInputStream();
+        }
+        return get(key, Map.of("Range", "bytes=" + offset + "-" + (offset + length - 1)));
+    }
+
+    /**
+     * Server-side copy followed by a delete; S3 has no rename.
+     */
+    @Override
+    public void move(String sourceKey, String targetKey) throws IOException {
+        Map<String, String> headers = Map.of("x-amz-copy-source",
+                "/" + bucket + "/" + SigV4Signer.encode(sourceKey, false));
+        HttpResponse<String> response = send("PUT", targetKey, Map.of(), headers,
+                HttpRequest.BodyPublishers.noBody(), SigV4Signer.EMPTY_PAYLOAD_SHA256,
+                HttpResponse.BodyHandlers.ofString());
+        check(response, "PUT", targetKey, response.body());
+        delete(sourceKey);
+    }
+
+    @Override
+    public boolean delete(String key) throws IOException {
+        HttpResponse<String> response = send("DELETE", key, Map.of(), Map.of(),
+                HttpRequest.BodyPublishers.noBody(), SigV4Signer.EMPTY_PAYLOAD_SHA256,
+                HttpResponse.BodyHandlers.ofString());
+        if (response.statusCode() == 404) {
+            return false;
+        }
+        check(response, "DELETE", key, response.body());
+        return true;
+    }
+
+    @Override
+    public Optional<StoredObject> stat(String key) throws IOException {
+        HttpResponse<Void> response = send("HEAD", key, Map.of(), Map.of(),
+                HttpRequest.BodyPublishers.noBody(), SigV4Signer.EMPTY_PAYLOAD_SHA256,
+                HttpResponse.BodyHandlers.discarding());
+        if (response.statusCode() == 404) {
+            return Optional.empty();
+        }
+        check(response, "HEAD", key, null);
+        long size = response.headers().firstValueAsLong("Content-Length").orElse(0);
+        Instant lastModified = response.headers().firstValue("Last-Modified")
+                .map(value -> ZonedDateTime.parse(value, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant())
+                .orElse(null);
+        return Optional.of(new StoredObject(size, lastModified));
+    }
+
+    /**
+     * ListObjectsV2 with {@code delimiter=/}, so objects in nested directories come back as
+     * common prefixes and are left out. Pages of up to 1000 keys are followed until the end.
+     */
+    @Override
+    public Map<String, StoredObject> list(String prefix) throws IOException {
+        Map<String, StoredObject> objects = new HashMap<>();
+        String token = null;
+        do {
+            Map<String, String> query = new HashMap<>();
+            query.put("list-type", "2");
+            query.put("prefix", prefix);
+            query.put("delimiter", "/");
+            if (token != null) {
+                query.put("continuation-token", token);
+            }
+            HttpResponse<String> response = send("GET", "", query, Map.of(),
+                    HttpRequest.BodyPublishers.noBody(), SigV4Signer.EMPTY_PAYLOAD_SHA256,
+                    HttpResponse.BodyHandlers.ofString());
+            check(response, "GET", prefix, response.body());
+            Matcher contents = CONTENTS.matcher(response.body());
+            while (contents.find()) {
+                String key = unescape(field(KEY, contents.group(1), prefix));
+                if (key.length() > prefix.length()) {
+                    objects.put(key.substring(prefix.length()), new StoredObject(
+                            Long.parseLong(field(SIZE, contents.group(1), key)),
+                            Instant.parse(field(LAST_MODIFIED, contents.group(1), key))));
+                }
+            }
+            Matcher next = NEXT_TOKEN.matcher(response.body());
+            token = next.find() ? unescape(next.group(1)) : null;
+        } while (token != null);
+        return objects;
+    }
+
+    private static String field(Pattern pattern, String xml, String key) throws IOException {
+        Matcher matcher = pattern.matcher(xml);
+        if (!matcher.find()) {
+            throw new IOException("S3 returned an incomplete listing entry for " + key);
+        }
+        return matcher.group(1);
+    }
+
+    private static String unescape(String xml) {
+        return xml.replace("&lt;", "<").replace("&gt;", ">").replace("&quot;", "\"")
+                .replace("&apos;", "'").replace("&amp;", "&");
+    }
+
+    private InputStream get(String key, Map<String, String> headers) throws IOException {
+        HttpResponse<InputStream> response = send("GET", key, Map.of(), headers,
+                HttpRequest.BodyPublishers.noBody(), SigV4Signer.EMPTY_PAYLOAD_SHA256,
+                HttpResponse.BodyHandlers.ofInputStream());
+        if (response.statusCode() / 100 != 2) {
+            try (InputStream body = response.body()) {
+                if (response.statusCode() == 404) {
+                    throw new NoSuchFileException(key);
+                }
+                check(response, "GET", key, new String(body.readAllBytes(), StandardCharsets.UTF_8));
+            }
+        }
+        return response.body();
+    }
+
+    private void upload(Path source, long size, String key) throws IOException {
+        if (size <= partSize) {
+            HttpResponse<String> response = send("PUT", key, Map.of(), Map.of(),
+                    HttpRequest.BodyPublishers.ofFile(source), UNSIGNED_PAYLOAD,
+                    HttpResponse.BodyHandlers.ofString());
+            check(response, "PUT", key, response.body());
+            return;
+        }
+
+        String uploadId = initiateMultipartUpload(key);
+        try {
+            List<String> etags = new ArrayList<>();
+            for (long offset = 0; offset < size; offset += partSize) {
+                etags.add(uploadPart(source, offset, Math.min(partSize, size - offset), key, uploadId,
+                        etags.size() + 1));
+            }
+            completeMultipartUpload(key, uploadId, etags);
+        } catch (IOException | RuntimeException e) {
+            abortMultipartUpload(key, uploadId);
+            throw e;
+        }
+    }
+
+    private String initiateMultipartUpload(String key) throws IOException {
+        HttpResponse<String> response = send("POST", key, Map.of("uploads", ""), Map.of(),
+                HttpRequest.BodyPublishers.noBody(), SigV4Signer.EMPTY_PAYLOAD_SHA256,
+                HttpResponse.BodyHandlers.ofString());
+        check(response, "POST", key, response.body());
+        Matcher matcher = UPLOAD_ID.matcher(response.body());
+        if (!matcher.find()) {
+            throw new IOException("S3 did not return an upload id for " + key);
+        }
+        return matcher.group(1);
+    }
+
+    private String uploadPart(Path source, long offset, long length, String key, String uploadId,
+                              int partNumber) throws IOException {
+        HttpRequest.BodyPublisher body = HttpRequest.BodyPublishers.fromPublisher(
+                HttpRequest.BodyPublishers.ofInputStream(() -> openSlice(source, offset, length)), length);
+        HttpResponse<String> response = send("PUT", key,
+                Map.of("partNumber", String.valueOf(partNumber), "uploadId", uploadId), Map.of(),
+                body, UNSIGNED_PAYLOAD, HttpResponse.BodyHandlers.ofString());
+        check(response, "PUT", key, response.body());
+        return response.headers().firstValue("ETag")
+                .orElseThrow(() -> new IOException("S3 did not return an ETag for part " + partNumber));
+    }
+
+    private void completeMultipartUpload(String key, String uploadId, List<String> etags) throws IOException {
+        StringBuilder xml = new StringBuilder("<CompleteMultipartUpload>");
+        for (int i = 0; i < etags.size(); i++) {
+            xml.append("<Part><PartNumber>").append(i + 1).append("</PartNumber><ETag>")
+                    .append(etags.get(i)).append("</ETag></Part>");
+        }
+        byte[] body = xml.append("</CompleteMultipartUpload>").toString().getBytes(StandardCharsets.UTF_8);
+        HttpResponse<String> response = send("POST", key, Map.of("uploadId", uploadId), Map.of(),
+                HttpRequest.BodyPublishers.ofByteArray(body), SigV4Signer.sha256Hex(body),
+                HttpResponse.BodyHandlers.ofString());
+        // S3 may report a failed completion with status 200 and an <Error> body.
+        if (response.body().contains("<Error>")) {
+            throw new IOException("S3 failed to complete upload of " + key + ": " + response.body());
+        }
+        check(response, "POST", key, response.body());
+    }
+
+    private void abortMultipartUpload(String key, String uploadId) {
+        try {
+            send("DELETE", key, Map.of("uploadId", uploadId), Map.of(), HttpRequest.BodyPublishers.noBody(),
+                    SigV4Signer.EMPTY_PAYLOAD_SHA256, HttpResponse.BodyHandlers.discarding());
+        } catch (IOException e) {
+            log.warn("Failed to abort multipart upload {} of {}", uploadId, key, e);
+        }
+    }
+
+    private InputStream openSlice(Path source, long offset, long length) {
+        try {
+            FileChannel channel = FileChannel.open(source, StandardOpenOption.READ);
+            channel.position(offset);
+            return new BoundedInputStream(Channels.newInputStream(channel), length);
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to read " + source, e);
+        }
+    }
+
+    private <T> HttpResponse<T> send(String method, String key, Map<String, String> query,
+                                     Map<String, String> extraHeaders, HttpRequest.BodyPublisher body,
+                                     String payloadHash, HttpResponse.BodyHandler<T> handler) throws IOException {
+        Instant now = Instant.now();
+        // An empty key addresses the bucket itself, as in a listing.
+        String canonicalUri = basePath() + "/" + bucket + (key.isEmpty() ? "" : "/" + SigV4Signer.encode(key, false));
+        String queryString = SigV4Signer.canonicalQuery(query);
+
+        Map<String, String> headers = new LinkedHashMap<>(extraHeaders);
+        headers.put("x-amz-date", SigV4Signer.amzDate(now));
+        headers.put("x-amz-content-sha256", payloadHash);
+        Map<String, String> signed = new LinkedHashMap<>(headers);
+        signed.put("host", hostHeader());
+
+        HttpRequest.Builder request = HttpRequest.newBuilder(
+                        URI.create(endpoint.getScheme() + "://" + endpoint.getRawAuthority() + canonicalUri
+                                + (queryString.isEmpty() ? "" : "?" + queryString)))
+                .method(method, body)
+                .header("Authorization", signer.authorization(method, canonicalUri, query, signed, payloadHash, now));
+        headers.forEach(request::header);
+
+        try {
+            return client.send(request.build(), handler);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while calling S3 " + method + " " + key);
+        }
+    }
+
+    private String basePath() {
+        String path = endpoint.getRawPath();
+        return path == null || path.equals("/") ? "" : path.replaceAll("/+$", "");
+    }
+
+    private String hostHeader() {
+        int port = endpoint.getPort();
+        boolean defaultPort = port == -1
+                || ("http".equals(endpoint.getScheme()) && port == 80)
+                || ("https".equals(endpoint.getScheme()) && port == 443);
+        return defaultPort ? endpoint.getHost() : endpoint.getHost() + ":" + port;
+    }
+
+    private void check(HttpResponse<?> response, String method, String key, String body) throws IOException {
+        if (response.statusCode() / 100 != 2) {
+            throw new IOException("S3 " + method + " " + key + " failed with status " + response.statusCode()
+                    + (body == null || body.isEmpty() ? "" : ": " + body));
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package ru.netology.cloudservice.storage;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.HexFormat;
+import java.util.Locale;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+
+/**
+ * AWS Signature Version 4 for S3 requests (header-based authorization).
+ */
+class SigV4Signer {
+
+    static final String ALGORITHM = "AWS4-HMAC-SHA256";
+    static final String EMPTY_PAYLOAD_SHA256 = sha256Hex(new byte[0]);
+
+    private static final DateTimeFormatter DATE_TIME = DateTimeFormatter.ofPattern("yyyyMMdd'T'HHmmss'Z'")
+            .withZone(ZoneOffset.UTC);
+    private static final DateTimeFormatter DATE = DateTimeFormatter.ofPattern("yyyyMMdd").withZone(ZoneOffset.UTC);
+
+    private final String accessKey;
+    private final String secretKey;
+    private final String region;
+    private final String service;
+
+    SigV4Signer(String accessKey, String secretKey, String region, String service) {
+        this.accessKey = accessKey;
+        this.secretKey = secretKey;
+        this.region = region;
+        this.service = service;
+    }
+
+    static String amzDate(Instant time) {
+        return DATE_TIME.format(time);
+    }
+
+    /**
+     * Returns the {@code Authorization} header value. Every entry of {@code headers}
+     * is signed, so it must contain {@code host}, {@code x-amz-date} and
+     * {@code x-amz-content-sha256}.
+     */
+    String authorization(String method, String canonicalUri, Map<String, String> query,
+                         Map<String, String> headers, String payloadHash, Instant time) {
+        SortedMap<String, String> canonicalHeaders = new TreeMap<>();
+        headers.forEach((name, value) -> canonicalHeaders.put(name.toLowerCase(Locale.ROOT), value.trim()));
+        String signedHeaders = String.join(";", canonicalHeaders.keySet());
+
+        String canonicalRequest = method + "\n"
+                + canonicalUri + "\n"
+                + canonicalQuery(query) + "\n"
+                + canonicalHeaders.entrySet().stream()
+                        .map(header -> header.getKey() + ":" + header.getValue() + "\n")
+                        .collect(Collectors.joining()) + "\n"
+                + signedHeaders + "\n"
+                + payloadHash;
+
+        String scope = DATE.format(time) + "/" + region + "/" + service + "/aws4_request";
+        String stringToSign = ALGORITHM + "\n"
+                + amzDate(time) + "\n"
+                + scope + "\n"
+                + sha256Hex(canonicalRequest.getBytes(StandardCharsets.UTF_8));
+
+        byte[] key = hmac(("AWS4" + secretKey).getBytes(StandardCharsets.UTF_8), DATE.format(time));
+        key = hmac(key, region);
+        key = hmac(key, service);
+        key = hmac(key, "aws4_request");
+        String signature = HexFormat.of().formatHex(hmac(key, stringToSign));
+
+        return ALGORITHM + " Credential=" + accessKey + "/" + scope
+                + ", SignedHeaders=" + signedHeaders + ", Signature=" + signature;
+    }
+
+    static String canonicalQuery(Map<String, String> query) {
+        return new TreeMap<>(query).entrySet().stream()
+                .map(param -> encode(param.getKey(), true) + "=" + encode(param.getValue(), true))
+                .collect(Collectors.joining("&"));
+    }
+
+    /**
+     * URI-encodes every byte except the unreserved characters; {@code /} is kept
+     * unless {@code encodeSlash} is set.
+     */
+    static String encode(String value, boolean encodeSlash) {
+        StringBuilder result = new StringBuilder();
+        for (byte b : value.getBytes(StandardCharsets.UTF_8)) {
+            char c = (char) (b & 0xff);
+            if ((c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z') || (c >= '0' && c <= '9')
+                    || c == '-' || c == '_' || c == '.' || c == '~' || (c == '/' && !encodeSlash)) {
+                result.append(c);
+            } else {
+                result.append('%').append(String.format("%02X", b & 0xff));
+            }
+        }
+        return result.toString();
+    }
+
+    static String sha256Hex(byte[] data) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(data));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("SHA-256 is not supported", e);
+        }
+    }
+
+    private static byte[] hmac(byte[] key, String data) {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(key, "HmacSHA256"));
+            return mac.doFinal(data.getBytes(StandardCharsets.UTF_8));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("HmacSHA256 is not supported", e);
+        }
+    }
+}
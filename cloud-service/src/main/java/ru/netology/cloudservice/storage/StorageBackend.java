@@ -0,0 +1,86 @@
+package ru.netology.cloudservice.storage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Byte storage used by the blob store. Keys are relative, slash-separated paths
+ * such as {@code ab/cd/<sha256>}; implementations decide where the bytes live.
+ */
+public interface StorageBackend {
+
+    /**
+     * Prefix of the keys content is written to before it is moved to its final key.
+     */
+    String TEMP_PREFIX = "tmp/";
+
+    /**
+     * Stores {@code content} under {@code key}. Callers always write to fresh keys;
+     * what happens when the key already exists is up to the implementation.
+     *
+     * @return number of bytes written
+     * @throws ru.netology.cloudservice.exception.StorageException if the content is longer than {@code maxBytes}
+     */
+    long write(String key, InputStream content, long maxBytes) throws IOException;
+
+    InputStream read(String key) throws IOException;
+
+    InputStream read(String key, long offset, long length) throws IOException;
+
+    /**
+     * Moves an object to a new key, replacing whatever is stored there.
+     */
+    void move(String sourceKey, String targetKey) throws IOException;
+
+    boolean delete(String key) throws IOException;
+
+    Optional<StoredObject> stat(String key) throws IOException;
+
+    default boolean exists(String key) throws IOException {
+        return stat(key).isPresent();
+    }
+
+    /**
+     * Stores the content of a local file under {@code key}, leaving the file in place.
+     */
+    default void copyFrom(Path source, String key) throws IOException {
+        try (InputStream in = Files.newInputStream(source)) {
+            write(key, in, Long.MAX_VALUE);
+        }
+    }
+
+    /**
+     * Deletes temporary objects last modified before {@code before}, left behind by writes
+     * that never reached their final key (for example because the process was killed).
+     *
+     * @return number of objects deleted
+     */
+    default int purgeTemporary(Instant before) throws IOException {
+        int purged = 0;
+        for (Map.Entry<String, StoredObject> object : list(TEMP_PREFIX).entrySet()) {
+            if (object.getValue().getLastModified().isBefore(before) && delete(TEMP_PREFIX + object.getKey())) {
+                purged++;
+            }
+        }
+        return purged;
+    }
+
+    /**
+     * Lists the objects directly under {@code prefix}, a directory such as {@code ab/cd/},
+     * by name. Nested directories are not included.
+     */
+    Map<String, StoredObject> list(String prefix) throws IOException;
+
+    /**
+     * Returns the local file backing {@code key} when the bytes can be served
+     * straight from disk (e.g. with sendfile).
+     */
+    default Optional<Path> localPath(String key) {
+        return Optional.empty();
+    }
+}
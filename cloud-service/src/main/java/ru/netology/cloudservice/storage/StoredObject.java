@@ -0,0 +1,13 @@
+package ru.netology.cloudservice.storage;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.time.Instant;
+
+@Data
+@AllArgsConstructor
+public class StoredObject {
+    private long size;
+    private Instant lastModified;
+}
@@ -0,0 +1,124 @@
+package ru.netology.cloudservice.util;
+
+import org.springframework.stereotype.Component;
+import ru.netology.cloudservice.config.FileStorageProperties;
+import ru.netology.cloudservice.exception.StorageException;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Copies request bodies to disk through a pool of fixed-size direct buffers,
+ * so heap usage per upload does not depend on the file size.
+ */
+@Component
+public class FileTransferUtil {
+
+    private final int bufferSize;
+    private final BlockingQueue<ByteBuffer> bufferPool;
+
+    public FileTransferUtil(FileStorageProperties properties) {
+        this.bufferSize = (int) properties.getBufferSize().toBytes();
+        this.bufferPool = new ArrayBlockingQueue<>(properties.getBufferPoolSize());
+    }
+
+    /**
+     * Streams {@code in} into a newly created file at {@code destination}.
+     *
+     * @return number of bytes written
+     * @throws StorageException if the stream is longer than {@code maxBytes}
+     */
+    public long copy(InputStream in, Path destination, long maxBytes) throws IOException {
+        try (FileChannel out = FileChannel.open(destination,
+                StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            return write(in, out, 0, maxBytes);
+        }
+    }
+
+    /**
+     * Streams {@code in} into {@code out} starting at {@code position}, leaving the
+     * channel position untouched so several writers can fill disjoint regions.
+     */
+    public long write(InputStream in, FileChannel out, long position, long maxBytes) throws IOException {
+        if (in instanceof FileInputStream) {
+            return transferFrom(((FileInputStream) in).getChannel(), out, position, maxBytes);
+        }
+        return copy(Channels.newChannel(in), out, position, maxBytes);
+    }
+
+    /**
+     * Feeds the whole content of {@code path} to {@code digest}.
+     */
+    public void digest(Path path, MessageDigest digest) throws IOException {
+        ByteBuffer buffer = acquireBuffer();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            while (channel.read(buffer) != -1) {
+                buffer.flip();
+                digest.update(buffer);
+                buffer.clear();
+            }
+        } finally {
+            releaseBuffer(buffer);
+        }
+    }
+
+    private long transferFrom(FileChannel source, FileChannel out, long position, long maxBytes)
+            throws IOException {
+        long size = source.size() - source.position();
+        checkLimit(size, maxBytes);
+        long written = 0;
+        while (written < size) {
+            long transferred = out.transferFrom(source, position + written, size - written);
+            if (transferred <= 0) {
+                break;
+            }
+            written += transferred;
+        }
+        return written;
+    }
+
+    private long copy(ReadableByteChannel source, FileChannel out, long position, long maxBytes)
+            throws IOException {
+        ByteBuffer buffer = acquireBuffer();
+        try {
+            long written = 0;
+            while (source.read(buffer) != -1) {
+                buffer.flip();
+                checkLimit(written + buffer.remaining(), maxBytes);
+                while (buffer.hasRemaining()) {
+                    written += out.write(buffer, position + written);
+                }
+                buffer.clear();
+            }
+            return written;
+        } finally {
+            releaseBuffer(buffer);
+        }
+    }
+
+    private void checkLimit(long size, long maxBytes) {
+        if (size > maxBytes) {
+            throw new StorageException("File size exceeds maximum allowed limit of " + maxBytes + " bytes");
+        }
+    }
+
+    private ByteBuffer acquireBuffer() {
+        ByteBuffer buffer = bufferPool.poll();
+        return buffer != null ? buffer : ByteBuffer.allocateDirect(bufferSize);
+    }
+
+    private void releaseBuffer(ByteBuffer buffer) {
+        buffer.clear();
+        bufferPool.offer(buffer);
+    }
+}
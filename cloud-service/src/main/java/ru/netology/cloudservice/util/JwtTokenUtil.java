@@ -1,18 +1,62 @@
 package ru.netology.cloudservice.util;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
 import io.jsonwebtoken.*;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
 import java.util.Date;
+import java.util.concurrent.TimeUnit;
 
+/**
+ * Issues and verifies HS256 tokens. Verified tokens are cached by the SHA-256 of
+ * the token until their own expiration, so the signature of a token is checked
+ * once rather than on every request. Logged-out tokens are remembered until they expire,
+ * in memory of this instance only.
+ */
 @Component
 public class JwtTokenUtil {
 
+    private static final int MAX_CACHED_TOKENS = 10_000;
+
     @Value("${jwt.secret}")
     private String secret;
 
     @Value("${jwt.expiration}")
     private long expiration;
 
+    private final Cache<String, VerifiedToken> verifiedTokens;
+    private final Cache<String, VerifiedToken> revokedTokens;
+    private final Timer parseTimer;
+    private volatile JwtParser parser;
+
+    public JwtTokenUtil(MeterRegistry meterRegistry) {
+        this.verifiedTokens = Caffeine.newBuilder()
+                .maximumSize(MAX_CACHED_TOKENS)
+                .expireAfter(new UntilTokenExpires())
+                .recordStats()
+                .build();
+        // Bounded only by expiry: evicting a live revocation would make a logged-out token valid again.
+        this.revokedTokens = Caffeine.newBuilder()
+                .expireAfter(new UntilTokenExpires())
+                .build();
+        this.parseTimer = Timer.builder("jwt.parse")
+                .description("Time spent verifying token signatures on a cache miss")
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+        // Same tag keys as Spring's cache metrics, otherwise Prometheus drops one of the two series sets.
+        CaffeineCacheMetrics.monitor(meterRegistry, verifiedTokens, "jwt.verified-tokens",
+                "cache.manager", "jwt", "name", "jwt.verified-tokens");
+    }
+
     public String generateToken(String email) {
         return Jwts.builder()
                 .setSubject(email)
@@ -23,10 +67,90 @@ public class JwtTokenUtil {
     }
 
     public String getEmailFromToken(String token) {
-        return Jwts.parser()
-                .setSigningKey(secret)
-                .parseClaimsJws(token)
-                .getBody()
-                .getSubject();
+        String key = digest(token);
+        if (revokedTokens.getIfPresent(key) != null) {
+            throw new JwtException("Token has been revoked");
+        }
+        VerifiedToken cached = verifiedTokens.getIfPresent(key);
+        if (cached != null && cached.expiresAt > System.currentTimeMillis()) {
+            return cached.subject;
+        }
+
+        VerifiedToken verified = parseTimer.record(() -> verify(token));
+        verifiedTokens.put(key, verified);
+        return verified.subject;
+    }
+
+    /**
+     * Rejects the token for the rest of its lifetime. The revocation is kept per instance:
+     * with several replicas behind a load balancer, the others still accept the token until
+     * it expires, so a logout is not shared between them.
+     */
+    public void revoke(String token) {
+        String key = digest(token);
+        VerifiedToken verified = verifiedTokens.getIfPresent(key);
+        if (verified == null) {
+            verified = verify(token);
+        }
+        verifiedTokens.invalidate(key);
+        revokedTokens.put(key, verified);
+    }
+
+    private VerifiedToken verify(String token) {
+        Claims claims = getParser().parseClaimsJws(token).getBody();
+        long expiresAt = claims.getExpiration() != null
+                ? claims.getExpiration().getTime()
+                : System.currentTimeMillis() + expiration;
+        return new VerifiedToken(claims.getSubject(), expiresAt);
+    }
+
+    private JwtParser getParser() {
+        JwtParser result = parser;
+        if (result == null) {
+            synchronized (this) {
+                result = parser;
+                if (result == null) {
+                    result = Jwts.parserBuilder().setSigningKey(secret).build();
+                    parser = result;
+                }
+            }
+        }
+        return result;
+    }
+
+    private String digest(String token) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(token.getBytes(StandardCharsets.US_ASCII));
+            return Base64.getEncoder().encodeToString(hash);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not supported", e);
+        }
+    }
+
+    private static class VerifiedToken {
+        private final String subject;
+        private final long expiresAt;
+
+        private VerifiedToken(String subject, long expiresAt) {
+            this.subject = subject;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private static class UntilTokenExpires implements Expiry<String, VerifiedToken> {
+        @Override
+        public long expireAfterCreate(String key, VerifiedToken value, long currentTime) {
+            return TimeUnit.MILLISECONDS.toNanos(Math.max(0, value.expiresAt - System.currentTimeMillis()));
+        }
+
+        @Override
+        public long expireAfterUpdate(String key, VerifiedToken value, long currentTime, long currentDuration) {
+            return expireAfterCreate(key, value, currentTime);
+        }
+
+        @Override
+        public long expireAfterRead(String key, VerifiedToken value, long currentTime, long currentDuration) {
+            return currentDuration;
+        }
     }
-}
\ No newline at end of file
+}
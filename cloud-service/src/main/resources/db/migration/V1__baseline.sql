@@ -0,0 +1,47 @@
+-- Schema as previously generated by Hibernate (ddl-auto: update).
+-- Written with "if not exists" so it also applies to databases created before migrations were introduced.
+
+create table if not exists users (
+    id       bigserial primary key,
+    email    varchar(255) not null unique,
+    login    varchar(255) not null unique,
+    password varchar(255) not null
+);
+
+create table if not exists blobs (
+    hash       varchar(64) primary key,
+    size       int8        not null,
+    ref_count  int8        not null,
+    created_at timestamp   not null
+);
+
+create table if not exists files (
+    id           bigserial primary key,
+    filename     varchar(255) not null,
+    filepath     varchar(255) not null,
+    size         int8,
+    content_hash varchar(64),
+    uploaded_at  timestamp,
+    user_id      int8 references users (id)
+);
+
+create table if not exists upload_sessions (
+    id           varchar(255) primary key,
+    filename     varchar(255) not null,
+    total_size   int8         not null,
+    chunk_size   int8         not null,
+    total_chunks int4         not null,
+    staging_path varchar(255) not null,
+    created_at   timestamp    not null,
+    user_id      int8         not null references users (id)
+);
+
+create table if not exists upload_chunks (
+    id          bigserial primary key,
+    session_id  varchar(255) not null references upload_sessions (id),
+    chunk_index int4         not null,
+    unique (session_id, chunk_index)
+);
+
+alter table files add column if not exists content_hash varchar(64);
+alter table files add column if not exists uploaded_at timestamp;
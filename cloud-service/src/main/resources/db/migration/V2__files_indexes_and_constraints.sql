@@ -0,0 +1,20 @@
+-- Duplicate names could be created by concurrent uploads before the unique constraint existed.
+-- Keep the oldest file under its name and suffix the others with their id.
+update files f
+set filename = f.filename || ' (' || f.id || ')'
+where exists (select 1
+              from files o
+              where o.user_id = f.user_id
+                and o.filename = f.filename
+                and o.id < f.id);
+
+update files set uploaded_at = now() where uploaded_at is null;
+alter table files alter column uploaded_at set not null;
+
+drop index if exists idx_files_user_filename;
+alter table files add constraint uk_files_user_filename unique (user_id, filename);
+create index if not exists idx_files_user_size on files (user_id, size, id);
+create index if not exists idx_files_user_uploaded on files (user_id, uploaded_at, id);
+
+create index if not exists idx_blobs_unreferenced on blobs (hash) where ref_count <= 0;
+create index if not exists idx_upload_sessions_created_at on upload_sessions (created_at);
@@ -0,0 +1,8 @@
+-- Blobs may be stored compressed. size stays the original length, stored_size is what the backend holds.
+alter table blobs add column if not exists codec varchar(16) not null default 'NONE';
+alter table blobs add column if not exists stored_size int8;
+update blobs set stored_size = size where stored_size is null;
+alter table blobs alter column stored_size set not null;
+
+-- Copy of the blob codec, so a download needs no extra lookup.
+alter table files add column if not exists codec varchar(16) not null default 'NONE';
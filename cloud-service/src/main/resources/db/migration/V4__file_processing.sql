@@ -0,0 +1,11 @@
+-- Filled in by the asynchronous processing pipeline after upload.
+alter table files add column if not exists mime_type varchar(127);
+alter table files add column if not exists checksum varchar(64);
+alter table files add column if not exists image_width int4;
+alter table files add column if not exists image_height int4;
+-- Existing files start as PENDING, so the pipeline backfills them.
+alter table files add column if not exists processing_status varchar(16) not null default 'PENDING';
+alter table files add column if not exists processing_attempts int4 not null default 0;
+alter table files add column if not exists processed_at timestamp;
+
+create index if not exists idx_files_processing_pending on files (id) where processing_status = 'PENDING';
@@ -0,0 +1,8 @@
+-- Running totals of each user's files, kept up to date by uploads and deletes.
+alter table users add column if not exists bytes_used int8 not null default 0;
+alter table users add column if not exists file_count int8 not null default 0;
+alter table users add column if not exists quota_bytes int8;
+
+update users u
+set bytes_used = coalesce((select sum(f.size) from files f where f.user_id = u.id), 0),
+    file_count = (select count(*) from files f where f.user_id = u.id);
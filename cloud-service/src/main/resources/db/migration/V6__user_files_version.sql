@@ -0,0 +1,2 @@
+-- Incremented by every change to a user's files; the ETag of the file listing.
+alter table users add column if not exists files_version int8 not null default 0;
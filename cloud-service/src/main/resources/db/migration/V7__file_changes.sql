@@ -0,0 +1,17 @@
+-- Journal of changes to each user's files, read by sync clients through /auth/changes.
+-- seq continues users.files_version, so the listing ETag and the change cursor agree.
+create table if not exists file_changes (
+    id                bigserial primary key,
+    user_id           int8         not null references users (id),
+    seq               int8         not null,
+    type              varchar(16)  not null,
+    filename          varchar(255) not null,
+    previous_filename varchar(255),
+    size              int8,
+    content_hash      varchar(64),
+    mime_type         varchar(127),
+    created_at        timestamp    not null,
+    constraint uk_file_changes_user_seq unique (user_id, seq)
+);
+
+create index if not exists idx_file_changes_created_at on file_changes (created_at);
@@ -0,0 +1,5 @@
+-- Hibernate takes ids of files and journal entries 50 at a time (pooled optimizer) so that
+-- inserts can be batched; the sequences must step by the same amount. Column defaults keep
+-- working for plain SQL inserts.
+alter sequence files_id_seq increment by 50;
+alter sequence file_changes_id_seq increment by 50;
@@ -0,0 +1,2 @@
+-- The storage reconciler counts references to blobs by hash range.
+create index if not exists idx_files_content_hash on files (content_hash);
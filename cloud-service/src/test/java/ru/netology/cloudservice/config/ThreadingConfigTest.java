@@ -0,0 +1,31 @@
+package ru.netology.cloudservice.config;
+import org.junit.jupiter.api.Test;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import static org.assertj.core.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+class ThreadingConfigTest {
+
+    private final ThreadingConfig threadingConfig = new ThreadingConfig();
+
+    @Test
+    void shouldRunTasksOnVirtualThreads() throws Exception {
+        assumeTrue(Runtime.version().feature() >= 21);
+        ExecutorService executor = threadingConfig.requestExecutor();
+        try {
+            Future<String> thread = executor.submit(() -> Thread.currentThread().toString());
+            assertThat(thread.get()).startsWith("VirtualThread");
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    void shouldRefuseVirtualModeBeforeJava21() {
+        assumeTrue(Runtime.version().feature() < 21);
+        assertThatThrownBy(threadingConfig::requestExecutor)
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessageContaining("Java 21");
+    }
+}
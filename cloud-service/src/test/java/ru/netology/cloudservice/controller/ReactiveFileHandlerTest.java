@@ -0,0 +1,206 @@
+package ru.netology.cloudservice.controller;
+
+import io.jsonwebtoken.JwtException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.security.core.userdetails.UserDetailsService;
+import org.springframework.test.web.reactive.server.WebTestClient;
+import org.springframework.util.unit.DataSize;
+import ru.netology.cloudservice.config.FileStorageProperties;
+import ru.netology.cloudservice.config.ReactiveConfig;
+import ru.netology.cloudservice.dto.FilePage;
+import ru.netology.cloudservice.dto.FileResponse;
+import ru.netology.cloudservice.dto.FileSortField;
+import ru.netology.cloudservice.entity.User;
+import ru.netology.cloudservice.metrics.FileMetrics;
+import ru.netology.cloudservice.security.ReactiveJwtFilter;
+import ru.netology.cloudservice.service.FileContent;
+import ru.netology.cloudservice.service.FileService;
+import ru.netology.cloudservice.storage.LocalFileSystemStorageBackend;
+import ru.netology.cloudservice.storage.StorageBackend;
+import ru.netology.cloudservice.util.FileTransferUtil;
+import ru.netology.cloudservice.util.JwtTokenUtil;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+class ReactiveFileHandlerTest {
+
+    private static final String TOKEN = "Bearer token";
+
+    @TempDir
+    Path tempDir;
+
+    private final FileService fileService = mock(FileService.class);
+    private final JwtTokenUtil jwtTokenUtil = mock(JwtTokenUtil.class);
+    private final UserDetailsService userDetailsService = mock(UserDetailsService.class);
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final User user = new User();
+    private WebTestClient client;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        user.setEmail("user@test");
+        when(jwtTokenUtil.getEmailFromToken("token")).thenReturn("user@test");
+        when(userDetailsService.loadUserByUsername("user@test")).thenReturn(user);
+
+        FileStorageProperties properties = new FileStorageProperties();
+        properties.setStoragePath(tempDir.toString());
+        properties.setMaxFileSize(DataSize.ofBytes(100));
+        properties.setBufferSize(DataSize.ofBytes(4));
+        ReactiveFileHandler handler = new ReactiveFileHandler(fileService, properties, new FileMetrics(meterRegistry));
+        handler.init();
+
+        client = WebTestClient
+                .bindToRouterFunction(new ReactiveConfig().reactiveFileRoutes(handler))
+                .webFilter(new ReactiveJwtFilter(userDetailsService, jwtTokenUtil))
+                .build();
+    }
+
+    @Test
+    void shouldRejectRequestWithoutToken() {
+        client.get().uri("/auth/list").exchange()
+                .expectStatus().isUnauthorized();
+
+        verifyNoInteractions(fileService);
+    }
+
+    @Test
+    void shouldRejectInvalidToken() {
+        when(jwtTokenUtil.getEmailFromToken("broken")).thenThrow(new JwtException("bad signature"));
+
+        client.get().uri("/auth/list").header("auth-token", "Bearer broken").exchange()
+                .expectStatus().isUnauthorized();
+    }
+
+    @Test
+    void shouldListFilesWithNextCursor() {
+        when(fileService.listFiles(user, 2, null, FileSortField.SIZE, true, null))
+                .thenReturn(new FilePage(List.of(new FileResponse("a.txt", 3)), "next"));
+
+        client.get().uri("/auth/list?limit=2&sort=size&order=desc").header("auth-token", TOKEN).exchange()
+                .expectStatus().isOk()
+                .expectHeader().valueEquals(FileController.NEXT_CURSOR_HEADER, "next")
+                .expectBody().jsonPath("$[0].filename").isEqualTo("a.txt");
+    }
+
+    @Test
+    void shouldStreamUploadIntoStagingFile() throws IOException {
+        AtomicReference<String> imported = new AtomicReference<>();
+        doAnswer(invocation -> {
+            imported.set(Files.readString(invocation.getArgument(2)));
+            return null;
+        }).when(fileService).importFile(eq(user), eq("data.txt"), any(Path.class));
+
+        client.post().uri("/auth/file?filename=data.txt").header("auth-token", TOKEN)
+                .contentType(MediaType.APPLICATION_OCTET_STREAM)
+                .bodyValue("0123456789".getBytes())
+                .exchange()
+                .expectStatus().isOk();
+
+        assertThat(imported.get()).isEqualTo("0123456789");
+        assertThat(meterRegistry.counter("file.bytes.in").count()).isEqualTo(10);
+        try (var staged = Files.list(tempDir.resolve(".uploads"))) {
+            assertThat(staged).isEmpty();
+        }
+    }
+
+    @Test
+    void shouldRejectUploadOverSizeLimit() throws IOException {
+        client.post().uri("/auth/file?filename=big.bin").header("auth-token", TOKEN)
+                .contentType(MediaType.APPLICATION_OCTET_STREAM)
+                .bodyValue(new byte[101])
+                .exchange()
+                .expectStatus().is5xxServerError();
+
+        verify(fileService, never()).importFile(any(), any(), any());
+        try (var staged = Files.list(tempDir.resolve(".uploads"))) {
+            assertThat(staged).isEmpty();
+        }
+    }
+
+    @Test
+    void shouldRequireFilename() {
+        client.delete().uri("/auth/file").header("auth-token", TOKEN).exchange()
+                .expectStatus().isBadRequest()
+                .expectBody().jsonPath("$.message").isEqualTo("Parameter filename is required");
+    }
+
+    @Test
+    void shouldDownloadWholeFile() throws IOException {
+        when(fileService.download("data.txt", user)).thenReturn(storedFile());
+
+        client.get().uri("/auth/file?filename=data.txt").header("auth-token", TOKEN).exchange()
+                .expectStatus().isOk()
+                .expectHeader().valueEquals(HttpHeaders.ETAG, "\"data\"")
+                .expectHeader().contentLength(10)
+                .expectBody(String.class).isEqualTo("0123456789");
+        assertThat(meterRegistry.counter("file.bytes.out").count()).isEqualTo(10);
+    }
+
+    @Test
+    void shouldDownloadSingleRange() throws IOException {
+        when(fileService.download("data.txt", user)).thenReturn(storedFile());
+
+        client.get().uri("/auth/file?filename=data.txt").header("auth-token", TOKEN)
+                .header(HttpHeaders.RANGE, "bytes=2-5")
+                .exchange()
+                .expectStatus().isEqualTo(206)
+                .expectHeader().valueEquals(HttpHeaders.CONTENT_RANGE, "bytes 2-5/10")
+                .expectBody(String.class).isEqualTo("2345");
+    }
+
+    @Test
+    void shouldRejectUnsatisfiableRange() throws IOException {
+        when(fileService.download("data.txt", user)).thenReturn(storedFile());
+
+        client.get().uri("/auth/file?filename=data.txt").header("auth-token", TOKEN)
+                .header(HttpHeaders.RANGE, "bytes=20-30")
+                .exchange()
+                .expectStatus().isEqualTo(416)
+                .expectHeader().valueEquals(HttpHeaders.CONTENT_RANGE, "bytes */10");
+    }
+
+    @Test
+    void shouldAnswerNotModifiedForUnchangedFileAndListing() throws IOException {
+        when(fileService.download("data.txt", user)).thenReturn(storedFile());
+        when(fileService.listingVersion(user)).thenReturn(7L);
+
+        client.get().uri("/auth/file?filename=data.txt").header("auth-token", TOKEN)
+                .header(HttpHeaders.IF_NONE_MATCH, "\"data\"")
+                .exchange()
+                .expectStatus().isNotModified()
+                .expectHeader().valueEquals(HttpHeaders.ETAG, "\"data\"")
+                .expectBody().isEmpty();
+        client.get().uri("/auth/list").header("auth-token", TOKEN)
+                .header(HttpHeaders.IF_NONE_MATCH, "\"7\"")
+                .exchange()
+                .expectStatus().isNotModified();
+
+        verify(fileService, never()).listFiles(any(), anyInt(), any(), any(), anyBoolean(), any());
+        assertThat(meterRegistry.counter("file.bytes.out").count()).isZero();
+    }
+
+    private FileContent storedFile() throws IOException {
+        StorageBackend backend = new LocalFileSystemStorageBackend(tempDir.resolve("blobs"),
+                new FileTransferUtil(new FileStorageProperties()));
+        backend.write("ab/cd/data", new ByteArrayInputStream("0123456789".getBytes()), Long.MAX_VALUE);
+        return new FileContent("data.txt", backend, "ab/cd/data", 10, "\"data\"", Instant.now());
+    }
+}
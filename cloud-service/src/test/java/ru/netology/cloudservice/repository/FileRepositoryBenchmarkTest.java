@@ -0,0 +1,107 @@
+package ru.netology.cloudservice.repository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import ru.netology.cloudservice.PostgreSQLIntegrationTest;
+import ru.netology.cloudservice.dto.FileSortField;
+import ru.netology.cloudservice.entity.User;
+import javax.persistence.EntityManager;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntConsumer;
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Lookup latency of the hot files queries on a table with {@value #USERS} x {@value #FILES_PER_USER} rows.
+ * Excluded from the default build, run with {@code mvn test -Pbenchmark}.
+ */
+@Tag("benchmark")
+class FileRepositoryBenchmarkTest extends PostgreSQLIntegrationTest {
+
+    private static final int USERS = 100;
+    private static final int FILES_PER_USER = 10_000;
+    private static final int WARMUP = 500;
+    private static final int ITERATIONS = 5_000;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+    @Autowired
+    private EntityManager entityManager;
+
+    private List<User> users;
+    private final Random random = new Random(42);
+
+    @BeforeEach
+    void populate() {
+        jdbcTemplate.update("insert into users (login, email, password) "
+                + "select 'user' || u, 'user' || u || '@test', 'x' from generate_series(1, ?) u", USERS);
+        jdbcTemplate.update("insert into files (id, filename, filepath, size, content_hash, uploaded_at, user_id) "
+                + "select nextval('files_id_seq'), 'file-' || f || '.txt', 'blob/' || f, (f * 7919) % 1000000, null, "
+                + "now() - f * interval '1 second', u.id "
+                + "from users u cross join generate_series(1, ?) f", FILES_PER_USER);
+        jdbcTemplate.execute("analyze users");
+        jdbcTemplate.execute("analyze files");
+        users = userRepository.findAll();
+    }
+
+    @Test
+    void hotQueriesUseIndexes() {
+        Long userId = users.get(0).getId();
+        assertIndexScan("select * from files where user_id = " + userId + " and filename = 'file-5000.txt'");
+        assertIndexScan("select * from files where user_id = " + userId + " order by size, id limit 51");
+        assertIndexScan("select * from files where user_id = " + userId + " order by uploaded_at desc, id desc limit 51");
+        assertIndexScan("select * from files where user_id = " + userId + " and filename >= 'file-5000.txt' "
+                + "and (filename > 'file-5000.txt' or (filename = 'file-5000.txt' and id > 0)) "
+                + "order by filename, id limit 51");
+    }
+
+    @Test
+    void lookupLatency() {
+        assertThat(fileRepository.count()).isGreaterThanOrEqualTo((long) USERS * FILES_PER_USER);
+
+        measure("findByUserAndFilename", i -> fileRepository.findByUserAndFilename(randomUser(), randomFilename()));
+        measure("existsByUserAndFilename", i -> fileRepository.existsByUserAndFilename(randomUser(), randomFilename()));
+        measure("findPage by name", i -> fileRepository.findPage(randomUser(), null, FileSortField.NAME, false,
+                randomFilename(), 0L, 51));
+        measure("findPage by size", i -> fileRepository.findPage(randomUser(), null, FileSortField.SIZE, true,
+                (long) random.nextInt(1_000_000), Long.MAX_VALUE, 51));
+        measure("findPage by prefix", i -> fileRepository.findPage(randomUser(), "file-12", FileSortField.NAME, false,
+                null, null, 51));
+    }
+
+    private void measure(String name, IntConsumer query) {
+        for (int i = 0; i < WARMUP; i++) {
+            query.accept(i);
+            entityManager.clear();
+        }
+        long[] samples = new long[ITERATIONS];
+        for (int i = 0; i < ITERATIONS; i++) {
+            long start = System.nanoTime();
+            query.accept(i);
+            samples[i] = System.nanoTime() - start;
+            entityManager.clear();
+        }
+        Arrays.sort(samples);
+        System.out.printf("%-24s p50=%6d us  p99=%6d us  max=%6d us%n", name,
+                TimeUnit.NANOSECONDS.toMicros(samples[ITERATIONS / 2]),
+                TimeUnit.NANOSECONDS.toMicros(samples[ITERATIONS * 99 / 100]),
+                TimeUnit.NANOSECONDS.toMicros(samples[ITERATIONS - 1]));
+    }
+
+    private void assertIndexScan(String query) {
+        String plan = String.join("\n", jdbcTemplate.queryForList("explain " + query, String.class));
+        assertThat(plan).as(plan).doesNotContain("Seq Scan");
+    }
+
+    private User randomUser() {
+        return users.get(random.nextInt(users.size()));
+    }
+
+    private String randomFilename() {
+        return "file-" + (1 + random.nextInt(FILES_PER_USER)) + ".txt";
+    }
+}
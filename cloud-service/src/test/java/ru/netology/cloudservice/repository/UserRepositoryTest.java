@@ -40,10 +40,29 @@ class UserRepositoryTest extends PostgreSQLIntegrationTest {
         assertThat(exists).isTrue();
     }
 
+    @Test
+    void shouldCountUsersByBytesUsed() {
+        userWithUsage("small", 512);
+        userWithUsage("large", 5_000_000);
+
+        assertThat(userRepository.countByBytesUsedInRange(0, 1024)).isEqualTo(1);
+        assertThat(userRepository.countByBytesUsedInRange(1024, Long.MAX_VALUE)).isEqualTo(1);
+        assertThat(userRepository.countByBytesUsedInRange(512, 5_000_000)).isEqualTo(1);
+        assertThat(userRepository.sumBytesUsed()).isEqualTo(5_000_512);
+    }
+
     @Test
     void shouldNotFindNonExistentUser() {
         Optional<User> user = userRepository.findByEmail("nonexistent@admin.admin");
 
         assertThat(user).isEmpty();
     }
-}
\ No newline at end of file
+
+    private void userWithUsage(String login, long bytes) {
+        User user = new User();
+        user.setEmail(login + "@test");
+        user.setPassword("encoded-password");
+        user.setLogin(login);
+        userRepository.setUsage(userRepository.saveAndFlush(user).getId(), bytes, 1);
+    }
+}
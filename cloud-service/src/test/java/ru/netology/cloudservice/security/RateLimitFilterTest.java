@@ -0,0 +1,55 @@
+package ru.netology.cloudservice.security;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import ru.netology.cloudservice.config.RateLimitProperties;
+
+import java.util.List;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class RateLimitFilterTest {
+
+    private final RateLimitProperties properties = new RateLimitProperties();
+    private final RateLimitFilter filter = new RateLimitFilter(
+            new RequestLimiter(properties, new SimpleMeterRegistry()), new ObjectMapper());
+
+    @Test
+    void shouldAnswerTooManyRequestsWithRetryAfter() throws Exception {
+        RateLimitProperties.Rule rule = new RateLimitProperties.Rule();
+        rule.setName("upload");
+        rule.setPaths(List.of("/auth/file"));
+        rule.setRate(0.5);
+        properties.setRules(List.of(rule));
+
+        MockHttpServletResponse granted = filter(new MockHttpServletRequest("POST", "/auth/file"));
+        MockHttpServletResponse rejected = filter(new MockHttpServletRequest("POST", "/auth/file"));
+
+        assertThat(granted.getStatus()).isEqualTo(200);
+        assertThat(rejected.getStatus()).isEqualTo(429);
+        assertThat(rejected.getHeader("Retry-After")).isEqualTo("2");
+        assertThat(rejected.getContentAsString()).contains("Too many requests");
+    }
+
+    @Test
+    void shouldReleaseTransferWhenRequestIsDone() throws Exception {
+        RateLimitProperties.Rule rule = new RateLimitProperties.Rule();
+        rule.setName("download");
+        rule.setPaths(List.of("/auth/file"));
+        rule.setMaxConcurrent(1);
+        properties.setRules(List.of(rule));
+
+        for (int i = 0; i < 3; i++) {
+            assertThat(filter(new MockHttpServletRequest("GET", "/auth/file")).getStatus()).isEqualTo(200);
+        }
+    }
+
+    private MockHttpServletResponse filter(MockHttpServletRequest request) throws Exception {
+        request.setServletPath(request.getRequestURI());
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        filter.doFilter(request, response, new MockFilterChain());
+        return response;
+    }
+}
@@ -0,0 +1,117 @@
+package ru.netology.cloudservice.security;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import ru.netology.cloudservice.config.RateLimitProperties;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class RequestLimiterTest {
+
+    private final AtomicLong now = new AtomicLong();
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final RateLimitProperties properties = new RateLimitProperties();
+    private final RequestLimiter limiter = new RequestLimiter(properties, meterRegistry, now::get);
+
+    @Test
+    void shouldLetBurstThroughThenRefillAtRate() {
+        properties.setRules(List.of(rule("upload", "/auth/file", 2, 3, 0)));
+
+        for (int i = 0; i < 3; i++) {
+            assertThat(acquire("alice").isGranted()).isTrue();
+        }
+        RequestLimiter.Permit rejected = acquire("alice");
+        assertThat(rejected.isGranted()).isFalse();
+        assertThat(rejected.getRetryAfterSeconds()).isEqualTo(1);
+        // Other users have buckets of their own.
+        assertThat(acquire("bob").isGranted()).isTrue();
+
+        now.addAndGet(TimeUnit.MILLISECONDS.toNanos(500));
+        assertThat(acquire("alice").isGranted()).isTrue();
+        assertThat(acquire("alice").isGranted()).isFalse();
+        assertThat(meterRegistry.get("http.throttled").tag("rule", "upload").tag("reason", "rate").counter().count())
+                .isEqualTo(2);
+    }
+
+    @Test
+    void shouldLimitRequestsInProgress() {
+        properties.setRules(List.of(rule("download", "/auth/file", 0, 1, 2)));
+
+        RequestLimiter.Permit first = acquire("alice");
+        RequestLimiter.Permit second = acquire("alice");
+        assertThat(acquire("alice").isGranted()).isFalse();
+
+        first.release();
+        first.release();
+        assertThat(acquire("alice").isGranted()).isTrue();
+        assertThat(acquire("alice").isGranted()).isFalse();
+        second.release();
+        assertThat(meterRegistry.get("http.throttled").tag("reason", "concurrency").counter().count())
+                .isEqualTo(2);
+    }
+
+    @Test
+    void shouldApplyFirstMatchingRule() {
+        RateLimitProperties.Rule upload = rule("upload", "/auth/file", 0, 1, 1);
+        upload.setMethods(List.of("POST"));
+        properties.setRules(List.of(upload, rule("default", "/auth/**", 0, 1, 2)));
+
+        RequestLimiter.Permit held = limiter.acquire("POST", "/auth/file", "alice");
+        assertThat(limiter.acquire("POST", "/auth/file", "alice").isGranted()).isFalse();
+        assertThat(limiter.acquire("GET", "/auth/file", "alice").isGranted()).isTrue();
+        assertThat(limiter.acquire("OPTIONS", "/auth/file", "alice").isGranted()).isTrue();
+        assertThat(limiter.acquire("GET", "/actuator/health", "alice").isGranted()).isTrue();
+
+        properties.setEnabled(false);
+        assertThat(limiter.acquire("POST", "/auth/file", "alice").isGranted()).isTrue();
+        held.release();
+    }
+
+    @Test
+    void shouldKeepLimitsOfClientsWithRequestsInProgress() {
+        properties.setRules(List.of(rule("download", "/auth/file", 0, 1, 1)));
+        RequestLimiter.Permit held = acquire("alice");
+        acquire("bob").release();
+
+        now.addAndGet(properties.getIdleTimeout().plusMinutes(1).toNanos());
+        limiter.evictIdle();
+        assertThat(limiter.clientCount()).isEqualTo(1);
+        assertThat(acquire("alice").isGranted()).isFalse();
+
+        held.release();
+        now.addAndGet(properties.getIdleTimeout().plusMinutes(1).toNanos());
+        limiter.evictIdle();
+        assertThat(limiter.clientCount()).isZero();
+        assertThat(acquire("alice").isGranted()).isTrue();
+    }
+
+    @Test
+    void shouldDropIdleClientsWhenThereAreTooMany() {
+        properties.setRules(List.of(rule("download", "/auth/file", 0, 1, 1)));
+        properties.setMaxClients(2);
+        RequestLimiter.Permit held = acquire("alice");
+        acquire("bob").release();
+
+        assertThat(acquire("carol").isGranted()).isTrue();
+        assertThat(limiter.clientCount()).isEqualTo(2);
+        assertThat(acquire("alice").isGranted()).isFalse();
+        held.release();
+    }
+
+    private RequestLimiter.Permit acquire(String client) {
+        return limiter.acquire("POST", "/auth/file", client);
+    }
+
+    private static RateLimitProperties.Rule rule(String name, String path, double rate, int burst,
+                                                 int maxConcurrent) {
+        RateLimitProperties.Rule rule = new RateLimitProperties.Rule();
+        rule.setName(name);
+        rule.setPaths(List.of(path));
+        rule.setRate(rate);
+        rule.setBurst(burst);
+        rule.setMaxConcurrent(maxConcurrent);
+        return rule;
+    }
+}
@@ -0,0 +1,85 @@
+package ru.netology.cloudservice.service;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.context.request.async.DeferredResult;
+import ru.netology.cloudservice.config.FileStorageProperties;
+import ru.netology.cloudservice.dto.ChangePage;
+import ru.netology.cloudservice.dto.FileChangeResponse;
+import ru.netology.cloudservice.entity.ChangeType;
+import ru.netology.cloudservice.entity.User;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.*;
+
+class ChangeNotifierTest {
+
+    private final FileChangeService fileChangeService = mock(FileChangeService.class);
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final ChangeNotifier notifier = new ChangeNotifier(fileChangeService, new FileStorageProperties(),
+            meterRegistry);
+    private final User user = user(1L);
+
+    @AfterEach
+    void tearDown() {
+        notifier.stop();
+    }
+
+    @Test
+    void shouldAnswerAtOnceWhenChangesAreWaiting() {
+        ChangePage page = page(4);
+        when(fileChangeService.changes(user, 3, 100)).thenReturn(page);
+
+        DeferredResult<ChangePage> result = notifier.poll(user, 3, 100, Duration.ofSeconds(30));
+
+        assertThat(result.getResult()).isSameAs(page);
+    }
+
+    @Test
+    void shouldWakeWaiterOnChangeOfSameUser() throws Exception {
+        when(fileChangeService.changes(user, 3, 100)).thenReturn(new ChangePage(List.of(), 3, false, false));
+        DeferredResult<ChangePage> result = notifier.poll(user, 3, 100, Duration.ofSeconds(30));
+        CompletableFuture<Object> completed = new CompletableFuture<>();
+        result.setResultHandler(completed::complete);
+        assertThat(result.hasResult()).isFalse();
+        assertThat(meterRegistry.get("file.changes.waiting").gauge().value()).isEqualTo(1);
+
+        notifier.onFilesChanged(new FilesChangedEvent(2L, 1));
+        assertThat(result.hasResult()).isFalse();
+
+        ChangePage page = page(4);
+        when(fileChangeService.changes(user, 3, 100)).thenReturn(page);
+        notifier.onFilesChanged(new FilesChangedEvent(user.getId(), 4));
+
+        assertThat(completed.get(5, TimeUnit.SECONDS)).isSameAs(page);
+        assertThat(meterRegistry.get("file.changes.waiting").gauge().value()).isZero();
+    }
+
+    @Test
+    void shouldNotWaitWithoutTimeout() {
+        ChangePage empty = new ChangePage(List.of(), 3, false, false);
+        when(fileChangeService.changes(user, 3, 100)).thenReturn(empty);
+
+        DeferredResult<ChangePage> result = notifier.poll(user, 3, 100, Duration.ZERO);
+
+        assertThat(result.getResult()).isSameAs(empty);
+        assertThat(meterRegistry.get("file.changes.waiting").gauge().value()).isZero();
+    }
+
+    private static ChangePage page(long seq) {
+        FileChangeResponse change = new FileChangeResponse(seq, ChangeType.CREATED, "a.txt", null, 1L, null, null,
+                Instant.now());
+        return new ChangePage(List.of(change), seq, false, false);
+    }
+
+    private static User user(Long id) {
+        User user = new User();
+        user.setId(id);
+        return user;
+    }
+}
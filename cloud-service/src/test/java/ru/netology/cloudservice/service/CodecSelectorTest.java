@@ -0,0 +1,56 @@
+package ru.netology.cloudservice.service;
+import org.junit.jupiter.api.Test;
+import ru.netology.cloudservice.config.FileStorageProperties;
+import ru.netology.cloudservice.storage.BlobCodec;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CodecSelectorTest {
+
+    private final FileStorageProperties properties = new FileStorageProperties();
+    private final CodecSelector selector = new CodecSelector(properties);
+
+    @Test
+    void shouldStoreTextAsZstd() {
+        assertThat(select("id,name,amount\n1,Иван,100\n".repeat(200).getBytes(StandardCharsets.UTF_8)))
+                .isEqualTo(BlobCodec.ZSTD);
+    }
+
+    @Test
+    void shouldStoreCompressibleBinaryAsLz4() {
+        byte[] sample = new byte[8192];
+        for (int i = 0; i < sample.length; i++) {
+            sample[i] = (byte) (i % 16 == 0 ? 0 : i % 7);
+        }
+        assertThat(select(sample)).isEqualTo(BlobCodec.LZ4);
+    }
+
+    @Test
+    void shouldKeepIncompressibleContent() {
+        byte[] random = new byte[8192];
+        new Random(1).nextBytes(random);
+        assertThat(select(random)).isEqualTo(BlobCodec.NONE);
+    }
+
+    @Test
+    void shouldKeepAlreadyCompressedFormats() {
+        byte[] gzip = "x".repeat(8192).getBytes(StandardCharsets.US_ASCII);
+        gzip[0] = 0x1f;
+        gzip[1] = (byte) 0x8b;
+        assertThat(select(gzip)).isEqualTo(BlobCodec.NONE);
+    }
+
+    @Test
+    void shouldKeepSmallOrDisabled() {
+        assertThat(select("tiny text".getBytes(StandardCharsets.US_ASCII))).isEqualTo(BlobCodec.NONE);
+
+        properties.getCompression().setEnabled(false);
+        assertThat(select("text\n".repeat(1000).getBytes(StandardCharsets.US_ASCII))).isEqualTo(BlobCodec.NONE);
+    }
+
+    private BlobCodec select(byte[] sample) {
+        return selector.select(sample, sample.length);
+    }
+}
@@ -0,0 +1,260 @@
+package ru.netology.cloudservice.service;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.http.HttpHeaders;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import ru.netology.cloudservice.config.FileStorageProperties;
+import ru.netology.cloudservice.metrics.FileMetrics;
+import ru.netology.cloudservice.storage.BlobCodec;
+import ru.netology.cloudservice.storage.InMemoryStorageBackend;
+import ru.netology.cloudservice.storage.LocalFileSystemStorageBackend;
+import ru.netology.cloudservice.storage.StorageBackend;
+import ru.netology.cloudservice.util.FileTransferUtil;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class DownloadServiceTest {
+
+    @TempDir
+    Path tempDir;
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final DownloadService downloadService = new DownloadService(new FileMetrics(meterRegistry));
+    private FileContent file;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        StorageBackend backend = new LocalFileSystemStorageBackend(tempDir,
+                new FileTransferUtil(new FileStorageProperties()));
+        file = store(backend);
+    }
+
+    @Test
+    void shouldServeWholeFileWithoutRange() throws IOException {
+        MockHttpServletResponse response = serve(new MockHttpServletRequest());
+
+        assertThat(response.getStatus()).isEqualTo(200);
+        assertThat(response.getHeader(HttpHeaders.ACCEPT_RANGES)).isEqualTo("bytes");
+        assertThat(response.getContentLengthLong()).isEqualTo(10);
+        assertThat(response.getContentAsString()).isEqualTo("0123456789");
+    }
+
+    @Test
+    void shouldServeSingleRange() throws IOException {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.addHeader(HttpHeaders.RANGE, "bytes=2-5");
+
+        MockHttpServletResponse response = serve(request);
+
+        assertThat(response.getStatus()).isEqualTo(206);
+        assertThat(response.getHeader(HttpHeaders.CONTENT_RANGE)).isEqualTo("bytes 2-5/10");
+        assertThat(response.getContentAsString()).isEqualTo("2345");
+        assertThat(meterRegistry.counter("file.bytes.out").count()).isEqualTo(4);
+    }
+
+    @Test
+    void shouldServeMultipleRangesAsMultipart() throws IOException {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.addHeader(HttpHeaders.RANGE, "bytes=0-1,-2");
+
+        MockHttpServletResponse response = serve(request);
+
+        assertThat(response.getStatus()).isEqualTo(206);
+        assertThat(response.getContentType()).startsWith("multipart/byteranges");
+        assertThat(response.getContentAsString())
+                .contains("Content-Range: bytes 0-1/10\r\n\r\n01")
+                .contains("Content-Range: bytes 8-9/10\r\n\r\n89");
+    }
+
+    @Test
+    void shouldRejectUnsatisfiableRange() throws IOException {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.addHeader(HttpHeaders.RANGE, "bytes=20-30");
+
+        MockHttpServletResponse response = serve(request);
+
+        assertThat(response.getStatus()).isEqualTo(416);
+        assertThat(response.getHeader(HttpHeaders.CONTENT_RANGE)).isEqualTo("bytes */10");
+    }
+
+    @Test
+    void shouldIgnoreRangeWhenIfRangeDoesNotMatch() throws IOException {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.addHeader(HttpHeaders.RANGE, "bytes=2-5");
+        request.addHeader(HttpHeaders.IF_RANGE, "\"stale\"");
+
+        MockHttpServletResponse response = serve(request);
+
+        assertThat(response.getStatus()).isEqualTo(200);
+        assertThat(response.getContentAsString()).isEqualTo("0123456789");
+    }
+
+    @Test
+    void shouldDelegateToSendfileWhenSupported() throws IOException {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setAttribute(DownloadService.SENDFILE_SUPPORTED_ATTR, Boolean.TRUE);
+        request.addHeader(HttpHeaders.RANGE, "bytes=4-");
+
+        MockHttpServletResponse response = serve(request);
+
+        assertThat(response.getStatus()).isEqualTo(206);
+        assertThat(response.getContentAsByteArray()).isEmpty();
+        assertThat(request.getAttribute(DownloadService.SENDFILE_START_ATTR)).isEqualTo(4L);
+        assertThat(request.getAttribute(DownloadService.SENDFILE_END_ATTR)).isEqualTo(10L);
+    }
+
+    @Test
+    void shouldStreamRangesFromNonLocalBackend() throws IOException {
+        file = store(new InMemoryStorageBackend());
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setAttribute(DownloadService.SENDFILE_SUPPORTED_ATTR, Boolean.TRUE);
+        request.addHeader(HttpHeaders.RANGE, "bytes=0-1,7-");
+
+        MockHttpServletResponse response = serve(request);
+
+        assertThat(response.getStatus()).isEqualTo(206);
+        assertThat(request.getAttribute(DownloadService.SENDFILE_FILENAME_ATTR)).isNull();
+        assertThat(response.getContentAsString())
+                .contains("Content-Range: bytes 0-1/10\r\n\r\n01")
+                .contains("Content-Range: bytes 7-9/10\r\n\r\n789");
+    }
+
+    @Test
+    void shouldSendZstdBlobAsStoredWhenAccepted() throws IOException {
+        file = storeCompressed();
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setAttribute(DownloadService.SENDFILE_SUPPORTED_ATTR, Boolean.TRUE);
+        request.addHeader(HttpHeaders.ACCEPT_ENCODING, "gzip, zstd");
+
+        MockHttpServletResponse response = serve(request);
+
+        assertThat(response.getStatus()).isEqualTo(200);
+        assertThat(response.getHeader(HttpHeaders.CONTENT_ENCODING)).isEqualTo("zstd");
+        assertThat(response.getHeader(HttpHeaders.ETAG)).isEqualTo("\"data-zstd\"");
+        assertThat(response.getHeaders(HttpHeaders.VARY)).contains(HttpHeaders.ACCEPT_ENCODING);
+        assertThat(response.getContentLengthLong()).isEqualTo(file.getStoredSize());
+        assertThat(request.getAttribute(DownloadService.SENDFILE_END_ATTR)).isEqualTo(file.getStoredSize());
+    }
+
+    @Test
+    void shouldDecodeBlobForOtherClients() throws IOException {
+        file = storeCompressed();
+
+        MockHttpServletResponse response = serve(new MockHttpServletRequest());
+
+        assertThat(response.getHeader(HttpHeaders.CONTENT_ENCODING)).isNull();
+        assertThat(response.getContentLengthLong()).isEqualTo(2000);
+        assertThat(response.getContentAsString()).isEqualTo("0123456789".repeat(200));
+    }
+
+    @Test
+    void shouldDecodeRangeOfCompressedBlob() throws IOException {
+        file = storeCompressed();
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.addHeader(HttpHeaders.ACCEPT_ENCODING, "zstd");
+        request.addHeader(HttpHeaders.RANGE, "bytes=1995-");
+
+        MockHttpServletResponse response = serve(request);
+
+        assertThat(response.getStatus()).isEqualTo(206);
+        assertThat(response.getHeader(HttpHeaders.CONTENT_ENCODING)).isNull();
+        assertThat(response.getHeader(HttpHeaders.CONTENT_RANGE)).isEqualTo("bytes 1995-1999/2000");
+        assertThat(response.getContentAsString()).isEqualTo("56789");
+    }
+
+    @Test
+    void shouldAnswerNotModifiedForMatchingValidators() throws IOException {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/file");
+        request.addHeader(HttpHeaders.IF_NONE_MATCH, "\"other\", \"data\"");
+
+        MockHttpServletResponse response = serve(request);
+
+        assertThat(response.getStatus()).isEqualTo(304);
+        assertThat(response.getHeader(HttpHeaders.ETAG)).isEqualTo("\"data\"");
+        assertThat(response.getHeader(HttpHeaders.CACHE_CONTROL)).isEqualTo("no-cache, private");
+        assertThat(response.getContentAsByteArray()).isEmpty();
+        assertThat(meterRegistry.counter("file.bytes.out").count()).isZero();
+
+        request = new MockHttpServletRequest("GET", "/file");
+        request.addHeader(HttpHeaders.IF_MODIFIED_SINCE, file.getLastModified().toEpochMilli());
+        assertThat(serve(request).getStatus()).isEqualTo(304);
+
+        request = new MockHttpServletRequest("GET", "/file");
+        request.addHeader(HttpHeaders.IF_NONE_MATCH, "\"other\"");
+        request.addHeader(HttpHeaders.IF_MODIFIED_SINCE, file.getLastModified().toEpochMilli());
+        response = serve(request);
+        assertThat(response.getStatus()).isEqualTo(200);
+        assertThat(response.getContentAsString()).isEqualTo("0123456789");
+    }
+
+    @Test
+    void shouldCompareEtagOfSelectedRepresentation() throws IOException {
+        file = storeCompressed();
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/file");
+        request.addHeader(HttpHeaders.ACCEPT_ENCODING, "zstd");
+        request.addHeader(HttpHeaders.IF_NONE_MATCH, "\"data-zstd\"");
+
+        MockHttpServletResponse response = serve(request);
+
+        assertThat(response.getStatus()).isEqualTo(304);
+        assertThat(response.getHeader(HttpHeaders.CONTENT_ENCODING)).isNull();
+        assertThat(response.getHeaders(HttpHeaders.VARY)).contains(HttpHeaders.ACCEPT_ENCODING);
+
+        request = new MockHttpServletRequest("GET", "/file");
+        request.addHeader(HttpHeaders.IF_NONE_MATCH, "\"data-zstd\"");
+        assertThat(serve(request).getStatus()).isEqualTo(200);
+    }
+
+    @Test
+    void shouldStreamFilesAsZipArchive() throws IOException {
+        FileContent compressed = storeCompressed();
+        compressed.setFilename("dir/compressed.txt");
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        downloadService.serveArchive(List.of(file, compressed), "files.zip", response);
+
+        assertThat(response.getContentType()).isEqualTo("application/zip");
+        assertThat(response.getHeader(HttpHeaders.CONTENT_DISPOSITION)).contains("files.zip");
+        try (ZipInputStream zip = new ZipInputStream(new ByteArrayInputStream(response.getContentAsByteArray()))) {
+            assertThat(zip.getNextEntry().getName()).isEqualTo("data.txt");
+            assertThat(new String(zip.readAllBytes())).isEqualTo("0123456789");
+            ZipEntry second = zip.getNextEntry();
+            assertThat(second.getName()).isEqualTo("dir/compressed.txt");
+            assertThat(new String(zip.readAllBytes())).isEqualTo("0123456789".repeat(200));
+            assertThat(second.getCompressedSize()).isLessThan(2000);
+            assertThat(zip.getNextEntry()).isNull();
+        }
+        assertThat(meterRegistry.counter("file.bytes.out").count()).isEqualTo(2010);
+    }
+
+    private FileContent storeCompressed() throws IOException {
+        StorageBackend backend = new LocalFileSystemStorageBackend(tempDir,
+                new FileTransferUtil(new FileStorageProperties()));
+        byte[] original = "0123456789".repeat(200).getBytes();
+        long storedSize = backend.write("ab/cd/compressed",
+                BlobCodec.ZSTD.encode(new ByteArrayInputStream(original), 3), Long.MAX_VALUE);
+        return new FileContent("data.txt", backend, "ab/cd/compressed", original.length, "\"data\"",
+                Instant.now(), BlobCodec.ZSTD, storedSize);
+    }
+
+    private FileContent store(StorageBackend backend) throws IOException {
+        backend.write("ab/cd/data", new ByteArrayInputStream("0123456789".getBytes()), Long.MAX_VALUE);
+        return new FileContent("data.txt", backend, "ab/cd/data", 10, "\"data\"", Instant.now());
+    }
+
+    private MockHttpServletResponse serve(MockHttpServletRequest request) throws IOException {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        downloadService.serve(file, request, response);
+        return response;
+    }
+}
@@ -0,0 +1,183 @@
+package ru.netology.cloudservice.service;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.transaction.PlatformTransactionManager;
+import ru.netology.cloudservice.config.FileStorageProperties;
+import ru.netology.cloudservice.entity.ChangeType;
+import ru.netology.cloudservice.entity.File;
+import ru.netology.cloudservice.entity.FileChange;
+import ru.netology.cloudservice.entity.ProcessingStatus;
+import ru.netology.cloudservice.metrics.FileMetrics;
+import ru.netology.cloudservice.repository.BlobRepository;
+import ru.netology.cloudservice.repository.FileRepository;
+import ru.netology.cloudservice.storage.BlobCodec;
+import ru.netology.cloudservice.storage.InMemoryStorageBackend;
+import ru.netology.cloudservice.util.FileTransferUtil;
+
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Optional;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.*;
+
+class FileProcessingServiceTest {
+
+    private final FileRepository fileRepository = mock(FileRepository.class);
+    private final FileChangeService fileChangeService = mock(FileChangeService.class);
+    private final InMemoryStorageBackend storageBackend = new InMemoryStorageBackend();
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private BlobStore blobStore;
+    private FileProcessingService processingService;
+
+    @BeforeEach
+    void setUp() {
+        FileStorageProperties properties = new FileStorageProperties();
+        PlatformTransactionManager transactionManager = mock(PlatformTransactionManager.class);
+        blobStore = new BlobStore(mock(BlobRepository.class), storageBackend, new FileTransferUtil(properties),
+                new CodecSelector(properties), properties, transactionManager);
+        FileService fileService = new FileService(fileRepository, blobStore, new FileTransferUtil(properties),
+                properties, new FileMetrics(meterRegistry), mock(QuotaService.class), fileChangeService, mock(IngestBuffer.class),
+                event -> { });
+        processingService = new FileProcessingService(fileRepository, fileChangeService, fileService, blobStore,
+                new MimeTypeDetector(), properties, transactionManager, meterRegistry);
+    }
+
+    @Test
+    void shouldDetectTypeAndRenderImageRenditions() throws IOException {
+        File file = store("photo.png", png(800, 400), BlobCodec.NONE);
+
+        processingService.process(file.getId());
+
+        verify(fileRepository).recordProcessing(eq(file.getId()), eq("image/png"), eq(file.getContentHash()),
+                eq(800), eq(400), eq(ProcessingStatus.DONE), any());
+        BufferedImage thumbnail = readRendition(file, ImageRendition.THUMBNAIL);
+        assertThat(thumbnail.getWidth()).isEqualTo(256);
+        assertThat(thumbnail.getHeight()).isEqualTo(128);
+        BufferedImage preview = readRendition(file, ImageRendition.PREVIEW);
+        assertThat(preview.getWidth()).isEqualTo(800);
+        assertThat(meterRegistry.get("file.processing").tag("outcome", "done").timer().count()).isEqualTo(1);
+        verify(fileChangeService).record(any(), argThat((FileChange change) -> change.getType() == ChangeType.UPDATED
+                && change.getFilename().equals("photo.png")));
+    }
+
+    @Test
+    void shouldDecodeCompressedContentWithoutRenditions() throws IOException {
+        byte[] csv = "id,name\n1,alpha\n".repeat(500).getBytes(StandardCharsets.US_ASCII);
+        File file = store("data.csv", csv, BlobCodec.ZSTD);
+
+        processingService.process(file.getId());
+
+        verify(fileRepository).recordProcessing(eq(file.getId()), eq("text/csv"), eq(file.getContentHash()),
+                isNull(), isNull(), eq(ProcessingStatus.DONE), any());
+        assertThat(blobStore.hasRendition(file.getContentHash(), ImageRendition.THUMBNAIL)).isFalse();
+    }
+
+    @Test
+    void shouldMarkContentThatNoLongerMatchesItsHash() throws IOException {
+        File file = store("photo.png", png(64, 64), BlobCodec.NONE);
+        storageBackend.delete(blobStore.key(file.getContentHash()));
+        storageBackend.write(blobStore.key(file.getContentHash()), new ByteArrayInputStream(png(32, 32)),
+                Long.MAX_VALUE);
+
+        processingService.process(file.getId());
+
+        verify(fileRepository).recordProcessing(eq(file.getId()), eq("image/png"), argThat(checksum ->
+                !checksum.equals(file.getContentHash())), isNull(), isNull(), eq(ProcessingStatus.CORRUPT), any());
+        assertThat(blobStore.hasRendition(file.getContentHash(), ImageRendition.THUMBNAIL)).isFalse();
+    }
+
+    @Test
+    void shouldRetryUntilAttemptsAreExhausted() throws IOException {
+        File file = store("photo.png", png(64, 64), BlobCodec.NONE);
+        storageBackend.delete(blobStore.key(file.getContentHash()));
+
+        processingService.process(file.getId());
+        verify(fileRepository).recordProcessing(eq(file.getId()), isNull(), isNull(), isNull(), isNull(),
+                eq(ProcessingStatus.PENDING), any());
+        verify(fileChangeService, never()).record(any(), any(FileChange.class));
+
+        file.setProcessingAttempts(2);
+        processingService.process(file.getId());
+        verify(fileRepository).recordProcessing(eq(file.getId()), isNull(), isNull(), isNull(), isNull(),
+                eq(ProcessingStatus.FAILED), any());
+        assertThat(meterRegistry.get("file.processing").tag("outcome", "failed").timer().count()).isEqualTo(1);
+    }
+
+    @Test
+    void shouldSkipFilesThatAreNotPending() throws IOException {
+        File file = store("photo.png", png(64, 64), BlobCodec.NONE);
+        file.setProcessingStatus(ProcessingStatus.DONE);
+
+        processingService.process(file.getId());
+        processingService.process(404L);
+
+        verify(fileRepository, never()).recordProcessing(anyLong(), any(), any(), any(), any(), any(), any());
+    }
+
+    @Test
+    void shouldFitImageIntoSquareWithoutEnlarging() {
+        BufferedImage tall = FileProcessingService.scale(new BufferedImage(1000, 4000, BufferedImage.TYPE_INT_ARGB), 256);
+        assertThat(tall.getWidth()).isEqualTo(64);
+        assertThat(tall.getHeight()).isEqualTo(256);
+
+        BufferedImage small = FileProcessingService.scale(new BufferedImage(100, 50, BufferedImage.TYPE_INT_RGB), 256);
+        assertThat(small.getWidth()).isEqualTo(100);
+        assertThat(small.getHeight()).isEqualTo(50);
+    }
+
+    private File store(String filename, byte[] content, BlobCodec codec) throws IOException {
+        String hash = sha256(content);
+        try (InputStream encoded = codec.encode(new ByteArrayInputStream(content), 3)) {
+            storageBackend.write(blobStore.key(hash), encoded, Long.MAX_VALUE);
+        }
+        File file = new File();
+        file.setId(1L);
+        file.setFilename(filename);
+        file.setFilepath(blobStore.key(hash));
+        file.setContentHash(hash);
+        file.setSize((long) content.length);
+        file.setCodec(codec);
+        when(fileRepository.findById(1L)).thenReturn(Optional.of(file));
+        return file;
+    }
+
+    private BufferedImage readRendition(File file, ImageRendition rendition) throws IOException {
+        try (InputStream in = storageBackend.read(rendition.key(blobStore.key(file.getContentHash())))) {
+            return ImageIO.read(in);
+        }
+    }
+
+    private static byte[] png(int width, int height) throws IOException {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D graphics = image.createGraphics();
+        graphics.setColor(Color.BLUE);
+        graphics.fillOval(0, 0, width, height);
+        graphics.dispose();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", out);
+        return out.toByteArray();
+    }
+
+    private static String sha256(byte[] content) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(content));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
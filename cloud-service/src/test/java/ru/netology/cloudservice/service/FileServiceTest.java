@@ -1,25 +1,53 @@
 package ru.netology.cloudservice.service;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.*;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.mock.web.MockMultipartFile;
 import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.transaction.TestTransaction;
+import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.web.multipart.MultipartFile;
 import ru.netology.cloudservice.CloudServiceApplication;
 import ru.netology.cloudservice.PostgreSQLIntegrationTest;
+import ru.netology.cloudservice.config.FileStorageProperties;
+import ru.netology.cloudservice.dto.ChangePage;
+import ru.netology.cloudservice.dto.FileChangeResponse;
+import ru.netology.cloudservice.dto.FilePage;
 import ru.netology.cloudservice.dto.FileResponse;
+import ru.netology.cloudservice.dto.FileSortField;
+import ru.netology.cloudservice.dto.StorageUsage;
+import ru.netology.cloudservice.entity.Blob;
+import ru.netology.cloudservice.entity.ChangeType;
 import ru.netology.cloudservice.entity.File;
+import ru.netology.cloudservice.entity.ProcessingStatus;
 import ru.netology.cloudservice.entity.User;
+import ru.netology.cloudservice.exception.FileProcessingException;
+import ru.netology.cloudservice.exception.QuotaExceededException;
 import ru.netology.cloudservice.exception.StorageException;
+import ru.netology.cloudservice.metrics.FileMetrics;
+import ru.netology.cloudservice.repository.BlobRepository;
+import ru.netology.cloudservice.repository.FileChangeRepository;
 import ru.netology.cloudservice.repository.FileRepository;
 import ru.netology.cloudservice.repository.UserRepository;
-import ru.netology.cloudservice.util.JwtTokenUtil;
+import ru.netology.cloudservice.storage.BlobCodec;
+import ru.netology.cloudservice.storage.InMemoryStorageBackend;
+import ru.netology.cloudservice.storage.StorageBackend;
+import ru.netology.cloudservice.util.FileTransferUtil;
 import java.io.*;
 import java.nio.file.*;
+import java.time.Instant;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
 import static org.assertj.core.api.Assertions.*;
+import static org.mockito.AdditionalAnswers.delegatesTo;
+import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.Mockito.*;
 
 @ContextConfiguration(classes = CloudServiceApplication.class)
@@ -32,16 +60,31 @@ class FileServiceTest extends PostgreSQLIntegrationTest {
     @Autowired
     private FileRepository fileRepository;
 
-    @MockBean
-    private JwtTokenUtil jwtTokenUtil;
+    @Autowired
+    private BlobRepository blobRepository;
+
+    @Autowired
+    private FileChangeRepository fileChangeRepository;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Autowired
+    private TestEntityManager entityManager;
 
     @MockBean
     private PasswordEncoder passwordEncoder;
 
     private FileService fileService;
+    private QuotaService quotaService;
+    private FileChangeService fileChangeService;
+    private BlobStore blobStore;
+    private StorageBackend storageBackend;
+    private final List<Object> events = new ArrayList<>();
+    private SimpleMeterRegistry meterRegistry;
 
     private final String testEmail = "admin@admin.admin";
-    private final String testAuthToken = "Bearer valid-token";
+    private User user;
     private final String storagePath = "build/test-storage";
 
     @BeforeEach
@@ -61,15 +104,26 @@ class FileServiceTest extends PostgreSQLIntegrationTest {
             Files.createDirectories(rootLocation);
         }
 
-        User user = new User();
-        user.setEmail(testEmail);
-        user.setPassword("encoded-password");
-        user.setLogin("admin");
-        userRepository.save(user);
+        User admin = new User();
+        admin.setEmail(testEmail);
+        admin.setPassword("encoded-password");
+        admin.setLogin("admin");
+        user = userRepository.save(admin);
 
-        when(jwtTokenUtil.getEmailFromToken(anyString())).thenReturn(testEmail);
-
-        fileService = new FileService(fileRepository, userRepository, jwtTokenUtil);
+        FileStorageProperties properties = new FileStorageProperties();
+        properties.setStoragePath(storagePath);
+        FileTransferUtil fileTransferUtil = new FileTransferUtil(properties);
+        storageBackend = new InMemoryStorageBackend();
+        blobStore = new BlobStore(blobRepository, storageBackend, fileTransferUtil,
+                new CodecSelector(properties), properties, transactionManager);
+        meterRegistry = new SimpleMeterRegistry();
+        quotaService = new QuotaService(userRepository, fileRepository, properties, transactionManager);
+        fileChangeService = new FileChangeService(fileChangeRepository, userRepository, properties, events::add);
+        IngestBuffer ingestBuffer = new IngestBuffer(blobStore, quotaService, fileRepository, fileChangeService,
+                events::add, properties, transactionManager, meterRegistry);
+        fileService = new FileService(fileRepository, blobStore, fileTransferUtil, properties,
+                new FileMetrics(meterRegistry), quotaService, fileChangeService, ingestBuffer, events::add);
+        fileService.init();
     }
 
     @Test
@@ -81,12 +135,16 @@ class FileServiceTest extends PostgreSQLIntegrationTest {
                 "Hello World".getBytes()
         );
 
-        fileService.upload(file, testAuthToken);
-        List<FileResponse> files = fileService.listFiles(testAuthToken, 10);
+        fileService.upload(file, user);
+        List<FileResponse> files = fileService.listFiles(user, 10);
 
         assertThat(files).hasSize(1);
         assertThat(files.get(0).getFilename()).isEqualTo("test.txt");
-        assertThat(Paths.get(storagePath, "test.txt")).exists();
+
+        File stored = fileRepository.findByUserAndFilename(user, "test.txt").orElseThrow();
+        assertThat(storageBackend.exists(stored.getFilepath())).isTrue();
+        assertThat(meterRegistry.counter("file.bytes.in").count()).isEqualTo(11);
+        assertThat(meterRegistry.get("file.upload.stage").tag("stage", "store").timer().count()).isEqualTo(1);
     }
 
     @Test
@@ -97,18 +155,12 @@ class FileServiceTest extends PostgreSQLIntegrationTest {
                 "text/plain",
                 "Hello World".getBytes()
         );
-        fileService.upload(file, testAuthToken);
-
-        fileService.rename("oldname.txt", "newname.txt", testAuthToken);
-
-        Path oldPath = Paths.get(storagePath, "oldname.txt");
-        Path newPath = Paths.get(storagePath, "newname.txt");
+        fileService.upload(file, user);
 
-        assertThat(newPath).exists();
-        assertThat(oldPath).doesNotExist();
+        fileService.rename("oldname.txt", "newname.txt", user);
 
-        User user = userRepository.findByEmail(testEmail).orElseThrow();
-        assertThat(fileRepository.findByUserAndFilename(user, "newname.txt")).isPresent();
+        File renamed = fileRepository.findByUserAndFilename(user, "newname.txt").orElseThrow();
+        assertThat(storageBackend.exists(renamed.getFilepath())).isTrue();
         assertThat(fileRepository.findByUserAndFilename(user, "oldname.txt")).isEmpty();
     }
 
@@ -120,10 +172,9 @@ class FileServiceTest extends PostgreSQLIntegrationTest {
                 "text/plain",
                 "ToDelete".getBytes()
         );
-        fileService.upload(file, testAuthToken);
-        fileService.delete("delete.txt", testAuthToken);
+        fileService.upload(file, user);
+        fileService.delete("delete.txt", user);
         Path deletedPath = Paths.get(storagePath, "delete.txt");
-        User user = userRepository.findByEmail(testEmail).orElseThrow();
         File deletedEntity = fileRepository.findByUserAndFilename(user, "delete.txt").orElse(null);
         assertThat(deletedEntity).isNull();
         assertThat(Files.exists(deletedPath)).isFalse();
@@ -137,7 +188,7 @@ class FileServiceTest extends PostgreSQLIntegrationTest {
                 "text/plain",
                 "Dup1".getBytes()
         );
-        fileService.upload(file1, testAuthToken);
+        fileService.upload(file1, user);
 
         MultipartFile file2 = new MockMultipartFile(
                 "file",
@@ -146,9 +197,341 @@ class FileServiceTest extends PostgreSQLIntegrationTest {
                 "Dup2".getBytes()
         );
 
-        assertThatThrownBy(() -> fileService.upload(file2, testAuthToken))
+        assertThatThrownBy(() -> fileService.upload(file2, user))
+                .isInstanceOf(StorageException.class)
+                .hasMessageContaining("already exists");
+    }
+
+    @Test
+    void shouldNotRenameOntoExistingFilename() throws IOException {
+        fileService.upload(new MockMultipartFile("file", "a.txt", "text/plain", "A".getBytes()), user);
+        fileService.upload(new MockMultipartFile("file", "b.txt", "text/plain", "B".getBytes()), user);
+
+        assertThatThrownBy(() -> fileService.rename("a.txt", "b.txt", user))
+                .isInstanceOf(StorageException.class)
+                .hasMessageContaining("already exists");
+    }
+
+    @Test
+    void shouldNotRenameLegacyFileIntoStorageDirectories() throws IOException {
+        legacyFile("legacy.txt", "flat");
+
+        for (String target : List.of("blobs/ab/cd/" + "ab".repeat(32), ".uploads/other.part", ".spool/x", ".")) {
+            assertThatThrownBy(() -> fileService.rename("legacy.txt", target, user))
+                    .isInstanceOf(StorageException.class)
+                    .hasMessageContaining("Access denied");
+        }
+        assertThatThrownBy(() -> fileService.upload("blobs/x", "x".getBytes(), user))
+                .isInstanceOf(StorageException.class);
+    }
+
+    @Test
+    void shouldNotReplaceExistingFlatFileOnLegacyRename() throws IOException {
+        Path legacy = legacyFile("legacy.txt", "mine");
+        Path taken = Files.write(Paths.get(storagePath, "taken.txt").toAbsolutePath(), "theirs".getBytes());
+
+        assertThatThrownBy(() -> fileService.rename("legacy.txt", "taken.txt", user))
+                .isInstanceOf(StorageException.class);
+
+        assertThat(Files.readString(taken)).isEqualTo("theirs");
+        assertThat(Files.readString(legacy)).isEqualTo("mine");
+    }
+
+    @Test
+    void shouldKeepFlatFileWhenDeletionRollsBack() throws IOException {
+        Path legacy = legacyFile("legacy.txt", "flat");
+
+        fileService.delete("legacy.txt", user);
+        assertThat(legacy).exists();
+
+        TestTransaction.end();
+        assertThat(legacy).exists();
+    }
+
+    @Test
+    void shouldDeleteFilesInBatch() throws IOException {
+        fileService.upload("a.txt", "Same".getBytes(), user);
+        fileService.upload("b.txt", "Same".getBytes(), user);
+        fileService.upload("c.txt", "Other".getBytes(), user);
+        String hash = fileRepository.findByUserAndFilename(user, "a.txt").orElseThrow().getContentHash();
+
+        assertThatThrownBy(() -> fileService.deleteAll(List.of("a.txt", "missing.txt"), user))
+                .isInstanceOf(StorageException.class)
+                .hasMessageContaining("missing.txt");
+        assertThat(fileService.listFiles(user, 10)).hasSize(3);
+
+        fileService.deleteAll(List.of("a.txt", "b.txt", "a.txt"), user);
+        entityManager.clear();
+
+        assertThat(fileService.listFiles(user, 10)).extracting(FileResponse::getFilename).containsExactly("c.txt");
+        assertThat(blobRepository.findById(hash).orElseThrow().getRefCount()).isZero();
+    }
+
+    @Test
+    void shouldRenameFilesInBatch() throws IOException {
+        fileService.upload("a.txt", "A".getBytes(), user);
+        fileService.upload("b.txt", "B".getBytes(), user);
+        fileService.upload("c.txt", "C".getBytes(), user);
+
+        assertThatThrownBy(() -> fileService.renameAll(Map.of("a.txt", "c.txt"), user))
                 .isInstanceOf(StorageException.class)
                 .hasMessageContaining("already exists");
+        assertThatThrownBy(() -> fileService.renameAll(Map.of("a.txt", "b.txt", "b.txt", "d.txt"), user))
+                .isInstanceOf(StorageException.class)
+                .hasMessageContaining("same batch");
+
+        fileService.renameAll(Map.of("a.txt", "x.txt", "b.txt", "y.txt"), user);
+        entityManager.clear();
+
+        assertThat(fileService.listFiles(user, 10)).extracting(FileResponse::getFilename)
+                .containsExactly("c.txt", "x.txt", "y.txt");
+        try (InputStream in = fileService.download("y.txt", user).open(0, 1)) {
+            assertThat(in.readAllBytes()).isEqualTo("B".getBytes());
+        }
+    }
+
+    @Test
+    void shouldResolveArchiveFilesInRequestOrder() throws IOException {
+        fileService.upload("a.txt", "A".getBytes(), user);
+        fileService.upload("b.txt", "B".getBytes(), user);
+
+        assertThat(fileService.downloadAll(List.of("b.txt", "a.txt"), user))
+                .extracting(FileContent::getFilename)
+                .containsExactly("b.txt", "a.txt");
+        assertThatThrownBy(() -> fileService.downloadAll(List.of(), user))
+                .isInstanceOf(FileProcessingException.class);
+    }
+
+    @Test
+    void shouldStoreIdenticalContentOnce() throws IOException {
+        fileService.upload(new MockMultipartFile("file", "first.txt", "text/plain", "Same".getBytes()), user);
+        fileService.upload(new MockMultipartFile("file", "second.txt", "text/plain", "Same".getBytes()), user);
+
+        File first = fileRepository.findByUserAndFilename(user, "first.txt").orElseThrow();
+        File second = fileRepository.findByUserAndFilename(user, "second.txt").orElseThrow();
+
+        assertThat(first.getContentHash()).isEqualTo(second.getContentHash());
+        assertThat(first.getFilepath()).isEqualTo(second.getFilepath());
+        entityManager.clear();
+        assertThat(blobRepository.findById(first.getContentHash()).orElseThrow().getRefCount()).isEqualTo(2);
+    }
+
+    @Test
+    void shouldStoreContentAgainWhenBlobIsCollectedDuringUpload() throws IOException {
+        byte[] content = "Collected".getBytes();
+        String hash = blobStore.write(new ByteArrayInputStream(content), Long.MAX_VALUE).getHash();
+        blobRepository.updateRefCount(hash, 0);
+        // The collector deletes the row and the bytes right after the upload saw the row.
+        BlobRepository racing = mock(BlobRepository.class, delegatesTo(blobRepository));
+        AtomicBoolean collected = new AtomicBoolean();
+        doAnswer(invocation -> {
+            if (collected.compareAndSet(false, true)) {
+                blobRepository.deleteById(hash);
+                blobRepository.flush();
+                storageBackend.delete(blobStore.key(hash));
+            }
+            return blobRepository.incrementRefCount(invocation.getArgument(0));
+        }).when(racing).incrementRefCount(anyString());
+        BlobStore store = new BlobStore(racing, storageBackend, new FileTransferUtil(new FileStorageProperties()),
+                new CodecSelector(new FileStorageProperties()), new FileStorageProperties(), transactionManager);
+
+        Blob blob = store.write(new ByteArrayInputStream(content), Long.MAX_VALUE);
+
+        assertThat(collected).isTrue();
+        assertThat(blob.getRefCount()).isEqualTo(1);
+        assertThat(storageBackend.exists(blobStore.key(hash))).isTrue();
+    }
+
+    @Test
+    void shouldPageThroughFilesWithCursor() throws IOException {
+        for (String name : List.of("c.txt", "a.txt", "e.txt", "b.txt", "d.txt")) {
+            fileService.upload(name, name.getBytes(), user);
+        }
+
+        FilePage first = fileService.listFiles(user, 2, null, FileSortField.NAME, false, null);
+        FilePage second = fileService.listFiles(user, 2, first.getNextCursor(), FileSortField.NAME, false, null);
+        FilePage third = fileService.listFiles(user, 2, second.getNextCursor(), FileSortField.NAME, false, null);
+
+        assertThat(first.getFiles()).extracting(FileResponse::getFilename).containsExactly("a.txt", "b.txt");
+        assertThat(second.getFiles()).extracting(FileResponse::getFilename).containsExactly("c.txt", "d.txt");
+        assertThat(third.getFiles()).extracting(FileResponse::getFilename).containsExactly("e.txt");
+        assertThat(third.getNextCursor()).isNull();
+    }
+
+    @Test
+    void shouldSortBySizeAndFilterByPrefix() throws IOException {
+        fileService.upload("report-1.txt", "12345".getBytes(), user);
+        fileService.upload("report-2.txt", "1".getBytes(), user);
+        fileService.upload("report_3.txt", "123".getBytes(), user);
+        fileService.upload("notes.txt", "1234567".getBytes(), user);
+
+        FilePage page = fileService.listFiles(user, 10, null, FileSortField.SIZE, true, "report-");
+
+        assertThat(page.getFiles()).extracting(FileResponse::getFilename)
+                .containsExactly("report-1.txt", "report-2.txt");
+    }
+
+    @Test
+    void shouldCompressTextAndDecodeOnDownload() throws IOException {
+        StringBuilder csv = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            csv.append(i).append(",user").append(i % 10).append("@test,100.00\n");
+        }
+        byte[] content = csv.toString().getBytes();
+        fileService.upload("data.csv", content, user);
+
+        File stored = fileRepository.findByUserAndFilename(user, "data.csv").orElseThrow();
+        assertThat(stored.getCodec()).isEqualTo(BlobCodec.ZSTD);
+        assertThat(stored.getSize()).isEqualTo(content.length);
+        entityManager.clear();
+        assertThat(blobRepository.findById(stored.getContentHash()).orElseThrow().getStoredSize())
+                .isLessThan(content.length / 3L);
+
+        FileContent download = fileService.download("data.csv", user);
+        assertThat(download.getSize()).isEqualTo(content.length);
+        try (InputStream in = download.open(0, download.getSize())) {
+            assertThat(in.readAllBytes()).isEqualTo(content);
+        }
+        assertThat(fileService.listFiles(user, 10).get(0).getSize()).isEqualTo(content.length);
+    }
+
+    @Test
+    void shouldPublishStoredEventAndListProcessingResults() throws IOException {
+        fileService.upload("photo.png", "not really a png".getBytes(), user);
+        File stored = fileRepository.findByUserAndFilename(user, "photo.png").orElseThrow();
+
+        assertThat(events).filteredOn(FileStoredEvent.class::isInstance)
+                .containsExactly(new FileStoredEvent(stored.getId()));
+        assertThat(stored.getProcessingStatus()).isEqualTo(ProcessingStatus.PENDING);
+        assertThatThrownBy(() -> fileService.preview("photo.png", ImageRendition.THUMBNAIL, user))
+                .isInstanceOf(StorageException.class)
+                .hasMessageContaining("No preview available");
+
+        fileRepository.recordProcessing(stored.getId(), "image/png", stored.getContentHash(), 640, 480,
+                ProcessingStatus.DONE, Instant.now());
+        blobStore.writeRendition(stored.getContentHash(), ImageRendition.THUMBNAIL, new byte[]{1, 2, 3});
+        entityManager.clear();
+
+        FileResponse listed = fileService.listFiles(user, 10).get(0);
+        assertThat(listed.getMimeType()).isEqualTo("image/png");
+        assertThat(listed.getChecksum()).isEqualTo(stored.getContentHash());
+        assertThat(listed.getWidth()).isEqualTo(640);
+        FileContent thumbnail = fileService.preview("photo.png", ImageRendition.THUMBNAIL, user);
+        assertThat(thumbnail.getSize()).isEqualTo(3);
+        assertThat(thumbnail.getFilename()).isEqualTo("photo.png.thumbnail.jpg");
+    }
+
+    @Test
+    void shouldTrackUsageAndEnforceQuota() throws IOException {
+        user.setQuotaBytes(10L);
+        userRepository.saveAndFlush(user);
+
+        fileService.upload("a.txt", "Same".getBytes(), user);
+        fileService.upload("b.txt", "Same".getBytes(), user);
+        assertThat(quotaService.usage(user)).isEqualTo(new StorageUsage(8, 2, 10L));
+
+        assertThatThrownBy(() -> fileService.upload("c.txt", "Other".getBytes(), user))
+                .isInstanceOf(QuotaExceededException.class);
+        assertThatThrownBy(() -> quotaService.check(user, 3))
+                .isInstanceOf(QuotaExceededException.class);
+        assertThat(fileRepository.findByUserAndFilename(user, "c.txt")).isEmpty();
+
+        fileService.delete("a.txt", user);
+        fileService.upload("c.txt", "Other".getBytes(), user);
+        assertThat(quotaService.usage(user)).isEqualTo(new StorageUsage(9, 2, 10L));
+
+        fileService.deleteAll(List.of("b.txt", "c.txt"), user);
+        assertThat(quotaService.usage(user)).isEqualTo(new StorageUsage(0, 0, 10L));
+    }
+
+    @Test
+    void shouldReconcileDriftedUsage() throws IOException {
+        fileService.upload("a.txt", "Hello".getBytes(), user);
+        userRepository.setUsage(user.getId(), 1000, 7);
+
+        quotaService.reconcile(user.getId());
+
+        StorageUsage usage = quotaService.usage(user);
+        assertThat(usage.getBytesUsed()).isEqualTo(5);
+        assertThat(usage.getFileCount()).isEqualTo(1);
+        assertThat(usage.getQuotaBytes()).isEqualTo(new FileStorageProperties().getQuota().getDefaultLimit().toBytes());
+    }
+
+    @Test
+    void shouldChangeListingVersionOnEveryChange() throws IOException {
+        long initial = fileService.listingVersion(user);
+
+        fileService.upload("a.txt", "A".getBytes(), user);
+        long uploaded = fileService.listingVersion(user);
+        fileService.listFiles(user, 10);
+        assertThat(fileService.listingVersion(user)).isEqualTo(uploaded).isGreaterThan(initial);
+
+        fileService.rename("a.txt", "b.txt", user);
+        long renamed = fileService.listingVersion(user);
+        fileService.renameAll(Map.of("b.txt", "c.txt"), user);
+        long batchRenamed = fileService.listingVersion(user);
+        fileService.delete("c.txt", user);
+
+        assertThat(List.of(uploaded, renamed, batchRenamed, fileService.listingVersion(user))).isSorted()
+                .doesNotHaveDuplicates();
+    }
+
+    @Test
+    void shouldJournalChangesInOrder() throws IOException {
+        fileService.upload("a.txt", "A".getBytes(), user);
+        fileService.upload("b.txt", "B".getBytes(), user);
+        fileService.rename("a.txt", "c.txt", user);
+        fileService.deleteAll(List.of("b.txt", "c.txt"), user);
+
+        ChangePage page = fileChangeService.changes(user, 0, 3);
+        assertThat(page.getChanges()).extracting(FileChangeResponse::getSeq).containsExactly(1L, 2L, 3L);
+        assertThat(page.getChanges()).extracting(FileChangeResponse::getType)
+                .containsExactly(ChangeType.CREATED, ChangeType.CREATED, ChangeType.RENAMED);
+        FileChangeResponse rename = page.getChanges().get(2);
+        assertThat(rename.getPreviousFilename()).isEqualTo("a.txt");
+        assertThat(rename.getFilename()).isEqualTo("c.txt");
+        assertThat(rename.getSize()).isEqualTo(1);
+        assertThat(page.isHasMore()).isTrue();
+
+        page = fileChangeService.changes(user, page.getCursor(), 3);
+        assertThat(page.getChanges()).extracting(FileChangeResponse::getFilename).containsExactly("b.txt", "c.txt");
+        assertThat(page.getChanges()).allMatch(change -> change.getType() == ChangeType.DELETED
+                && change.getSize() == null);
+        assertThat(page.getCursor()).isEqualTo(5).isEqualTo(fileService.listingVersion(user));
+        assertThat(page.isHasMore()).isFalse();
+        assertThat(events).contains(new FilesChangedEvent(user.getId(), 5));
+
+        assertThat(fileChangeService.changes(user, 5, 3).getChanges()).isEmpty();
+        assertThat(fileChangeService.changes(user, 5, 3).isReset()).isFalse();
+    }
+
+    @Test
+    void shouldAskForResyncWhenJournalDoesNotReachCursor() throws IOException {
+        fileService.upload("a.txt", "A".getBytes(), user);
+        fileService.upload("b.txt", "B".getBytes(), user);
+
+        assertThat(fileChangeService.changes(user, 7, 10).isReset()).isTrue();
+
+        fileChangeRepository.deleteAll(fileChangeRepository.findAfter(user.getId(), 0, PageRequest.of(0, 1)));
+        ChangePage page = fileChangeService.changes(user, 0, 10);
+        assertThat(page.isReset()).isTrue();
+        assertThat(page.getChanges()).isEmpty();
+        assertThat(page.getCursor()).isEqualTo(2);
+        assertThat(fileChangeService.changes(user, 1, 10).getChanges()).hasSize(1);
+    }
+
+    /**
+     * A file stored flat under the storage root, as before the blob store existed.
+     */
+    private Path legacyFile(String filename, String content) throws IOException {
+        Path path = Files.write(Paths.get(storagePath, filename).toAbsolutePath().normalize(), content.getBytes());
+        File file = new File();
+        file.setFilename(filename);
+        file.setFilepath(path.toString());
+        file.setSize((long) content.length());
+        file.setUser(user);
+        fileRepository.saveAndFlush(file);
+        return path;
     }
 
     @AfterEach
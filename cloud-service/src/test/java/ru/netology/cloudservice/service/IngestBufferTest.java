@@ -0,0 +1,204 @@
+package ru.netology.cloudservice.service;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.netology.cloudservice.PostgreSQLIntegrationTest;
+import ru.netology.cloudservice.config.FileStorageProperties;
+import ru.netology.cloudservice.dto.FileChangeResponse;
+import ru.netology.cloudservice.entity.User;
+import ru.netology.cloudservice.exception.StorageException;
+import ru.netology.cloudservice.metrics.FileMetrics;
+import ru.netology.cloudservice.repository.BlobRepository;
+import ru.netology.cloudservice.repository.FileChangeRepository;
+import ru.netology.cloudservice.storage.LocalFileSystemStorageBackend;
+import ru.netology.cloudservice.util.FileTransferUtil;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
+import static org.assertj.core.api.Assertions.*;
+
+/**
+ * Runs outside a test transaction: the writer saves rows in transactions of its own.
+ */
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class IngestBufferTest extends PostgreSQLIntegrationTest {
+
+    private static final int UPLOADS = 20;
+
+    @Autowired
+    private BlobRepository blobRepository;
+
+    @Autowired
+    private FileChangeRepository fileChangeRepository;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @TempDir
+    Path storage;
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final List<Object> events = new CopyOnWriteArrayList<>();
+    private volatile Error writerError;
+    private IngestBuffer ingestBuffer;
+    private FileService fileService;
+    private FileChangeService fileChangeService;
+    private QuotaService quotaService;
+    private User user;
+
+    @BeforeEach
+    void startBuffer() throws IOException {
+        User owner = new User();
+        owner.setEmail("ingest@test");
+        owner.setLogin("ingest");
+        owner.setPassword("encoded-password");
+        user = userRepository.save(owner);
+
+        FileStorageProperties properties = new FileStorageProperties();
+        properties.setStoragePath(storage.toString());
+        properties.getIngest().setEnabled(true);
+        properties.getIngest().setMaxDelay(Duration.ofMillis(500));
+        FileTransferUtil fileTransferUtil = new FileTransferUtil(properties);
+        BlobStore blobStore = new BlobStore(blobRepository,
+                new LocalFileSystemStorageBackend(storage.resolve("blobs"), fileTransferUtil), fileTransferUtil,
+                new CodecSelector(properties), properties, transactionManager);
+        quotaService = new QuotaService(userRepository, fileRepository, properties, transactionManager);
+        fileChangeService = new FileChangeService(fileChangeRepository, userRepository, properties, events::add);
+        ingestBuffer = new IngestBuffer(blobStore, quotaService, fileRepository, fileChangeService, event -> {
+            if (writerError != null) {
+                throw writerError;
+            }
+            events.add(event);
+        }, properties, transactionManager, meterRegistry);
+        ingestBuffer.start();
+        fileService = new FileService(fileRepository, blobStore, fileTransferUtil, properties,
+                new FileMetrics(meterRegistry), quotaService, fileChangeService, ingestBuffer, events::add);
+        fileService.init();
+    }
+
+    @AfterEach
+    void stopBuffer() throws InterruptedException {
+        ingestBuffer.stop();
+        new TransactionTemplate(transactionManager).executeWithoutResult(status -> {
+            jdbcTemplate.update("delete from file_changes");
+            jdbcTemplate.update("delete from files");
+            jdbcTemplate.update("delete from blobs");
+        });
+    }
+
+    @Test
+    void shouldSaveConcurrentUploadsInBatches() throws Exception {
+        List<Future<?>> uploads = uploadConcurrently(names("file-", UPLOADS));
+        for (Future<?> upload : uploads) {
+            upload.get();
+        }
+
+        assertThat(fileService.listFiles(user, 100)).hasSize(UPLOADS);
+        assertThat(fileChangeService.changes(user, 0, 100).getChanges())
+                .extracting(FileChangeResponse::getSeq)
+                .containsExactlyElementsOf(LongStream.rangeClosed(1, UPLOADS).boxed().collect(Collectors.toList()));
+        assertThat(quotaService.usage(user).getFileCount()).isEqualTo(UPLOADS);
+        assertThat(events).filteredOn(FileStoredEvent.class::isInstance).hasSize(UPLOADS);
+        assertThat(meterRegistry.get("file.ingest.batch").summary().max()).isGreaterThan(1);
+        assertThat(stagedObjects()).isEmpty();
+    }
+
+    @Test
+    void shouldFailOnlyTheOffendingUploadsOfABatch() throws Exception {
+        fileService.upload("taken.txt", "first".getBytes(StandardCharsets.UTF_8), user);
+
+        List<String> names = new ArrayList<>(names("new-", 5));
+        names.add("taken.txt");
+        List<Future<?>> uploads = uploadConcurrently(names);
+
+        for (int i = 0; i < names.size() - 1; i++) {
+            uploads.get(i).get();
+        }
+        assertThatThrownBy(() -> uploads.get(names.size() - 1).get())
+                .hasCauseInstanceOf(StorageException.class)
+                .hasMessageContaining("already exists");
+        assertThat(fileService.listFiles(user, 100)).hasSize(6);
+        assertThat(fileService.listingVersion(user)).isEqualTo(6);
+        assertThat(stagedObjects()).isEmpty();
+    }
+
+    @Test
+    void shouldFailPendingUploadsAndSaveDirectlyWhenWriterDies() throws Exception {
+        writerError = new Error("Writer crashed");
+
+        assertThatThrownBy(() -> fileService.upload("lost.txt", "lost".getBytes(StandardCharsets.UTF_8), user))
+                .isInstanceOf(StorageException.class)
+                .hasMessageContaining("not running");
+        assertThat(ingestBuffer.isEnabled()).isFalse();
+
+        writerError = null;
+        // The direct path needs the transaction that upload() gets from its proxy.
+        new TransactionTemplate(transactionManager).executeWithoutResult(status -> {
+            try {
+                fileService.upload("saved.txt", "saved".getBytes(StandardCharsets.UTF_8), user);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        assertThat(fileService.listFiles(user, 100)).hasSize(1);
+        assertThat(stagedObjects()).isEmpty();
+    }
+
+    private List<Future<?>> uploadConcurrently(List<String> names) {
+        ExecutorService clients = Executors.newFixedThreadPool(names.size());
+        try {
+            List<Future<?>> uploads = new ArrayList<>();
+            for (String name : names) {
+                uploads.add(clients.submit(() -> {
+                    fileService.upload(name, ("content of " + name).getBytes(StandardCharsets.UTF_8), user);
+                    return null;
+                }));
+            }
+            return uploads;
+        } finally {
+            clients.shutdown();
+        }
+    }
+
+    private List<Path> stagedObjects() throws IOException {
+        Path staging = storage.resolve("blobs").resolve("tmp");
+        if (!Files.exists(staging)) {
+            return List.of();
+        }
+        try (Stream<Path> files = Files.list(staging)) {
+            return files.collect(Collectors.toList());
+        }
+    }
+
+    private static List<String> names(String prefix, int count) {
+        List<String> names = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            names.add(prefix + i + ".txt");
+        }
+        return names;
+    }
+}
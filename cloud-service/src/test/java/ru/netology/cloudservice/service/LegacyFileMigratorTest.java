@@ -0,0 +1,118 @@
+package ru.netology.cloudservice.service;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.netology.cloudservice.PostgreSQLIntegrationTest;
+import ru.netology.cloudservice.config.FileStorageProperties;
+import ru.netology.cloudservice.entity.File;
+import ru.netology.cloudservice.entity.User;
+import ru.netology.cloudservice.repository.BlobRepository;
+import ru.netology.cloudservice.storage.LocalFileSystemStorageBackend;
+import ru.netology.cloudservice.util.FileTransferUtil;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Runs outside a test transaction: each file is migrated in a transaction of its own.
+ */
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class LegacyFileMigratorTest extends PostgreSQLIntegrationTest {
+
+    private static final byte[] CONTENT = "stored before the blob store".getBytes(StandardCharsets.UTF_8);
+
+    @Autowired
+    private BlobRepository blobRepository;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @TempDir
+    Path storage;
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private BlobStore blobStore;
+    private LegacyFileMigrator migrator;
+    private User user;
+
+    @BeforeEach
+    void createMigrator() throws IOException {
+        User owner = new User();
+        owner.setEmail("legacy@test");
+        owner.setLogin("legacy");
+        owner.setPassword("encoded-password");
+        user = userRepository.save(owner);
+
+        FileStorageProperties properties = new FileStorageProperties();
+        properties.setStoragePath(storage.toString());
+        properties.getCompression().setEnabled(false);
+        FileTransferUtil fileTransferUtil = new FileTransferUtil(properties);
+        blobStore = new BlobStore(blobRepository,
+                new LocalFileSystemStorageBackend(storage.resolve("blobs"), fileTransferUtil), fileTransferUtil,
+                new CodecSelector(properties), properties, transactionManager);
+        migrator = new LegacyFileMigrator(fileRepository, blobStore, properties, transactionManager, meterRegistry);
+    }
+
+    @AfterEach
+    void cleanUp() {
+        new TransactionTemplate(transactionManager).executeWithoutResult(status -> {
+            jdbcTemplate.update("delete from files");
+            jdbcTemplate.update("delete from blobs");
+        });
+    }
+
+    @Test
+    void shouldMoveFlatFilesIntoTheBlobStore() throws IOException {
+        Path flat = Files.write(storage.resolve("report.txt"), CONTENT);
+        File legacy = fileRepository.save(legacyFile("report.txt", flat));
+
+        migrator.migrateNext();
+
+        File migrated = fileRepository.findById(legacy.getId()).orElseThrow();
+        assertThat(migrated.getContentHash()).isNotNull();
+        assertThat(migrated.getFilepath()).isEqualTo(blobStore.key(migrated.getContentHash()));
+        assertThat(migrated.getFilename()).isEqualTo("report.txt");
+        assertThat(blobRepository.findById(migrated.getContentHash())).get()
+                .satisfies(blob -> assertThat(blob.getRefCount()).isEqualTo(1));
+        try (InputStream in = blobStore.getStorageBackend().read(migrated.getFilepath())) {
+            assertThat(in.readAllBytes()).isEqualTo(CONTENT);
+        }
+        assertThat(flat).doesNotExist();
+        assertThat(migrator.migrate(legacy.getId())).isFalse();
+    }
+
+    @Test
+    void shouldSkipFilesWhoseContentIsMissing() {
+        File legacy = fileRepository.save(legacyFile("lost.txt", storage.resolve("lost.txt")));
+
+        assertThat(migrator.migrate(legacy.getId())).isFalse();
+
+        assertThat(fileRepository.findById(legacy.getId()).orElseThrow().getContentHash()).isNull();
+        assertThat(meterRegistry.get("file.migration.files").tag("outcome", "missing").counter().count())
+                .isEqualTo(1);
+    }
+
+    private File legacyFile(String filename, Path path) {
+        File file = new File();
+        file.setFilename(filename);
+        file.setFilepath(path.toString());
+        file.setSize((long) CONTENT.length);
+        file.setUser(user);
+        return file;
+    }
+}
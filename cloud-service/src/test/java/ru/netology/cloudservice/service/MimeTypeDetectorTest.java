@@ -0,0 +1,54 @@
+package ru.netology.cloudservice.service;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class MimeTypeDetectorTest {
+
+    private final MimeTypeDetector detector = new MimeTypeDetector();
+
+    @Test
+    void shouldPreferContentOverName() {
+        byte[] png = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n', 0, 0, 0, 13};
+        assertThat(detect(png, "report.pdf")).isEqualTo("image/png");
+        assertThat(detect(ascii("%PDF-1.7\n%binary"), "scan.jpg")).isEqualTo("application/pdf");
+        assertThat(detect(ascii("RIFF\0\0\0\0WEBPVP8 "), "image")).isEqualTo("image/webp");
+        assertThat(detect(ascii("\0\0\0\u0018ftypisom"), "clip")).isEqualTo("video/mp4");
+    }
+
+    @Test
+    void shouldUseNameForZipBasedFormats() {
+        byte[] zip = {'P', 'K', 3, 4, 20, 0, 6, 0};
+        assertThat(detect(zip, "table.xlsx"))
+                .isEqualTo("application/vnd.openxmlformats-officedocument.spreadsheetml.sheet");
+        assertThat(detect(zip, "archive.zip")).isEqualTo("application/zip");
+        assertThat(detect(zip, "photo.jpg")).isEqualTo("application/zip");
+    }
+
+    @Test
+    void shouldDetectText() {
+        byte[] csv = "id,name\n1,Иван\n".getBytes(StandardCharsets.UTF_8);
+        assertThat(detect(csv, "data.csv")).isEqualTo("text/csv");
+        assertThat(detect(ascii("{\"a\": 1}"), "data.json")).isEqualTo("application/json");
+        assertThat(detect(ascii("BMW and MZ are plain words"), "notes.exe")).isEqualTo("text/plain");
+        assertThat(detect(csv, "photo.png")).isEqualTo("text/plain");
+    }
+
+    @Test
+    void shouldFallBackForUnknownBinary() {
+        byte[] binary = {0, 1, 2, 3, (byte) 0xfe, 0, 7};
+        assertThat(detect(binary, "photo.png")).isEqualTo("image/png");
+        assertThat(detect(binary, "notes.txt")).isEqualTo("application/octet-stream");
+        assertThat(detect(new byte[]{'M', 'Z', (byte) 0x90, 0, 3, 0}, "setup"))
+                .isEqualTo("application/vnd.microsoft.portable-executable");
+    }
+
+    private String detect(byte[] sample, String filename) {
+        return detector.detect(sample, sample.length, filename);
+    }
+
+    private static byte[] ascii(String value) {
+        return value.getBytes(StandardCharsets.ISO_8859_1);
+    }
+}
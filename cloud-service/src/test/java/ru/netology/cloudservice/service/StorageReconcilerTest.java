@@ -0,0 +1,152 @@
+package ru.netology.cloudservice.service;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.netology.cloudservice.PostgreSQLIntegrationTest;
+import ru.netology.cloudservice.config.FileStorageProperties;
+import ru.netology.cloudservice.entity.Blob;
+import ru.netology.cloudservice.entity.File;
+import ru.netology.cloudservice.entity.ProcessingStatus;
+import ru.netology.cloudservice.entity.User;
+import ru.netology.cloudservice.repository.BlobRepository;
+import ru.netology.cloudservice.storage.InMemoryStorageBackend;
+import ru.netology.cloudservice.util.FileTransferUtil;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Runs outside a test transaction: the reconciler checks and repairs in transactions of its own.
+ */
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class StorageReconcilerTest extends PostgreSQLIntegrationTest {
+
+    private static final String ORPHAN = "ab".repeat(32);
+
+    @Autowired
+    private BlobRepository blobRepository;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    private final InMemoryStorageBackend storageBackend = new InMemoryStorageBackend();
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final FileStorageProperties properties = new FileStorageProperties();
+    private BlobStore blobStore;
+    private StorageReconciler reconciler;
+    private User user;
+
+    @BeforeEach
+    void createReconciler() {
+        User owner = new User();
+        owner.setEmail("reconcile@test");
+        owner.setLogin("reconcile");
+        owner.setPassword("encoded-password");
+        user = userRepository.save(owner);
+
+        properties.getReconcile().setGracePeriod(Duration.ZERO);
+        blobStore = new BlobStore(blobRepository, storageBackend, new FileTransferUtil(properties),
+                new CodecSelector(properties), properties, transactionManager);
+        reconciler = new StorageReconciler(blobRepository, fileRepository, blobStore, properties, transactionManager,
+                meterRegistry);
+    }
+
+    @AfterEach
+    void cleanUp() {
+        new TransactionTemplate(transactionManager).executeWithoutResult(status -> {
+            jdbcTemplate.update("delete from files");
+            jdbcTemplate.update("delete from blobs");
+        });
+    }
+
+    @Test
+    void shouldRepairDrift() throws IOException {
+        storageBackend.write(blobStore.key(ORPHAN), new ByteArrayInputStream(new byte[16]), Long.MAX_VALUE);
+        String overcounted = store("overcounted");
+        update("update blobs set ref_count = 5 where hash = ?", overcounted);
+        String lost = store("lost");
+        storageBackend.delete(blobStore.key(lost));
+        String unregistered = store("unregistered");
+        update("delete from blobs where hash = ?", unregistered);
+        String healthy = store("healthy");
+
+        assertThat(reconcile(ORPHAN)).isEqualTo(1);
+        assertThat(reconcile(overcounted)).isEqualTo(1);
+        assertThat(reconcile(lost)).isEqualTo(1);
+        assertThat(reconcile(unregistered)).isEqualTo(1);
+        assertThat(reconcile(healthy)).isZero();
+
+        assertThat(storageBackend.exists(blobStore.key(ORPHAN))).isFalse();
+        assertThat(storageBackend.exists(StorageReconciler.QUARANTINE_PREFIX + blobStore.key(ORPHAN))).isTrue();
+        assertThat(blobRepository.findById(ORPHAN)).isEmpty();
+        assertThat(blobRepository.findById(overcounted)).get().extracting(Blob::getRefCount).isEqualTo(1L);
+        assertThat(fileRepository.findFirstByContentHash(lost)).get()
+                .extracting(File::getProcessingStatus).isEqualTo(ProcessingStatus.CORRUPT);
+        assertThat(blobRepository.findById(unregistered)).get().extracting(Blob::getRefCount).isEqualTo(1L);
+        assertThat(meterRegistry.get("file.reconcile.drift").counters()).hasSize(4);
+
+        // Repaired drift is not reported again on the next pass.
+        assertThat(reconcile(overcounted) + reconcile(lost) + reconcile(unregistered)).isZero();
+    }
+
+    @Test
+    void shouldOnlyReportWhenRepairIsOff() throws IOException {
+        properties.getReconcile().setRepair(false);
+        String overcounted = store("overcounted");
+        update("update blobs set ref_count = 5 where hash = ?", overcounted);
+        storageBackend.write(blobStore.key(ORPHAN), new ByteArrayInputStream(new byte[16]), Long.MAX_VALUE);
+
+        assertThat(reconcile(overcounted)).isEqualTo(1);
+        assertThat(reconcile(ORPHAN)).isEqualTo(1);
+
+        assertThat(blobRepository.findById(overcounted)).get().extracting(Blob::getRefCount).isEqualTo(5L);
+        assertThat(storageBackend.exists(blobStore.key(ORPHAN))).isTrue();
+        assertThat(blobRepository.findById(ORPHAN)).isEmpty();
+        assertThat(meterRegistry.get("file.reconcile.drift").tag("kind", "ref-count").counter().count())
+                .isEqualTo(1);
+    }
+
+    @Test
+    void shouldLeaveRecentContentAlone() throws IOException {
+        properties.getReconcile().setGracePeriod(Duration.ofHours(1));
+        storageBackend.write(blobStore.key(ORPHAN), new ByteArrayInputStream(new byte[16]), Long.MAX_VALUE);
+
+        assertThat(reconcile(ORPHAN)).isZero();
+        assertThat(storageBackend.exists(blobStore.key(ORPHAN))).isTrue();
+    }
+
+    private void update(String sql, Object... arguments) {
+        new TransactionTemplate(transactionManager).executeWithoutResult(status -> jdbcTemplate.update(sql, arguments));
+    }
+
+    private int reconcile(String hash) throws IOException {
+        return reconciler.reconcile(hash.substring(0, 4));
+    }
+
+    private String store(String filename) {
+        return new TransactionTemplate(transactionManager).execute(status -> {
+            try {
+                Blob blob = blobStore.write(new ByteArrayInputStream(filename.getBytes(StandardCharsets.UTF_8)),
+                        Long.MAX_VALUE);
+                fileRepository.save(FileService.newFile(filename, user, blob, blobStore.key(blob.getHash())));
+                return blob.getHash();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+}
@@ -0,0 +1,27 @@
+package ru.netology.cloudservice.service;
+import org.junit.jupiter.api.Test;
+import org.springframework.cache.Cache;
+import org.springframework.cache.concurrent.ConcurrentMapCacheManager;
+import ru.netology.cloudservice.entity.User;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class UserCacheEvictionListenerTest {
+
+    private final ConcurrentMapCacheManager cacheManager =
+            new ConcurrentMapCacheManager(UserDetailsServiceImpl.USER_CACHE);
+    private final UserCacheEvictionListener listener = new UserCacheEvictionListener(cacheManager);
+
+    @Test
+    void shouldEvictChangedUser() {
+        User user = new User();
+        user.setEmail("admin@admin.admin");
+        Cache cache = cacheManager.getCache(UserDetailsServiceImpl.USER_CACHE);
+        cache.put("admin@admin.admin", user);
+        cache.put("other@admin.admin", new User());
+
+        listener.evict(user);
+
+        assertThat(cache.get("admin@admin.admin")).isNull();
+        assertThat(cache.get("other@admin.admin")).isNotNull();
+    }
+}
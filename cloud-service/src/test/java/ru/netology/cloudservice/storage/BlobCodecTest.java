@@ -0,0 +1,67 @@
+package ru.netology.cloudservice.storage;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+import ru.netology.cloudservice.exception.StorageException;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Random;
+import static org.assertj.core.api.Assertions.*;
+
+class BlobCodecTest {
+
+    private static final byte[] DATA = data(300_000);
+
+    @ParameterizedTest
+    @EnumSource(BlobCodec.class)
+    void shouldRoundTrip(BlobCodec codec) throws IOException {
+        byte[] encoded = codec.encode(new ByteArrayInputStream(DATA), 3).readAllBytes();
+
+        assertThat(codec.decode(new ByteArrayInputStream(encoded)).readAllBytes()).isEqualTo(DATA);
+        if (codec != BlobCodec.NONE) {
+            assertThat(encoded.length).isLessThan(DATA.length / 2);
+        }
+    }
+
+    @ParameterizedTest
+    @EnumSource(BlobCodec.class)
+    void shouldDecodeRange(BlobCodec codec) throws IOException {
+        byte[] encoded = codec.encode(new ByteArrayInputStream(DATA), 3).readAllBytes();
+
+        try (InputStream in = codec.decode(new ByteArrayInputStream(encoded), 100_000, 5)) {
+            assertThat(in.readAllBytes()).isEqualTo(Arrays.copyOfRange(DATA, 100_000, 100_005));
+        }
+    }
+
+    @Test
+    void shouldMatchAcceptEncoding() {
+        assertThat(BlobCodec.ZSTD.isAcceptedBy("gzip, deflate, br, zstd")).isTrue();
+        assertThat(BlobCodec.ZSTD.isAcceptedBy("zstd;q=0.5, gzip")).isTrue();
+        assertThat(BlobCodec.ZSTD.isAcceptedBy("zstd;q=0")).isFalse();
+        assertThat(BlobCodec.ZSTD.isAcceptedBy("gzip, *")).isFalse();
+        assertThat(BlobCodec.ZSTD.isAcceptedBy(null)).isFalse();
+        assertThat(BlobCodec.LZ4.isAcceptedBy("lz4")).isFalse();
+    }
+
+    @Test
+    void shouldLimitOriginalSize() {
+        CountingInputStream counted = new CountingInputStream(new ByteArrayInputStream(DATA), 1000);
+
+        assertThatThrownBy(() -> BlobCodec.ZSTD.encode(counted, 3).readAllBytes())
+                .isInstanceOf(StorageException.class)
+                .hasMessageContaining("1000 bytes");
+    }
+
+    private static byte[] data(int size) {
+        String[] words = {"alpha ", "beta ", "gamma ", "delta ", "epsilon\n"};
+        Random random = new Random(1);
+        StringBuilder text = new StringBuilder(size + 8);
+        while (text.length() < size) {
+            text.append(words[random.nextInt(words.length)]);
+        }
+        return text.substring(0, size).getBytes();
+    }
+}
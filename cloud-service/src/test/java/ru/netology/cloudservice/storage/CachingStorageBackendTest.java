@@ -0,0 +1,107 @@
+package ru.netology.cloudservice.storage;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.micrometer.prometheus.PrometheusConfig;
+import io.micrometer.prometheus.PrometheusMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.netology.cloudservice.config.FileStorageProperties;
+import ru.netology.cloudservice.util.JwtTokenUtil;
+import ru.netology.cloudservice.util.FileTransferUtil;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import static org.assertj.core.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class CachingStorageBackendTest {
+
+    private static final byte[] DATA = "0123456789".getBytes();
+
+    private final InMemoryStorageBackend delegate = spy(new InMemoryStorageBackend());
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final CachingStorageBackend backend = new CachingStorageBackend(delegate, 1024, 64).bindTo(meterRegistry);
+
+    @Test
+    void shouldServeRepeatedReadsFromMemory() throws IOException {
+        backend.write("ab/cd/object", new ByteArrayInputStream(DATA), Long.MAX_VALUE);
+
+        assertThat(readAll(backend.read("ab/cd/object"))).isEqualTo(DATA);
+        assertThat(readAll(backend.read("ab/cd/object"))).isEqualTo(DATA);
+        assertThat(readAll(backend.read("ab/cd/object", 3, 4))).isEqualTo("3456".getBytes());
+        assertThat(readAll(backend.read("ab/cd/object", 8, 100))).isEqualTo("89".getBytes());
+        assertThat(backend.stat("ab/cd/object")).get().extracting(StoredObject::getSize).isEqualTo(10L);
+
+        verify(delegate, times(1)).read("ab/cd/object");
+        verify(delegate, times(1)).stat("ab/cd/object");
+        verify(delegate, never()).read(eq("ab/cd/object"), anyLong(), anyLong());
+        assertThat(meterRegistry.get("cache.gets").tag("cache", "blobs").tag("result", "hit")
+                .functionCounter().count()).isEqualTo(3);
+        assertThat(meterRegistry.get("cache.gets").tag("cache", "blobs").tag("result", "miss")
+                .functionCounter().count()).isEqualTo(1);
+        assertThat(meterRegistry.get("cache.bytes").gauge().value()).isEqualTo(10);
+    }
+
+    @Test
+    void shouldDropEntriesWhenKeyChanges() throws IOException {
+        backend.write("tmp/object", new ByteArrayInputStream(DATA), Long.MAX_VALUE);
+        readAll(backend.read("tmp/object"));
+
+        backend.move("tmp/object", "ab/cd/object");
+        assertThat(backend.stat("tmp/object")).isEmpty();
+        assertThatThrownBy(() -> backend.read("tmp/object")).isInstanceOf(NoSuchFileException.class);
+
+        readAll(backend.read("ab/cd/object"));
+        assertThat(backend.delete("ab/cd/object")).isTrue();
+        assertThat(backend.stat("ab/cd/object")).isEmpty();
+
+        backend.write("ab/cd/object", new ByteArrayInputStream("new".getBytes()), Long.MAX_VALUE);
+        assertThat(readAll(backend.read("ab/cd/object"))).isEqualTo("new".getBytes());
+    }
+
+    @Test
+    void shouldPassLargeObjectsThrough() throws IOException {
+        byte[] large = new byte[100];
+        backend.write("large", new ByteArrayInputStream(large), Long.MAX_VALUE);
+
+        assertThat(readAll(backend.read("large"))).isEqualTo(large);
+        assertThat(readAll(backend.read("large", 10, 5))).hasSize(5);
+
+        verify(delegate, times(1)).read("large");
+        verify(delegate, times(1)).read("large", 10, 5);
+        assertThat(meterRegistry.get("cache.bytes").gauge().value()).isZero();
+    }
+
+    @Test
+    void shouldHideLocalPathOfCacheableObjects(@TempDir Path root) throws IOException {
+        FileTransferUtil fileTransferUtil = new FileTransferUtil(new FileStorageProperties());
+        CachingStorageBackend local = new CachingStorageBackend(
+                new LocalFileSystemStorageBackend(root, fileTransferUtil), 1024, 64);
+        local.write("small", new ByteArrayInputStream(DATA), Long.MAX_VALUE);
+        local.write("large", new ByteArrayInputStream(new byte[100]), Long.MAX_VALUE);
+
+        assertThat(local.localPath("small")).isEmpty();
+        assertThat(local.localPath("large")).isPresent();
+    }
+
+    @Test
+    void shouldScrapeBlobCacheNextToOtherCaches() throws IOException {
+        PrometheusMeterRegistry prometheus = new PrometheusMeterRegistry(PrometheusConfig.DEFAULT);
+        new JwtTokenUtil(prometheus);
+        CachingStorageBackend cached = new CachingStorageBackend(delegate, 1024, 64).bindTo(prometheus);
+        cached.write("object", new ByteArrayInputStream(DATA), Long.MAX_VALUE);
+        readAll(cached.read("object"));
+
+        assertThat(prometheus.scrape())
+                .contains("cache_gets_total{cache=\"blobs\",cache_manager=\"storage\",name=\"blobs\",result=\"miss\",} 1.0")
+                .contains("cache_gets_total{cache=\"jwt.verified-tokens\"");
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        try (in) {
+            return in.readAllBytes();
+        }
+    }
+}
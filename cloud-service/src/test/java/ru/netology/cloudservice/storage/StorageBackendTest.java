@@ -0,0 +1,125 @@
+package ru.netology.cloudservice.storage;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+import ru.netology.cloudservice.config.FileStorageProperties;
+import ru.netology.cloudservice.exception.StorageException;
+import ru.netology.cloudservice.util.FileTransferUtil;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.function.Function;
+import java.util.stream.Stream;
+import static org.assertj.core.api.Assertions.*;
+
+class StorageBackendTest {
+
+    @TempDir
+    static Path tempDir;
+
+    private static final byte[] DATA = "0123456789".getBytes();
+
+    static Stream<Arguments> backends() {
+        FileTransferUtil fileTransferUtil = new FileTransferUtil(new FileStorageProperties());
+        return Stream.of(
+                Arguments.of("local", (Function<Path, StorageBackend>) root ->
+                        create(() -> new LocalFileSystemStorageBackend(root, fileTransferUtil))),
+                Arguments.of("local-fsync", (Function<Path, StorageBackend>) root ->
+                        create(() -> new LocalFileSystemStorageBackend(root, fileTransferUtil, true))),
+                Arguments.of("mapped", (Function<Path, StorageBackend>) root ->
+                        create(() -> new MappedFileStorageBackend(root, fileTransferUtil))),
+                Arguments.of("memory", (Function<Path, StorageBackend>) root -> new InMemoryStorageBackend()),
+                Arguments.of("cached", (Function<Path, StorageBackend>) root -> new CachingStorageBackend(
+                        create(() -> new LocalFileSystemStorageBackend(root, fileTransferUtil)), 1024, 64))
+        );
+    }
+
+    @ParameterizedTest(name = "{0}")
+    @MethodSource("backends")
+    void shouldWriteAndReadBack(String name, Function<Path, StorageBackend> factory) throws IOException {
+        StorageBackend backend = factory.apply(Files.createTempDirectory(tempDir, name));
+
+        assertThat(backend.write("ab/cd/object", new ByteArrayInputStream(DATA), Long.MAX_VALUE)).isEqualTo(10);
+
+        assertThat(readAll(backend.read("ab/cd/object"))).isEqualTo(DATA);
+        assertThat(readAll(backend.read("ab/cd/object", 3, 4))).isEqualTo("3456".getBytes());
+        assertThat(backend.stat("ab/cd/object")).get().extracting(StoredObject::getSize).isEqualTo(10L);
+    }
+
+    @ParameterizedTest(name = "{0}")
+    @MethodSource("backends")
+    void shouldMoveAndDelete(String name, Function<Path, StorageBackend> factory) throws IOException {
+        StorageBackend backend = factory.apply(Files.createTempDirectory(tempDir, name));
+        backend.write("tmp/object", new ByteArrayInputStream(DATA), Long.MAX_VALUE);
+
+        backend.move("tmp/object", "ab/cd/object");
+
+        assertThat(backend.exists("tmp/object")).isFalse();
+        assertThat(readAll(backend.read("ab/cd/object"))).isEqualTo(DATA);
+        assertThat(backend.delete("ab/cd/object")).isTrue();
+        assertThat(backend.stat("ab/cd/object")).isEmpty();
+        assertThat(backend.delete("ab/cd/object")).isFalse();
+    }
+
+    @ParameterizedTest(name = "{0}")
+    @MethodSource("backends")
+    void shouldRejectOversizedContent(String name, Function<Path, StorageBackend> factory) throws IOException {
+        StorageBackend backend = factory.apply(Files.createTempDirectory(tempDir, name));
+
+        assertThatThrownBy(() -> backend.write("big", new ByteArrayInputStream(new byte[4096]), 1024))
+                .isInstanceOf(StorageException.class)
+                .hasMessageContaining("1024");
+        assertThat(backend.exists("big")).isFalse();
+    }
+
+    @ParameterizedTest(name = "{0}")
+    @MethodSource("backends")
+    void shouldCopyLocalFile(String name, Function<Path, StorageBackend> factory) throws IOException {
+        StorageBackend backend = factory.apply(Files.createTempDirectory(tempDir, name));
+        Path source = Files.write(Files.createTempFile(tempDir, name, ".part"), DATA);
+
+        backend.copyFrom(source, "ab/cd/object");
+
+        assertThat(source).exists();
+        assertThat(readAll(backend.read("ab/cd/object"))).isEqualTo(DATA);
+    }
+
+    @ParameterizedTest(name = "{0}")
+    @MethodSource("backends")
+    void shouldPurgeOnlyStaleTemporaryObjects(String name, Function<Path, StorageBackend> factory) throws IOException {
+        StorageBackend backend = factory.apply(Files.createTempDirectory(tempDir, name));
+        backend.write("tmp/stale", new ByteArrayInputStream(DATA), Long.MAX_VALUE);
+        backend.write("ab/cd/object", new ByteArrayInputStream(DATA), Long.MAX_VALUE);
+
+        assertThat(backend.purgeTemporary(Instant.now().plusSeconds(60))).isEqualTo(1);
+        backend.write("tmp/fresh", new ByteArrayInputStream(DATA), Long.MAX_VALUE);
+        assertThat(backend.purgeTemporary(Instant.now().minusSeconds(60))).isZero();
+
+        assertThat(backend.exists("tmp/stale")).isFalse();
+        assertThat(backend.exists("tmp/fresh")).isTrue();
+        assertThat(backend.exists("ab/cd/object")).isTrue();
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        try (in) {
+            return in.readAllBytes();
+        }
+    }
+
+    private static StorageBackend create(BackendFactory factory) {
+        try {
+            return factory.create();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private interface BackendFactory {
+        StorageBackend create() throws IOException;
+    }
+}
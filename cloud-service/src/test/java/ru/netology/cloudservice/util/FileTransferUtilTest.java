@@ -0,0 +1,62 @@
+package ru.netology.cloudservice.util;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.util.unit.DataSize;
+import ru.netology.cloudservice.config.FileStorageProperties;
+import ru.netology.cloudservice.exception.StorageException;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import static org.assertj.core.api.Assertions.*;
+
+class FileTransferUtilTest {
+
+    @TempDir
+    Path tempDir;
+
+    private FileTransferUtil fileTransferUtil;
+
+    @BeforeEach
+    void setUp() {
+        FileStorageProperties properties = new FileStorageProperties();
+        properties.setBufferSize(DataSize.ofBytes(1024));
+        fileTransferUtil = new FileTransferUtil(properties);
+    }
+
+    @Test
+    void shouldCopyStreamLargerThanBuffer() throws IOException {
+        byte[] data = new byte[10_000];
+        new Random(42).nextBytes(data);
+        Path destination = tempDir.resolve("data.bin");
+
+        long written = fileTransferUtil.copy(new ByteArrayInputStream(data), destination, Long.MAX_VALUE);
+
+        assertThat(written).isEqualTo(data.length);
+        assertThat(Files.readAllBytes(destination)).isEqualTo(data);
+    }
+
+    @Test
+    void shouldRejectStreamExceedingLimit() {
+        byte[] data = new byte[4096];
+        Path destination = tempDir.resolve("big.bin");
+
+        assertThatThrownBy(() -> fileTransferUtil.copy(new ByteArrayInputStream(data), destination, 2048))
+                .isInstanceOf(StorageException.class)
+                .hasMessageContaining("exceeds maximum allowed limit");
+    }
+
+    @Test
+    void shouldNotOverwriteExistingFile() throws IOException {
+        Path destination = tempDir.resolve("existing.txt");
+        Files.writeString(destination, "original");
+
+        assertThatThrownBy(() -> fileTransferUtil.copy(new ByteArrayInputStream("new".getBytes()), destination, 1024))
+                .isInstanceOf(FileAlreadyExistsException.class);
+        assertThat(Files.readString(destination)).isEqualTo("original");
+    }
+}
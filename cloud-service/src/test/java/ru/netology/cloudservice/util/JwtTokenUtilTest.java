@@ -1,5 +1,6 @@
 package ru.netology.cloudservice.util;
 import io.jsonwebtoken.*;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.test.util.ReflectionTestUtils;
@@ -10,13 +11,13 @@ import static org.junit.jupiter.api.Assertions.*;
 class JwtTokenUtilTest {
 
     private JwtTokenUtil jwtTokenUtil;
-    private static final String SECRET_KEY = "your-secret-key-which-should-be-long-enough-to-pass-validation";
+    private static final String SECRET_KEY = "yourSecretKeyWhichShouldBeLongEnoughToPassValidation";
     private static final String EMAIL = "test@example.com";
     private static final long EXPIRATION = 3600000L;
 
     @BeforeEach
     void setUp() {
-        jwtTokenUtil = new JwtTokenUtil();
+        jwtTokenUtil = new JwtTokenUtil(new SimpleMeterRegistry());
         ReflectionTestUtils.setField(jwtTokenUtil, "secret", SECRET_KEY);
         ReflectionTestUtils.setField(jwtTokenUtil, "expiration", EXPIRATION);
     }
@@ -67,11 +68,48 @@ class JwtTokenUtilTest {
                 .signWith(SignatureAlgorithm.HS256, SECRET_KEY)
                 .compact();
 
-        JwtTokenUtil modifiedJwtUtil = new JwtTokenUtil();
+        JwtTokenUtil modifiedJwtUtil = new JwtTokenUtil(new SimpleMeterRegistry());
         ReflectionTestUtils.setField(modifiedJwtUtil, "secret", "another-secret-key");
         ReflectionTestUtils.setField(modifiedJwtUtil, "expiration", EXPIRATION);
 
         assertThrows(JwtException.class, () -> modifiedJwtUtil.getEmailFromToken(token));
     }
 
-}
\ No newline at end of file
+    @Test
+    void getEmailFromToken_ShouldVerifySignatureOncePerToken() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        JwtTokenUtil cachingJwtUtil = new JwtTokenUtil(registry);
+        ReflectionTestUtils.setField(cachingJwtUtil, "secret", SECRET_KEY);
+        ReflectionTestUtils.setField(cachingJwtUtil, "expiration", EXPIRATION);
+        String token = cachingJwtUtil.generateToken(EMAIL);
+
+        for (int i = 0; i < 5; i++) {
+            assertEquals(EMAIL, cachingJwtUtil.getEmailFromToken(token));
+        }
+
+        assertEquals(1, registry.get("jwt.parse").timer().count());
+        assertEquals(4.0, registry.get("cache.gets").tag("result", "hit").functionCounter().count());
+    }
+
+    @Test
+    void getEmailFromToken_ShouldRejectRevokedToken() {
+        String token = jwtTokenUtil.generateToken(EMAIL);
+        assertEquals(EMAIL, jwtTokenUtil.getEmailFromToken(token));
+
+        jwtTokenUtil.revoke(token);
+
+        assertThrows(JwtException.class, () -> jwtTokenUtil.getEmailFromToken(token));
+    }
+
+    @Test
+    void revoke_ShouldKeepEveryRevocationUntilTokenExpires() {
+        String first = jwtTokenUtil.generateToken(EMAIL);
+        jwtTokenUtil.revoke(first);
+
+        for (int i = 0; i < 12_000; i++) {
+            jwtTokenUtil.revoke(jwtTokenUtil.generateToken(i + EMAIL));
+        }
+
+        assertThrows(JwtException.class, () -> jwtTokenUtil.getEmailFromToken(first));
+    }
+}